@@ -22,6 +22,7 @@ package org.apache.hadoop.hbase;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -84,6 +85,10 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
   public static final String REPLICATION_SCOPE = "REPLICATION_SCOPE";
   public static final String MIN_VERSIONS = "MIN_VERSIONS";
   public static final String KEEP_DELETED_CELLS = "KEEP_DELETED_CELLS";
+  public static final String PREFETCH_BLOCKS_ON_OPEN =
+      "PREFETCH_BLOCKS_ON_OPEN";
+  public static final String COMPACTION_POLICY = "COMPACTION_POLICY";
+  public static final String STRIPE_BOUNDARIES = "STRIPE_BOUNDARIES";
 
   /**
    * Default compression type.
@@ -133,6 +138,12 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
    */
   public static final boolean DEFAULT_BLOCKCACHE = true;
 
+  /**
+   * Default setting for whether to read all blocks of a store file into the
+   * block cache when the file is opened.
+   */
+  public static final boolean DEFAULT_PREFETCH_BLOCKS_ON_OPEN = false;
+
   /**
    * Default size of blocks in files stored to the filesytem (hfiles).
    */
@@ -169,6 +180,8 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
           String.valueOf(DEFAULT_ENCODE_ON_DISK));
       DEFAULT_VALUES.put(DATA_BLOCK_ENCODING,
           String.valueOf(DEFAULT_DATA_BLOCK_ENCODING));
+      DEFAULT_VALUES.put(PREFETCH_BLOCKS_ON_OPEN,
+          String.valueOf(DEFAULT_PREFETCH_BLOCKS_ON_OPEN));
   }
 
   // Column family name
@@ -712,6 +725,89 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
     return setValue(BLOCKCACHE, Boolean.toString(blockCacheEnabled));
   }
 
+  /**
+   * @return True if all blocks of a store file should be read into the block
+   * cache in the background when the file is opened.
+   */
+  public boolean shouldPrefetchBlocksOnOpen() {
+    String value = getValue(PREFETCH_BLOCKS_ON_OPEN);
+    if (value != null)
+      return Boolean.valueOf(value).booleanValue();
+    return DEFAULT_PREFETCH_BLOCKS_ON_OPEN;
+  }
+
+  /**
+   * @param prefetchBlocksOnOpen True if store files should be read into the
+   * block cache when opened
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setPrefetchBlocksOnOpen(
+      boolean prefetchBlocksOnOpen) {
+    return setValue(PREFETCH_BLOCKS_ON_OPEN,
+        Boolean.toString(prefetchBlocksOnOpen));
+  }
+
+  /**
+   * @return the class name of the policy choosing the store files to compact
+   * in this family, or null to use the one of the table
+   */
+  public String getCompactionPolicyClassName() {
+    return getValue(COMPACTION_POLICY);
+  }
+
+  /**
+   * @param className name of a subclass of
+   * {@link org.apache.hadoop.hbase.regionserver.CompactionPolicy}
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setCompactionPolicyClassName(String className) {
+    return setValue(COMPACTION_POLICY, className);
+  }
+
+  /**
+   * @return the rows at which the stores of this family are split into
+   * stripes, in ascending order, or null if the stores are not striped
+   */
+  public byte[][] getStripeBoundaries() {
+    String value = getValue(STRIPE_BOUNDARIES);
+    if (value == null || value.length() == 0) {
+      return null;
+    }
+    String[] rows = value.split(",");
+    byte[][] boundaries = new byte[rows.length][];
+    for (int i = 0; i < rows.length; i++) {
+      boundaries[i] = Bytes.toBytesBinary(rows[i]);
+    }
+    return boundaries;
+  }
+
+  /**
+   * Splits each store of this family into stripes holding the rows between
+   * two boundaries. Each stripe has its own store files, flushes write one
+   * file per stripe, and a minor compaction only rewrites the files of one
+   * stripe. Boundaries outside of a region are ignored by its stores.
+   * @param boundaries rows starting a new stripe, or null to not stripe
+   * the stores
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setStripeBoundaries(byte[]... boundaries) {
+    if (boundaries == null || boundaries.length == 0) {
+      remove(Bytes.toBytes(STRIPE_BOUNDARIES));
+      return this;
+    }
+    byte[][] sorted = boundaries.clone();
+    Arrays.sort(sorted, Bytes.BYTES_COMPARATOR);
+    StringBuilder value = new StringBuilder();
+    for (byte[] boundary : sorted) {
+      if (value.length() > 0) {
+        value.append(',');
+      }
+      // the separator is escaped like a non printable byte
+      value.append(Bytes.toStringBinary(boundary).replace(",", "\\x2C"));
+    }
+    return setValue(STRIPE_BOUNDARIES, value.toString());
+  }
+
   /**
    * @return bloom filter type used for new StoreFiles in ColumnFamily
    */
@@ -252,6 +252,13 @@ public final class HConstants {
   public static final String HREGION_MEMSTORE_FLUSH_SIZE =
       "hbase.hregion.memstore.flush.size";
 
+  /**
+   * Conf key for the memstore size under which a store is left out of a
+   * selective flush of its region
+   */
+  public static final String HREGION_MEMSTORE_FLUSH_LOWER_BOUND =
+      "hbase.hregion.memstore.flush.lower.bound";
+
   /** Default size of a reservation block   */
   public static final int DEFAULT_SIZE_RESERVATION_BLOCK = 1024 * 1024 * 5;
 
@@ -575,6 +582,9 @@ public final class HConstants {
   public static final String HBASE_REGION_SPLIT_POLICY_KEY =
     "hbase.regionserver.region.split.policy";
 
+  public static final String HBASE_COMPACTION_POLICY_KEY =
+    "hbase.hstore.compaction.policy";
+
   /**
    * Configuration key for the size of the block cache
    */
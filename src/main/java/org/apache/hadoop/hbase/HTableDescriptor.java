@@ -74,6 +74,8 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor> {
   private static final String FAMILIES = "FAMILIES";
 
   public static final String SPLIT_POLICY = "SPLIT_POLICY";
+
+  public static final String COMPACTION_POLICY = "COMPACTION_POLICY";
   
   /**
    * <em>INTERNAL</em> Used by HBase Shell interface to access this metadata 
@@ -580,6 +582,26 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor> {
     return getValue(SPLIT_POLICY);
   }
 
+  /**
+   * This gets the class of the policy choosing which store files to compact
+   * in the families of this table that do not set their own, see
+   * {@link HColumnDescriptor#getCompactionPolicyClassName()}.
+   *
+   * @return the class name of the compaction policy for this table.
+   * If this returns null, the one set in the configuration is used.
+   */
+  public String getCompactionPolicyClassName() {
+    return getValue(COMPACTION_POLICY);
+  }
+
+  /**
+   * @param className name of a subclass of
+   * {@link org.apache.hadoop.hbase.regionserver.CompactionPolicy}
+   */
+  public void setCompactionPolicyClassName(String className) {
+    setValue(COMPACTION_POLICY, className);
+  }
+
   /**
    * Set the name of the table. 
    * 
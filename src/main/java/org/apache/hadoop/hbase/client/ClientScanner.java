@@ -19,7 +19,9 @@ package org.apache.hadoop.hbase.client;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,6 +31,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.NotServingRegionException;
 import org.apache.hadoop.hbase.UnknownScannerException;
@@ -40,7 +43,7 @@ import org.apache.hadoop.io.DataOutputBuffer;
 /**
  * Implements the scanner interface for the HBase client.
  * If there are multiple regions in a table, this scanner will iterate
- * through them all.
+ * through them all, from the last to the first for a reversed {@link Scan}.
  */
 @InterfaceAudience.Public
 @InterfaceStability.Stable
@@ -59,6 +62,13 @@ public class ClientScanner extends AbstractClientScanner {
     private Result lastResult = null;
     private ScanMetrics scanMetrics = null;
     private final long maxScannerResultSize;
+    // True if the server may split rows over calls to stay within the size
+    // limit of the scan, and we have to put them back together.
+    private final boolean joinRows;
+    // True if the last cached result may be the first part of a row.
+    private boolean partialRowCached = false;
+    // True if regions are walked from the last to the first.
+    private final boolean reversed;
     private final HConnection connection;
     private final byte[] tableName;
     private final int scannerTimeout;
@@ -99,9 +109,16 @@ public class ClientScanner extends AbstractClientScanner {
       this.tableName = tableName;
       this.lastNext = System.currentTimeMillis();
       this.connection = connection;
-      this.maxScannerResultSize = conf.getLong(
-          HConstants.HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE_KEY,
-          HConstants.DEFAULT_HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE);
+      if (scan.getMaxResultSize() > 0) {
+        this.maxScannerResultSize = scan.getMaxResultSize();
+        this.joinRows = scan.getBatch() <= 0;
+      } else {
+        this.maxScannerResultSize = conf.getLong(
+            HConstants.HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE_KEY,
+            HConstants.DEFAULT_HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE);
+        this.joinRows = false;
+      }
+      this.reversed = scan.isReversed();
       this.scannerTimeout = (int) conf.getLong(
           HConstants.HBASE_REGIONSERVER_LEASE_PERIOD_KEY,
           HConstants.DEFAULT_HBASE_REGIONSERVER_LEASE_PERIOD);
@@ -140,15 +157,17 @@ public class ClientScanner extends AbstractClientScanner {
       return lastNext;
     }
 
-    // returns true if the passed region endKey
+    // returns true if the passed region endKey, or startKey when reversed,
+    // is past the stop row
     private boolean checkScanStopRow(final byte [] endKey) {
       if (this.scan.getStopRow().length > 0) {
         // there is a stop row, check to see if we are past it.
         byte [] stopRow = scan.getStopRow();
         int cmp = Bytes.compareTo(stopRow, 0, stopRow.length,
           endKey, 0, endKey.length);
-        if (cmp <= 0) {
-          // stopRow <= endKey (endKey is equals to or larger than stopRow)
+        if (reversed ? cmp >= 0 : cmp <= 0) {
+          // stopRow <= endKey (endKey is equals to or larger than stopRow),
+          // or stopRow >= startKey for a reversed scan.
           // This is a stop.
           return true;
         }
@@ -176,10 +195,14 @@ public class ClientScanner extends AbstractClientScanner {
 
       // Where to start the next scanner
       byte [] localStartKey;
+      // A row of the region to open
+      byte [] locateRow;
 
       // if we're at end of table, close and return false to stop iterating
       if (this.currentRegion != null) {
-        byte [] endKey = this.currentRegion.getEndKey();
+        // A reversed scan goes on with the region before this one.
+        byte [] endKey = reversed ? this.currentRegion.getStartKey() :
+          this.currentRegion.getEndKey();
         if (endKey == null ||
             Bytes.equals(endKey, HConstants.EMPTY_BYTE_ARRAY) ||
             checkScanStopRow(endKey) ||
@@ -191,11 +214,23 @@ public class ClientScanner extends AbstractClientScanner {
           return false;
         }
         localStartKey = endKey;
+        // The start key of a region is not in the region before it.
+        locateRow = reversed ? createClosestRowBefore(endKey) : endKey;
         if (LOG.isDebugEnabled()) {
           LOG.debug("Finished with region " + this.currentRegion);
         }
       } else {
         localStartKey = this.scan.getStartRow();
+        locateRow = localStartKey;
+        if (reversed && localStartKey.length == 0) {
+          // Start with the last region of the table.
+          List<HRegionLocation> locations =
+            getConnection().locateRegions(getTableName());
+          if (!locations.isEmpty()) {
+            locateRow = locations.get(locations.size() - 1).getRegionInfo()
+              .getStartKey();
+          }
+        }
       }
 
       if (LOG.isDebugEnabled()) {
@@ -203,7 +238,7 @@ public class ClientScanner extends AbstractClientScanner {
           Bytes.toStringBinary(localStartKey) + "'");
       }
       try {
-        callable = getScannerCallable(localStartKey, nbRows);
+        callable = getScannerCallable(localStartKey, locateRow, nbRows);
         // Open a scanner on the region server starting at the
         // beginning of the region
         callable.withRetries();
@@ -220,13 +255,39 @@ public class ClientScanner extends AbstractClientScanner {
 
     protected ScannerCallable getScannerCallable(byte [] localStartKey,
         int nbRows) {
+      return getScannerCallable(localStartKey, localStartKey, nbRows);
+    }
+
+    /**
+     * @param localStartKey start row of the scan in the region
+     * @param locateRow a row of the region to scan
+     * @param nbRows number of rows to fetch per call
+     */
+    protected ScannerCallable getScannerCallable(byte [] localStartKey,
+        byte [] locateRow, int nbRows) {
       scan.setStartRow(localStartKey);
       ScannerCallable s = new ScannerCallable(getConnection(),
-        getTableName(), scan, this.scanMetrics);
+        getTableName(), scan, this.scanMetrics, locateRow);
       s.setCaching(nbRows);
       return s;
     }
 
+    /**
+     * Rows have no immediate predecessor, so this returns a row close enough
+     * below the passed one to locate the region before a region boundary.
+     * @param row a non-empty row
+     * @return a row sorting just before <code>row</code>
+     */
+    static byte [] createClosestRowBefore(final byte [] row) {
+      if (row[row.length - 1] == 0) {
+        return Arrays.copyOf(row, row.length - 1);
+      }
+      byte [] closest = Arrays.copyOf(row, row.length + 9);
+      closest[row.length - 1]--;
+      Arrays.fill(closest, row.length, closest.length, (byte)0xff);
+      return closest;
+    }
+
     /**
      * publish the scan metrics
      * For now, we use scan.setAttribute to pass the metrics for application
@@ -257,7 +318,9 @@ public class ClientScanner extends AbstractClientScanner {
         writeScanMetrics();
         return null;
       }
-      if (cache.size() == 0) {
+      // A partial row must not be handed out before the rest of it is read.
+      while (!this.closed &&
+          (cache.size() == 0 || (partialRowCached && cache.size() == 1))) {
         Result [] values = null;
         long remainingResultSize = maxScannerResultSize;
         int countdown = this.caching;
@@ -304,7 +367,16 @@ public class ClientScanner extends AbstractClientScanner {
             }
             // Else, its signal from depths of ScannerCallable that we got an
             // NSRE on a next and that we need to reset the scanner.
-            if (this.lastResult != null) {
+            if (this.partialRowCached) {
+              // Read the row we were putting together again from its start.
+              Result partial = cache.removeLast();
+              this.scan.setStartRow(partial.getRow());
+              this.lastResult = cache.isEmpty() ? null : cache.getLast();
+              this.partialRowCached = false;
+              // Its part no longer counts against this call.
+              remainingResultSize = maxScannerResultSize;
+              countdown++;
+            } else if (this.lastResult != null) {
               this.scan.setStartRow(this.lastResult.getRow());
               // Skip first row returned.  We already let it out on previous
               // invocation.
@@ -322,14 +394,23 @@ public class ClientScanner extends AbstractClientScanner {
           lastNext = currentTime;
           if (values != null && values.length > 0) {
             for (Result rs : values) {
-              cache.add(rs);
               for (KeyValue kv : rs.raw()) {
                   remainingResultSize -= kv.heapSize();
               }
-              countdown--;
+              if (joinRows && !cache.isEmpty() &&
+                  Bytes.equals(cache.getLast().getRow(), rs.getRow())) {
+                // The rest of a row the server split over calls
+                rs = joinResults(cache.removeLast(), rs);
+              } else {
+                countdown--;
+              }
+              cache.add(rs);
               this.lastResult = rs;
             }
           }
+          // The server stops at the size limit, possibly in mid-row.
+          partialRowCached = joinRows && remainingResultSize <= 0 &&
+            !cache.isEmpty();
           // Values == null means server-side filter has determined we must STOP
         } while (remainingResultSize > 0 && countdown > 0 && nextScanner(countdown, values == null));
       }
@@ -341,6 +422,15 @@ public class ClientScanner extends AbstractClientScanner {
       return null;
     }
 
+    private static Result joinResults(Result first, Result rest) {
+      KeyValue [] firstKVs = first.raw();
+      KeyValue [] restKVs = rest.raw();
+      KeyValue [] kvs = new KeyValue[firstKVs.length + restKVs.length];
+      System.arraycopy(firstKVs, 0, kvs, 0, firstKVs.length);
+      System.arraycopy(restKVs, 0, kvs, firstKVs.length, restKVs.length);
+      return new Result(kvs);
+    }
+
     /**
      * Get <param>nbRows</param> rows.
      * How many RPCs are made is determined by the {@link Scan#setCaching(int)}
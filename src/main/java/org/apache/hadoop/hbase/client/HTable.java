@@ -641,6 +641,27 @@ public class HTable implements HTableInterface {
         this.connection);
   }
 
+  /**
+   * Returns a scanner on the current table as specified by the {@link Scan}
+   * object, which scans up to <code>parallelism</code> regions at once using
+   * this table's thread pool.
+   * @param scan A configured {@link Scan} object.
+   * @param parallelism Maximum number of regions scanned at the same time.
+   * @param ordered If true, rows are returned in key order. If false, they
+   * are returned as soon as any region has them.
+   * @return A scanner.
+   * @throws IOException if a remote or network exception occurs.
+   * @see ParallelClientScanner
+   */
+  public ResultScanner getParallelScanner(final Scan scan,
+      final int parallelism, final boolean ordered) throws IOException {
+    if (scan.getCaching() <= 0) {
+      scan.setCaching(getScannerCaching());
+    }
+    return new ParallelClientScanner(getConfiguration(), scan, getTableName(),
+        this.connection, this.pool, parallelism, ordered);
+  }
+
   /**
    * {@inheritDoc}
    */
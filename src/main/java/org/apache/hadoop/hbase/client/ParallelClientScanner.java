@@ -0,0 +1,319 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A client scanner which scans several regions of a table at once.
+ * <p>
+ * The scan is cut at region boundaries, found through the region location
+ * cache of the {@link HConnection}. Up to <code>parallelism</code> of the
+ * resulting ranges are scanned at a time, each by a {@link ClientScanner}
+ * running in the passed pool and filling a bounded queue of its own. The
+ * regions may be on the same or on different servers.
+ * <p>
+ * If the scanner is ordered, rows come out in key order, as from a
+ * {@link ClientScanner}: a range is only returned once all the ranges before
+ * it are done, the following ones being prefetched meanwhile. Otherwise rows
+ * are returned as soon as any range has them.
+ * <p>
+ * A range whose queue is full stops fetching until the caller catches up,
+ * so a caller that takes longer than the scanner lease period between calls
+ * will see a {@link ScannerTimeoutException}, as it would with a
+ * {@link ClientScanner}.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class ParallelClientScanner extends AbstractClientScanner {
+  private static final Log LOG = LogFactory.getLog(ParallelClientScanner.class);
+
+  /** Number of rows each region range may buffer ahead of the caller. */
+  public static final String PREFETCH_SIZE_KEY =
+    "hbase.client.scanner.parallel.prefetch";
+  public static final int DEFAULT_PREFETCH_SIZE = 100;
+
+  // Marks the end of the rows of a range.
+  private static final Result END_OF_RANGE = new Result();
+  private static final long WAIT_MS = 100;
+
+  private final Configuration conf;
+  private final Scan scan;
+  private final byte[] tableName;
+  private final HConnection connection;
+  private final ExecutorService pool;
+  private final int parallelism;
+  private final boolean ordered;
+  private final int prefetchSize;
+
+  // Start row of the next range to open, null once the last one is open.
+  private byte[] nextStartRow;
+  // Ranges being scanned, in key order.
+  private final LinkedList<RangeScan> active = new LinkedList<RangeScan>();
+  // Signalled whenever a range queues a row or finishes.
+  private final Object available = new Object();
+  private volatile boolean closed = false;
+
+  /**
+   * @param conf The {@link Configuration} to use
+   * @param scan {@link Scan} to use; it is not modified
+   * @param tableName The table that we wish to scan
+   * @param connection Connection identifying the cluster
+   * @param pool Runs one task per region range being scanned
+   * @param parallelism Maximum number of region ranges scanned at once
+   * @param ordered If true, return rows in key order; if false, in whatever
+   * order they arrive
+   * @throws IOException
+   */
+  public ParallelClientScanner(final Configuration conf, final Scan scan,
+      final byte[] tableName, final HConnection connection,
+      final ExecutorService pool, final int parallelism, final boolean ordered)
+  throws IOException {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be positive: " +
+        parallelism);
+    }
+    if (scan.isReversed()) {
+      throw new IllegalArgumentException(
+        "Reversed scans cannot be run in parallel");
+    }
+    this.conf = conf;
+    this.scan = scan;
+    this.tableName = tableName;
+    this.connection = connection;
+    this.pool = pool;
+    this.parallelism = parallelism;
+    this.ordered = ordered;
+    this.prefetchSize = Math.max(1,
+      conf.getInt(PREFETCH_SIZE_KEY, DEFAULT_PREFETCH_SIZE));
+    this.nextStartRow = scan.getStartRow();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Creating parallel scanner over " + Bytes.toString(tableName) +
+        " starting at key '" + Bytes.toStringBinary(scan.getStartRow()) +
+        "', parallelism=" + parallelism + ", ordered=" + ordered);
+    }
+    fillWindow();
+  }
+
+  /**
+   * Scan of the part of the table scan falling within one region, as the
+   * region was when the range was opened. The {@link ClientScanner} doing it
+   * follows any split or move of the region.
+   */
+  private class RangeScan implements Runnable {
+    private final Scan rangeScan;
+    private final BlockingQueue<Result> queue =
+      new ArrayBlockingQueue<Result>(prefetchSize);
+    private volatile IOException error = null;
+    private boolean done = false;
+
+    RangeScan(Scan rangeScan) {
+      this.rangeScan = rangeScan;
+    }
+
+    @Override
+    public void run() {
+      ResultScanner scanner = null;
+      try {
+        scanner = new ClientScanner(conf, rangeScan, tableName, connection);
+        for (Result r = scanner.next(); r != null && !closed;
+            r = scanner.next()) {
+          put(r);
+        }
+      } catch (IOException e) {
+        this.error = e;
+      } catch (InterruptedException e) {
+        // Do not let the caller mistake the rows so far for the whole range.
+        this.error = new InterruptedIOException("Interrupted scanning " +
+          Bytes.toStringBinary(rangeScan.getStartRow()));
+        Thread.currentThread().interrupt();
+      } catch (RuntimeException e) {
+        this.error = new IOException(e);
+      } finally {
+        if (scanner != null) {
+          scanner.close();
+        }
+        // The caller waits for the end marker, so it has to go in even if
+        // we were interrupted.
+        boolean interrupted = Thread.interrupted();
+        while (true) {
+          try {
+            put(END_OF_RANGE);
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    private void put(Result r) throws InterruptedException {
+      while (!closed && !queue.offer(r, WAIT_MS, TimeUnit.MILLISECONDS)) {
+        // The caller is behind; keep checking for close.
+      }
+      synchronized (available) {
+        available.notifyAll();
+      }
+    }
+
+    /**
+     * @return the next row of the range, END_OF_RANGE if the range is done,
+     * or null if nothing is queued yet
+     */
+    Result poll() throws IOException {
+      if (done) return END_OF_RANGE;
+      Result r = queue.poll();
+      if (r == END_OF_RANGE) {
+        done = true;
+        if (error != null) {
+          throw error;
+        }
+      }
+      return r;
+    }
+  }
+
+  /**
+   * Open ranges until <code>parallelism</code> of them are being scanned or
+   * the end of the scan is reached.
+   */
+  private void fillWindow() throws IOException {
+    while (!closed && active.size() < parallelism && nextStartRow != null) {
+      HRegionLocation location =
+        connection.locateRegion(tableName, nextStartRow);
+      if (location == null) {
+        throw new IOException("Cannot find region of " +
+          Bytes.toStringBinary(tableName) + " holding " +
+          Bytes.toStringBinary(nextStartRow));
+      }
+      HRegionInfo region = location.getRegionInfo();
+      byte[] endKey = region.getEndKey();
+      byte[] stopRow = scan.getStopRow();
+      Scan rangeScan = new Scan(scan);
+      rangeScan.setStartRow(nextStartRow);
+      if (endKey.length == 0 || (stopRow.length > 0 &&
+          Bytes.compareTo(stopRow, endKey) <= 0)) {
+        // Last range: the region holds the rest of the scan.
+        nextStartRow = null;
+      } else {
+        rangeScan.setStopRow(endKey);
+        nextStartRow = endKey;
+      }
+      RangeScan range = new RangeScan(rangeScan);
+      active.add(range);
+      pool.submit(range);
+    }
+  }
+
+  @Override
+  public Result next() throws IOException {
+    try {
+      while (!closed) {
+        // Polling under the lock the ranges signal on means a row queued
+        // after the poll cannot be missed by the wait.
+        synchronized (available) {
+          Result r = pollActive();
+          if (r != null) {
+            return r;
+          }
+          if (active.isEmpty()) {
+            break;
+          }
+          available.wait(WAIT_MS);
+        }
+      }
+      close();
+      return null;
+    } catch (InterruptedException e) {
+      close();
+      throw new InterruptedIOException("Interrupted while scanning " +
+        Bytes.toStringBinary(tableName));
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Take a queued row, dropping the ranges found to be done and opening new
+   * ones in their place.
+   * @return a row, or null if none is queued right now
+   */
+  private Result pollActive() throws IOException {
+    Iterator<RangeScan> i = active.iterator();
+    while (i.hasNext()) {
+      RangeScan range = i.next();
+      Result r = range.poll();
+      if (r == END_OF_RANGE) {
+        i.remove();
+        fillWindow();
+        // The window changed under the iterator; start over.
+        return active.isEmpty() ? null : pollActive();
+      }
+      if (r != null || ordered) {
+        // An ordered scanner may only return rows of the first range.
+        return r;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Result[] next(int nbRows) throws IOException {
+    ArrayList<Result> resultSets = new ArrayList<Result>(nbRows);
+    for (int i = 0; i < nbRows; i++) {
+      Result next = next();
+      if (next != null) {
+        resultSets.add(next);
+      } else {
+        break;
+      }
+    }
+    return resultSets.toArray(new Result[resultSets.size()]);
+  }
+
+  @Override
+  public void close() {
+    // The range tasks see the flag, stop fetching and close their scanners.
+    this.closed = true;
+    this.active.clear();
+    synchronized (available) {
+      available.notifyAll();
+    }
+  }
+}
@@ -77,16 +77,28 @@ import java.util.TreeSet;
  * To limit the maximum number of values returned for each call to next(),
  * execute {@link #setBatch(int) setBatch}.
  * <p>
+ * To bound the bytes the server returns for each call to next(), execute
+ * {@link #setMaxResultSize(long) setMaxResultSize}.
+ * <p>
  * To add a filter, execute {@link #setFilter(org.apache.hadoop.hbase.filter.Filter) setFilter}.
  * <p>
+ * To read rows from the last to the first, execute
+ * {@link #setReversed(boolean) setReversed}.
+ * <p>
  * Expert: To explicitly disable server-side block caching for this scan,
  * execute {@link #setCacheBlocks(boolean)}.
+ * <p>
+ * Expert: To only read the column families a filter needs until a row is
+ * known to pass it, execute {@link #setLoadColumnFamiliesOnDemand(boolean)}.
  */
 @InterfaceAudience.Public
 @InterfaceStability.Stable
 public class Scan extends OperationWithAttributes implements Writable {
   private static final String RAW_ATTR = "_raw_";
   private static final String ISOLATION_LEVEL = "_isolationlevel_";
+  private static final String LOAD_CFS_ON_DEMAND_ATTR = "_loadcfsondemand_";
+  private static final String MAX_RESULT_SIZE_ATTR = "_maxresultsize_";
+  private static final String REVERSED_ATTR = "_reversed_";
 
   private static final byte SCAN_VERSION = (byte)2;
   private byte [] startRow = HConstants.EMPTY_START_ROW;
@@ -668,4 +680,82 @@ public class Scan extends OperationWithAttributes implements Writable {
     return attr == null ? IsolationLevel.READ_COMMITTED :
                           IsolationLevel.fromBytes(attr);
   }
+
+  /**
+   * Set whether this scan may load column families lazily. If enabled, the
+   * region server first reads only the families the filter declares
+   * essential (see {@link Filter#isFamilyEssential(byte[])}) and reads the
+   * other families of a row only once the row has passed the filter. This
+   * can save a lot of IO when a filter on a small family rejects most rows
+   * of a table that also has a large family.
+   * <p>
+   * Ignored for filters that rework the whole row through
+   * {@link Filter#filterRow(List)}, as they need to see all of it at once.
+   * @param value true to load non-essential families on demand
+   */
+  public void setLoadColumnFamiliesOnDemand(boolean value) {
+    setAttribute(LOAD_CFS_ON_DEMAND_ATTR, Bytes.toBytes(value));
+  }
+
+  /**
+   * @return True if non-essential column families are loaded on demand.
+   * False by default.
+   */
+  public boolean doLoadColumnFamiliesOnDemand() {
+    byte[] attr = getAttribute(LOAD_CFS_ON_DEMAND_ATTR);
+    return attr == null ? false : Bytes.toBoolean(attr);
+  }
+
+  /**
+   * Set the maximum number of bytes of values the server returns for each
+   * RPC, whatever {@link #setCaching(int)} says. Unlike
+   * <code>hbase.client.scanner.max.result.size</code>, the limit holds
+   * within a row: a row bigger than the limit is sent over several RPCs and
+   * put back together by the client scanner, so a single wide row does not
+   * have to fit in server memory at once. If {@link #setBatch(int)} is set,
+   * the parts of the row are returned as they are, as usual.
+   * <p>
+   * The rows of a scan with a filter are never split: filters may need to
+   * see whole rows, so the limit then only falls between rows.
+   * @param maxResultSize bytes per RPC; zero or less means the server default
+   */
+  public void setMaxResultSize(long maxResultSize) {
+    setAttribute(MAX_RESULT_SIZE_ATTR, Bytes.toBytes(maxResultSize));
+  }
+
+  /**
+   * @return the maximum number of bytes returned per RPC, or -1 if the
+   * server default applies
+   */
+  public long getMaxResultSize() {
+    byte[] attr = getAttribute(MAX_RESULT_SIZE_ATTR);
+    return attr == null ? -1 : Bytes.toLong(attr);
+  }
+
+  /**
+   * Set whether this scan reads rows from the last to the first. The
+   * columns and versions of each row still come in their usual order.
+   * <p>
+   * The start row of a reversed scan is its highest row and is included;
+   * the stop row is its lowest and is excluded. An empty start row starts
+   * at the last row of the table.
+   * <p>
+   * Filter hints ({@link Filter#getNextKeyHint(org.apache.hadoop.hbase.KeyValue)})
+   * point forward, so a reversed scan does not follow them, and it reads all
+   * families at once whatever {@link #setLoadColumnFamiliesOnDemand(boolean)}
+   * says.
+   * @param reversed true to scan backwards
+   */
+  public void setReversed(boolean reversed) {
+    setAttribute(REVERSED_ATTR, Bytes.toBytes(reversed));
+  }
+
+  /**
+   * @return True if this scan reads rows from the last to the first.
+   * False by default.
+   */
+  public boolean isReversed() {
+    byte[] attr = getAttribute(REVERSED_ATTR);
+    return attr == null ? false : Bytes.toBoolean(attr);
+  }
 }
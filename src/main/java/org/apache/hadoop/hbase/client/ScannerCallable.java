@@ -61,7 +61,21 @@ public class ScannerCallable extends ServerCallable<Result[]> {
    */
   public ScannerCallable (HConnection connection, byte [] tableName, Scan scan,
     ScanMetrics scanMetrics) {
-    super(connection, tableName, scan.getStartRow());
+    this(connection, tableName, scan, scanMetrics, scan.getStartRow());
+  }
+
+  /**
+   * @param connection which connection
+   * @param tableName table callable is on
+   * @param scan the scan to execute
+   * @param scanMetrics the ScanMetrics to used, if it is null, ScannerCallable
+   * won't collect metrics
+   * @param locateRow a row of the region to scan, for a scan that does not
+   * start in it such as a reversed scan starting at the region's end key
+   */
+  public ScannerCallable (HConnection connection, byte [] tableName, Scan scan,
+    ScanMetrics scanMetrics, byte [] locateRow) {
+    super(connection, tableName, locateRow);
     this.scan = scan;
     this.scanMetrics = scanMetrics;
   }
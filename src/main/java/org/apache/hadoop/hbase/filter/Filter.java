@@ -87,6 +87,10 @@ public interface Filter extends Writable {
    * <code>ReturnCode.NEXT_ROW</code> until {@link #reset()} is called
    * just in case the caller calls for the next row.
    *
+   * The KeyValue may share its buffer with the scanner it was read from, so a
+   * filter that needs it after returning must keep a copy rather than the
+   * KeyValue or its buffer.
+   *
    * @param v the KeyValue in question
    * @return code as described below
    * @see Filter.ReturnCode
@@ -167,4 +171,18 @@ public interface Filter extends Writable {
    * not sure which key to seek to next.
    */
   public KeyValue getNextKeyHint(final KeyValue currentKV);
+
+  /**
+   * Check that given column family is essential for filter to check row.  Most
+   * filters always return true here. But some could have more sophisticated
+   * logic which could significantly reduce scanning process by not even
+   * touching columns until we are 100% sure that it's data is needed in result.
+   *
+   * Only consulted when the scan asks for column families to be loaded on
+   * demand, see {@link org.apache.hadoop.hbase.client.Scan#setLoadColumnFamiliesOnDemand(boolean)}.
+   *
+   * @param name column family name
+   * @return true if the family is needed to decide whether a row passes
+   */
+  public boolean isFamilyEssential(byte[] name);
 }
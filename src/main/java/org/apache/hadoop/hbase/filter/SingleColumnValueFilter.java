@@ -203,6 +203,15 @@ public class SingleColumnValueFilter extends FilterBase {
     return this.foundColumn? !this.matchedColumn: this.filterIfMissing;
   }
 
+  /**
+   * The only family which is essential is the one holding the tested column,
+   * and then only when a row missing the column is dropped; otherwise every
+   * row is returned whatever is found and all families have to be read.
+   */
+  public boolean isFamilyEssential(byte[] name) {
+    return !this.filterIfMissing || Bytes.equals(name, this.columnFamily);
+  }
+
   public void reset() {
     foundColumn = false;
     matchedColumn = false;
@@ -117,6 +117,10 @@ public class HalfStoreFileReader extends StoreFile.Reader {
         return delegate.getKeyValue();
       }
 
+      public void setAllowTransientKeyValues(boolean allowTransient) {
+        delegate.setAllowTransientKeyValues(allowTransient);
+      }
+
       public boolean next() throws IOException {
         if (atEnd) return false;
 
@@ -247,6 +251,10 @@ public class HalfStoreFileReader extends StoreFile.Reader {
       public boolean isSeeked() {
         return this.delegate.isSeeked();
       }
+
+      public void close() {
+        this.delegate.close();
+      }
     };
   }
 
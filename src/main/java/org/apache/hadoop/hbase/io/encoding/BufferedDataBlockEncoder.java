@@ -115,6 +115,7 @@ abstract class BufferedDataBlockEncoder implements DataBlockEncoder {
     protected ByteBuffer currentBuffer;
     protected STATE current = createSeekerState(); // always valid
     protected STATE previous = createSeekerState(); // may not be valid
+    private byte[] transientBuffer;
 
     @SuppressWarnings("unchecked")
     public BufferedEncodedSeeker(RawComparator<byte[]> comparator) {
@@ -168,6 +169,26 @@ abstract class BufferedDataBlockEncoder implements DataBlockEncoder {
       return kv;
     }
 
+    @Override
+    public TransientKeyValue getTransientKeyValue() {
+      int length = KeyValue.ROW_OFFSET + current.keyLength +
+          current.valueLength;
+      if (transientBuffer == null || transientBuffer.length < length) {
+        transientBuffer = new byte[Math.max(length,
+            transientBuffer == null ? 0 : 2 * transientBuffer.length)];
+      }
+      int pos = Bytes.putInt(transientBuffer, 0, current.keyLength);
+      pos = Bytes.putInt(transientBuffer, pos, current.valueLength);
+      System.arraycopy(current.keyBuffer, 0, transientBuffer, pos,
+          current.keyLength);
+      System.arraycopy(currentBuffer.array(),
+          currentBuffer.arrayOffset() + current.valueOffset, transientBuffer,
+          pos + current.keyLength, current.valueLength);
+      TransientKeyValue kv = new TransientKeyValue(transientBuffer, 0, length);
+      kv.setMemstoreTS(current.memstoreTS);
+      return kv;
+    }
+
     @Override
     public void rewind() {
       currentBuffer.rewind();
@@ -130,6 +130,14 @@ public interface DataBlockEncoder {
      */
     public KeyValue getKeyValue();
 
+    /**
+     * Like {@link #getKeyValue()}, but decodes into a buffer owned by the
+     * seeker rather than a new one.
+     * @return the KeyValue at the current position, only valid until this
+     *         method is called again
+     */
+    public TransientKeyValue getTransientKeyValue();
+
     /** Set position to beginning of given block */
     public void rewind();
 
@@ -40,7 +40,9 @@ public enum DataBlockEncoding {
   // id 1 is reserved for the BITSET algorithm to be added later
   PREFIX(2, new PrefixKeyDeltaEncoder()),
   DIFF(3, new DiffKeyDeltaEncoder()),
-  FAST_DIFF(4, new FastDiffDeltaEncoder());
+  FAST_DIFF(4, new FastDiffDeltaEncoder()),
+  // id 5 is reserved for the COPY_KEY algorithm for benchmarking
+  PREFIX_TREE(6, new PrefixTreeEncoder());
 
   private final short id;
   private final byte[] idInBytes;
@@ -0,0 +1,692 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.RawComparator;
+
+/**
+ * Store the rows of a block as a prefix tree and every KeyValue as a fixed
+ * width record pointing into it, so that a seek can binary search the
+ * encoded block instead of decoding it from the start.
+ *
+ * Format:
+ * 4 bytes: size of the block when not encoded
+ * 4 bytes: number of KeyValues
+ * 6 bytes: widths of the row node, column, timestamp, value offset, memstore
+ *          timestamp and column offset fields
+ * 8 bytes: smallest timestamp in the block
+ * 4 bytes each: length of the row tree, number of distinct columns, length
+ *          of the columns and length of the values
+ * ... bytes: row tree, in preorder. Each node is the offset of its parent,
+ *          the length of the row up to and including the node (2 bytes), the
+ *          length of its token (2 bytes) and the token. A row is the path
+ *          from the root to a node, so rows sharing a prefix share its nodes.
+ * ... bytes: offset of every column in the columns, and of their end
+ * ... bytes: distinct columns, sorted, as family length, family, qualifier
+ * ... bytes: one record per KeyValue: offset of its row node, index of its
+ *          column, timestamp minus the smallest one, type, offset of its value
+ *          and, when present and not all zero, its memstore timestamp
+ * ... bytes: values
+ *
+ * Fields past the fixed header are little endian and as wide as the largest
+ * value they hold in this block.
+ */
+@InterfaceAudience.Private
+public class PrefixTreeEncoder extends BufferedDataBlockEncoder {
+  private static final int HEADER_SIZE = 2 * Bytes.SIZEOF_INT + 6 +
+      Bytes.SIZEOF_LONG + 4 * Bytes.SIZEOF_INT;
+  private static final int NODE_FIXED_SIZE = 2 * Bytes.SIZEOF_SHORT;
+  // Timestamp and type at the end of every key
+  private static final int KEY_TAIL_SIZE =
+      Bytes.SIZEOF_LONG + Bytes.SIZEOF_BYTE;
+
+  /** A node of the row tree while a block is being encoded. */
+  private static class Node {
+    Node parent;
+    byte [] token;
+    final int depth;
+    final List<Node> children = new ArrayList<Node>(1);
+    int offset;
+
+    Node(Node parent, byte [] token, int depth) {
+      this.parent = parent;
+      this.token = token;
+      this.depth = depth;
+    }
+  }
+
+  /**
+   * Add a row to the tree.
+   * @return The node the row ends at
+   */
+  private static Node insert(Node root, byte [] buf, int rowOffset,
+      int rowLength) {
+    Node node = root;
+    while (node.depth < rowLength) {
+      byte first = buf[rowOffset + node.depth];
+      // Rows are sorted, so the last child is nearly always the one.
+      int index = node.children.size() - 1;
+      while (index >= 0 && node.children.get(index).token[0] != first) {
+        index--;
+      }
+      if (index < 0) {
+        Node leaf = new Node(node, Arrays.copyOfRange(buf,
+            rowOffset + node.depth, rowOffset + rowLength), rowLength);
+        node.children.add(leaf);
+        return leaf;
+      }
+      Node child = node.children.get(index);
+      int common = 0;
+      int max = Math.min(child.token.length, rowLength - node.depth);
+      while (common < max &&
+          child.token[common] == buf[rowOffset + node.depth + common]) {
+        common++;
+      }
+      if (common < child.token.length) {
+        // Split the child where the rows diverge. The child keeps its depth,
+        // so the rows already ending at it are unchanged.
+        Node mid = new Node(node, Arrays.copyOfRange(child.token, 0, common),
+            node.depth + common);
+        node.children.set(index, mid);
+        child.token = Arrays.copyOfRange(child.token, common,
+            child.token.length);
+        child.parent = mid;
+        mid.children.add(child);
+        child = mid;
+      }
+      node = child;
+    }
+    return node;
+  }
+
+  private static void putLittleEndian(DataOutputStream out, long value,
+      int width) throws IOException {
+    for (int i = 0; i < width; i++) {
+      out.write((byte) (value >>> (8 * i)));
+    }
+  }
+
+  private static long getLittleEndian(byte [] buf, int offset, int width) {
+    long value = 0;
+    for (int i = 0; i < width; i++) {
+      value |= (buf[offset + i] & 0xffL) << (8 * i);
+    }
+    return value;
+  }
+
+  @Override
+  public void compressKeyValues(DataOutputStream out, ByteBuffer in,
+      boolean includesMemstoreTS) throws IOException {
+    in.rewind();
+    byte [] buf = in.array();
+    int base = in.arrayOffset();
+
+    int count = 0;
+    while (in.hasRemaining()) {
+      int keyLength = in.getInt();
+      int valueLength = in.getInt();
+      ByteBufferUtils.skip(in, keyLength + valueLength);
+      if (includesMemstoreTS) {
+        ByteBufferUtils.readVLong(in);
+      }
+      count++;
+    }
+
+    Node root = new Node(null, new byte[0], 0);
+    Node [] rows = new Node[count];
+    byte [][] columns = new byte[count][];
+    long [] timestamps = new long[count];
+    byte [] types = new byte[count];
+    int [] valueOffsets = new int[count + 1];
+    int [] valueStarts = new int[count];
+    long [] memstoreTSs = new long[count];
+    Map<byte [], Integer> columnIndex =
+        new TreeMap<byte [], Integer>(Bytes.BYTES_COMPARATOR);
+    long minTimestamp = Long.MAX_VALUE;
+    long maxTimestamp = Long.MIN_VALUE;
+    long maxMemstoreTS = 0;
+    int columnsLength = 0;
+    Node lastRow = null;
+    int lastRowOffset = 0;
+    int lastRowLength = -1;
+
+    in.rewind();
+    for (int i = 0; i < count; i++) {
+      int keyLength = in.getInt();
+      int valueLength = in.getInt();
+      int keyOffset = base + in.position();
+      int rowLength = Bytes.toShort(buf, keyOffset);
+      int rowOffset = keyOffset + Bytes.SIZEOF_SHORT;
+      if (lastRow != null && Bytes.equals(buf, rowOffset, rowLength,
+          buf, lastRowOffset, lastRowLength)) {
+        rows[i] = lastRow;
+      } else {
+        rows[i] = insert(root, buf, rowOffset, rowLength);
+        lastRow = rows[i];
+        lastRowOffset = rowOffset;
+        lastRowLength = rowLength;
+      }
+
+      int columnOffset = rowOffset + rowLength;
+      int columnLength = keyLength - Bytes.SIZEOF_SHORT - rowLength -
+          KEY_TAIL_SIZE;
+      byte [] column = Arrays.copyOfRange(buf, columnOffset,
+          columnOffset + columnLength);
+      if (i > 0 && Bytes.equals(column, columns[i - 1])) {
+        column = columns[i - 1];
+      } else if (!columnIndex.containsKey(column)) {
+        columnIndex.put(column, columnIndex.size());
+        columnsLength += columnLength;
+      }
+      columns[i] = column;
+
+      int tailOffset = columnOffset + columnLength;
+      timestamps[i] = Bytes.toLong(buf, tailOffset);
+      types[i] = buf[tailOffset + Bytes.SIZEOF_LONG];
+      minTimestamp = Math.min(minTimestamp, timestamps[i]);
+      maxTimestamp = Math.max(maxTimestamp, timestamps[i]);
+
+      valueStarts[i] = in.position() + keyLength;
+      valueOffsets[i + 1] = valueOffsets[i] + valueLength;
+      ByteBufferUtils.skip(in, keyLength + valueLength);
+      if (includesMemstoreTS) {
+        memstoreTSs[i] = ByteBufferUtils.readVLong(in);
+        maxMemstoreTS = Math.max(maxMemstoreTS, memstoreTSs[i]);
+      }
+    }
+    if (count == 0) {
+      minTimestamp = maxTimestamp = 0;
+    }
+
+    // Number the columns in sorted order, so that their offsets and the
+    // column indexes of the records are known before anything is written.
+    int [] columnOffsets = new int[columnIndex.size() + 1];
+    int columnNumber = 0;
+    for (Map.Entry<byte [], Integer> e : columnIndex.entrySet()) {
+      e.setValue(columnNumber);
+      columnOffsets[columnNumber + 1] =
+          columnOffsets[columnNumber] + e.getKey().length;
+      columnNumber++;
+    }
+
+    List<Node> nodes = new ArrayList<Node>();
+    Deque<Node> stack = new ArrayDeque<Node>();
+    stack.push(root);
+    int tokensLength = 0;
+    while (!stack.isEmpty()) {
+      Node node = stack.pop();
+      nodes.add(node);
+      tokensLength += node.token.length;
+      for (int j = node.children.size() - 1; j >= 0; j--) {
+        stack.push(node.children.get(j));
+      }
+    }
+    int rowWidth = 1;
+    while ((long) nodes.size() * (rowWidth + NODE_FIXED_SIZE) + tokensLength
+        >= 1L << (8 * rowWidth)) {
+      rowWidth++;
+    }
+    int trieLength = 0;
+    for (Node node : nodes) {
+      node.offset = trieLength;
+      trieLength += rowWidth + NODE_FIXED_SIZE + node.token.length;
+    }
+
+    int columnWidth = ByteBufferUtils.longFitsIn(columnIndex.size());
+    int timestampWidth =
+        ByteBufferUtils.longFitsIn(maxTimestamp - minTimestamp);
+    int valueWidth = ByteBufferUtils.longFitsIn(valueOffsets[count]);
+    int memstoreTSWidth = maxMemstoreTS == 0 ? 0 :
+        ByteBufferUtils.longFitsIn(maxMemstoreTS);
+    int columnOffsetWidth = ByteBufferUtils.longFitsIn(columnsLength);
+
+    ByteBufferUtils.putInt(out, in.limit());
+    out.writeInt(count);
+    out.writeByte(rowWidth);
+    out.writeByte(columnWidth);
+    out.writeByte(timestampWidth);
+    out.writeByte(valueWidth);
+    out.writeByte(memstoreTSWidth);
+    out.writeByte(columnOffsetWidth);
+    out.writeLong(minTimestamp);
+    out.writeInt(trieLength);
+    out.writeInt(columnIndex.size());
+    out.writeInt(columnsLength);
+    out.writeInt(valueOffsets[count]);
+
+    for (Node node : nodes) {
+      putLittleEndian(out, node.parent == null ? 0 : node.parent.offset,
+          rowWidth);
+      out.writeShort(node.depth);
+      out.writeShort(node.token.length);
+      out.write(node.token);
+    }
+    for (int offset : columnOffsets) {
+      putLittleEndian(out, offset, columnOffsetWidth);
+    }
+    for (byte [] column : columnIndex.keySet()) {
+      out.write(column);
+    }
+    for (int i = 0; i < count; i++) {
+      putLittleEndian(out, rows[i].offset, rowWidth);
+      putLittleEndian(out, columnIndex.get(columns[i]), columnWidth);
+      putLittleEndian(out, timestamps[i] - minTimestamp, timestampWidth);
+      out.writeByte(types[i]);
+      putLittleEndian(out, valueOffsets[i], valueWidth);
+      putLittleEndian(out, memstoreTSs[i], memstoreTSWidth);
+    }
+    for (int i = 0; i < count; i++) {
+      out.write(buf, base + valueStarts[i], valueOffsets[i + 1] -
+          valueOffsets[i]);
+    }
+  }
+
+  /**
+   * Read only view of an encoded block, rebuilding keys on demand.
+   */
+  static class Block {
+    private final byte [] buf;
+    private final int cellCount;
+    private final int rowWidth;
+    private final int columnWidth;
+    private final int timestampWidth;
+    private final int valueWidth;
+    private final int memstoreTSWidth;
+    private final int columnOffsetWidth;
+    private final long minTimestamp;
+    private final int valuesLength;
+    private final int trieOffset;
+    private final int columnOffsetsOffset;
+    private final int columnsOffset;
+    private final int cellsOffset;
+    private final int cellSize;
+    private final int valuesOffset;
+
+    /**
+     * @param buf Array holding the block
+     * @param offset Where the block starts in <code>buf</code>
+     */
+    Block(byte [] buf, int offset) {
+      this.buf = buf;
+      int pos = offset + Bytes.SIZEOF_INT;
+      this.cellCount = Bytes.toInt(buf, pos);
+      pos += Bytes.SIZEOF_INT;
+      this.rowWidth = buf[pos++];
+      this.columnWidth = buf[pos++];
+      this.timestampWidth = buf[pos++];
+      this.valueWidth = buf[pos++];
+      this.memstoreTSWidth = buf[pos++];
+      this.columnOffsetWidth = buf[pos++];
+      this.minTimestamp = Bytes.toLong(buf, pos);
+      pos += Bytes.SIZEOF_LONG;
+      int trieLength = Bytes.toInt(buf, pos);
+      int columnCount = Bytes.toInt(buf, pos + Bytes.SIZEOF_INT);
+      int columnsLength = Bytes.toInt(buf, pos + 2 * Bytes.SIZEOF_INT);
+      this.valuesLength = Bytes.toInt(buf, pos + 3 * Bytes.SIZEOF_INT);
+      this.trieOffset = offset + HEADER_SIZE;
+      this.columnOffsetsOffset = trieOffset + trieLength;
+      this.columnsOffset =
+          columnOffsetsOffset + (columnCount + 1) * columnOffsetWidth;
+      this.cellsOffset = columnsOffset + columnsLength;
+      this.cellSize = rowWidth + columnWidth + timestampWidth +
+          Bytes.SIZEOF_BYTE + valueWidth + memstoreTSWidth;
+      this.valuesOffset = cellsOffset + cellCount * cellSize;
+    }
+
+    int getCellCount() {
+      return cellCount;
+    }
+
+    int getRowNode(int cell) {
+      return (int) getLittleEndian(buf, cellsOffset + cell * cellSize,
+          rowWidth);
+    }
+
+    private int getColumnOffset(int column) {
+      return (int) getLittleEndian(buf,
+          columnOffsetsOffset + column * columnOffsetWidth, columnOffsetWidth);
+    }
+
+    /** @return Offset of the value of <code>cell</code> in the block array */
+    int getValueOffset(int cell) {
+      return valuesOffset + getRelativeValueOffset(cell);
+    }
+
+    private int getRelativeValueOffset(int cell) {
+      return (int) getLittleEndian(buf, cellsOffset + cell * cellSize +
+          rowWidth + columnWidth + timestampWidth + Bytes.SIZEOF_BYTE,
+          valueWidth);
+    }
+
+    int getValueLength(int cell) {
+      int end = cell + 1 < cellCount ? getRelativeValueOffset(cell + 1) :
+          valuesLength;
+      return end - getRelativeValueOffset(cell);
+    }
+
+    long getMemstoreTS(int cell) {
+      return getLittleEndian(buf, cellsOffset + (cell + 1) * cellSize -
+          memstoreTSWidth, memstoreTSWidth);
+    }
+
+    private int getRowLength(int node) {
+      return Bytes.toShort(buf, trieOffset + node + rowWidth) & 0xffff;
+    }
+
+    int getKeyLength(int cell) {
+      int column = (int) getLittleEndian(buf,
+          cellsOffset + cell * cellSize + rowWidth, columnWidth);
+      return Bytes.SIZEOF_SHORT + getRowLength(getRowNode(cell)) +
+          getColumnOffset(column + 1) - getColumnOffset(column) +
+          KEY_TAIL_SIZE;
+    }
+
+    /**
+     * Write the key of <code>cell</code> to <code>dest</code>, which must be
+     * large enough.
+     * @param rowWritten Row node whose row is already in <code>dest</code>,
+     *          -1 if none
+     * @return Length of the key
+     */
+    int writeKey(int cell, byte [] dest, int destOffset, int rowWritten) {
+      int pos = cellsOffset + cell * cellSize;
+      int rowNode = (int) getLittleEndian(buf, pos, rowWidth);
+      pos += rowWidth;
+      int column = (int) getLittleEndian(buf, pos, columnWidth);
+      pos += columnWidth;
+      long timestamp = minTimestamp +
+          getLittleEndian(buf, pos, timestampWidth);
+      pos += timestampWidth;
+      byte type = buf[pos];
+
+      int rowLength = getRowLength(rowNode);
+      if (rowNode != rowWritten) {
+        Bytes.putShort(dest, destOffset, (short) rowLength);
+        // Walk up to the root, dropping every token in its place
+        int node = rowNode;
+        int depth = rowLength;
+        while (depth > 0) {
+          int nodeOffset = trieOffset + node;
+          int tokenLength = Bytes.toShort(buf,
+              nodeOffset + rowWidth + Bytes.SIZEOF_SHORT) & 0xffff;
+          System.arraycopy(buf, nodeOffset + rowWidth + NODE_FIXED_SIZE, dest,
+              destOffset + Bytes.SIZEOF_SHORT + depth - tokenLength,
+              tokenLength);
+          depth -= tokenLength;
+          node = (int) getLittleEndian(buf, nodeOffset, rowWidth);
+        }
+      }
+      int columnStart = getColumnOffset(column);
+      int columnLength = getColumnOffset(column + 1) - columnStart;
+      int keyPos = destOffset + Bytes.SIZEOF_SHORT + rowLength;
+      System.arraycopy(buf, columnsOffset + columnStart, dest, keyPos,
+          columnLength);
+      keyPos += columnLength;
+      keyPos = Bytes.putLong(dest, keyPos, timestamp);
+      dest[keyPos++] = type;
+      return keyPos - destOffset;
+    }
+  }
+
+  @Override
+  public ByteBuffer uncompressKeyValues(DataInputStream source,
+      int allocHeaderLength, int skipLastBytes, boolean includesMemstoreTS)
+          throws IOException {
+    byte [] encoded = new byte[source.available() - skipLastBytes];
+    source.readFully(encoded);
+    int decompressedSize = Bytes.toInt(encoded, 0);
+    ByteBuffer buffer = ByteBuffer.allocate(decompressedSize +
+        allocHeaderLength);
+    buffer.position(allocHeaderLength);
+
+    Block block = new Block(encoded, 0);
+    byte [] dest = buffer.array();
+    int rowNode = -1;
+    int lastKeyOffset = 0;
+    for (int i = 0; i < block.getCellCount(); i++) {
+      int keyLength = block.getKeyLength(i);
+      int valueLength = block.getValueLength(i);
+      ByteBufferUtils.ensureSpace(buffer, KeyValue.ROW_OFFSET + keyLength +
+          valueLength);
+      buffer.putInt(keyLength);
+      buffer.putInt(valueLength);
+      int keyOffset = buffer.arrayOffset() + buffer.position();
+      // Rebuild the row only when it changes, copying it otherwise
+      int cellRow = block.getRowNode(i);
+      if (cellRow == rowNode) {
+        int rowLength = Bytes.SIZEOF_SHORT +
+            Bytes.toShort(dest, lastKeyOffset);
+        System.arraycopy(dest, lastKeyOffset, dest, keyOffset, rowLength);
+      }
+      block.writeKey(i, dest, keyOffset, cellRow == rowNode ? rowNode : -1);
+      rowNode = cellRow;
+      lastKeyOffset = keyOffset;
+      ByteBufferUtils.skip(buffer, keyLength);
+      buffer.put(encoded, block.getValueOffset(i), valueLength);
+      if (includesMemstoreTS) {
+        ByteBufferUtils.writeVLong(buffer, block.getMemstoreTS(i));
+      }
+    }
+
+    buffer.limit(buffer.position());
+    return buffer;
+  }
+
+  @Override
+  public ByteBuffer getFirstKeyInBlock(ByteBuffer block) {
+    Block encoded = new Block(block.array(), block.arrayOffset());
+    byte [] key = new byte[encoded.getKeyLength(0)];
+    encoded.writeKey(0, key, 0, -1);
+    return ByteBuffer.wrap(key);
+  }
+
+  @Override
+  public String toString() {
+    return PrefixTreeEncoder.class.getSimpleName();
+  }
+
+  @Override
+  public EncodedSeeker createSeeker(RawComparator<byte[]> comparator,
+      boolean includesMemstoreTS) {
+    return new PrefixTreeSeeker(comparator);
+  }
+
+  /**
+   * Seeks by binary searching the records of the block, rebuilding only the
+   * keys it compares against.
+   */
+  private static class PrefixTreeSeeker implements EncodedSeeker {
+    private final RawComparator<byte[]> comparator;
+    private ByteBuffer currentBuffer;
+    private Block block;
+    private int current;
+    private byte [] keyBuffer = new byte[512];
+    private byte [] transientBuffer;
+    private int keyLength;
+    private int keyRowNode = -1;
+    // Keys compared against while seeking, so that the current one is kept
+    private byte [] seekBuffer = new byte[512];
+    private int seekRowNode = -1;
+
+    PrefixTreeSeeker(RawComparator<byte[]> comparator) {
+      this.comparator = comparator;
+    }
+
+    @Override
+    public void setCurrentBuffer(ByteBuffer buffer) {
+      currentBuffer = buffer;
+      block = new Block(buffer.array(), buffer.arrayOffset());
+      keyRowNode = -1;
+      seekRowNode = -1;
+      moveTo(0);
+    }
+
+    private void moveTo(int cell) {
+      int length = block.getKeyLength(cell);
+      if (keyBuffer.length < length) {
+        keyBuffer = new byte[Math.max(length, 2 * keyBuffer.length)];
+        keyRowNode = -1;
+      }
+      int rowNode = block.getRowNode(cell);
+      keyLength = block.writeKey(cell, keyBuffer, 0, keyRowNode);
+      keyRowNode = rowNode;
+      current = cell;
+    }
+
+    /** @return Length of the key of <code>cell</code>, now in seekBuffer */
+    private int loadSeekKey(int cell) {
+      int length = block.getKeyLength(cell);
+      if (seekBuffer.length < length) {
+        seekBuffer = new byte[Math.max(length, 2 * seekBuffer.length)];
+        seekRowNode = -1;
+      }
+      int rowNode = block.getRowNode(cell);
+      length = block.writeKey(cell, seekBuffer, 0, seekRowNode);
+      seekRowNode = rowNode;
+      return length;
+    }
+
+    @Override
+    public ByteBuffer getKeyDeepCopy() {
+      ByteBuffer key = ByteBuffer.allocate(keyLength);
+      key.put(keyBuffer, 0, keyLength);
+      return key;
+    }
+
+    @Override
+    public ByteBuffer getValueShallowCopy() {
+      return ByteBuffer.wrap(currentBuffer.array(),
+          block.getValueOffset(current), block.getValueLength(current));
+    }
+
+    @Override
+    public ByteBuffer getKeyValueBuffer() {
+      int valueLength = block.getValueLength(current);
+      ByteBuffer kvBuffer = ByteBuffer.allocate(
+          2 * Bytes.SIZEOF_INT + keyLength + valueLength);
+      kvBuffer.putInt(keyLength);
+      kvBuffer.putInt(valueLength);
+      kvBuffer.put(keyBuffer, 0, keyLength);
+      kvBuffer.put(currentBuffer.array(), block.getValueOffset(current),
+          valueLength);
+      return kvBuffer;
+    }
+
+    @Override
+    public KeyValue getKeyValue() {
+      ByteBuffer kvBuf = getKeyValueBuffer();
+      KeyValue kv = new KeyValue(kvBuf.array(), kvBuf.arrayOffset());
+      kv.setMemstoreTS(block.getMemstoreTS(current));
+      return kv;
+    }
+
+    @Override
+    public TransientKeyValue getTransientKeyValue() {
+      int valueLength = block.getValueLength(current);
+      int length = KeyValue.ROW_OFFSET + keyLength + valueLength;
+      if (transientBuffer == null || transientBuffer.length < length) {
+        transientBuffer = new byte[Math.max(length,
+            transientBuffer == null ? 0 : 2 * transientBuffer.length)];
+      }
+      int pos = Bytes.putInt(transientBuffer, 0, keyLength);
+      pos = Bytes.putInt(transientBuffer, pos, valueLength);
+      System.arraycopy(keyBuffer, 0, transientBuffer, pos, keyLength);
+      System.arraycopy(currentBuffer.array(), block.getValueOffset(current),
+          transientBuffer, pos + keyLength, valueLength);
+      TransientKeyValue kv = new TransientKeyValue(transientBuffer, 0, length);
+      kv.setMemstoreTS(block.getMemstoreTS(current));
+      return kv;
+    }
+
+    @Override
+    public void rewind() {
+      moveTo(0);
+    }
+
+    @Override
+    public boolean next() {
+      if (current + 1 >= block.getCellCount()) {
+        return false;
+      }
+      moveTo(current + 1);
+      return true;
+    }
+
+    @Override
+    public int seekToKeyInBlock(byte[] key, int offset, int length,
+        boolean seekBefore) {
+      // Find the last cell not greater than the key
+      int low = 0;
+      int high = block.getCellCount() - 1;
+      int found = -1;
+      boolean exact = false;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int comp = comparator.compare(key, offset, length,
+            seekBuffer, 0, loadSeekKey(mid));
+        if (comp == 0) {
+          found = mid;
+          exact = true;
+          break;
+        } else if (comp > 0) {
+          found = mid;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      if (exact) {
+        // Land on the first of equal keys, as a forward scan would
+        while (found > 0 && comparator.compare(key, offset, length,
+            seekBuffer, 0, loadSeekKey(found - 1)) == 0) {
+          found--;
+        }
+        if (seekBefore) {
+          if (found == 0) {
+            // The caller (seekBefore) has to ensure that we are not at the
+            // first key in the block.
+            throw new IllegalStateException("Cannot seekBefore if " +
+                "positioned at the first key in the block: key=" +
+                Bytes.toStringBinary(key, offset, length));
+          }
+          moveTo(found - 1);
+          return 1;
+        }
+        moveTo(found);
+        return 0;
+      }
+      moveTo(Math.max(found, 0));
+      return 1;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+
+/**
+ * A KeyValue decoded into a buffer that its seeker reuses for the next one.
+ * It is only valid until the scanner it came from moves on, so anybody
+ * keeping it longer, such as a scan adding it to its results, has to take a
+ * {@link #deepCopy()} first. Cells a scan looks at and drops are never
+ * copied.
+ */
+@InterfaceAudience.Private
+public class TransientKeyValue extends KeyValue {
+  TransientKeyValue(byte [] bytes, int offset, int length) {
+    super(bytes, offset, length);
+  }
+}
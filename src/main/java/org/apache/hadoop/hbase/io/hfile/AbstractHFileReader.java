@@ -322,6 +322,11 @@ public abstract class AbstractHFileReader extends SchemaConfigured
       return "HFileScanner for reader " + String.valueOf(getReader());
     }
 
+    @Override
+    public void close() {
+      // Nothing to release by default.
+    }
+
     protected void assertSeeked() {
       if (!isSeeked())
         throw new NotSeekedException();
@@ -346,6 +351,11 @@ public abstract class AbstractHFileReader extends SchemaConfigured
     public HFile.Reader getReader() {
       return reader;
     }
+
+    @Override
+    public void setAllowTransientKeyValues(boolean allowTransient) {
+      // The KeyValues of unencoded blocks already point into the block.
+    }
   }
 
   /** For testing */
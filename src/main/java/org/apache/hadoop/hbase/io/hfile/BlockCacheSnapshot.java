@@ -0,0 +1,209 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * The hottest blocks of a block cache, identified by HFile name and offset,
+ * so that a new cache can be warmed with them after a restart or once their
+ * region has moved to another server.<p>
+ *
+ * Blocks accessed more than once, or cached in-memory, rank above blocks
+ * accessed a single time; within each group the most recently accessed
+ * come first. Only {@link LruBlockCache} can be snapshotted.
+ */
+@InterfaceAudience.Private
+public class BlockCacheSnapshot {
+  private static final int VERSION = 1;
+
+  /**
+   * One hot block.
+   */
+  public static class Entry {
+    private final String hfileName;
+    private final long offset;
+    private final CachedBlock.BlockPriority priority;
+
+    Entry(String hfileName, long offset, CachedBlock.BlockPriority priority) {
+      this.hfileName = hfileName;
+      this.offset = offset;
+      this.priority = priority;
+    }
+
+    public String getHfileName() {
+      return hfileName;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    /**
+     * @return whether the block had been accessed more than once, so that it
+     * should be accessed again once warmed to get the same priority
+     */
+    public boolean isMultiAccess() {
+      return priority == CachedBlock.BlockPriority.MULTI;
+    }
+
+    @Override
+    public String toString() {
+      return hfileName + "_" + offset + "_" + priority;
+    }
+  }
+
+  /** A block and the state it was ranked by, which keeps changing. */
+  private static class Candidate {
+    final CachedBlock block;
+    final long accessTime;
+    final boolean single;
+
+    Candidate(CachedBlock block) {
+      this.block = block;
+      this.accessTime = block.getAccessTime();
+      this.single =
+          block.getPriority() == CachedBlock.BlockPriority.SINGLE;
+    }
+  }
+
+  private static final Comparator<Candidate> HOTTEST_FIRST =
+      new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+          if (a.single != b.single) return a.single ? 1 : -1;
+          if (a.accessTime == b.accessTime) return 0;
+          return a.accessTime > b.accessTime ? -1 : 1;
+        }
+      };
+
+  /**
+   * @return whether {@link #collect} can snapshot the given cache
+   */
+  public static boolean isSupported(BlockCache cache) {
+    return unwrap(cache) instanceof LruBlockCache;
+  }
+
+  private static BlockCache unwrap(BlockCache cache) {
+    if (cache instanceof TracingBlockCache) {
+      return ((TracingBlockCache)cache).getDelegate();
+    }
+    return cache;
+  }
+
+  /**
+   * @param cache the cache to snapshot
+   * @param maxBlocks maximum number of blocks to return
+   * @return the hottest blocks of the cache, grouped by file. Files are
+   * ordered by their hottest block and blocks of a file hottest first. Empty
+   * if the cache cannot be snapshotted.
+   */
+  public static List<Entry> collect(BlockCache cache, int maxBlocks) {
+    cache = unwrap(cache);
+    if (!(cache instanceof LruBlockCache)) {
+      return Collections.emptyList();
+    }
+    List<Candidate> candidates = new ArrayList<Candidate>();
+    for (CachedBlock block : ((LruBlockCache)cache).getCachedBlocks()) {
+      candidates.add(new Candidate(block));
+    }
+    Collections.sort(candidates, HOTTEST_FIRST);
+    int count = Math.min(maxBlocks, candidates.size());
+    List<Entry> entries = new ArrayList<Entry>(count);
+    for (int i = 0; i < count; i++) {
+      CachedBlock block = candidates.get(i).block;
+      entries.add(new Entry(block.getCacheKey().getHfileName(),
+          block.getCacheKey().getOffset(), block.getPriority()));
+    }
+    List<Entry> grouped = new ArrayList<Entry>(count);
+    for (List<Entry> fileEntries : groupByFile(entries).values()) {
+      grouped.addAll(fileEntries);
+    }
+    return grouped;
+  }
+
+  /**
+   * @return the entries grouped by HFile name, keeping the order of the
+   * entries within a file; files are ordered by their hottest block
+   */
+  public static Map<String, List<Entry>> groupByFile(List<Entry> entries) {
+    Map<String, List<Entry>> byFile = new LinkedHashMap<String, List<Entry>>();
+    for (Entry entry : entries) {
+      List<Entry> fileEntries = byFile.get(entry.getHfileName());
+      if (fileEntries == null) {
+        fileEntries = new ArrayList<Entry>();
+        byFile.put(entry.getHfileName(), fileEntries);
+      }
+      fileEntries.add(entry);
+    }
+    return byFile;
+  }
+
+  public static void write(DataOutput out, List<Entry> entries)
+  throws IOException {
+    out.writeInt(VERSION);
+    out.writeInt(entries.size());
+    String lastName = null;
+    for (Entry entry : entries) {
+      // Don't repeat the name for the following entries of a file.
+      boolean sameFile = entry.getHfileName().equals(lastName);
+      out.writeBoolean(sameFile);
+      if (!sameFile) {
+        out.writeUTF(entry.getHfileName());
+        lastName = entry.getHfileName();
+      }
+      out.writeLong(entry.getOffset());
+      out.writeByte(entry.priority.ordinal());
+    }
+  }
+
+  public static List<Entry> read(DataInput in) throws IOException {
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unknown block cache snapshot version " + version);
+    }
+    int count = in.readInt();
+    List<Entry> entries = new ArrayList<Entry>(count);
+    CachedBlock.BlockPriority[] priorities = CachedBlock.BlockPriority.values();
+    String name = null;
+    for (int i = 0; i < count; i++) {
+      if (!in.readBoolean()) {
+        name = in.readUTF();
+      }
+      long offset = in.readLong();
+      int priority = in.readByte();
+      if (name == null || priority < 0 || priority >= priorities.length) {
+        throw new IOException("Corrupt block cache snapshot entry " + i);
+      }
+      entries.add(new Entry(name, offset, priorities[priority]));
+    }
+    return entries;
+  }
+}
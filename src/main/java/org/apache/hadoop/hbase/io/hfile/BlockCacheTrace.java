@@ -0,0 +1,416 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
+import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics.SchemaAware;
+
+/**
+ * Binary format of block cache access traces, as written by
+ * {@link TracingBlockCache} and read by {@link BlockCacheTraceReplayer}.<p>
+ *
+ * A trace starts with a header holding a magic number and the rate the
+ * accesses were sampled at, followed by records of 21 bytes:
+ * <pre>
+ *   op (1) | file name hash (4) | offset (8) | flags (1) | block type (1) |
+ *   table/family id (2) | heap size (4)
+ * </pre>
+ * The table and column family names are written once, in a schema record
+ * preceding the first record that uses them.<p>
+ *
+ * Sampling is by block rather than by access: a block is either traced on
+ * every access or never, so a trace sampled at rate R replays against a cache
+ * of R times the size with about the hit ratio the full cache would have.
+ */
+@InterfaceAudience.Private
+public class BlockCacheTrace {
+  private static final Log LOG = LogFactory.getLog(BlockCacheTrace.class);
+
+  static final int MAGIC = 0x42435431; // "BCT1"
+
+  /** Names a table/family id; carries two strings instead of a block */
+  public static final byte OP_SCHEMA = 0;
+  /** A {@link BlockCache#getBlock} */
+  public static final byte OP_GET = 1;
+  /** A {@link BlockCache#cacheBlock} */
+  public static final byte OP_CACHE = 2;
+  /** A {@link BlockCache#evictBlock} */
+  public static final byte OP_EVICT = 3;
+  /** A {@link BlockCache#evictBlocksByHfileName}; only the file is set */
+  public static final byte OP_EVICT_FILE = 4;
+
+  /** The get found the block */
+  public static final int FLAG_HIT = 1;
+  /** The get was made by a reader that caches blocks on miss */
+  public static final int FLAG_CACHING = 2;
+  /** The block was cached in-memory */
+  public static final int FLAG_IN_MEMORY = 4;
+
+  /** Block type of a get that missed */
+  static final byte UNKNOWN_BLOCK_TYPE = -1;
+
+  private static final int SAMPLE_RANGE = 1 << 24;
+
+  /**
+   * @return the threshold {@link #isSampled} compares block hashes against
+   * to keep <code>sampleRate</code> of all blocks
+   */
+  static int sampleThreshold(float sampleRate) {
+    if (sampleRate >= 1.0f) return SAMPLE_RANGE;
+    return Math.max(0, (int)(sampleRate * SAMPLE_RANGE));
+  }
+
+  /**
+   * @return whether accesses to the block are traced. The same block is
+   * always given the same answer.
+   */
+  static boolean isSampled(BlockCacheKey cacheKey, int threshold) {
+    // Spread the bits; the key's hash code is poorly mixed for neighbouring
+    // offsets of one file.
+    return ((cacheKey.hashCode() * 0x9E3779B9) >>> 8) < threshold;
+  }
+
+  /**
+   * One traced access.
+   */
+  public static class Record {
+    private final byte op;
+    private final int fileHash;
+    private final long offset;
+    private final int flags;
+    private final byte blockType;
+    private final int size;
+    private final String tableName;
+    private final String cfName;
+
+    Record(byte op, int fileHash, long offset, int flags, byte blockType,
+        int size, String tableName, String cfName) {
+      this.op = op;
+      this.fileHash = fileHash;
+      this.offset = offset;
+      this.flags = flags;
+      this.blockType = blockType;
+      this.size = size;
+      this.tableName = tableName;
+      this.cfName = cfName;
+    }
+
+    /**
+     * Build the record for an access to a block. The block may be null, as
+     * for a get that missed.
+     */
+    static Record create(byte op, BlockCacheKey cacheKey, Cacheable block,
+        int flags) {
+      byte blockType = UNKNOWN_BLOCK_TYPE;
+      int size = 0;
+      String tableName = null;
+      String cfName = null;
+      if (block != null) {
+        BlockType type = block.getBlockType();
+        if (type != null) blockType = (byte)type.ordinal();
+        size = (int)Math.min(Integer.MAX_VALUE, block.heapSize());
+        if (block instanceof SchemaAware) {
+          tableName = ((SchemaAware)block).getTableName();
+          cfName = ((SchemaAware)block).getColumnFamilyName();
+        }
+      }
+      return new Record(op, cacheKey.getHfileName().hashCode(),
+          cacheKey.getOffset(), flags, blockType, size, tableName, cfName);
+    }
+
+    public byte getOp() {
+      return op;
+    }
+
+    /** @return the hash code of the name of the block's file */
+    public int getFileHash() {
+      return fileHash;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public boolean isHit() {
+      return (flags & FLAG_HIT) != 0;
+    }
+
+    public boolean isCaching() {
+      return (flags & FLAG_CACHING) != 0;
+    }
+
+    public boolean isInMemory() {
+      return (flags & FLAG_IN_MEMORY) != 0;
+    }
+
+    /** @return the block type, or null if the access did not see the block */
+    public BlockType getBlockType() {
+      return blockType < 0 ? null : BlockType.values()[blockType];
+    }
+
+    /** @return the heap size of the block, 0 if not known */
+    public int getSize() {
+      return size;
+    }
+
+    /** @return the table of the block, {@link SchemaMetrics#UNKNOWN} if not known */
+    public String getTableName() {
+      return tableName == null ? SchemaMetrics.UNKNOWN : tableName;
+    }
+
+    /** @return the family of the block, {@link SchemaMetrics#UNKNOWN} if not known */
+    public String getColumnFamilyName() {
+      return cfName == null ? SchemaMetrics.UNKNOWN : cfName;
+    }
+
+    /**
+     * @return a cache key standing for the traced one. It is equal for all
+     * records of the same block, and blocks of the same file share its file
+     * name.
+     */
+    public BlockCacheKey toCacheKey() {
+      return new BlockCacheKey(Integer.toHexString(fileHash), offset);
+    }
+  }
+
+  /**
+   * Writes traces to a local file. Callers hand records over through a
+   * bounded queue; a daemon thread writes them out. Records are dropped
+   * rather than slowing callers down when the writer cannot keep up, and
+   * tracing stops once the file reaches its maximum size.
+   */
+  public static class Writer implements Closeable {
+    private final File file;
+    private final long maxBytes;
+    private final BlockingQueue<Record> queue;
+    private final WriterThread thread;
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private volatile boolean accepting = true;
+
+    /**
+     * @param file the file to write the trace to
+     * @param sampleRate fraction of the blocks traced, recorded in the header
+     * @param maxBytes size of the file at which tracing stops
+     * @param queueLength number of records waiting to be written before more
+     * records are dropped
+     */
+    public Writer(File file, float sampleRate, long maxBytes, int queueLength)
+    throws IOException {
+      this.file = file;
+      this.maxBytes = maxBytes;
+      this.queue = new ArrayBlockingQueue<Record>(queueLength);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file), 64 * 1024));
+      out.writeInt(MAGIC);
+      out.writeFloat(sampleRate);
+      this.thread = new WriterThread(out);
+      this.thread.start();
+    }
+
+    /**
+     * Queue a record for writing, or drop it if the queue is full.
+     */
+    public void append(Record record) {
+      if (!accepting) return;
+      if (!queue.offer(record)) {
+        droppedCount.incrementAndGet();
+      }
+    }
+
+    /** @return number of records dropped because the queue was full */
+    public long getDroppedCount() {
+      return droppedCount.get();
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    /**
+     * Write out the records queued so far and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+      accepting = false;
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private class WriterThread extends Thread {
+      private final DataOutputStream out;
+      private final Map<String, Short> schemaIds =
+          new HashMap<String, Short>();
+      private long written = 8;
+
+      WriterThread(DataOutputStream out) {
+        super("BlockCacheTraceWriter");
+        setDaemon(true);
+        this.out = out;
+      }
+
+      @Override
+      public void run() {
+        try {
+          while (accepting) {
+            Record record;
+            try {
+              record = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              break;
+            }
+            if (record == null) {
+              out.flush();
+              continue;
+            }
+            write(record);
+            if (written >= maxBytes) {
+              LOG.info("Block cache trace " + file + " reached " + written +
+                  " bytes, stopping tracing");
+              accepting = false;
+            }
+          }
+          Record record;
+          while ((record = queue.poll()) != null && written < maxBytes) {
+            write(record);
+          }
+        } catch (IOException ioe) {
+          LOG.warn("Failed writing block cache trace " + file +
+              ", stopping tracing", ioe);
+          accepting = false;
+        } finally {
+          queue.clear();
+          try {
+            out.close();
+          } catch (IOException ioe) {
+            LOG.warn("Failed closing block cache trace " + file, ioe);
+          }
+        }
+      }
+
+      private void write(Record record) throws IOException {
+        short schemaId = 0;
+        if (record.op != OP_EVICT_FILE) {
+          String schema = record.getTableName() + "\t" +
+              record.getColumnFamilyName();
+          Short id = schemaIds.get(schema);
+          if (id == null) {
+            id = (short)schemaIds.size();
+            schemaIds.put(schema, id);
+            out.writeByte(OP_SCHEMA);
+            out.writeShort(id);
+            out.writeUTF(record.getTableName());
+            out.writeUTF(record.getColumnFamilyName());
+            written += 3 + 4 + record.getTableName().length() +
+                record.getColumnFamilyName().length();
+          }
+          schemaId = id;
+        }
+        out.writeByte(record.op);
+        out.writeInt(record.fileHash);
+        out.writeLong(record.offset);
+        out.writeByte(record.flags);
+        out.writeByte(record.blockType);
+        out.writeShort(schemaId);
+        out.writeInt(record.size);
+        written += 21;
+      }
+    }
+  }
+
+  /**
+   * Reads back a trace written by {@link Writer}.
+   */
+  public static class Reader implements Closeable {
+    private final DataInputStream in;
+    private final float sampleRate;
+    private final Map<Short, String[]> schemas = new HashMap<Short, String[]>();
+
+    public Reader(File file) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file), 64 * 1024));
+      if (in.readInt() != MAGIC) {
+        in.close();
+        throw new IOException(file + " is not a block cache trace");
+      }
+      this.sampleRate = in.readFloat();
+    }
+
+    /** @return the fraction of the blocks the trace covers */
+    public float getSampleRate() {
+      return sampleRate;
+    }
+
+    /**
+     * @return the next record, or null at the end of the trace. A trace cut
+     * short in the middle of a record ends before that record.
+     */
+    public Record next() throws IOException {
+      try {
+        byte op = in.readByte();
+        while (op == OP_SCHEMA) {
+          short id = in.readShort();
+          schemas.put(id, new String[] { in.readUTF(), in.readUTF() });
+          op = in.readByte();
+        }
+        int fileHash = in.readInt();
+        long offset = in.readLong();
+        int flags = in.readByte();
+        byte blockType = in.readByte();
+        short schemaId = in.readShort();
+        int size = in.readInt();
+        String[] schema = op == OP_EVICT_FILE ? null : schemas.get(schemaId);
+        return new Record(op, fileHash, offset, flags, blockType, size,
+            schema == null ? null : schema[0],
+            schema == null ? null : schema[1]);
+      } catch (EOFException eof) {
+        return null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.hfile.slab.SlabCache;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
+import org.apache.hadoop.hbase.util.AbstractHBaseTool;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Replays a block cache trace written by {@link TracingBlockCache} against a
+ * block cache implementation at a range of sizes, and prints the hit ratio
+ * the cache reaches at each size.<p>
+ *
+ * Cache sizes are given for the whole region server; they are scaled down by
+ * the trace's sample rate for the replay. Blocks carry no data, only their
+ * recorded heap size.<p>
+ *
+ * Usage: <code>bin/hbase org.apache.hadoop.hbase.io.hfile.BlockCacheTraceReplayer
+ * -trace FILE -sizes 256m,1g,4g [-cache lru|tinylfu|slab|CLASS]
+ * [-block_size BYTES]</code>
+ */
+@InterfaceAudience.Private
+public class BlockCacheTraceReplayer extends AbstractHBaseTool {
+  private static final String OPT_TRACE = "trace";
+  private static final String OPT_SIZES = "sizes";
+  private static final String OPT_CACHE = "cache";
+  private static final String OPT_BLOCK_SIZE = "block_size";
+
+  private File traceFile;
+  private long[] cacheSizes;
+  private String cacheKind;
+  private long blockSize;
+
+  @Override
+  protected void addOptions() {
+    addRequiredOptWithArg(OPT_TRACE, "Block cache trace file to replay");
+    addRequiredOptWithArg(OPT_SIZES, "Comma separated cache sizes to " +
+        "replay at, in bytes with an optional k, m or g suffix");
+    addOptWithArg(OPT_CACHE, "Cache to replay against: lru (default), " +
+        "tinylfu, slab, or the name of a BlockCache class with a " +
+        "(long maxSize, long blockSize) constructor");
+    addOptWithArg(OPT_BLOCK_SIZE, "Expected average block size, default " +
+        StoreFile.DEFAULT_BLOCKSIZE_SMALL);
+  }
+
+  @Override
+  protected void processOptions(CommandLine cmd) {
+    traceFile = new File(cmd.getOptionValue(OPT_TRACE));
+    String[] sizes = cmd.getOptionValue(OPT_SIZES).split(",");
+    cacheSizes = new long[sizes.length];
+    for (int i = 0; i < sizes.length; i++) {
+      cacheSizes[i] = parseSize(sizes[i]);
+    }
+    cacheKind = cmd.getOptionValue(OPT_CACHE, "lru");
+    blockSize = Long.parseLong(cmd.getOptionValue(OPT_BLOCK_SIZE,
+        String.valueOf(StoreFile.DEFAULT_BLOCKSIZE_SMALL)));
+  }
+
+  @Override
+  protected void doWork() throws Exception {
+    BlockCacheTrace.Reader reader = new BlockCacheTrace.Reader(traceFile);
+    float sampleRate = reader.getSampleRate();
+    long gets = 0;
+    long hits = 0;
+    try {
+      BlockCacheTrace.Record record;
+      while ((record = reader.next()) != null) {
+        if (record.getOp() != BlockCacheTrace.OP_GET) continue;
+        gets++;
+        if (record.isHit()) hits++;
+      }
+    } finally {
+      reader.close();
+    }
+    System.out.println("Trace " + traceFile + ": " + gets +
+        " block requests, sampled at " + sampleRate + ", traced cache hit " +
+        "ratio " + formatRatio(gets == 0 ? 0 : (double)hits / gets));
+    System.out.println(String.format("%12s %12s %12s %12s %12s",
+        "cache size", "replay size", "requests", "hit ratio",
+        "caching hit"));
+    for (long cacheSize : cacheSizes) {
+      long replaySize = (long)(cacheSize * (double)sampleRate);
+      BlockCache cache = createCache(cacheKind, replaySize, blockSize);
+      try {
+        reader = new BlockCacheTrace.Reader(traceFile);
+        try {
+          replay(reader, cache);
+        } finally {
+          reader.close();
+        }
+        CacheStats stats = cache.getStats();
+        System.out.println(String.format("%12s %12s %12d %12s %12s",
+            StringUtils.humanReadableInt(cacheSize),
+            StringUtils.humanReadableInt(replaySize),
+            stats.getRequestCount(), formatRatio(stats.getHitRatio()),
+            formatRatio(stats.getHitCachingRatio())));
+      } finally {
+        cache.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Replay the rest of a trace against a cache. A block is cached when the
+   * trace caches it, and also when a caching request misses in the replay
+   * cache but hit in the traced one, as the reader would have cached it
+   * then.
+   * @return the number of block requests replayed
+   */
+  public static long replay(BlockCacheTrace.Reader reader, BlockCache cache)
+  throws IOException {
+    long gets = 0;
+    BlockCacheTrace.Record record;
+    while ((record = reader.next()) != null) {
+      switch (record.getOp()) {
+      case BlockCacheTrace.OP_GET:
+        gets++;
+        BlockCacheKey cacheKey = record.toCacheKey();
+        if (cache.getBlock(cacheKey, record.isCaching()) == null &&
+            record.isHit() && record.isCaching()) {
+          cacheIfAbsent(cache, cacheKey, record);
+        }
+        break;
+      case BlockCacheTrace.OP_CACHE:
+        cacheIfAbsent(cache, record.toCacheKey(), record);
+        break;
+      case BlockCacheTrace.OP_EVICT:
+        cache.evictBlock(record.toCacheKey());
+        break;
+      case BlockCacheTrace.OP_EVICT_FILE:
+        cache.evictBlocksByHfileName(record.toCacheKey().getHfileName());
+        break;
+      default:
+        throw new IOException("Unknown block cache trace op " +
+            record.getOp());
+      }
+    }
+    return gets;
+  }
+
+  private static void cacheIfAbsent(BlockCache cache, BlockCacheKey cacheKey,
+      BlockCacheTrace.Record record) {
+    if (record.getSize() <= 0) return;
+    try {
+      cache.cacheBlock(cacheKey, new ReplayBlock(record.getSize(),
+          record.getBlockType()), record.isInMemory());
+    } catch (RuntimeException e) {
+      // The replay cache still has a block the traced one had to read again,
+      // and LruBlockCache refuses to cache a block twice.
+    }
+  }
+
+  /**
+   * Instantiate a cache to replay against.
+   * @param kind lru, tinylfu, slab or a class name
+   */
+  BlockCache createCache(String kind, long size, long blockSize)
+  throws Exception {
+    if (kind.equals("lru") || kind.equals("tinylfu")) {
+      // Without the eviction thread evictions happen inline, which makes
+      // the replay deterministic.
+      LruBlockCache lru = new LruBlockCache(size, blockSize, false);
+      if (kind.equals("tinylfu")) {
+        lru.setEvictionPolicy(new TinyLfuEvictionPolicy(size, blockSize));
+      }
+      return lru;
+    } else if (kind.equals("slab")) {
+      SlabCache slab = new SlabCache(size, blockSize);
+      slab.addSlabByConf(conf);
+      return slab;
+    }
+    return (BlockCache)conf.getClassByName(kind).getConstructor(long.class,
+        long.class).newInstance(size, blockSize);
+  }
+
+  /**
+   * Parse a size such as "512m".
+   */
+  static long parseSize(String size) {
+    size = size.trim().toLowerCase();
+    long multiplier = 1;
+    char suffix = size.charAt(size.length() - 1);
+    if (suffix == 'k' || suffix == 'm' || suffix == 'g' || suffix == 't') {
+      multiplier = 1L << (10 * ("kmgt".indexOf(suffix) + 1));
+      size = size.substring(0, size.length() - 1);
+    }
+    return (long)(Double.parseDouble(size) * multiplier);
+  }
+
+  private static String formatRatio(double ratio) {
+    return String.format("%.2f%%", ratio * 100);
+  }
+
+  /**
+   * Stand-in for a traced block, of the traced heap size.
+   */
+  static class ReplayBlock implements Cacheable {
+    private static final CacheableDeserializer<Cacheable> DESERIALIZER =
+        new CacheableDeserializer<Cacheable>() {
+          @Override
+          public Cacheable deserialize(ByteBuffer b) throws IOException {
+            int size = b.getInt();
+            return new ReplayBlock(size, BlockType.DATA);
+          }
+        };
+
+    private final int size;
+    private final BlockType blockType;
+
+    ReplayBlock(int size, BlockType blockType) {
+      this.size = size;
+      this.blockType = blockType == null ? BlockType.DATA : blockType;
+    }
+
+    @Override
+    public long heapSize() {
+      return size;
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return Math.max(size, 4);
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination) {
+      destination.putInt(size);
+      destination.rewind();
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return DESERIALIZER;
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return blockType;
+    }
+
+    @Override
+    public SchemaMetrics getSchemaMetrics() {
+      return null;
+    }
+  }
+
+  public static void main(String[] args) {
+    new BlockCacheTraceReplayer().doStaticMain(args);
+  }
+}
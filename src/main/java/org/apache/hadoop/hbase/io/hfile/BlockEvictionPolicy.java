@@ -0,0 +1,62 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Decides which blocks {@link LruBlockCache} admits and which it frees, in
+ * place of its built-in single/multi/in-memory priority buckets.<p>
+ *
+ * Implementations need a public constructor taking the maximum size of the
+ * cache and the expected average block size, both in bytes, so they can be
+ * named in <code>hbase.lru.blockcache.eviction.policy</code>. Calls to
+ * {@link #selectVictims} are serialized by the cache; the other methods are
+ * called concurrently from reader threads and must be cheap.
+ */
+@InterfaceAudience.Private
+public interface BlockEvictionPolicy {
+
+  /**
+   * A block was requested, whether or not it was found in the cache.
+   * @param cacheKey the requested block
+   */
+  void recordAccess(BlockCacheKey cacheKey);
+
+  /**
+   * Called before a block that is not in-memory is added while the cache is
+   * at or above its minimum size.
+   * @param cacheKey the block to add
+   * @return true if the block should be cached
+   */
+  boolean admit(BlockCacheKey cacheKey);
+
+  /**
+   * Choose blocks to free.
+   * @param blocks the blocks currently cached
+   * @param bytesToFree heap size the cache needs to free
+   * @return the blocks to evict, in the order they should go
+   */
+  List<CachedBlock> selectVictims(Collection<CachedBlock> blocks,
+      long bytesToFree);
+}
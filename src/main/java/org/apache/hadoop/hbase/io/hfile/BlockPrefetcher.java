@@ -0,0 +1,299 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Reads {@link HFile} blocks in the background, on a pool of daemon threads
+ * shared by all readers of the process. There are two users:
+ * <ul>
+ * <li>A scanner that moves from block to block sequentially keeps a
+ * {@link ReadAhead}, which reads the next few blocks with positional reads
+ * while the scanner works through the current one. The blocks are held by
+ * the scanner and, if it caches blocks, also go to the block cache.</li>
+ * <li>If {@link CacheConfig#shouldPrefetchOnOpen()}, every block of a file is
+ * read into the block cache once the file is opened, see
+ * {@link #prefetchFile(HFile.Reader)}.</li>
+ * </ul>
+ * The pool and its queue are bounded. When the queue is full the read is
+ * simply not done ahead of time, so background reads never hold up a
+ * scanner and never pile up behind slow disks.
+ */
+@InterfaceAudience.Private
+public class BlockPrefetcher {
+  static final Log LOG = LogFactory.getLog(BlockPrefetcher.class);
+
+  /** Configuration key for the number of background block reading threads */
+  public static final String PREFETCH_THREADS_KEY =
+      "hfile.block.prefetch.threads";
+  public static final int DEFAULT_PREFETCH_THREADS = 4;
+
+  /** Configuration key for the number of queued background reads */
+  public static final String PREFETCH_QUEUE_KEY =
+      "hfile.block.prefetch.queuelength";
+  public static final int DEFAULT_PREFETCH_QUEUE = 1024;
+
+  private static int threads = DEFAULT_PREFETCH_THREADS;
+  private static int queueLength = DEFAULT_PREFETCH_QUEUE;
+  private static ThreadPoolExecutor pool = null;
+
+  private BlockPrefetcher() {
+  }
+
+  /**
+   * Sets the size of the shared pool. Only has an effect before the first
+   * background read is submitted.
+   */
+  public static synchronized void configureGlobally(Configuration conf) {
+    if (pool != null) return;
+    threads = Math.max(1,
+        conf.getInt(PREFETCH_THREADS_KEY, DEFAULT_PREFETCH_THREADS));
+    queueLength = Math.max(1,
+        conf.getInt(PREFETCH_QUEUE_KEY, DEFAULT_PREFETCH_QUEUE));
+  }
+
+  private static synchronized ThreadPoolExecutor getPool() {
+    if (pool == null) {
+      pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(queueLength), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r);
+              t.setName("blockPrefetcher-" + System.currentTimeMillis());
+              t.setDaemon(true);
+              return t;
+            }
+          });
+      pool.allowCoreThreadTimeOut(true);
+    }
+    return pool;
+  }
+
+  /**
+   * @return false if the pool is saturated and the task was dropped
+   */
+  static boolean submit(Runnable task) {
+    try {
+      getPool().execute(task);
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  private static boolean isClosed(HFile.Reader reader) {
+    return reader instanceof HFileReaderV2 &&
+        ((HFileReaderV2) reader).isClosed();
+  }
+
+  /**
+   * Reads every block of the file into the block cache in the background,
+   * stopping early if the reader is closed.
+   * @return false if the pool is saturated and nothing will be read
+   */
+  public static boolean prefetchFile(final HFile.Reader reader) {
+    return submit(new Runnable() {
+      @Override
+      public void run() {
+        long end = reader.getTrailer().getLoadOnOpenDataOffset();
+        long offset = 0;
+        long onDiskSize = -1;
+        int count = 0;
+        try {
+          while (offset < end && !isClosed(reader)) {
+            HFileBlock block =
+                reader.readBlock(offset, onDiskSize, true, true, false, null);
+            offset += block.getOnDiskSizeWithHeader();
+            onDiskSize = block.getNextBlockOnDiskSizeWithHeader();
+            count++;
+          }
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Prefetched " + count + " block(s) of " +
+                reader.getName());
+          }
+        } catch (IOException e) {
+          // The file may have been closed or removed by a compaction under us.
+          if (!isClosed(reader)) {
+            LOG.warn("Stopped prefetching " + reader.getName() + " at offset " +
+                offset, e);
+          }
+        } catch (RuntimeException e) {
+          if (!isClosed(reader)) {
+            LOG.warn("Stopped prefetching " + reader.getName() + " at offset " +
+                offset, e);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Blocks read ahead of one scanner. The scanner asks for the block
+   * following the current one with {@link #take(long)} before reading it
+   * itself, and calls {@link #advance(HFileBlock)} whenever it moves on to a
+   * block. At most one background read chain is running at a time; it stops
+   * once <code>depth</code> blocks are waiting or the data blocks end.
+   * A scanner that seeks elsewhere simply drops what was read ahead.
+   */
+  static class ReadAhead {
+    private final HFile.Reader reader;
+    private final boolean cacheBlocks;
+    private final boolean isCompaction;
+    private final int depth;
+
+    private final LinkedList<HFileBlock> ready = new LinkedList<HFileBlock>();
+    // Offset and size of the next block the background chain reads, valid
+    // while it runs or while blocks are waiting.
+    private long nextOffset = -1;
+    private long nextOnDiskSize = -1;
+    private boolean running = false;
+    // Bumped when the scanner jumps, so an in-flight read is thrown away.
+    private long generation = 0;
+    private boolean closed = false;
+
+    ReadAhead(HFile.Reader reader, boolean cacheBlocks, boolean isCompaction,
+        int depth) {
+      this.reader = reader;
+      this.cacheBlocks = cacheBlocks;
+      this.isCompaction = isCompaction;
+      this.depth = depth;
+    }
+
+    /**
+     * @return the block at <code>offset</code> if it was read ahead, waiting
+     * for it if it is being read right now; null if it was not read ahead
+     */
+    synchronized HFileBlock take(long offset) throws IOException {
+      while (true) {
+        while (!ready.isEmpty()) {
+          HFileBlock b = ready.getFirst();
+          if (b.getOffset() > offset) return null;
+          ready.removeFirst();
+          if (b.getOffset() == offset) return b;
+        }
+        if (!running || nextOffset != offset) return null;
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted waiting for block at " + offset);
+        }
+      }
+    }
+
+    /**
+     * Called when the scanner has moved to <code>current</code>; tops up the
+     * blocks read ahead of it.
+     */
+    synchronized void advance(HFileBlock current) {
+      if (closed) return;
+      long next = current.getOffset() + current.getOnDiskSizeWithHeader();
+      long expected =
+          ready.isEmpty() ? nextOffset : ready.getFirst().getOffset();
+      if (expected != next) {
+        // Not where we left off: start over behind the current block.
+        ready.clear();
+        generation++;
+        running = false;
+        nextOffset = next;
+        nextOnDiskSize = current.getNextBlockOnDiskSizeWithHeader();
+      }
+      if (running || ready.size() >= depth) return;
+      running = true;
+      final long gen = generation;
+      if (!submit(new Runnable() {
+        @Override
+        public void run() {
+          readAhead(gen);
+        }
+      })) {
+        running = false;
+      }
+    }
+
+    /** Drops the blocks read ahead and stops the background chain. */
+    synchronized void close() {
+      closed = true;
+      ready.clear();
+      generation++;
+      running = false;
+      notifyAll();
+    }
+
+    synchronized int getReadyCount() {
+      return ready.size();
+    }
+
+    private void readAhead(long gen) {
+      long lastDataBlockOffset = reader.getTrailer().getLastDataBlockOffset();
+      while (true) {
+        long offset;
+        long onDiskSize;
+        synchronized (this) {
+          if (gen != generation) return;
+          if (closed || ready.size() >= depth || nextOffset < 0 ||
+              nextOffset > lastDataBlockOffset || isClosed(reader)) {
+            running = false;
+            notifyAll();
+            return;
+          }
+          offset = nextOffset;
+          onDiskSize = nextOnDiskSize;
+        }
+        HFileBlock block = null;
+        try {
+          block = reader.readBlock(offset, onDiskSize, cacheBlocks, true,
+              isCompaction, null);
+        } catch (IOException e) {
+          // Leave it to the scanner to read the block and report the error.
+          LOG.debug("Read ahead of " + reader.getName() + " failed at offset " +
+              offset, e);
+        } catch (RuntimeException e) {
+          LOG.debug("Read ahead of " + reader.getName() + " failed at offset " +
+              offset, e);
+        }
+        synchronized (this) {
+          if (gen != generation) return;
+          if (block == null) {
+            running = false;
+            notifyAll();
+            return;
+          }
+          ready.addLast(block);
+          nextOffset = offset + block.getOnDiskSizeWithHeader();
+          nextOnDiskSize = block.getNextBlockOnDiskSizeWithHeader();
+          notifyAll();
+        }
+      }
+    }
+  }
+}
@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.hbase.io.hfile;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryUsage;
 
@@ -27,6 +29,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.io.hfile.BlockType.BlockCategory;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.util.DirectMemoryUtils;
 import org.apache.hadoop.util.StringUtils;
@@ -72,15 +75,83 @@ public class CacheConfig {
   public static final String EVICT_BLOCKS_ON_CLOSE_KEY =
       "hbase.rs.evictblocksonclose";
 
+  /**
+   * Configuration key for the class of the {@link BlockEvictionPolicy} used
+   * by the {@link LruBlockCache}. Unset for its priority buckets.
+   */
+  public static final String LRU_EVICTION_POLICY_KEY =
+      "hbase.lru.blockcache.eviction.policy";
+
+  /**
+   * Configuration key for the IO engine of the bucket cache: "offheap",
+   * "heap" or "mmap:" followed by a local file path. Together with
+   * {@link #BUCKET_CACHE_SIZE_KEY} this enables a {@link BucketCache} as
+   * victim cache of the on-heap {@link LruBlockCache}.
+   */
+  public static final String BUCKET_CACHE_IOENGINE_KEY =
+      "hbase.bucketcache.ioengine";
+
+  /** Configuration key for the size of the bucket cache, in megabytes */
+  public static final String BUCKET_CACHE_SIZE_KEY = "hbase.bucketcache.size";
+
+  /**
+   * Configuration key for the comma separated size classes of the bucket
+   * cache, in bytes.
+   */
+  public static final String BUCKET_CACHE_BUCKETS_KEY =
+      "hbase.bucketcache.bucket.sizes";
+
+  /** Configuration key for the number of bucket cache writer threads */
+  public static final String BUCKET_CACHE_WRITER_THREADS_KEY =
+      "hbase.bucketcache.writer.threads";
+
+  /** Configuration key for the number of blocks queued per writer thread */
+  public static final String BUCKET_CACHE_WRITER_QUEUE_KEY =
+      "hbase.bucketcache.writer.queuelength";
+
+  /**
+   * Configuration key for the local directory block cache traces are written
+   * to. Unset to not trace; see {@link TracingBlockCache}.
+   */
+  public static final String BLOCKCACHE_TRACE_DIR_KEY =
+      "hbase.blockcache.trace.dir";
+
+  /** Configuration key for the fraction of the blocks traced */
+  public static final String BLOCKCACHE_TRACE_SAMPLE_RATE_KEY =
+      "hbase.blockcache.trace.sample.rate";
+
+  /** Configuration key for the trace size at which tracing stops, in MB */
+  public static final String BLOCKCACHE_TRACE_MAX_SIZE_KEY =
+      "hbase.blockcache.trace.max.size";
+
+  /**
+   * Configuration key for the number of blocks a scanner moving sequentially
+   * through a file reads ahead in the background. 0 disables read-ahead.
+   */
+  public static final String READ_AHEAD_DEPTH_KEY =
+      "hfile.block.readahead.depth";
+
+  /**
+   * Configuration key to read all blocks of a file into the block cache in
+   * the background when the file is opened. Also settable per family, see
+   * {@link HColumnDescriptor#setPrefetchBlocksOnOpen(boolean)}.
+   */
+  public static final String PREFETCH_BLOCKS_ON_OPEN_KEY =
+      "hbase.rs.prefetchblocksonopen";
+
   // Defaults
 
   public static final boolean DEFAULT_CACHE_DATA_ON_READ = true;
   public static final boolean DEFAULT_CACHE_DATA_ON_WRITE = false;
   public static final boolean DEFAULT_IN_MEMORY = false;
+  public static final float DEFAULT_BLOCKCACHE_TRACE_SAMPLE_RATE = 0.01f;
+  public static final long DEFAULT_BLOCKCACHE_TRACE_MAX_SIZE = 1024;
   public static final boolean DEFAULT_CACHE_INDEXES_ON_WRITE = false;
   public static final boolean DEFAULT_CACHE_BLOOMS_ON_WRITE = false;
   public static final boolean DEFAULT_EVICT_ON_CLOSE = false;
   public static final boolean DEFAULT_COMPRESSED_CACHE = false;
+  public static final int DEFAULT_READ_AHEAD_DEPTH = 0;
+  public static final boolean DEFAULT_PREFETCH_ON_OPEN = false;
 
   /** Local reference to the block cache, null if completely disabled */
   private final BlockCache blockCache;
@@ -109,6 +180,12 @@ public class CacheConfig {
   /** Whether data blocks should be stored in compressed form in the cache */
   private final boolean cacheCompressed;
 
+  /** Number of blocks sequential scanners read ahead, 0 if disabled */
+  private int readAheadDepth = DEFAULT_READ_AHEAD_DEPTH;
+
+  /** Whether all blocks of a file should be cached when it is opened */
+  private boolean prefetchOnOpen = DEFAULT_PREFETCH_ON_OPEN;
+
   /**
    * Create a cache configuration using the specified configuration object and
    * family descriptor.
@@ -126,6 +203,11 @@ public class CacheConfig {
         conf.getBoolean(EVICT_BLOCKS_ON_CLOSE_KEY, DEFAULT_EVICT_ON_CLOSE),
         conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY, DEFAULT_COMPRESSED_CACHE)
      );
+    this.readAheadDepth =
+        conf.getInt(READ_AHEAD_DEPTH_KEY, DEFAULT_READ_AHEAD_DEPTH);
+    this.prefetchOnOpen = family.shouldPrefetchBlocksOnOpen() ||
+        conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY, DEFAULT_PREFETCH_ON_OPEN);
+    BlockPrefetcher.configureGlobally(conf);
   }
 
   /**
@@ -147,6 +229,11 @@ public class CacheConfig {
         conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY,
             DEFAULT_COMPRESSED_CACHE)
      );
+    this.readAheadDepth =
+        conf.getInt(READ_AHEAD_DEPTH_KEY, DEFAULT_READ_AHEAD_DEPTH);
+    this.prefetchOnOpen =
+        conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY, DEFAULT_PREFETCH_ON_OPEN);
+    BlockPrefetcher.configureGlobally(conf);
   }
 
   /**
@@ -185,6 +272,8 @@ public class CacheConfig {
         cacheConf.cacheDataOnWrite, cacheConf.cacheIndexesOnWrite,
         cacheConf.cacheBloomsOnWrite, cacheConf.evictOnClose,
         cacheConf.cacheCompressed);
+    this.readAheadDepth = cacheConf.readAheadDepth;
+    this.prefetchOnOpen = cacheConf.prefetchOnOpen;
   }
 
   /**
@@ -287,6 +376,38 @@ public class CacheConfig {
     return isBlockCacheEnabled() && this.cacheCompressed;
   }
 
+  /**
+   * @return the number of blocks a sequential scanner should read ahead in
+   *         the background, 0 if it should not
+   */
+  public int getReadAheadDepth() {
+    return this.readAheadDepth;
+  }
+
+  /**
+   * Only used for testing.
+   * @param readAheadDepth number of blocks sequential scanners read ahead
+   */
+  public void setReadAheadDepth(int readAheadDepth) {
+    this.readAheadDepth = readAheadDepth;
+  }
+
+  /**
+   * @return true if all blocks of an HFile should be read into the cache in
+   *         the background when it is opened, false if not
+   */
+  public boolean shouldPrefetchOnOpen() {
+    return shouldCacheDataOnRead() && this.prefetchOnOpen;
+  }
+
+  /**
+   * Only used for testing.
+   * @param prefetchOnOpen whether to cache all blocks of a file on open
+   */
+  public void setPrefetchOnOpen(boolean prefetchOnOpen) {
+    this.prefetchOnOpen = prefetchOnOpen;
+  }
+
   @Override
   public String toString() {
     if (!isBlockCacheEnabled()) {
@@ -298,7 +419,9 @@ public class CacheConfig {
       "[cacheIndexesOnWrite=" + shouldCacheIndexesOnWrite() + "] " +
       "[cacheBloomsOnWrite=" + shouldCacheBloomsOnWrite() + "] " +
       "[cacheEvictOnClose=" + shouldEvictOnClose() + "] " +
-      "[cacheCompressed=" + shouldCacheCompressed() + "]";
+      "[cacheCompressed=" + shouldCacheCompressed() + "] " +
+      "[readAheadDepth=" + getReadAheadDepth() + "] " +
+      "[prefetchOnOpen=" + shouldPrefetchOnOpen() + "]";
   }
 
   // Static block cache reference and methods
@@ -344,13 +467,102 @@ public class CacheConfig {
           DirectMemoryUtils.getDirectMemorySize());
     LOG.info("Allocating LruBlockCache with maximum size " +
       StringUtils.humanReadableInt(cacheSize));
-    if (offHeapCacheSize <= 0) {
-      globalBlockCache = new LruBlockCache(cacheSize,
+    String bucketCacheIOEngineName = conf.get(BUCKET_CACHE_IOENGINE_KEY, null);
+    long bucketCacheSize = conf.getLong(BUCKET_CACHE_SIZE_KEY, 0) * 1024 * 1024;
+    if (bucketCacheIOEngineName != null &&
+        bucketCacheIOEngineName.length() > 0 && bucketCacheSize > 0) {
+      LruBlockCache lruCache = new LruBlockCache(cacheSize,
           StoreFile.DEFAULT_BLOCKSIZE_SMALL);
+      lruCache.setEvictionPolicy(instantiateEvictionPolicy(conf, cacheSize,
+          StoreFile.DEFAULT_BLOCKSIZE_SMALL));
+      lruCache.setVictimCache(instantiateBucketCache(conf,
+          bucketCacheIOEngineName, bucketCacheSize));
+      globalBlockCache = lruCache;
+    } else if (offHeapCacheSize <= 0) {
+      LruBlockCache lruCache = new LruBlockCache(cacheSize,
+          StoreFile.DEFAULT_BLOCKSIZE_SMALL);
+      lruCache.setEvictionPolicy(instantiateEvictionPolicy(conf, cacheSize,
+          StoreFile.DEFAULT_BLOCKSIZE_SMALL));
+      globalBlockCache = lruCache;
     } else {
       globalBlockCache = new DoubleBlockCache(cacheSize, offHeapCacheSize,
           StoreFile.DEFAULT_BLOCKSIZE_SMALL, blockSize, conf);
     }
+    String traceDir = conf.get(BLOCKCACHE_TRACE_DIR_KEY, null);
+    if (traceDir != null && traceDir.length() > 0) {
+      globalBlockCache = instantiateTracingBlockCache(conf, globalBlockCache,
+          traceDir);
+    }
     return globalBlockCache;
   }
+
+  /**
+   * Wrap the cache in a {@link TracingBlockCache}. Tracing is a diagnostic,
+   * so the plain cache is returned if the trace file cannot be created.
+   */
+  private static BlockCache instantiateTracingBlockCache(Configuration conf,
+      BlockCache cache, String traceDir) {
+    float sampleRate = conf.getFloat(BLOCKCACHE_TRACE_SAMPLE_RATE_KEY,
+        DEFAULT_BLOCKCACHE_TRACE_SAMPLE_RATE);
+    long maxSize = conf.getLong(BLOCKCACHE_TRACE_MAX_SIZE_KEY,
+        DEFAULT_BLOCKCACHE_TRACE_MAX_SIZE) * 1024 * 1024;
+    File dir = new File(traceDir);
+    // Several region servers may share a host and so the directory.
+    String process = ManagementFactory.getRuntimeMXBean().getName();
+    String name = "blockcache." + System.currentTimeMillis() + "." +
+        process.replaceAll("\\W", "_") + ".trace";
+    try {
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("Can't create directory " + dir);
+      }
+      BlockCacheTrace.Writer writer = new BlockCacheTrace.Writer(
+          new File(dir, name), sampleRate, maxSize, 10000);
+      LOG.info("Tracing " + sampleRate + " of the block cache accesses to " +
+          writer.getFile());
+      return new TracingBlockCache(cache, writer, sampleRate);
+    } catch (IOException ioe) {
+      LOG.warn("Can't trace block cache accesses to " + traceDir, ioe);
+      return cache;
+    }
+  }
+
+  private static BlockEvictionPolicy instantiateEvictionPolicy(
+      Configuration conf, long cacheSize, long blockSize) {
+    Class<? extends BlockEvictionPolicy> policyClass =
+        conf.getClass(LRU_EVICTION_POLICY_KEY, null, BlockEvictionPolicy.class);
+    if (policyClass == null) return null;
+    LOG.info("Using " + policyClass.getName() + " for the LruBlockCache");
+    try {
+      return policyClass.getConstructor(long.class, long.class).newInstance(
+          cacheSize, blockSize);
+    } catch (Exception e) {
+      throw new RuntimeException("Can't instantiate eviction policy " +
+          policyClass.getName(), e);
+    }
+  }
+
+  private static BucketCache instantiateBucketCache(Configuration conf,
+      String ioEngineName, long size) {
+    int[] bucketSizes = null;
+    String[] configuredBucketSizes = conf.getStrings(BUCKET_CACHE_BUCKETS_KEY);
+    if (configuredBucketSizes != null) {
+      bucketSizes = new int[configuredBucketSizes.length];
+      for (int i = 0; i < configuredBucketSizes.length; i++) {
+        bucketSizes[i] = Integer.parseInt(configuredBucketSizes[i].trim());
+      }
+    }
+    int writerThreads = conf.getInt(BUCKET_CACHE_WRITER_THREADS_KEY,
+        BucketCache.DEFAULT_WRITER_THREADS);
+    int writerQueueLength = conf.getInt(BUCKET_CACHE_WRITER_QUEUE_KEY,
+        BucketCache.DEFAULT_WRITER_QUEUE_ITEMS);
+    LOG.info("Allocating BucketCache with size " +
+      StringUtils.humanReadableInt(size) + " on " + ioEngineName);
+    try {
+      return new BucketCache(BucketCache.getIOEngineFromName(ioEngineName,
+          size), size, bucketSizes, writerThreads, writerQueueLength);
+    } catch (IOException ioe) {
+      throw new RuntimeException("Can't instantiate bucket cache on " +
+          ioEngineName, ioe);
+    }
+  }
 }
@@ -110,6 +110,10 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
     return this.cacheKey;
   }
 
+  long getAccessTime() {
+    return this.accessTime;
+  }
+
   public BlockPriority getPriority() {
     return this.priority;
   }
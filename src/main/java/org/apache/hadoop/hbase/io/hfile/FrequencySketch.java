@@ -0,0 +1,135 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Count-min sketch estimating how often a key has been seen recently, with
+ * 4 bit counters packed 16 to a long and four counters per key.<p>
+ *
+ * Once the number of increments reaches ten times the number of expected
+ * entries, all counters are halved so that old popularity fades.<p>
+ *
+ * Thread safe without locks: each word of counters is updated with a
+ * compare-and-set, so counters never exceed 15 and never carry into their
+ * neighbours. A reset racing with increments may count some of them before
+ * the halving and some after.
+ */
+@InterfaceAudience.Private
+class FrequencySketch {
+  private static final long [] SEEDS = { 0xc3a5c85c97cb3127L,
+    0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+  private static final long RESET_MASK = 0x7777777777777777L;
+  static final int MAX_COUNT = 15;
+
+  private final AtomicLongArray table;
+  private final int tableMask;
+  private final int sampleSize;
+  private final AtomicInteger additions = new AtomicInteger();
+
+  /**
+   * @param expectedEntries number of distinct keys the sketch should
+   * distinguish; sizes the table
+   */
+  FrequencySketch(long expectedEntries) {
+    int capacity = (int)Math.min(Math.max(expectedEntries, 16), 1 << 28);
+    int tableSize = Integer.highestOneBit(capacity - 1) << 1;
+    this.table = new AtomicLongArray(tableSize);
+    this.tableMask = tableSize - 1;
+    this.sampleSize = 10 * capacity;
+  }
+
+  /**
+   * @return the estimated number of recent occurrences of the key, at most
+   * {@link #MAX_COUNT}
+   */
+  int frequency(int hashCode) {
+    int hash = spread(hashCode);
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int)((this.table.get(index) >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Count one occurrence of the key.
+   */
+  void increment(int hashCode) {
+    int hash = spread(hashCode);
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    // Only the increment that reaches the sample size resets; the reset
+    // brings the count back below it.
+    if (added && this.additions.incrementAndGet() == this.sampleSize) {
+      reset();
+    }
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    int offset = counter << 2;
+    long mask = 0xfL << offset;
+    while (true) {
+      long word = this.table.get(index);
+      if ((word & mask) == mask) {
+        return false;
+      }
+      if (this.table.compareAndSet(index, word, word + (1L << offset))) {
+        return true;
+      }
+    }
+  }
+
+  /** Halve every counter */
+  void reset() {
+    for (int i = 0; i < this.table.length(); i++) {
+      long word;
+      do {
+        word = this.table.get(i);
+      } while (!this.table.compareAndSet(i, word, (word >>> 1) & RESET_MASK));
+    }
+    int count;
+    do {
+      count = this.additions.get();
+    } while (!this.additions.compareAndSet(count, count >>> 1));
+  }
+
+  private int indexOf(int hash, int i) {
+    long h = (hash + SEEDS[i]) * SEEDS[i];
+    h += h >>> 32;
+    return ((int)h) & this.tableMask;
+  }
+
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
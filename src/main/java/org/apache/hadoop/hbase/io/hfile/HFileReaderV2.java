@@ -74,6 +74,9 @@ public class HFileReaderV2 extends AbstractHFileReader {
    */
   private List<HFileBlock> loadOnOpenBlocks = new ArrayList<HFileBlock>();
 
+  /** Set once the reader is closed, to stop background block reads */
+  private volatile boolean closed = false;
+
   /** Minimum minor version supported by this HFile format */
   static final int MIN_MINOR_VERSION = 0;
 
@@ -415,6 +418,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
   }
 
   public void close(boolean evictOnClose) throws IOException {
+    closed = true;
     if (evictOnClose && cacheConf.isBlockCacheEnabled()) {
       int numEvicted = cacheConf.getBlockCache().evictBlocksByHfileName(name);
       if (LOG.isTraceEnabled()) {
@@ -434,13 +438,26 @@ public class HFileReaderV2 extends AbstractHFileReader {
     }
   }
 
+  /**
+   * @return true once {@link #close(boolean)} has been called
+   */
+  boolean isClosed() {
+    return closed;
+  }
+
   protected abstract static class AbstractScannerV2
       extends AbstractHFileReader.Scanner {
     protected HFileBlock block;
 
+    /** Blocks read ahead, created once the scanner moves sequentially */
+    private BlockPrefetcher.ReadAhead readAhead;
+    private final int readAheadDepth;
+    private int sequentialMoves = 0;
+
     public AbstractScannerV2(HFileReaderV2 r, boolean cacheBlocks,
         final boolean pread, final boolean isCompaction) {
       super(r, cacheBlocks, pread, isCompaction);
+      this.readAheadDepth = r.cacheConf.getReadAheadDepth();
     }
 
     /**
@@ -467,6 +484,9 @@ public class HFileReaderV2 extends AbstractHFileReader {
         // This happens if the key e.g. falls before the beginning of the file.
         return -1;
       }
+      if (block == null || block.getOffset() != seekToBlock.getOffset()) {
+        resetReadAhead();
+      }
       return loadBlockAndSeekToKey(seekToBlock, rewind, key, offset, length,
           false);
     }
@@ -532,6 +552,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
         // TODO shortcut: seek forward in this block to the last key of the
         // block.
       }
+      resetReadAhead();
       loadBlockAndSeekToKey(seekToBlock, true, key, offset, length, true);
       return true;
     }
@@ -551,6 +572,14 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
       HFileBlock curBlock = block;
 
+      // Start reading ahead once the scanner is seen moving sequentially, so
+      // point reads that spill into a second block do not pay for it.
+      if (readAhead == null && readAheadDepth > 0 &&
+          ++sequentialMoves >= 2) {
+        readAhead = new BlockPrefetcher.ReadAhead(reader, cacheBlocks,
+            isCompaction, readAheadDepth);
+      }
+
       do {
         if (curBlock.getOffset() >= lastDataBlockOffset)
           return null;
@@ -559,17 +588,52 @@ public class HFileReaderV2 extends AbstractHFileReader {
           throw new IOException("Invalid block file offset: " + block);
         }
 
-        // We are reading the next block without block type validation, because
-        // it might turn out to be a non-data block.
-        curBlock = reader.readBlock(curBlock.getOffset()
-            + curBlock.getOnDiskSizeWithHeader(),
-            curBlock.getNextBlockOnDiskSizeWithHeader(), cacheBlocks, pread,
-            isCompaction, null);
+        long nextOffset = curBlock.getOffset()
+            + curBlock.getOnDiskSizeWithHeader();
+        HFileBlock nextBlock = null;
+        if (readAhead != null) {
+          nextBlock = readAhead.take(nextOffset);
+        }
+        if (nextBlock == null) {
+          // We are reading the next block without block type validation,
+          // because it might turn out to be a non-data block.
+          nextBlock = reader.readBlock(nextOffset,
+              curBlock.getNextBlockOnDiskSizeWithHeader(), cacheBlocks, pread,
+              isCompaction, null);
+        }
+        curBlock = nextBlock;
+        if (readAhead != null) {
+          readAhead.advance(curBlock);
+        }
       } while (!(curBlock.getBlockType().equals(BlockType.DATA) ||
           curBlock.getBlockType().equals(BlockType.ENCODED_DATA)));
 
       return curBlock;
     }
+
+    /**
+     * Forgets the sequential moves seen so far and stops reading ahead. Called
+     * whenever the scanner jumps to another block other than by moving to the
+     * next one, so read-ahead only starts again once the scanner is seen
+     * moving sequentially from its new position.
+     */
+    protected void resetReadAhead() {
+      sequentialMoves = 0;
+      if (readAhead != null) {
+        readAhead.close();
+        readAhead = null;
+      }
+    }
+
+    @Override
+    public void close() {
+      resetReadAhead();
+    }
+
+    /** @return the blocks read ahead of this scanner, if any; for tests */
+    BlockPrefetcher.ReadAhead getReadAhead() {
+      return readAhead;
+    }
   }
 
   /**
@@ -690,6 +754,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
         return false;
       }
 
+      resetReadAhead();
       long firstDataBlockOffset =
           reader.getTrailer().getFirstDataBlockOffset();
       if (block != null && block.getOffset() == firstDataBlockOffset) {
@@ -888,6 +953,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
     private DataBlockEncoder.EncodedSeeker seeker = null;
     private DataBlockEncoder dataBlockEncoder = null;
     private final boolean includesMemstoreTS;
+    private boolean allowTransient = false;
 
     public EncodedScannerV2(HFileReaderV2 reader, boolean cacheBlocks,
         boolean pread, boolean isCompaction, boolean includesMemstoreTS) {
@@ -950,6 +1016,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
         return false;
       }
 
+      resetReadAhead();
       long firstDataBlockOffset =
           reader.getTrailer().getFirstDataBlockOffset();
       if (block != null && block.getOffset() == firstDataBlockOffset) {
@@ -996,7 +1063,13 @@ public class HFileReaderV2 extends AbstractHFileReader {
       if (block == null) {
         return null;
       }
-      return seeker.getKeyValue();
+      return allowTransient ? seeker.getTransientKeyValue() :
+          seeker.getKeyValue();
+    }
+
+    @Override
+    public void setAllowTransientKeyValues(boolean allowTransient) {
+      this.allowTransient = allowTransient;
     }
 
     @Override
@@ -123,6 +123,20 @@ public interface HFileScanner {
    * @return Instance of {@link KeyValue}.
    */
   public KeyValue getKeyValue();
+  /**
+   * Allow {@link #getKeyValue()} to return a
+   * {@link org.apache.hadoop.hbase.io.encoding.TransientKeyValue} where it
+   * would otherwise copy the cell into a new buffer. Such a KeyValue is only
+   * valid until the scanner moves.
+   * @param allowTransient true to allow transient KeyValues
+   */
+  public void setAllowTransientKeyValues(boolean allowTransient);
+  /**
+   * Releases whatever the scanner holds on to besides its current block,
+   * such as blocks read ahead of it. The scanner may still be seeked again
+   * afterwards.
+   */
+  public void close();
   /**
    * Convenience method to get a copy of the key as a string - interpreting the
    * bytes as UTF8. You must call {@link #seekTo(byte[])} before this method.
@@ -22,6 +22,7 @@ package org.apache.hadoop.hbase.io.hfile;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
@@ -45,6 +46,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
@@ -90,7 +92,15 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * size, and then while scanning determines the fewest least-recently-used
  * blocks necessary from each of the three priorities (would be 3 times bytes
  * to free).  It then uses the priority chunk sizes to evict fairly according
- * to the relative sizes and usage.
+ * to the relative sizes and usage.<p>
+ *
+ * A {@link BucketCache} may be set as victim cache. Blocks freed by the
+ * eviction process are then handed to it rather than dropped, and misses
+ * here are looked up there.<p>
+ *
+ * A {@link BlockEvictionPolicy} may replace the priority buckets. It then
+ * sees every request, decides which blocks are admitted once the cache has
+ * filled up, and picks the blocks the eviction process frees.
  */
 @InterfaceAudience.Private
 public class LruBlockCache implements BlockCache, HeapSize {
@@ -171,6 +181,12 @@ public class LruBlockCache implements BlockCache, HeapSize {
   /** Overhead of the structure itself */
   private long overhead;
 
+  /** Where blocks evicted by the eviction process go, null to drop them */
+  private BucketCache victimHandler = null;
+
+  /** Admission and eviction policy, null for the priority buckets */
+  private volatile BlockEvictionPolicy evictionPolicy = null;
+
   /**
    * Default constructor.  Specify maximum size and expected average block
    * size (approximation is fine).
@@ -271,6 +287,11 @@ public class LruBlockCache implements BlockCache, HeapSize {
     if(cb != null) {
       throw new RuntimeException("Cached an already cached block");
     }
+    BlockEvictionPolicy policy = evictionPolicy;
+    if (policy != null && !inMemory && size.get() > minSize() &&
+        !policy.admit(cacheKey)) {
+      return;
+    }
     cb = new CachedBlock(cacheKey, buf, count.incrementAndGet(), inMemory);
     long newSize = updateSizeMetrics(cb, false);
     map.put(cacheKey, cb);
@@ -324,9 +345,16 @@ public class LruBlockCache implements BlockCache, HeapSize {
    */
   @Override
   public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching) {
+    BlockEvictionPolicy policy = evictionPolicy;
+    if (policy != null) {
+      policy.recordAccess(cacheKey);
+    }
     CachedBlock cb = map.get(cacheKey);
     if(cb == null) {
       stats.miss(caching);
+      if (victimHandler != null) {
+        return victimHandler.getBlock(cacheKey, caching);
+      }
       return null;
     }
     stats.hit(caching);
@@ -337,10 +365,16 @@ public class LruBlockCache implements BlockCache, HeapSize {
 
   @Override
   public boolean evictBlock(BlockCacheKey cacheKey) {
+    boolean evicted = false;
     CachedBlock cb = map.get(cacheKey);
-    if (cb == null) return false;
-    evictBlock(cb);
-    return true;
+    if (cb != null) {
+      evictBlock(cb);
+      evicted = true;
+    }
+    if (victimHandler != null) {
+      evicted |= victimHandler.evictBlock(cacheKey);
+    }
+    return evicted;
   }
 
   /**
@@ -362,14 +396,33 @@ public class LruBlockCache implements BlockCache, HeapSize {
           ++numEvicted;
       }
     }
+    if (victimHandler != null) {
+      numEvicted += victimHandler.evictBlocksByHfileName(hfileName);
+    }
     return numEvicted;
   }
 
   protected long evictBlock(CachedBlock block) {
+    return evictBlock(block, false);
+  }
+
+  /**
+   * Evict the block, handing it to the victim cache if there is one and the
+   * eviction process chose it.
+   * @param evictedByEvictionProcess true if the block is evicted to make room
+   * rather than because it was invalidated
+   * @return the heap size of the evicted block
+   */
+  protected long evictBlock(CachedBlock block,
+      boolean evictedByEvictionProcess) {
     map.remove(block.getCacheKey());
     updateSizeMetrics(block, true);
     elements.decrementAndGet();
     stats.evicted();
+    if (evictedByEvictionProcess && victimHandler != null) {
+      victimHandler.offerBlock(block.getCacheKey(), block.getBuffer(),
+          block.getPriority() == CachedBlock.BlockPriority.MEMORY);
+    }
     return block.heapSize();
   }
 
@@ -405,6 +458,21 @@ public class LruBlockCache implements BlockCache, HeapSize {
 
       if(bytesToFree <= 0) return;
 
+      BlockEvictionPolicy policy = evictionPolicy;
+      if (policy != null) {
+        long bytesFreed = 0;
+        for (CachedBlock cb : policy.selectVictims(map.values(), bytesToFree)) {
+          bytesFreed += evictBlock(cb, true);
+        }
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Block cache eviction completed; " +
+            "freed=" + StringUtils.byteDesc(bytesFreed) + ", " +
+            "total=" + StringUtils.byteDesc(this.size.get()) + ", " +
+            "policy=" + policy);
+        }
+        return;
+      }
+
       // Instantiate priority buckets
       BlockBucket bucketSingle = new BlockBucket(bytesToFree, blockSize,
           singleSize());
@@ -497,7 +565,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
       CachedBlock cb;
       long freedBytes = 0;
       while ((cb = queue.pollLast()) != null) {
-        freedBytes += evictBlock(cb);
+        freedBytes += evictBlock(cb, true);
         if (freedBytes >= toFree) {
           return freedBytes;
         }
@@ -643,7 +711,8 @@ public class LruBlockCache implements BlockCache, HeapSize {
           (stats.getHitCachingCount() == 0 ? "0" : (StringUtils.formatPercent(stats.getHitCachingRatio(), 2)+ ", ")) +
         "evictions=" + stats.getEvictionCount() + ", " +
         "evicted=" + stats.getEvictedCount() + ", " +
-        "evictedPerRun=" + stats.evictedPerEviction());
+        "evictedPerRun=" + stats.evictedPerEviction() +
+        (evictionPolicy == null ? "" : ", " + evictionPolicy));
   }
 
   /**
@@ -657,7 +726,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
   }
 
   public final static long CACHE_FIXED_OVERHEAD = ClassSize.align(
-      (3 * Bytes.SIZEOF_LONG) + (8 * ClassSize.REFERENCE) +
+      (3 * Bytes.SIZEOF_LONG) + (10 * ClassSize.REFERENCE) +
       (5 * Bytes.SIZEOF_FLOAT) + Bytes.SIZEOF_BOOLEAN
       + ClassSize.OBJECT);
 
@@ -727,6 +796,38 @@ public class LruBlockCache implements BlockCache, HeapSize {
 
   public void shutdown() {
     this.scheduleThreadPool.shutdown();
+    if (victimHandler != null) {
+      victimHandler.shutdown();
+    }
+  }
+
+  /**
+   * Set the cache blocks evicted from this one are moved to.
+   * @param handler the victim cache
+   */
+  public void setVictimCache(BucketCache handler) {
+    assert victimHandler == null;
+    victimHandler = handler;
+  }
+
+  /**
+   * Replace the priority buckets by the given admission and eviction policy.
+   * @param policy the policy, or null to go back to the priority buckets
+   */
+  public void setEvictionPolicy(BlockEvictionPolicy policy) {
+    this.evictionPolicy = policy;
+  }
+
+  public BlockEvictionPolicy getEvictionPolicy() {
+    return this.evictionPolicy;
+  }
+
+  /**
+   * @return a live view of the cached blocks, as used by
+   * {@link BlockCacheSnapshot}
+   */
+  Collection<CachedBlock> getCachedBlocks() {
+    return map.values();
   }
 
   /** Clears the cache. Used in tests. */
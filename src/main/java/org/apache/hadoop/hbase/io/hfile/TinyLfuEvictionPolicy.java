@@ -0,0 +1,178 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A scan resistant {@link BlockEvictionPolicy} in the style of TinyLFU.<p>
+ *
+ * Every request for a block, hit or miss, is counted in a
+ * {@link FrequencySketch}. Once the cache has filled up, a new block is only
+ * admitted if it has been requested more often than the blocks recently
+ * evicted to make room. A full scan requests each block once, so its blocks
+ * are turned away instead of pushing out the working set, while a block that
+ * keeps being asked for gets in on its next read.<p>
+ *
+ * Victims are chosen by sampling rather than by sorting the whole cache: the
+ * policy walks the cache a few blocks at a time, resuming where the previous
+ * eviction stopped, and evicts the least valuable block of each sample.
+ * In-memory blocks go last, then the least frequently requested, then the
+ * least recently accessed.
+ */
+@InterfaceAudience.Private
+public class TinyLfuEvictionPolicy implements BlockEvictionPolicy {
+
+  /** Number of blocks compared to pick one victim */
+  static final int SAMPLE_SIZE = 8;
+
+  private final FrequencySketch sketch;
+
+  /** Average frequency of the last victims; new blocks must beat it */
+  private volatile int admissionThreshold = 0;
+
+  /** Where the next sample starts; only used under the cache's eviction */
+  private Iterator<CachedBlock> sweep = null;
+
+  private final AtomicLong rejectedCount = new AtomicLong(0);
+
+  /**
+   * @param maxSize maximum size of the cache, in bytes
+   * @param blockSize expected average size of blocks, in bytes
+   */
+  public TinyLfuEvictionPolicy(long maxSize, long blockSize) {
+    this.sketch = new FrequencySketch(Math.max(1, maxSize / blockSize));
+  }
+
+  @Override
+  public void recordAccess(BlockCacheKey cacheKey) {
+    this.sketch.increment(cacheKey.hashCode());
+  }
+
+  @Override
+  public boolean admit(BlockCacheKey cacheKey) {
+    if (this.sketch.frequency(cacheKey.hashCode()) > this.admissionThreshold) {
+      return true;
+    }
+    this.rejectedCount.incrementAndGet();
+    return false;
+  }
+
+  @Override
+  public List<CachedBlock> selectVictims(Collection<CachedBlock> blocks,
+      long bytesToFree) {
+    List<CachedBlock> victims = new ArrayList<CachedBlock>();
+    Set<CachedBlock> chosen =
+      Collections.newSetFromMap(new IdentityHashMap<CachedBlock, Boolean>());
+    CachedBlock [] sample = new CachedBlock[SAMPLE_SIZE];
+    long bytesSelected = 0;
+    long frequencySum = 0;
+    while (bytesSelected < bytesToFree) {
+      int n = fillSample(blocks, chosen, sample);
+      if (n == 0) break;
+      CachedBlock victim = sample[0];
+      int victimFrequency = frequencyOf(victim);
+      for (int i = 1; i < n; i++) {
+        int frequency = frequencyOf(sample[i]);
+        if (isBetterVictim(sample[i], frequency, victim, victimFrequency)) {
+          victim = sample[i];
+          victimFrequency = frequency;
+        }
+      }
+      chosen.add(victim);
+      victims.add(victim);
+      bytesSelected += victim.heapSize();
+      frequencySum += victimFrequency;
+    }
+    if (!victims.isEmpty()) {
+      this.admissionThreshold = (int)(frequencySum / victims.size());
+    }
+    return victims;
+  }
+
+  /**
+   * Collect the next blocks of the sweep that have not been chosen yet.
+   * @return number of blocks put in <code>sample</code>
+   */
+  private int fillSample(Collection<CachedBlock> blocks,
+      Set<CachedBlock> chosen, CachedBlock [] sample) {
+    int n = 0;
+    boolean restarted = false;
+    // Give up after a whole lap without finding anything new.
+    int remaining = blocks.size() + SAMPLE_SIZE;
+    while (n < sample.length && remaining-- > 0) {
+      if (this.sweep == null || !this.sweep.hasNext()) {
+        if (restarted) break;
+        this.sweep = blocks.iterator();
+        restarted = true;
+        if (!this.sweep.hasNext()) break;
+      }
+      CachedBlock cb = this.sweep.next();
+      if (!chosen.contains(cb)) {
+        sample[n++] = cb;
+      }
+    }
+    return n;
+  }
+
+  private int frequencyOf(CachedBlock cb) {
+    return this.sketch.frequency(cb.getCacheKey().hashCode());
+  }
+
+  private static boolean isBetterVictim(CachedBlock a, int aFrequency,
+      CachedBlock b, int bFrequency) {
+    boolean aInMemory = a.getPriority() == CachedBlock.BlockPriority.MEMORY;
+    boolean bInMemory = b.getPriority() == CachedBlock.BlockPriority.MEMORY;
+    if (aInMemory != bInMemory) return bInMemory;
+    if (aFrequency != bFrequency) return aFrequency < bFrequency;
+    // CachedBlock sorts more recently accessed blocks first.
+    return a.compareTo(b) > 0;
+  }
+
+  /**
+   * @return number of blocks turned away by the admission filter
+   */
+  public long getRejectedCount() {
+    return this.rejectedCount.get();
+  }
+
+  int getAdmissionThreshold() {
+    return this.admissionThreshold;
+  }
+
+  int frequency(BlockCacheKey cacheKey) {
+    return this.sketch.frequency(cacheKey.hashCode());
+  }
+
+  @Override
+  public String toString() {
+    return "TinyLfuEvictionPolicy [admissionThreshold=" +
+      this.admissionThreshold + ", rejected=" + this.rejectedCount.get() + "]";
+  }
+}
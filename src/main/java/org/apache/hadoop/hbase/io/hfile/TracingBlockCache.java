@@ -0,0 +1,163 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.HeapSize;
+
+/**
+ * A {@link BlockCache} that passes every call on to another block cache and
+ * records a sample of the accesses in a {@link BlockCacheTrace}. The trace
+ * can be replayed offline by {@link BlockCacheTraceReplayer} to find out how
+ * other cache implementations or sizes would have done on the same load.<p>
+ *
+ * Whether a block is traced is decided from its key alone, so the cost for
+ * an untraced block is a hash and a comparison. Traced accesses are handed to
+ * the trace writer thread without blocking.
+ */
+@InterfaceAudience.Private
+public class TracingBlockCache implements BlockCache, HeapSize {
+
+  static final Log LOG = LogFactory.getLog(TracingBlockCache.class.getName());
+
+  private final BlockCache delegate;
+  private final BlockCacheTrace.Writer writer;
+  private final int sampleThreshold;
+
+  /**
+   * @param delegate the cache doing the actual caching
+   * @param writer where the traced accesses go; closed on shutdown
+   * @param sampleRate fraction of the blocks to trace, between 0 and 1
+   */
+  public TracingBlockCache(BlockCache delegate, BlockCacheTrace.Writer writer,
+      float sampleRate) {
+    this.delegate = delegate;
+    this.writer = writer;
+    this.sampleThreshold = BlockCacheTrace.sampleThreshold(sampleRate);
+  }
+
+  /** @return the cache this one passes calls on to */
+  public BlockCache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf,
+      boolean inMemory) {
+    delegate.cacheBlock(cacheKey, buf, inMemory);
+    if (BlockCacheTrace.isSampled(cacheKey, sampleThreshold)) {
+      writer.append(BlockCacheTrace.Record.create(BlockCacheTrace.OP_CACHE,
+          cacheKey, buf, inMemory ? BlockCacheTrace.FLAG_IN_MEMORY : 0));
+    }
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
+    cacheBlock(cacheKey, buf, false);
+  }
+
+  @Override
+  public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching) {
+    Cacheable block = delegate.getBlock(cacheKey, caching);
+    if (BlockCacheTrace.isSampled(cacheKey, sampleThreshold)) {
+      int flags = (block != null ? BlockCacheTrace.FLAG_HIT : 0) |
+          (caching ? BlockCacheTrace.FLAG_CACHING : 0);
+      writer.append(BlockCacheTrace.Record.create(BlockCacheTrace.OP_GET,
+          cacheKey, block, flags));
+    }
+    return block;
+  }
+
+  @Override
+  public boolean evictBlock(BlockCacheKey cacheKey) {
+    if (BlockCacheTrace.isSampled(cacheKey, sampleThreshold)) {
+      writer.append(BlockCacheTrace.Record.create(BlockCacheTrace.OP_EVICT,
+          cacheKey, null, 0));
+    }
+    return delegate.evictBlock(cacheKey);
+  }
+
+  @Override
+  public int evictBlocksByHfileName(String hfileName) {
+    writer.append(BlockCacheTrace.Record.create(
+        BlockCacheTrace.OP_EVICT_FILE, new BlockCacheKey(hfileName, 0), null,
+        0));
+    return delegate.evictBlocksByHfileName(hfileName);
+  }
+
+  @Override
+  public CacheStats getStats() {
+    return delegate.getStats();
+  }
+
+  @Override
+  public void shutdown() {
+    delegate.shutdown();
+    try {
+      writer.close();
+    } catch (IOException ioe) {
+      LOG.warn("Failed closing block cache trace " + writer.getFile(), ioe);
+    }
+    LOG.info("Closed block cache trace " + writer.getFile() + ", dropped " +
+        writer.getDroppedCount() + " records");
+  }
+
+  @Override
+  public long size() {
+    return delegate.size();
+  }
+
+  @Override
+  public long getFreeSize() {
+    return delegate.getFreeSize();
+  }
+
+  @Override
+  public long getCurrentSize() {
+    return delegate.getCurrentSize();
+  }
+
+  @Override
+  public long getEvictedCount() {
+    return delegate.getEvictedCount();
+  }
+
+  @Override
+  public long getBlockCount() {
+    return delegate.getBlockCount();
+  }
+
+  @Override
+  public long heapSize() {
+    return delegate instanceof HeapSize ? ((HeapSize)delegate).heapSize() : 0;
+  }
+
+  @Override
+  public List<BlockCacheColumnFamilySummary> getBlockCacheColumnFamilySummaries(
+      Configuration conf) throws IOException {
+    return delegate.getBlockCacheColumnFamilySummaries(conf);
+  }
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Allocates space in the region managed by a {@link BucketCache}.
+ *
+ * <p>The region is cut into buckets of equal capacity. A bucket serves a
+ * single item size at a time and is handed out in slots of that size; the
+ * item sizes are the size classes the allocator was configured with. A block
+ * is placed in the smallest size class it fits. Buckets start out unassigned
+ * and go back to the shared pool as soon as their last slot is freed, so the
+ * split of space between size classes follows the block sizes actually seen.
+ *
+ * <p>An offset fully identifies an allocation: the bucket is found from the
+ * offset and the bucket knows its item size.
+ */
+@InterfaceAudience.Private
+public final class BucketAllocator {
+  static final Log LOG = LogFactory.getLog(BucketAllocator.class);
+
+  /**
+   * Default size classes, in bytes. Chosen to fit the default 64k block
+   * size, with and without compression or encoding, plus the few bytes the
+   * serialized form adds.
+   */
+  public static final int [] DEFAULT_BUCKET_SIZES = { 4 * 1024 + 1024,
+    8 * 1024 + 1024, 16 * 1024 + 1024, 32 * 1024 + 1024, 40 * 1024 + 1024,
+    48 * 1024 + 1024, 56 * 1024 + 1024, 64 * 1024 + 1024, 96 * 1024 + 1024,
+    128 * 1024 + 1024, 192 * 1024 + 1024, 256 * 1024 + 1024,
+    384 * 1024 + 1024, 512 * 1024 + 1024 };
+
+  /** Number of items of the largest size class a bucket holds */
+  static final int ITEMS_PER_LARGEST_BUCKET = 4;
+
+  /**
+   * One bucket of the region. Only touched with the allocator locked.
+   */
+  static final class Bucket {
+    private final long baseOffset;
+    private int sizeIndex = -1;
+    private int itemSize;
+    private int itemCount;
+    private int [] freeList;
+    private int freeCount;
+
+    Bucket(long baseOffset) {
+      this.baseOffset = baseOffset;
+    }
+
+    boolean isUninstantiated() {
+      return this.sizeIndex == -1;
+    }
+
+    boolean isCompletelyFree() {
+      return this.freeCount == this.itemCount;
+    }
+
+    boolean hasFreeSpace() {
+      return this.freeCount > 0;
+    }
+
+    int getItemSize() {
+      return this.itemSize;
+    }
+
+    int sizeIndex() {
+      return this.sizeIndex;
+    }
+
+    void reconfigure(int sizeIndex, int itemSize, long bucketCapacity) {
+      this.sizeIndex = sizeIndex;
+      this.itemSize = itemSize;
+      this.itemCount = (int)(bucketCapacity / itemSize);
+      this.freeCount = this.itemCount;
+      this.freeList = new int[this.itemCount];
+      for (int i = 0; i < this.itemCount; i++) {
+        this.freeList[i] = i;
+      }
+    }
+
+    void release() {
+      this.sizeIndex = -1;
+      this.itemSize = 0;
+      this.itemCount = 0;
+      this.freeCount = 0;
+      this.freeList = null;
+    }
+
+    long allocate() {
+      assert this.freeCount > 0;
+      int item = this.freeList[--this.freeCount];
+      return this.baseOffset + (long)item * this.itemSize;
+    }
+
+    void free(long offset) {
+      long delta = offset - this.baseOffset;
+      assert delta >= 0 && delta % this.itemSize == 0;
+      assert this.freeCount < this.itemCount;
+      this.freeList[this.freeCount++] = (int)(delta / this.itemSize);
+    }
+  }
+
+  /**
+   * The buckets currently serving one size class.
+   */
+  final class BucketSizeInfo {
+    private final int sizeIndex;
+    private final LinkedList<Bucket> freeBuckets = new LinkedList<Bucket>();
+    private int bucketCount = 0;
+    private long usedCount = 0;
+
+    BucketSizeInfo(int sizeIndex) {
+      this.sizeIndex = sizeIndex;
+    }
+
+    long allocateBlock() {
+      Bucket b = this.freeBuckets.peekFirst();
+      if (b == null) {
+        b = unassignedBuckets.pollFirst();
+        if (b == null) return -1;
+        b.reconfigure(this.sizeIndex, bucketSizes[this.sizeIndex],
+          bucketCapacity);
+        this.bucketCount++;
+        this.freeBuckets.add(b);
+      }
+      long offset = b.allocate();
+      if (!b.hasFreeSpace()) {
+        this.freeBuckets.removeFirst();
+      }
+      this.usedCount++;
+      return offset;
+    }
+
+    void freeBlock(Bucket b, long offset) {
+      boolean wasFull = !b.hasFreeSpace();
+      b.free(offset);
+      this.usedCount--;
+      if (b.isCompletelyFree()) {
+        // Hand the bucket back so any size class can claim it.
+        if (!wasFull) this.freeBuckets.remove(b);
+        this.bucketCount--;
+        b.release();
+        unassignedBuckets.add(b);
+      } else if (wasFull) {
+        this.freeBuckets.add(b);
+      }
+    }
+
+    int bucketCount() {
+      return this.bucketCount;
+    }
+
+    long usedCount() {
+      return this.usedCount;
+    }
+  }
+
+  private final int [] bucketSizes;
+  private final long bucketCapacity;
+  private final Bucket [] buckets;
+  private final BucketSizeInfo [] bucketSizeInfos;
+  private final LinkedList<Bucket> unassignedBuckets = new LinkedList<Bucket>();
+  private final long totalSize;
+  private long usedSize = 0;
+
+  /**
+   * @param availableSpace size of the region to allocate from, in bytes
+   * @param bucketSizes the size classes; null for the defaults
+   * @throws IllegalArgumentException if the region cannot hold at least one
+   * bucket per size class
+   */
+  public BucketAllocator(long availableSpace, int [] bucketSizes) {
+    this.bucketSizes = bucketSizes == null ? DEFAULT_BUCKET_SIZES :
+      bucketSizes.clone();
+    Arrays.sort(this.bucketSizes);
+    if (this.bucketSizes.length == 0 || this.bucketSizes[0] <= 0) {
+      throw new IllegalArgumentException("Bucket sizes must be positive: " +
+        Arrays.toString(this.bucketSizes));
+    }
+    this.bucketCapacity = (long)ITEMS_PER_LARGEST_BUCKET *
+      this.bucketSizes[this.bucketSizes.length - 1];
+    int count = (int)(availableSpace / this.bucketCapacity);
+    if (count < this.bucketSizes.length) {
+      throw new IllegalArgumentException("Cache of " + availableSpace +
+        " bytes is too small for " + this.bucketSizes.length +
+        " buckets of " + this.bucketCapacity + " bytes");
+    }
+    this.buckets = new Bucket[count];
+    for (int i = 0; i < count; i++) {
+      this.buckets[i] = new Bucket(i * this.bucketCapacity);
+      this.unassignedBuckets.add(this.buckets[i]);
+    }
+    this.bucketSizeInfos = new BucketSizeInfo[this.bucketSizes.length];
+    for (int i = 0; i < this.bucketSizes.length; i++) {
+      this.bucketSizeInfos[i] = new BucketSizeInfo(i);
+    }
+    this.totalSize = count * this.bucketCapacity;
+    LOG.info("Cache totalSize=" + StringUtils.byteDesc(this.totalSize) +
+      ", buckets=" + count + ", bucket capacity=" +
+      StringUtils.byteDesc(this.bucketCapacity));
+  }
+
+  /**
+   * @return the index of the smallest size class holding <code>size</code>
+   * bytes, or -1 if the block is larger than the largest size class
+   */
+  int sizeIndexOf(int size) {
+    for (int i = 0; i < this.bucketSizes.length; i++) {
+      if (size <= this.bucketSizes[i]) return i;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the largest block that can be allocated, in bytes
+   */
+  public int getLargestItemSize() {
+    return this.bucketSizes[this.bucketSizes.length - 1];
+  }
+
+  /**
+   * Allocate space for a block.
+   * @param blockSize size of the block, in bytes
+   * @return the offset of the allocated space
+   * @throws CacheFullException if no slot of the right size class is free
+   * @throws IllegalArgumentException if the block is too large to cache
+   */
+  public synchronized long allocateBlock(int blockSize)
+  throws CacheFullException {
+    int index = sizeIndexOf(blockSize);
+    if (index < 0) {
+      throw new IllegalArgumentException("Block of " + blockSize +
+        " bytes is larger than the largest bucket size " +
+        getLargestItemSize());
+    }
+    long offset = this.bucketSizeInfos[index].allocateBlock();
+    if (offset < 0) {
+      throw new CacheFullException(blockSize, index);
+    }
+    this.usedSize += this.bucketSizes[index];
+    return offset;
+  }
+
+  /**
+   * Free a block previously returned by {@link #allocateBlock(int)}.
+   * @return the size of the freed slot, in bytes
+   */
+  public synchronized int freeBlock(long offset) {
+    Bucket b = this.buckets[(int)(offset / this.bucketCapacity)];
+    int itemSize = b.getItemSize();
+    this.bucketSizeInfos[b.sizeIndex()].freeBlock(b, offset);
+    this.usedSize -= itemSize;
+    return itemSize;
+  }
+
+  /**
+   * @return the size of the slot holding the block at <code>offset</code>
+   */
+  public synchronized int sizeOfAllocation(long offset) {
+    return this.buckets[(int)(offset / this.bucketCapacity)].getItemSize();
+  }
+
+  public long getTotalSize() {
+    return this.totalSize;
+  }
+
+  public synchronized long getUsedSize() {
+    return this.usedSize;
+  }
+
+  public synchronized long getFreeSize() {
+    return this.totalSize - this.usedSize;
+  }
+
+  /**
+   * @return number of buckets not assigned to any size class
+   */
+  synchronized int getUnassignedBucketCount() {
+    return this.unassignedBuckets.size();
+  }
+
+  /**
+   * @return number of buckets serving the given size class
+   */
+  synchronized int getBucketCount(int sizeIndex) {
+    return this.bucketSizeInfos[sizeIndex].bucketCount();
+  }
+
+  public synchronized void logStatistics() {
+    StringBuilder sb = new StringBuilder("Bucket allocator: used=" +
+      StringUtils.byteDesc(this.usedSize) + ", total=" +
+      StringUtils.byteDesc(this.totalSize) + ", unassigned buckets=" +
+      this.unassignedBuckets.size());
+    for (int i = 0; i < this.bucketSizes.length; i++) {
+      BucketSizeInfo info = this.bucketSizeInfos[i];
+      if (info.bucketCount() == 0) continue;
+      sb.append(", ").append(this.bucketSizes[i]).append(":")
+        .append(info.usedCount()).append(" blocks in ")
+        .append(info.bucketCount()).append(" buckets");
+    }
+    LOG.info(sb.toString());
+  }
+}
@@ -0,0 +1,868 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.io.hfile.BlockCache;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheColumnFamilySummary;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.CacheStats;
+import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.CacheableDeserializer;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.HasThread;
+import org.apache.hadoop.util.StringUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A block cache that keeps the serialized form of blocks in a large region
+ * managed by an {@link IOEngine}: direct memory, so that tens of gigabytes can
+ * be cached without adding to the garbage collector's work, or a
+ * memory-mapped local file.<p>
+ *
+ * The region is carved up by a {@link BucketAllocator} into buckets of
+ * several size classes. The on-heap index is one small {@link BucketEntry}
+ * per block, holding a 5 byte offset, the length, the access time and an id
+ * standing in for the block's deserializer.<p>
+ *
+ * Blocks are not written by the caller. {@link #cacheBlock} parks the block
+ * in a RAM map and queues it for one of the writer threads, which allocate
+ * space, serialize the block into it and then publish the index entry. A
+ * block is served from the RAM map until it has been written. When a queue is
+ * full the block is dropped; this is a cache.<p>
+ *
+ * Eviction follows {@link org.apache.hadoop.hbase.io.hfile.LruBlockCache}:
+ * blocks are single-access, multi-access or in-memory, each priority has a
+ * share of the cache, and the least recently used blocks of the priorities
+ * over their share are freed first. It runs when an allocation fails or the
+ * used space passes the acceptable factor, and frees down to the minimum
+ * factor.<p>
+ *
+ * Meant to be used as the victim cache of an on-heap
+ * {@link org.apache.hadoop.hbase.io.hfile.LruBlockCache}, see
+ * {@link org.apache.hadoop.hbase.io.hfile.CacheConfig}.
+ */
+@InterfaceAudience.Private
+public class BucketCache implements BlockCache, HeapSize {
+  static final Log LOG = LogFactory.getLog(BucketCache.class);
+
+  /** Eviction thresholds */
+  static final float DEFAULT_MIN_FACTOR = 0.85f;
+  static final float DEFAULT_ACCEPTABLE_FACTOR = 0.95f;
+
+  /** Priority buckets */
+  static final float DEFAULT_SINGLE_FACTOR = 0.25f;
+  static final float DEFAULT_MULTI_FACTOR = 0.50f;
+  static final float DEFAULT_MEMORY_FACTOR = 0.25f;
+
+  /** Writers */
+  public static final int DEFAULT_WRITER_THREADS = 3;
+  public static final int DEFAULT_WRITER_QUEUE_ITEMS = 64;
+
+  /** Number of locks that keep space from being reused while it is read */
+  static final int OFFSET_LOCK_COUNT = 1024;
+
+  /** The index addresses up to 2^40 bytes */
+  static final long MAX_CAPACITY = 1L << 40;
+
+  /** Statistics thread */
+  static final int statThreadPeriod = 60 * 5;
+
+  /** Blocks waiting to be written, served from here until they are */
+  private final ConcurrentHashMap<BlockCacheKey, RAMQueueEntry> ramCache;
+
+  /** Index of the blocks that have been written */
+  private final ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMap;
+
+  private final IOEngine ioEngine;
+  private final BucketAllocator bucketAllocator;
+
+  private final List<BlockingQueue<RAMQueueEntry>> writerQueues =
+    new ArrayList<BlockingQueue<RAMQueueEntry>>();
+  private final WriterThread [] writerThreads;
+
+  /** Set to false on shutdown; checked under the offset locks */
+  private volatile boolean cacheEnabled;
+
+  private final ReentrantReadWriteLock [] offsetLocks =
+    new ReentrantReadWriteLock[OFFSET_LOCK_COUNT];
+
+  /** Only one eviction at a time */
+  private final ReentrantLock freeSpaceLock = new ReentrantLock();
+
+  /** Deserializers of cached blocks; the index stores a position in here */
+  private final List<CacheableDeserializer<Cacheable>> deserializers =
+    new CopyOnWriteArrayList<CacheableDeserializer<Cacheable>>();
+  private final ConcurrentHashMap<Class<?>, Byte> deserializerIds =
+    new ConcurrentHashMap<Class<?>, Byte>();
+
+  /** Cache access count (sequential ID) */
+  private final AtomicLong accessCount = new AtomicLong(0);
+
+  /** Heap used by the index and by the blocks waiting to be written */
+  private final AtomicLong heapSize = new AtomicLong(0);
+
+  /** Blocks that could not be cached: too large, queue full or no space */
+  private final AtomicLong failedBlockAdditions = new AtomicLong(0);
+
+  private final CacheStats stats = new CacheStats();
+
+  private final ScheduledExecutorService scheduleThreadPool =
+    Executors.newScheduledThreadPool(1,
+      new ThreadFactoryBuilder()
+        .setNameFormat("BucketCache Statistics #%d")
+        .setDaemon(true)
+        .build());
+
+  private final long capacity;
+
+  /**
+   * @param ioEngine where the blocks are stored
+   * @param capacity size of the cache, in bytes
+   * @param bucketSizes size classes of the allocator; null for the defaults
+   * @param writerThreadCount number of writer threads
+   * @param writerQueueLength maximum number of blocks queued per writer
+   */
+  public BucketCache(IOEngine ioEngine, long capacity, int [] bucketSizes,
+      int writerThreadCount, int writerQueueLength) {
+    if (capacity > MAX_CAPACITY) {
+      throw new IllegalArgumentException("Bucket cache capacity " + capacity +
+        " is larger than the supported " + MAX_CAPACITY);
+    }
+    this.ioEngine = ioEngine;
+    this.capacity = capacity;
+    this.bucketAllocator = new BucketAllocator(capacity, bucketSizes);
+    this.ramCache = new ConcurrentHashMap<BlockCacheKey, RAMQueueEntry>();
+    this.backingMap = new ConcurrentHashMap<BlockCacheKey, BucketEntry>(
+      (int)(capacity / 16384));
+    for (int i = 0; i < OFFSET_LOCK_COUNT; i++) {
+      this.offsetLocks[i] = new ReentrantReadWriteLock();
+    }
+    this.cacheEnabled = true;
+    this.writerThreads = new WriterThread[Math.max(1, writerThreadCount)];
+    for (int i = 0; i < this.writerThreads.length; i++) {
+      BlockingQueue<RAMQueueEntry> queue =
+        new ArrayBlockingQueue<RAMQueueEntry>(Math.max(1, writerQueueLength));
+      this.writerQueues.add(queue);
+      this.writerThreads[i] = new WriterThread(queue, i);
+      this.writerThreads[i].start();
+    }
+    this.scheduleThreadPool.scheduleAtFixedRate(new StatisticsThread(this),
+        statThreadPeriod, statThreadPeriod, TimeUnit.SECONDS);
+    LOG.info("Started bucket cache; " + ioEngine + ", capacity=" +
+      StringUtils.byteDesc(capacity) + ", writerThreads=" +
+      this.writerThreads.length + ", writerQueueLength=" + writerQueueLength);
+  }
+
+  /**
+   * Create the IO engine named by <code>hbase.bucketcache.ioengine</code>.
+   * @param ioEngineName "offheap" for direct memory, "heap" for on-heap
+   * buffers (testing only) or "mmap:" followed by the path of a local file
+   * @param capacity size of the engine, in bytes
+   * @throws IOException
+   */
+  public static IOEngine getIOEngineFromName(String ioEngineName,
+      long capacity) throws IOException {
+    if (ioEngineName.startsWith("mmap:")) {
+      return new FileMmapIOEngine(ioEngineName.substring("mmap:".length()),
+        capacity);
+    } else if (ioEngineName.equals("offheap")) {
+      return new ByteBufferIOEngine(capacity, true);
+    } else if (ioEngineName.equals("heap")) {
+      return new ByteBufferIOEngine(capacity, false);
+    }
+    throw new IllegalArgumentException("Unknown bucket cache IO engine " +
+      ioEngineName + "; use offheap, heap or mmap:PATH");
+  }
+
+  // BlockCache implementation
+
+  /**
+   * Cache the block with the specified name and buffer. The block is written
+   * asynchronously and may be dropped if the writers cannot keep up.
+   * <p>
+   * It is assumed this will NEVER be called on an already cached block.  If
+   * that is done, an exception will be thrown.
+   * @param cacheKey block's cache key
+   * @param buf block buffer
+   * @param inMemory if block is in-memory
+   */
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf,
+      boolean inMemory) {
+    if (this.backingMap.containsKey(cacheKey) ||
+        this.ramCache.containsKey(cacheKey)) {
+      throw new RuntimeException("Cached an already cached block");
+    }
+    offerBlock(cacheKey, buf, inMemory);
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
+    cacheBlock(cacheKey, buf, false);
+  }
+
+  /**
+   * Queue a block for caching unless it is already cached. Never blocks; the
+   * block is dropped if it cannot be serialized, is larger than the largest
+   * size class or its writer queue is full.
+   * @return true if the block was queued
+   */
+  public boolean offerBlock(BlockCacheKey cacheKey, Cacheable buf,
+      boolean inMemory) {
+    if (!this.cacheEnabled) return false;
+    int len = buf.getSerializedLength();
+    if (len <= 0) return false;
+    if (len > this.bucketAllocator.getLargestItemSize()) {
+      this.failedBlockAdditions.incrementAndGet();
+      return false;
+    }
+    if (this.backingMap.containsKey(cacheKey)) return false;
+    RAMQueueEntry re = new RAMQueueEntry(cacheKey, buf,
+      this.accessCount.incrementAndGet(), inMemory);
+    if (this.ramCache.putIfAbsent(cacheKey, re) != null) return false;
+    this.heapSize.addAndGet(re.heapSize());
+    int index = (cacheKey.hashCode() & Integer.MAX_VALUE) %
+      this.writerQueues.size();
+    if (!this.writerQueues.get(index).offer(re)) {
+      if (this.ramCache.remove(cacheKey, re)) {
+        this.heapSize.addAndGet(-re.heapSize());
+      }
+      this.failedBlockAdditions.incrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Get the buffer of the block with the specified key.
+   * @param key block's cache key
+   * @param caching true if the caller caches blocks on cache misses
+   * @return buffer of specified cache key, or null if not in cache
+   */
+  @Override
+  public Cacheable getBlock(BlockCacheKey key, boolean caching) {
+    RAMQueueEntry re = this.ramCache.get(key);
+    if (re != null) {
+      this.stats.hit(caching);
+      re.access(this.accessCount.incrementAndGet());
+      return re.getData();
+    }
+    BucketEntry be = this.backingMap.get(key);
+    if (be != null) {
+      ReentrantReadWriteLock lock = getOffsetLock(be.offset());
+      lock.readLock().lock();
+      try {
+        // Holding the read lock keeps the space from being freed and reused,
+        // so the entry is still valid if it is still in the index.
+        if (this.cacheEnabled && this.backingMap.get(key) == be) {
+          ByteBuffer bb = ByteBuffer.allocate(be.getLength());
+          this.ioEngine.read(bb, be.offset());
+          Cacheable cachedBlock =
+            this.deserializers.get(be.getDeserializerIndex()).deserialize(bb);
+          be.access(this.accessCount.incrementAndGet());
+          this.stats.hit(caching);
+          return cachedBlock;
+        }
+      } catch (IOException ioe) {
+        LOG.error("Failed reading block " + key + " from bucket cache", ioe);
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+    this.stats.miss(caching);
+    return null;
+  }
+
+  @Override
+  public boolean evictBlock(BlockCacheKey cacheKey) {
+    RAMQueueEntry re = this.ramCache.remove(cacheKey);
+    if (re != null) {
+      // The writer notices and drops the block once written.
+      this.heapSize.addAndGet(-re.heapSize());
+      this.stats.evicted();
+      return true;
+    }
+    BucketEntry be = this.backingMap.get(cacheKey);
+    return be != null && evictBucketEntry(cacheKey, be, true) > 0;
+  }
+
+  /**
+   * Remove an entry from the index and free its space.
+   * @return bytes freed, 0 if the entry was no longer in the index
+   */
+  private int evictBucketEntry(BlockCacheKey cacheKey, BucketEntry be,
+      boolean countEviction) {
+    int freed;
+    ReentrantReadWriteLock lock = getOffsetLock(be.offset());
+    lock.writeLock().lock();
+    try {
+      if (!this.backingMap.remove(cacheKey, be)) return 0;
+      freed = this.bucketAllocator.freeBlock(be.offset());
+    } finally {
+      lock.writeLock().unlock();
+    }
+    this.heapSize.addAndGet(-entryHeapSize(cacheKey, be));
+    if (countEviction) {
+      this.stats.evicted();
+    }
+    return freed;
+  }
+
+  /**
+   * Evicts all blocks for a specific HFile. This is a linear-time search
+   * through all blocks in the cache.
+   *
+   * @return the number of blocks evicted
+   */
+  @Override
+  public int evictBlocksByHfileName(String hfileName) {
+    int numEvicted = 0;
+    for (BlockCacheKey key : this.ramCache.keySet()) {
+      if (key.getHfileName().equals(hfileName)) {
+        if (evictBlock(key)) ++numEvicted;
+      }
+    }
+    for (BlockCacheKey key : this.backingMap.keySet()) {
+      if (key.getHfileName().equals(hfileName)) {
+        if (evictBlock(key)) ++numEvicted;
+      }
+    }
+    return numEvicted;
+  }
+
+  private ReentrantReadWriteLock getOffsetLock(long offset) {
+    int h = (int)(offset ^ (offset >>> 32));
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return this.offsetLocks[h & (OFFSET_LOCK_COUNT - 1)];
+  }
+
+  private byte getDeserializerIndex(CacheableDeserializer<Cacheable> d)
+  throws IOException {
+    Byte index = this.deserializerIds.get(d.getClass());
+    if (index != null) return index.byteValue();
+    synchronized (this.deserializers) {
+      index = this.deserializerIds.get(d.getClass());
+      if (index == null) {
+        if (this.deserializers.size() > Byte.MAX_VALUE) {
+          throw new IOException("Too many kinds of cached blocks, can't add " +
+            d.getClass());
+        }
+        index = Byte.valueOf((byte)this.deserializers.size());
+        this.deserializers.add(d);
+        this.deserializerIds.put(d.getClass(), index);
+      }
+    }
+    return index.byteValue();
+  }
+
+  private static long entryHeapSize(BlockCacheKey key, BucketEntry be) {
+    return ClassSize.align(key.heapSize()) + be.heapSize();
+  }
+
+  /**
+   * Allocate space for a queued block and write it out.
+   * @throws CacheFullException if there is still no room after freeing space
+   */
+  private BucketEntry writeToCache(RAMQueueEntry re) throws IOException {
+    Cacheable data = re.getData();
+    int len = data.getSerializedLength();
+    byte deserializerIndex = getDeserializerIndex(data.getDeserializer());
+    long offset;
+    try {
+      offset = this.bucketAllocator.allocateBlock(len);
+    } catch (CacheFullException cfe) {
+      freeSpace();
+      offset = this.bucketAllocator.allocateBlock(len);
+    }
+    boolean success = false;
+    try {
+      ByteBuffer bb = ByteBuffer.allocate(len);
+      data.serialize(bb);
+      bb.clear();
+      this.ioEngine.write(bb, offset);
+      success = true;
+    } finally {
+      if (!success) {
+        this.bucketAllocator.freeBlock(offset);
+      }
+    }
+    return new BucketEntry(offset, len, re.getAccessTime(), deserializerIndex,
+      re.isInMemory());
+  }
+
+  /**
+   * Write out a batch taken from a writer queue and publish the index entries.
+   */
+  void doDrain(List<RAMQueueEntry> entries) {
+    for (RAMQueueEntry re : entries) {
+      BlockCacheKey key = re.getKey();
+      if (this.ramCache.get(key) != re) {
+        // Evicted while queued
+        continue;
+      }
+      BucketEntry be = null;
+      try {
+        be = writeToCache(re);
+      } catch (CacheFullException cfe) {
+        this.failedBlockAdditions.incrementAndGet();
+      } catch (IOException ioe) {
+        LOG.warn("Failed writing block " + key + " to bucket cache", ioe);
+        this.failedBlockAdditions.incrementAndGet();
+      }
+      if (be == null) {
+        if (this.ramCache.remove(key, re)) {
+          this.heapSize.addAndGet(-re.heapSize());
+        }
+        continue;
+      }
+      this.heapSize.addAndGet(entryHeapSize(key, be));
+      this.backingMap.put(key, be);
+      if (this.ramCache.remove(key, re)) {
+        this.heapSize.addAndGet(-re.heapSize());
+      } else {
+        // Evicted while being written; the eviction was already counted.
+        evictBucketEntry(key, be, false);
+      }
+    }
+    if (this.bucketAllocator.getUsedSize() > acceptableSize()) {
+      freeSpace();
+    }
+  }
+
+  /**
+   * Free space until the used size is below the minimum factor, taking
+   * blocks from the priorities that are over their share first. Frees at
+   * least the gap between the acceptable factor and the total so that a
+   * size class that ran dry gets a chance to reclaim buckets. If an eviction
+   * is already running, waits for it rather than starting another.
+   */
+  void freeSpace() {
+    // Ensure only one eviction at a time
+    if (!this.freeSpaceLock.tryLock()) {
+      this.freeSpaceLock.lock();
+      this.freeSpaceLock.unlock();
+      return;
+    }
+    try {
+      long totalSize = this.bucketAllocator.getTotalSize();
+      long usedSize = this.bucketAllocator.getUsedSize();
+      long bytesToFree = Math.max(usedSize - minSize(),
+        totalSize - acceptableSize());
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Bucket cache eviction started; Attempting to free " +
+          StringUtils.byteDesc(bytesToFree) + " of used=" +
+          StringUtils.byteDesc(usedSize));
+      }
+
+      BucketEntryGroup groupSingle = new BucketEntryGroup(singleSize());
+      BucketEntryGroup groupMulti = new BucketEntryGroup(multiSize());
+      BucketEntryGroup groupMemory = new BucketEntryGroup(memorySize());
+
+      for (Map.Entry<BlockCacheKey, BucketEntry> entry :
+          this.backingMap.entrySet()) {
+        switch (entry.getValue().getPriority()) {
+          case SINGLE: {
+            groupSingle.add(entry);
+            break;
+          }
+          case MULTI: {
+            groupMulti.add(entry);
+            break;
+          }
+          case MEMORY: {
+            groupMemory.add(entry);
+            break;
+          }
+        }
+      }
+
+      PriorityQueue<BucketEntryGroup> groupQueue =
+        new PriorityQueue<BucketEntryGroup>(3);
+      groupQueue.add(groupSingle);
+      groupQueue.add(groupMulti);
+      groupQueue.add(groupMemory);
+
+      int remainingGroups = 3;
+      long bytesFreed = 0;
+
+      BucketEntryGroup group;
+      while ((group = groupQueue.poll()) != null) {
+        long overflow = group.overflow();
+        if (overflow > 0) {
+          long groupBytesToFree = Math.min(overflow,
+            (bytesToFree - bytesFreed) / remainingGroups);
+          bytesFreed += group.free(groupBytesToFree);
+        }
+        remainingGroups--;
+      }
+
+      // The shares may not add up to what is needed; take the rest from the
+      // least valuable blocks.
+      if (bytesFreed < bytesToFree) {
+        bytesFreed += groupSingle.free(bytesToFree - bytesFreed);
+      }
+      if (bytesFreed < bytesToFree) {
+        bytesFreed += groupMulti.free(bytesToFree - bytesFreed);
+      }
+      if (bytesFreed < bytesToFree) {
+        bytesFreed += groupMemory.free(bytesToFree - bytesFreed);
+      }
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Bucket cache eviction completed; " +
+          "freed=" + StringUtils.byteDesc(bytesFreed) + ", " +
+          "used=" + StringUtils.byteDesc(this.bucketAllocator.getUsedSize()) +
+          ", single=" + StringUtils.byteDesc(groupSingle.totalSize()) +
+          ", multi=" + StringUtils.byteDesc(groupMulti.totalSize()) +
+          ", memory=" + StringUtils.byteDesc(groupMemory.totalSize()));
+      }
+    } finally {
+      this.stats.evict();
+      this.freeSpaceLock.unlock();
+    }
+  }
+
+  /**
+   * An index entry as seen when eviction started. The access time is copied
+   * so that sorting is not disturbed by concurrent reads.
+   */
+  private static class EvictionCandidate {
+    final BlockCacheKey key;
+    final BucketEntry entry;
+    final long accessTime;
+
+    EvictionCandidate(BlockCacheKey key, BucketEntry entry) {
+      this.key = key;
+      this.entry = entry;
+      this.accessTime = entry.getAccessTime();
+    }
+  }
+
+  /**
+   * Entries of one priority, freed least recently used first.
+   */
+  private class BucketEntryGroup implements Comparable<BucketEntryGroup> {
+    private final List<EvictionCandidate> candidates =
+      new ArrayList<EvictionCandidate>();
+    private final long bucketSize;
+    private long totalSize = 0;
+    private boolean sorted = false;
+
+    BucketEntryGroup(long bucketSize) {
+      this.bucketSize = bucketSize;
+    }
+
+    void add(Map.Entry<BlockCacheKey, BucketEntry> entry) {
+      this.totalSize += entry.getValue().getLength();
+      this.candidates.add(new EvictionCandidate(entry.getKey(),
+        entry.getValue()));
+    }
+
+    long free(long toFree) {
+      if (!this.sorted) {
+        Collections.sort(this.candidates, ACCESS_ORDER);
+        this.sorted = true;
+      }
+      long freedBytes = 0;
+      while (freedBytes < toFree && !this.candidates.isEmpty()) {
+        EvictionCandidate candidate =
+          this.candidates.remove(this.candidates.size() - 1);
+        this.totalSize -= candidate.entry.getLength();
+        freedBytes += evictBucketEntry(candidate.key, candidate.entry, true);
+      }
+      return freedBytes;
+    }
+
+    long overflow() {
+      return this.totalSize - this.bucketSize;
+    }
+
+    long totalSize() {
+      return this.totalSize;
+    }
+
+    @Override
+    public int compareTo(BucketEntryGroup that) {
+      if (this.overflow() == that.overflow()) return 0;
+      return this.overflow() > that.overflow() ? 1 : -1;
+    }
+  }
+
+  /** Most recently accessed first, so the list is consumed from its end */
+  private static final Comparator<EvictionCandidate> ACCESS_ORDER =
+    new Comparator<EvictionCandidate>() {
+      @Override
+      public int compare(EvictionCandidate a, EvictionCandidate b) {
+        return a.accessTime == b.accessTime ? 0 :
+          (a.accessTime > b.accessTime ? -1 : 1);
+      }
+    };
+
+  /**
+   * Drains one writer queue.
+   */
+  class WriterThread extends HasThread {
+    private final BlockingQueue<RAMQueueEntry> inputQueue;
+
+    WriterThread(BlockingQueue<RAMQueueEntry> queue, int id) {
+      super("BucketCacheWriter-" + id);
+      this.inputQueue = queue;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      List<RAMQueueEntry> entries = new ArrayList<RAMQueueEntry>();
+      while (cacheEnabled) {
+        try {
+          entries.add(this.inputQueue.take());
+          this.inputQueue.drainTo(entries);
+          doDrain(entries);
+        } catch (InterruptedException ie) {
+          // Checks cacheEnabled
+        } catch (RuntimeException e) {
+          LOG.warn("Failed writing a batch to bucket cache", e);
+          // Don't leave blocks that were not written behind in the RAM map.
+          for (RAMQueueEntry re : entries) {
+            if (ramCache.remove(re.getKey(), re)) {
+              heapSize.addAndGet(-re.heapSize());
+            }
+          }
+        }
+        entries.clear();
+      }
+      LOG.info(getName() + " exiting, cacheEnabled=" + cacheEnabled);
+    }
+  }
+
+  /**
+   * A block waiting in a writer queue.
+   */
+  static class RAMQueueEntry implements HeapSize {
+    static final long PER_ENTRY_OVERHEAD = ClassSize.align(ClassSize.OBJECT +
+      2 * ClassSize.REFERENCE + Bytes.SIZEOF_LONG + Bytes.SIZEOF_BOOLEAN) +
+      ClassSize.CONCURRENT_HASHMAP_ENTRY;
+
+    private final BlockCacheKey key;
+    private final Cacheable data;
+    private volatile long accessTime;
+    private final boolean inMemory;
+
+    RAMQueueEntry(BlockCacheKey key, Cacheable data, long accessTime,
+        boolean inMemory) {
+      this.key = key;
+      this.data = data;
+      this.accessTime = accessTime;
+      this.inMemory = inMemory;
+    }
+
+    BlockCacheKey getKey() {
+      return this.key;
+    }
+
+    Cacheable getData() {
+      return this.data;
+    }
+
+    long getAccessTime() {
+      return this.accessTime;
+    }
+
+    boolean isInMemory() {
+      return this.inMemory;
+    }
+
+    void access(long accessTime) {
+      this.accessTime = accessTime;
+    }
+
+    @Override
+    public long heapSize() {
+      return PER_ENTRY_OVERHEAD + ClassSize.align(this.key.heapSize()) +
+        ClassSize.align(this.data.heapSize());
+    }
+  }
+
+  // Simple calculators of sizes given factors and the total size
+
+  private long acceptableSize() {
+    return (long)Math.floor(this.bucketAllocator.getTotalSize() *
+      DEFAULT_ACCEPTABLE_FACTOR);
+  }
+  private long minSize() {
+    return (long)Math.floor(this.bucketAllocator.getTotalSize() *
+      DEFAULT_MIN_FACTOR);
+  }
+  private long singleSize() {
+    return (long)Math.floor(this.bucketAllocator.getTotalSize() *
+      DEFAULT_SINGLE_FACTOR * DEFAULT_MIN_FACTOR);
+  }
+  private long multiSize() {
+    return (long)Math.floor(this.bucketAllocator.getTotalSize() *
+      DEFAULT_MULTI_FACTOR * DEFAULT_MIN_FACTOR);
+  }
+  private long memorySize() {
+    return (long)Math.floor(this.bucketAllocator.getTotalSize() *
+      DEFAULT_MEMORY_FACTOR * DEFAULT_MIN_FACTOR);
+  }
+
+  @Override
+  public CacheStats getStats() {
+    return this.stats;
+  }
+
+  /**
+   * @return number of blocks that were offered but could not be cached
+   */
+  public long getFailedBlockAdditions() {
+    return this.failedBlockAdditions.get();
+  }
+
+  BucketAllocator getAllocator() {
+    return this.bucketAllocator;
+  }
+
+  /**
+   * Stops the writers and releases the IO engine. Waits for readers still
+   * copying out of the engine before it is released.
+   */
+  @Override
+  public void shutdown() {
+    this.cacheEnabled = false;
+    for (WriterThread writer : this.writerThreads) {
+      writer.interrupt();
+    }
+    for (WriterThread writer : this.writerThreads) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    for (ReentrantReadWriteLock lock : this.offsetLocks) {
+      lock.writeLock().lock();
+      lock.writeLock().unlock();
+    }
+    this.scheduleThreadPool.shutdown();
+    this.ioEngine.shutdown();
+  }
+
+  @Override
+  public long heapSize() {
+    return this.heapSize.get();
+  }
+
+  @Override
+  public long size() {
+    return this.capacity;
+  }
+
+  @Override
+  public long getFreeSize() {
+    return this.bucketAllocator.getFreeSize();
+  }
+
+  @Override
+  public long getCurrentSize() {
+    return this.bucketAllocator.getUsedSize();
+  }
+
+  @Override
+  public long getEvictedCount() {
+    return this.stats.getEvictedCount();
+  }
+
+  @Override
+  public long getBlockCount() {
+    return this.backingMap.size() + this.ramCache.size();
+  }
+
+  /*
+   * Not implemented. Extremely costly to do this from the off heap cache, you'd
+   * need to copy every object on heap once
+   */
+  @Override
+  public List<BlockCacheColumnFamilySummary> getBlockCacheColumnFamilySummaries(
+      Configuration conf) {
+    throw new UnsupportedOperationException();
+  }
+
+  /*
+   * Statistics thread.  Periodically prints the cache statistics to the log.
+   */
+  static class StatisticsThread extends Thread {
+    private final BucketCache bucketCache;
+
+    public StatisticsThread(BucketCache bucketCache) {
+      super("BucketCache.StatisticsThread");
+      setDaemon(true);
+      this.bucketCache = bucketCache;
+    }
+
+    @Override
+    public void run() {
+      this.bucketCache.logStats();
+    }
+  }
+
+  public void logStats() {
+    LOG.info("Bucket cache stats: " +
+      "used=" + StringUtils.byteDesc(getCurrentSize()) + ", " +
+      "free=" + StringUtils.byteDesc(getFreeSize()) + ", " +
+      "heapSize=" + StringUtils.byteDesc(heapSize()) + ", " +
+      "blocks=" + getBlockCount() + ", " +
+      "accesses=" + this.stats.getRequestCount() + ", " +
+      "hits=" + this.stats.getHitCount() + ", " +
+      "hitRatio=" + (this.stats.getHitCount() == 0 ? "0" :
+        StringUtils.formatPercent(this.stats.getHitRatio(), 2)) + ", " +
+      "evictions=" + this.stats.getEvictionCount() + ", " +
+      "evicted=" + this.stats.getEvictedCount() + ", " +
+      "failedBlockAdditions=" + getFailedBlockAdditions());
+    this.bucketAllocator.logStatistics();
+  }
+}
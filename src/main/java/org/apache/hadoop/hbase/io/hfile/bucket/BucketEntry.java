@@ -0,0 +1,107 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * Index entry of a block written to a {@link BucketCache}. Kept small since
+ * a large cache holds millions of them: the offset takes 5 bytes and the
+ * deserializer is referred to by its position in the cache's list.
+ */
+@InterfaceAudience.Private
+class BucketEntry implements HeapSize {
+  static final long PER_ENTRY_OVERHEAD = ClassSize.align(ClassSize.OBJECT +
+    ClassSize.REFERENCE + 2 * Bytes.SIZEOF_INT + 2 * Bytes.SIZEOF_BYTE +
+    Bytes.SIZEOF_LONG) + ClassSize.CONCURRENT_HASHMAP_ENTRY;
+
+  static enum BlockPriority {
+    /**
+     * Accessed a single time (used for scan-resistance)
+     */
+    SINGLE,
+    /**
+     * Accessed multiple times
+     */
+    MULTI,
+    /**
+     * Block from in-memory store
+     */
+    MEMORY
+  };
+
+  private final int offsetBase;
+  private final byte offset1;
+  private final int length;
+  private final byte deserializerIndex;
+  private volatile long accessTime;
+  private volatile BlockPriority priority;
+
+  BucketEntry(long offset, int length, long accessTime,
+      byte deserializerIndex, boolean inMemory) {
+    assert offset >= 0 && offset < BucketCache.MAX_CAPACITY;
+    this.offsetBase = (int)offset;
+    this.offset1 = (byte)(offset >>> 32);
+    this.length = length;
+    this.accessTime = accessTime;
+    this.deserializerIndex = deserializerIndex;
+    this.priority = inMemory ? BlockPriority.MEMORY : BlockPriority.SINGLE;
+  }
+
+  long offset() {
+    long o = this.offsetBase & 0xFFFFFFFFL;
+    o += (this.offset1 & 0xFFL) << 32;
+    return o;
+  }
+
+  int getLength() {
+    return this.length;
+  }
+
+  byte getDeserializerIndex() {
+    return this.deserializerIndex;
+  }
+
+  long getAccessTime() {
+    return this.accessTime;
+  }
+
+  BlockPriority getPriority() {
+    return this.priority;
+  }
+
+  /**
+   * Block has been accessed.  Update its local access time.
+   */
+  void access(long accessTime) {
+    this.accessTime = accessTime;
+    if (this.priority == BlockPriority.SINGLE) {
+      this.priority = BlockPriority.MULTI;
+    }
+  }
+
+  @Override
+  public long heapSize() {
+    return PER_ENTRY_OVERHEAD;
+  }
+}
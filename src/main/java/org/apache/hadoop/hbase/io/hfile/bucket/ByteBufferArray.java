@@ -0,0 +1,100 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Addresses an array of equally sized ByteBuffers as one contiguous region,
+ * so a region larger than 2GB can be read and written with long offsets.
+ * Reads and writes may span the boundary between two buffers.
+ */
+@InterfaceAudience.Private
+class ByteBufferArray {
+  private final ByteBuffer [] buffers;
+  private final int bufferSize;
+  private final long capacity;
+
+  /**
+   * @param buffers the backing buffers; all but the last must have a capacity
+   * of exactly <code>bufferSize</code>
+   * @param bufferSize capacity of each backing buffer
+   */
+  ByteBufferArray(ByteBuffer [] buffers, int bufferSize) {
+    this.buffers = buffers;
+    this.bufferSize = bufferSize;
+    long total = 0;
+    for (ByteBuffer buffer : buffers) {
+      total += buffer.capacity();
+    }
+    this.capacity = total;
+  }
+
+  long getCapacity() {
+    return this.capacity;
+  }
+
+  ByteBuffer [] getBuffers() {
+    return this.buffers;
+  }
+
+  /**
+   * Copy <code>len</code> bytes starting at <code>offset</code> into
+   * <code>dst</code> starting at <code>dstOffset</code>.
+   */
+  void get(long offset, byte [] dst, int dstOffset, int len) {
+    transfer(offset, dst, dstOffset, len, false);
+  }
+
+  /**
+   * Copy <code>len</code> bytes from <code>src</code> starting at
+   * <code>srcOffset</code> into the array starting at <code>offset</code>.
+   */
+  void put(long offset, byte [] src, int srcOffset, int len) {
+    transfer(offset, src, srcOffset, len, true);
+  }
+
+  private void transfer(long offset, byte [] array, int arrayOffset, int len,
+      boolean write) {
+    if (offset < 0 || len < 0 || offset + len > this.capacity) {
+      throw new IndexOutOfBoundsException("offset=" + offset + ", len=" + len +
+        ", capacity=" + this.capacity);
+    }
+    int index = (int)(offset / this.bufferSize);
+    int position = (int)(offset % this.bufferSize);
+    int done = 0;
+    while (done < len) {
+      // Work on a duplicate so concurrent callers do not share positions.
+      ByteBuffer bb = this.buffers[index].duplicate();
+      bb.position(position);
+      int chunk = Math.min(len - done, bb.remaining());
+      if (write) {
+        bb.put(array, arrayOffset + done, chunk);
+      } else {
+        bb.get(array, arrayOffset + done, chunk);
+      }
+      done += chunk;
+      index++;
+      position = 0;
+    }
+  }
+}
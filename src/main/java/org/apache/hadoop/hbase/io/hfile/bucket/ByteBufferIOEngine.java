@@ -0,0 +1,117 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.DirectMemoryUtils;
+
+/**
+ * IO engine that stores data in memory, split over a number of
+ * {@link ByteBuffer}s. With direct buffers the data lives outside of the java
+ * heap and is invisible to the garbage collector.
+ */
+@InterfaceAudience.Private
+public class ByteBufferIOEngine implements IOEngine {
+  static final Log LOG = LogFactory.getLog(ByteBufferIOEngine.class);
+
+  /** Size of each of the buffers the region is split into */
+  static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+  private final ByteBufferArray bufferArray;
+  private final boolean direct;
+
+  /**
+   * @param capacity total size of the engine, in bytes
+   * @param direct true to allocate direct (off heap) buffers
+   */
+  public ByteBufferIOEngine(long capacity, boolean direct) {
+    this.direct = direct;
+    int count = (int)((capacity + BUFFER_SIZE - 1) / BUFFER_SIZE);
+    ByteBuffer [] buffers = new ByteBuffer[count];
+    long remaining = capacity;
+    for (int i = 0; i < count; i++) {
+      int size = (int)Math.min(BUFFER_SIZE, remaining);
+      buffers[i] = direct ? ByteBuffer.allocateDirect(size) :
+        ByteBuffer.allocate(size);
+      remaining -= size;
+    }
+    this.bufferArray = new ByteBufferArray(buffers, BUFFER_SIZE);
+  }
+
+  @Override
+  public String toString() {
+    return "ioengine=" + getClass().getSimpleName() + ", direct=" +
+      this.direct + ", capacity=" + this.bufferArray.getCapacity();
+  }
+
+  /**
+   * Memory is lost on restart.
+   */
+  @Override
+  public boolean isPersistent() {
+    return false;
+  }
+
+  @Override
+  public void read(ByteBuffer dstBuffer, long offset) throws IOException {
+    read(this.bufferArray, dstBuffer, offset);
+  }
+
+  @Override
+  public void write(ByteBuffer srcBuffer, long offset) throws IOException {
+    write(this.bufferArray, srcBuffer, offset);
+  }
+
+  /**
+   * No need to sync for memory.
+   */
+  @Override
+  public void sync() {
+  }
+
+  @Override
+  public void shutdown() {
+    if (!this.direct) return;
+    for (ByteBuffer buffer : this.bufferArray.getBuffers()) {
+      try {
+        DirectMemoryUtils.destroyDirectByteBuffer(buffer);
+      } catch (Exception e) {
+        LOG.warn("Unable to deallocate direct memory during shutdown", e);
+      }
+    }
+  }
+
+  static void read(ByteBufferArray array, ByteBuffer dstBuffer, long offset) {
+    assert dstBuffer.hasArray();
+    array.get(offset, dstBuffer.array(),
+      dstBuffer.arrayOffset() + dstBuffer.position(), dstBuffer.remaining());
+  }
+
+  static void write(ByteBufferArray array, ByteBuffer srcBuffer, long offset) {
+    assert srcBuffer.hasArray();
+    array.put(offset, srcBuffer.array(),
+      srcBuffer.arrayOffset() + srcBuffer.position(), srcBuffer.remaining());
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Thrown by {@link BucketAllocator} when no slot of the size class a block
+ * needs is free and no unassigned bucket is left.
+ */
+@InterfaceAudience.Private
+public class CacheFullException extends IOException {
+  private static final long serialVersionUID = 3265127301824638920L;
+
+  private final int requestedSize;
+  private final int bucketIndex;
+
+  CacheFullException(int requestedSize, int bucketIndex) {
+    super("Cache full, requested " + requestedSize + " bytes in size class " +
+      bucketIndex);
+    this.requestedSize = requestedSize;
+    this.bucketIndex = bucketIndex;
+  }
+
+  public int getRequestedSize() {
+    return this.requestedSize;
+  }
+
+  public int getBucketIndex() {
+    return this.bucketIndex;
+  }
+}
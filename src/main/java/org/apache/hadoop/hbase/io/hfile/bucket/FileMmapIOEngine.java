@@ -0,0 +1,120 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * IO engine that stores data in a memory-mapped local file, typically on an
+ * SSD. The page cache rather than the java heap holds the hot part of it.
+ */
+@InterfaceAudience.Private
+public class FileMmapIOEngine implements IOEngine {
+  static final Log LOG = LogFactory.getLog(FileMmapIOEngine.class);
+
+  /** Size of each mapped region of the file */
+  static final int MAP_SIZE = 1024 * 1024 * 1024;
+
+  private final String path;
+  private final RandomAccessFile raf;
+  private final ByteBufferArray bufferArray;
+
+  /**
+   * @param path local file to map; created or resized to
+   * <code>capacity</code>
+   * @param capacity total size of the engine, in bytes
+   * @throws IOException
+   */
+  public FileMmapIOEngine(String path, long capacity) throws IOException {
+    this.path = path;
+    this.raf = new RandomAccessFile(path, "rw");
+    boolean success = false;
+    try {
+      this.raf.setLength(capacity);
+      FileChannel channel = this.raf.getChannel();
+      int count = (int)((capacity + MAP_SIZE - 1) / MAP_SIZE);
+      ByteBuffer [] buffers = new ByteBuffer[count];
+      long position = 0;
+      for (int i = 0; i < count; i++) {
+        long size = Math.min(MAP_SIZE, capacity - position);
+        buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, position,
+          size);
+        position += size;
+      }
+      this.bufferArray = new ByteBufferArray(buffers, MAP_SIZE);
+      success = true;
+    } finally {
+      if (!success) {
+        this.raf.close();
+      }
+    }
+    LOG.info("Mapped " + path + " with capacity " + capacity);
+  }
+
+  @Override
+  public String toString() {
+    return "ioengine=" + getClass().getSimpleName() + ", path=" + this.path +
+      ", capacity=" + this.bufferArray.getCapacity();
+  }
+
+  /**
+   * The file outlives the process, though the cache does not yet reload its
+   * index from it.
+   */
+  @Override
+  public boolean isPersistent() {
+    return true;
+  }
+
+  @Override
+  public void read(ByteBuffer dstBuffer, long offset) throws IOException {
+    ByteBufferIOEngine.read(this.bufferArray, dstBuffer, offset);
+  }
+
+  @Override
+  public void write(ByteBuffer srcBuffer, long offset) throws IOException {
+    ByteBufferIOEngine.write(this.bufferArray, srcBuffer, offset);
+  }
+
+  @Override
+  public void sync() throws IOException {
+    for (ByteBuffer buffer : this.bufferArray.getBuffers()) {
+      ((MappedByteBuffer)buffer).force();
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    try {
+      sync();
+      this.raf.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to close " + this.path, e);
+    }
+  }
+}
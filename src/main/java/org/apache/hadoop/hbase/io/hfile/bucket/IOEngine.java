@@ -0,0 +1,66 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A class implementing IOEngine interface could support data services for
+ * {@link BucketCache}.
+ */
+@InterfaceAudience.Private
+public interface IOEngine {
+
+  /**
+   * @return true if the contents survive a restart of the region server
+   */
+  boolean isPersistent();
+
+  /**
+   * Transfers data from IOEngine to the given byte buffer
+   * @param dstBuffer the given byte buffer into which bytes are to be written
+   * @param offset The offset in the IO engine where the first byte to be read
+   * @throws IOException
+   */
+  void read(ByteBuffer dstBuffer, long offset) throws IOException;
+
+  /**
+   * Transfers data from the given byte buffer to IOEngine
+   * @param srcBuffer the given byte buffer from which bytes are to be read
+   * @param offset The offset in the IO engine where the first byte to be
+   *          written
+   * @throws IOException
+   */
+  void write(ByteBuffer srcBuffer, long offset) throws IOException;
+
+  /**
+   * Sync the data to the underlying storage, if any
+   * @throws IOException
+   */
+  void sync() throws IOException;
+
+  /**
+   * Release the resources held by the engine
+   */
+  void shutdown();
+}
@@ -0,0 +1,420 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Chore;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.io.hfile.BlockCache;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheSnapshot;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+
+/**
+ * Warms the block cache of regions as they open with the blocks that were
+ * hot before, so reads do not all go to disk after a restart or a move.<p>
+ *
+ * The hot blocks come from two places:
+ * <ul>
+ * <li>When a region is closed, the hot blocks of its store files are written
+ * to {@link #REGION_HOT_BLOCKS_FILE} in the region directory, so they follow
+ * the region to whichever server opens it next.</li>
+ * <li>If {@link #SNAPSHOT_FILE_KEY} is set, the hottest blocks of the whole
+ * cache are also written periodically to that local file, which is read back
+ * when the server starts. This covers regions that were not closed cleanly,
+ * as after a crash.</li>
+ * </ul>
+ * When a region opens, its hot blocks are read through the HFile readers of
+ * its store files by a small pool of threads, one file per thread at a time,
+ * which bounds the extra I/O. Warming a region stops once it closes again,
+ * and warming stops altogether while the cache is close to full so it never
+ * evicts blocks that are being read.
+ */
+@InterfaceAudience.Private
+public class BlockCacheWarmer {
+  static final Log LOG = LogFactory.getLog(BlockCacheWarmer.class);
+
+  /** Configuration key enabling block cache warming */
+  public static final String WARM_KEY = "hbase.regionserver.blockcache.warm";
+
+  /** Configuration key for the local file of the periodic snapshot */
+  public static final String SNAPSHOT_FILE_KEY =
+      "hbase.regionserver.blockcache.snapshot.file";
+
+  /** Configuration key for the period of the local snapshot, in ms */
+  public static final String SNAPSHOT_PERIOD_KEY =
+      "hbase.regionserver.blockcache.snapshot.period";
+
+  /** Configuration key for the number of blocks kept in a snapshot */
+  public static final String MAX_BLOCKS_KEY =
+      "hbase.regionserver.blockcache.snapshot.max.blocks";
+
+  /** Configuration key for the number of threads reading hot blocks */
+  public static final String WARM_THREADS_KEY =
+      "hbase.regionserver.blockcache.warm.threads";
+
+  /** Name of the file in a region directory listing its hot blocks */
+  public static final String REGION_HOT_BLOCKS_FILE = ".hotblocks";
+
+  // Regions closed one after another, as when a server is drained, share a
+  // snapshot taken this recently instead of each going over the cache.
+  static final long SNAPSHOT_REUSE_MS = 10 * 1000;
+
+  // Warming stops at this fraction of the cache, below where it evicts.
+  static final float MAX_FULLNESS = 0.8f;
+
+  private final BlockCache blockCache;
+  private final File localSnapshotFile;
+  private final int snapshotPeriod;
+  private final int maxBlocks;
+  private final ThreadPoolExecutor pool;
+
+  // Hot blocks from the local snapshot read at startup, by HFile name. Taken
+  // out as the regions holding them open; dropped at the first new snapshot.
+  private final Map<String, List<BlockCacheSnapshot.Entry>> restored =
+      new ConcurrentHashMap<String, List<BlockCacheSnapshot.Entry>>();
+
+  private Map<String, List<BlockCacheSnapshot.Entry>> recentSnapshot = null;
+  private long recentSnapshotTime = 0;
+
+  private final AtomicLong warmedCount = new AtomicLong(0);
+  private volatile boolean stopped = false;
+
+  /**
+   * @return whether warming is configured and the block cache supports it
+   */
+  public static boolean isEnabled(Configuration conf, BlockCache blockCache) {
+    if (!conf.getBoolean(WARM_KEY, false) || blockCache == null) {
+      return false;
+    }
+    if (!BlockCacheSnapshot.isSupported(blockCache)) {
+      LOG.warn("Block cache warming is not supported for " +
+          blockCache.getClass().getSimpleName());
+      return false;
+    }
+    return true;
+  }
+
+  public BlockCacheWarmer(Configuration conf, BlockCache blockCache) {
+    this.blockCache = blockCache;
+    String snapshotFile = conf.get(SNAPSHOT_FILE_KEY, null);
+    this.localSnapshotFile = snapshotFile == null || snapshotFile.isEmpty() ?
+        null : new File(snapshotFile);
+    this.snapshotPeriod = conf.getInt(SNAPSHOT_PERIOD_KEY, 5 * 60 * 1000);
+    this.maxBlocks = conf.getInt(MAX_BLOCKS_KEY, 100000);
+    int threads = Math.max(1, conf.getInt(WARM_THREADS_KEY, 2));
+    final String n = Thread.currentThread().getName();
+    this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setName(n + "-blockCacheWarmer-" + System.currentTimeMillis());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    this.pool.allowCoreThreadTimeOut(true);
+    restoreLocalSnapshot();
+  }
+
+  /**
+   * @return the chore writing the local snapshot, or null if there is no
+   * local snapshot
+   */
+  public Chore createSnapshotChore(Stoppable stopper) {
+    if (localSnapshotFile == null) return null;
+    return new SnapshotChore(stopper);
+  }
+
+  /** @return number of blocks read into the cache so far */
+  public long getWarmedCount() {
+    return warmedCount.get();
+  }
+
+  /**
+   * Stop warming regions and drop pending work.
+   */
+  public void shutdown() {
+    stopped = true;
+    pool.shutdownNow();
+  }
+
+  /**
+   * Write the hot blocks of the region to its directory, where whichever
+   * server opens it next finds them. Called before the region closes, while
+   * its blocks are still cached.
+   */
+  public void regionClosing(HRegion region) {
+    List<BlockCacheSnapshot.Entry> hot =
+        new ArrayList<BlockCacheSnapshot.Entry>();
+    Map<String, List<BlockCacheSnapshot.Entry>> snapshot = getRecentSnapshot();
+    for (String name : getStoreFileNames(region)) {
+      List<BlockCacheSnapshot.Entry> fileEntries = snapshot.get(name);
+      if (fileEntries != null) hot.addAll(fileEntries);
+    }
+    if (hot.isEmpty()) return;
+    FileSystem fs = region.getFilesystem();
+    Path path = new Path(region.getRegionDir(), REGION_HOT_BLOCKS_FILE);
+    try {
+      FSDataOutputStream out = fs.create(path, true);
+      try {
+        BlockCacheSnapshot.write(out, hot);
+      } finally {
+        out.close();
+      }
+      LOG.debug("Wrote " + hot.size() + " hot blocks of " +
+          region.getRegionNameAsString() + " to " + path);
+    } catch (IOException ioe) {
+      LOG.warn("Failed writing hot blocks of " +
+          region.getRegionNameAsString() + " to " + path, ioe);
+    }
+  }
+
+  /**
+   * Read the hot blocks of a newly opened region into the block cache in
+   * the background.
+   */
+  public void warm(HRegion region) {
+    if (stopped) return;
+    try {
+      pool.execute(new WarmRegionTask(region));
+    } catch (RejectedExecutionException ree) {
+      // We are shutting down.
+    }
+  }
+
+  private static List<String> getStoreFileNames(HRegion region) {
+    List<String> names = new ArrayList<String>();
+    for (Store store : region.getStores().values()) {
+      for (StoreFile sf : store.getStorefiles()) {
+        names.add(sf.getPath().getName());
+      }
+    }
+    return names;
+  }
+
+  private synchronized Map<String, List<BlockCacheSnapshot.Entry>>
+      getRecentSnapshot() {
+    long now = System.currentTimeMillis();
+    if (recentSnapshot == null ||
+        now - recentSnapshotTime > SNAPSHOT_REUSE_MS) {
+      recentSnapshot = BlockCacheSnapshot.groupByFile(
+          BlockCacheSnapshot.collect(blockCache, maxBlocks));
+      recentSnapshotTime = now;
+    }
+    return recentSnapshot;
+  }
+
+  private boolean isCacheFull() {
+    long used = blockCache.getCurrentSize();
+    long max = used + blockCache.getFreeSize();
+    return used > max * MAX_FULLNESS;
+  }
+
+  private void restoreLocalSnapshot() {
+    if (localSnapshotFile == null) return;
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(localSnapshotFile)));
+      try {
+        List<BlockCacheSnapshot.Entry> entries = BlockCacheSnapshot.read(in);
+        restored.putAll(BlockCacheSnapshot.groupByFile(entries));
+        LOG.info("Read " + entries.size() + " hot blocks of " +
+            restored.size() + " files from " + localSnapshotFile);
+      } finally {
+        in.close();
+      }
+    } catch (FileNotFoundException fnfe) {
+      // First start with a snapshot configured.
+    } catch (IOException ioe) {
+      LOG.warn("Failed reading block cache snapshot " + localSnapshotFile,
+          ioe);
+    }
+  }
+
+  /**
+   * Replace the local snapshot with the current hot blocks.
+   */
+  void writeLocalSnapshot() throws IOException {
+    // Whatever of the old snapshot has not been used by now is stale.
+    restored.clear();
+    List<BlockCacheSnapshot.Entry> entries =
+        BlockCacheSnapshot.collect(blockCache, maxBlocks);
+    File tmp = new File(localSnapshotFile.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmp)));
+    try {
+      BlockCacheSnapshot.write(out, entries);
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(localSnapshotFile)) {
+      throw new IOException("Failed renaming " + tmp + " to " +
+          localSnapshotFile);
+    }
+    LOG.debug("Wrote " + entries.size() + " hot blocks to " +
+        localSnapshotFile);
+  }
+
+  /**
+   * Gathers the hot blocks of a region and queues one task per store file.
+   */
+  private class WarmRegionTask implements Runnable {
+    private final HRegion region;
+
+    WarmRegionTask(HRegion region) {
+      this.region = region;
+    }
+
+    @Override
+    public void run() {
+      Map<String, List<BlockCacheSnapshot.Entry>> shipped = readRegionFile();
+      for (Store store : region.getStores().values()) {
+        for (StoreFile sf : store.getStorefiles()) {
+          String name = sf.getPath().getName();
+          List<BlockCacheSnapshot.Entry> fileEntries = shipped.get(name);
+          List<BlockCacheSnapshot.Entry> local = restored.remove(name);
+          if (fileEntries == null) fileEntries = local;
+          if (fileEntries == null) continue;
+          try {
+            pool.execute(new WarmFileTask(region, sf, fileEntries));
+          } catch (RejectedExecutionException ree) {
+            return;
+          }
+        }
+      }
+    }
+
+    private Map<String, List<BlockCacheSnapshot.Entry>> readRegionFile() {
+      FileSystem fs = region.getFilesystem();
+      Path path = new Path(region.getRegionDir(), REGION_HOT_BLOCKS_FILE);
+      try {
+        if (!fs.exists(path)) return Collections.emptyMap();
+        List<BlockCacheSnapshot.Entry> entries;
+        FSDataInputStream in = fs.open(path);
+        try {
+          entries = BlockCacheSnapshot.read(in);
+        } finally {
+          in.close();
+        }
+        // The list is only good for this open.
+        fs.delete(path, false);
+        return BlockCacheSnapshot.groupByFile(entries);
+      } catch (IOException ioe) {
+        LOG.warn("Failed reading hot blocks of " +
+            region.getRegionNameAsString() + " from " + path, ioe);
+        return Collections.emptyMap();
+      }
+    }
+  }
+
+  /**
+   * Reads the hot blocks of one store file, caching them.
+   */
+  private class WarmFileTask implements Runnable {
+    private final HRegion region;
+    private final StoreFile storeFile;
+    private final List<BlockCacheSnapshot.Entry> entries;
+
+    WarmFileTask(HRegion region, StoreFile storeFile,
+        List<BlockCacheSnapshot.Entry> entries) {
+      this.region = region;
+      this.storeFile = storeFile;
+      this.entries = entries;
+    }
+
+    @Override
+    public void run() {
+      StoreFile.Reader sfReader = storeFile.getReader();
+      if (sfReader == null) return;
+      HFile.Reader reader = sfReader.getHFileReader();
+      int warmed = 0;
+      for (BlockCacheSnapshot.Entry entry : entries) {
+        if (stopped || region.isClosing() || region.isClosed() ||
+            isCacheFull()) {
+          break;
+        }
+        try {
+          reader.readBlock(entry.getOffset(), -1, true, true, false, null);
+          if (entry.isMultiAccess()) {
+            // A second access gives the block its old priority back.
+            reader.readBlock(entry.getOffset(), -1, true, true, false, null);
+          }
+          warmed++;
+        } catch (IOException ioe) {
+          // The file may have been compacted away and closed under us.
+          LOG.debug("Stopped warming " + storeFile + " at offset " +
+              entry.getOffset(), ioe);
+          break;
+        }
+      }
+      warmedCount.addAndGet(warmed);
+      LOG.debug("Warmed " + warmed + " of " + entries.size() +
+          " hot blocks of " + storeFile);
+    }
+  }
+
+  /**
+   * Writes the local snapshot every period.
+   */
+  private class SnapshotChore extends Chore {
+    SnapshotChore(Stoppable stopper) {
+      super("BlockCacheSnapshot", snapshotPeriod, stopper);
+    }
+
+    @Override
+    protected void chore() {
+      try {
+        writeLocalSnapshot();
+      } catch (IOException ioe) {
+        LOG.warn("Failed writing block cache snapshot " + localSnapshotFile,
+            ioe);
+      }
+    }
+  }
+}
@@ -33,6 +33,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputController;
 
 import com.google.common.base.Preconditions;
 
@@ -50,6 +51,7 @@ public class CompactSplitThread implements CompactionRequestor {
   private final ThreadPoolExecutor smallCompactions;
   private final ThreadPoolExecutor splits;
   private final long throttleSize;
+  private final CompactionThroughputController throughputController;
 
   /* The default priority for user-specified compaction requests.
    * The user gets top priority unless we have blocking compactions. (Pri <= 0)
@@ -93,6 +95,8 @@ public class CompactSplitThread implements CompactionRequestor {
     // if we have throttle threads, make sure the user also specified size
     Preconditions.checkArgument(smallThreads == 0 || throttleSize > 0);
 
+    this.throughputController = new CompactionThroughputController(conf);
+
     final String n = Thread.currentThread().getName();
 
     this.largeCompactions = new ThreadPoolExecutor(largeThreads, largeThreads,
@@ -223,6 +227,7 @@ public class CompactSplitThread implements CompactionRequestor {
     CompactionRequest cr = s.requestCompaction();
     if (cr != null) {
       cr.setServer(server);
+      cr.setThroughputController(throughputController);
       if (priority != NO_PRIORITY) {
         cr.setPriority(priority);
       }
@@ -287,6 +292,13 @@ public class CompactSplitThread implements CompactionRequestor {
     return size;
   }
 
+  /**
+   * @return the controller limiting the writes of all compactions
+   */
+  public CompactionThroughputController getThroughputController() {
+    return throughputController;
+  }
+
   private boolean shouldSplitRegion() {
     return (regionSplitLimit > server.getNumberOfOnlineRegions());
   }
@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactSelection;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A compaction policy chooses which store files of a store to compact.
+ * The policy of a store is set by its column family, or else by its table,
+ * or else by {@link HConstants#HBASE_COMPACTION_POLICY_KEY}. A striped store
+ * defaults to {@link StripeCompactionPolicy}.
+ * {@see RatioCompactionPolicy}
+ * {@see DateTieredCompactionPolicy}
+ */
+@InterfaceAudience.Private
+public abstract class CompactionPolicy extends Configured {
+  private static final Class<? extends CompactionPolicy>
+    DEFAULT_COMPACTION_POLICY_CLASS = RatioCompactionPolicy.class;
+  private static final Class<? extends CompactionPolicy>
+    DEFAULT_STRIPED_COMPACTION_POLICY_CLASS = StripeCompactionPolicy.class;
+
+  /**
+   * The store configured for this compaction policy.
+   */
+  protected Store store;
+
+  /**
+   * Upon construction, this method will be called with the store
+   * to be governed. It will be called once and only once.
+   */
+  protected void configureForStore(Store store) {
+    Preconditions.checkState(
+        this.store == null,
+        "Policy already configured for store {}",
+        this.store);
+
+    this.store = store;
+  }
+
+  /**
+   * Choose the files to compact. Called with the store's filesCompacting
+   * locked.
+   * @param candidates candidate files, ordered from oldest to newest
+   * @param forceMajor true if a major compaction was requested and no other
+   * compaction of the store is running
+   * @return a contiguous run of the candidates, or an empty selection
+   * @throws IOException
+   */
+  protected abstract CompactSelection selectCompaction(
+      List<StoreFile> candidates, boolean forceMajor) throws IOException;
+
+  /**
+   * If the store is set to delete expired store files, selects those of the
+   * candidates holding only expired data.
+   * @return the expired files, or null if there are none
+   */
+  protected CompactSelection selectExpiredStoreFiles(
+      CompactSelection selection) {
+    if (store.conf.getBoolean("hbase.store.delete.expired.storefile", false)
+        && (store.ttl != Long.MAX_VALUE)
+        && (store.scanInfo.getMinVersions() == 0)) {
+      return selection.selectExpiredStoreFilesToCompact(
+          EnvironmentEdgeManager.currentTimeMillis() - store.ttl);
+    }
+    return null;
+  }
+
+  /**
+   * Get a setting of the policy, which the column family or the table may
+   * override.
+   * @param key configuration key
+   * @param defaultValue value used if the key is not set anywhere
+   */
+  protected long getLong(String key, long defaultValue) {
+    String value = store.getFamily().getValue(key);
+    if (value == null && store.getHRegion().getTableDesc() != null) {
+      value = store.getHRegion().getTableDesc().getValue(key);
+    }
+    if (value != null) {
+      return Long.parseLong(value);
+    }
+    return getConf().getLong(key, defaultValue);
+  }
+
+  /**
+   * Create the CompactionPolicy configured for the given store.
+   * @param store
+   * @param conf
+   * @return the policy
+   * @throws IOException if the configured class cannot be loaded
+   */
+  public static CompactionPolicy create(Store store,
+      Configuration conf) throws IOException {
+    Class<? extends CompactionPolicy> clazz = getCompactionPolicyClass(
+        store.getFamily(), store.getHRegion().getTableDesc(), conf,
+        store.stripes != null);
+    CompactionPolicy policy = ReflectionUtils.newInstance(clazz, conf);
+    policy.configureForStore(store);
+    return policy;
+  }
+
+  static Class<? extends CompactionPolicy> getCompactionPolicyClass(
+      HColumnDescriptor family, HTableDescriptor htd, Configuration conf,
+      boolean striped) throws IOException {
+    String className = family.getCompactionPolicyClassName();
+    if (className == null && htd != null) {
+      className = htd.getCompactionPolicyClassName();
+    }
+    if (className == null && striped) {
+      className = DEFAULT_STRIPED_COMPACTION_POLICY_CLASS.getName();
+    }
+    if (className == null) {
+      className = conf.get(HConstants.HBASE_COMPACTION_POLICY_KEY,
+          DEFAULT_COMPACTION_POLICY_CLASS.getName());
+    }
+
+    try {
+      Class<? extends CompactionPolicy> clazz =
+        Class.forName(className).asSubclass(CompactionPolicy.class);
+      return clazz;
+    } catch (Exception  e) {
+      throw new IOException(
+          "Unable to load configured compaction policy '" +
+          className + "' for family '" + family.getNameAsString() + "'",
+          e);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactSelection;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * A {@link CompactionPolicy} for time series data, which groups store files
+ * by the maximum timestamp they hold into windows that grow with age.
+ * Files are only ever compacted with files of the same window, so cells are
+ * rewritten a bounded number of times, and files whose data is older than
+ * "hbase.hstore.compaction.date.tiered.max.storefile.age.millis" are never
+ * rewritten by a minor compaction.
+ * <p>
+ * The newest window is "hbase.hstore.compaction.date.tiered.base.window.millis"
+ * wide. Once "hbase.hstore.compaction.date.tiered.windows.per.tier" windows
+ * of a size have been walked, the windows become that many times wider.
+ * <p>
+ * The newest window is compacted once it holds "hbase.hstore.compaction.min"
+ * files; an older window is compacted as soon as it holds two, which happens
+ * when the newer windows are merged into it as time moves on.
+ * Age-based major compactions are not run, since they would rewrite the old
+ * windows; a requested major compaction still compacts all files.
+ */
+@InterfaceAudience.Private
+public class DateTieredCompactionPolicy extends CompactionPolicy {
+  static final Log LOG = LogFactory.getLog(DateTieredCompactionPolicy.class);
+
+  public static final String BASE_WINDOW_MILLIS_KEY =
+    "hbase.hstore.compaction.date.tiered.base.window.millis";
+  public static final String WINDOWS_PER_TIER_KEY =
+    "hbase.hstore.compaction.date.tiered.windows.per.tier";
+  public static final String MAX_STOREFILE_AGE_MILLIS_KEY =
+    "hbase.hstore.compaction.date.tiered.max.storefile.age.millis";
+
+  private long baseWindowMillis;
+  private int windowsPerTier;
+  private long maxStoreFileAgeMillis;
+
+  @Override
+  protected void configureForStore(Store store) {
+    super.configureForStore(store);
+    this.baseWindowMillis = Math.max(1,
+        getLong(BASE_WINDOW_MILLIS_KEY, 6 * 60 * 60 * 1000L));
+    this.windowsPerTier = (int) Math.max(2, getLong(WINDOWS_PER_TIER_KEY, 4));
+    this.maxStoreFileAgeMillis =
+      getLong(MAX_STOREFILE_AGE_MILLIS_KEY, Long.MAX_VALUE);
+  }
+
+  @Override
+  protected CompactSelection selectCompaction(List<StoreFile> candidates,
+      boolean forceMajor) throws IOException {
+    CompactSelection compactSelection =
+      new CompactSelection(getConf(), candidates);
+    List<StoreFile> files = compactSelection.getFilesToCompact();
+
+    if (files.isEmpty()) {
+      compactSelection.emptyFileList();
+      return compactSelection;
+    }
+
+    if (forceMajor || store.hasReferences(files)) {
+      // all files included in this compaction, up to max
+      if (files.size() > store.maxFilesToCompact) {
+        compactSelection.clearSubList(0, files.size() - store.maxFilesToCompact);
+      }
+      return compactSelection;
+    }
+
+    // Delete the expired store files before the compaction selection.
+    CompactSelection expiredSelection =
+      selectExpiredStoreFiles(compactSelection);
+    if (expiredSelection != null) {
+      return expiredSelection;
+    }
+
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    long oldestToCompact = maxStoreFileAgeMillis >= now ? Long.MIN_VALUE
+        : now - maxStoreFileAgeMillis;
+
+    // Walk from the newest file back, looking for the newest window holding
+    // enough files. The files of a window must be adjacent in the list so
+    // that the compacted file keeps the sequence id order of the store.
+    Window window = new Window(baseWindowMillis, now / baseWindowMillis);
+    boolean incoming = true;
+    int end = files.size();
+    int start = end;
+    for (int i = files.size() - 1; i >= 0; --i) {
+      StoreFile file = files.get(i);
+      long maxTimestamp = file.getReader().getMaxTimestamp();
+      if (maxTimestamp < oldestToCompact || file.excludeFromMinorCompaction()) {
+        break;
+      }
+      if (maxTimestamp < window.getStartMillis()) {
+        if (isEligible(end - start, incoming)) {
+          break;
+        }
+        // the file starts an older window
+        end = start;
+        incoming = false;
+        while (maxTimestamp < window.getStartMillis()) {
+          window = window.nextEarlierWindow(windowsPerTier);
+        }
+      }
+      start = i;
+    }
+
+    if (!isEligible(end - start, incoming)) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(store.getHRegionInfo().getEncodedName() + " - " +
+          store.getColumnFamilyName() + ": no time window has enough files to" +
+          " compact among " + files.size() + " file(s)");
+      }
+      compactSelection.emptyFileList();
+      return compactSelection;
+    }
+    // compact the oldest files of the window first
+    end = Math.min(end, start + store.maxFilesToCompact);
+    return compactSelection.getSubList(start, end);
+  }
+
+  private boolean isEligible(int fileCount, boolean incoming) {
+    return fileCount >= (incoming ? store.minFilesToCompact : 2);
+  }
+
+  /**
+   * A time window: the range
+   * [index * size, (index + 1) * size) of timestamps.
+   */
+  static class Window {
+    private final long size;
+    private final long index;
+
+    Window(long size, long index) {
+      this.size = size;
+      this.index = index;
+    }
+
+    long getStartMillis() {
+      return index * size;
+    }
+
+    /**
+     * @return the window just before this one, which is windowsPerTier
+     * times wider if this window is the first of its tier
+     */
+    Window nextEarlierWindow(int windowsPerTier) {
+      if (index % windowsPerTier != 0) {
+        return new Window(size, index - 1);
+      }
+      return new Window(size * windowsPerTier, index / windowsPerTier - 1);
+    }
+  }
+}
@@ -33,4 +33,13 @@ public interface FlushRequester {
    * @param region the HRegion requesting the cache flush
    */
   void requestFlush(HRegion region);
+
+  /**
+   * Tell the listener the cache needs to be flushed.
+   *
+   * @param region the HRegion requesting the cache flush
+   * @param flushAllStores true if every store of the region must be flushed,
+   * false if stores holding little may be left out
+   */
+  void requestFlush(HRegion region, boolean flushAllStores);
 }
\ No newline at end of file
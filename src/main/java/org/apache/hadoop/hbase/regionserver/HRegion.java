@@ -38,7 +38,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
-import java.util.Random;
 import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.Callable;
@@ -46,7 +45,6 @@ import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
@@ -119,7 +117,6 @@ import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.hadoop.hbase.util.CompressionTest;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.FSUtils;
-import org.apache.hadoop.hbase.util.HashedBytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.hbase.util.Writables;
@@ -131,7 +128,6 @@ import org.cliffc.high_scale_lib.Counter;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ClassToInstanceMap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.MutableClassToInstanceMap;
 
@@ -188,12 +184,7 @@ public class HRegion implements HeapSize { // , Writable{
   // Members
   //////////////////////////////////////////////////////////////////////////////
 
-  private final ConcurrentHashMap<HashedBytes, CountDownLatch> lockedRows =
-    new ConcurrentHashMap<HashedBytes, CountDownLatch>();
-  private final ConcurrentHashMap<Integer, HashedBytes> lockIds =
-    new ConcurrentHashMap<Integer, HashedBytes>();
-  private final AtomicInteger lockIdGenerator = new AtomicInteger(1);
-  static private Random rand = new Random();
+  private final RowLockManager rowLocks;
 
   protected final Map<byte [], Store> stores =
     new ConcurrentSkipListMap<byte [], Store>(Bytes.BYTES_RAWCOMPARATOR);
@@ -232,6 +223,7 @@ public class HRegion implements HeapSize { // , Writable{
   final Configuration conf;
   final int rowLockWaitDuration;
   static final int DEFAULT_ROWLOCK_WAIT_DURATION = 30000;
+  static final int DEFAULT_ROWLOCK_STRIPES = 64;
   static final long DEFAULT_ROW_PROCESSOR_TIMEOUT = 10 * 1000L;
   final HRegionInfo regionInfo;
   final Path regiondir;
@@ -239,6 +231,14 @@ public class HRegion implements HeapSize { // , Writable{
 
   private ConcurrentHashMap<RegionScanner, Long> scannerReadPoints;
 
+  /**
+   * @return The lock edits hold shared while they are applied to the
+   * memstores, and flushes hold exclusively while snapshotting them
+   */
+  ReentrantReadWriteLock getUpdatesLock() {
+    return this.updatesLock;
+  }
+
   /**
    * @return The smallest mvcc readPoint across all the scanners in this
    * region. Writes older than this readPoint, are included  in every
@@ -301,6 +301,8 @@ public class HRegion implements HeapSize { // , Writable{
   final WriteState writestate = new WriteState();
 
   long memstoreFlushSize;
+  // Stores with less in their memstore are left out of selective flushes
+  private long memstoreFlushLowerBound;
   final long timestampSlop;
   final long rowProcessorTimeout;
   private volatile long lastFlushTime;
@@ -419,6 +421,7 @@ public class HRegion implements HeapSize { // , Writable{
     this.blockingMemStoreSize = 0L;
     this.conf = null;
     this.rowLockWaitDuration = DEFAULT_ROWLOCK_WAIT_DURATION;
+    this.rowLocks = new RowLockManager(DEFAULT_ROWLOCK_STRIPES);
     this.rsServices = null;
     this.fs = null;
     this.timestampSlop = HConstants.LATEST_TIMESTAMP;
@@ -466,6 +469,8 @@ public class HRegion implements HeapSize { // , Writable{
     this.conf = conf;
     this.rowLockWaitDuration = conf.getInt("hbase.rowlock.wait.duration",
                     DEFAULT_ROWLOCK_WAIT_DURATION);
+    this.rowLocks = new RowLockManager(conf.getInt(
+        "hbase.regionserver.rowlock.stripes", DEFAULT_ROWLOCK_STRIPES));
     this.regionInfo = regionInfo;
     this.htableDescriptor = htd;
     this.rsServices = rsServices;
@@ -510,6 +515,8 @@ public class HRegion implements HeapSize { // , Writable{
          HTableDescriptor.DEFAULT_MEMSTORE_FLUSH_SIZE);
     }
     this.memstoreFlushSize = flushSize;
+    this.memstoreFlushLowerBound = conf.getLong(
+        HConstants.HREGION_MEMSTORE_FLUSH_LOWER_BOUND, 0);
     this.blockingMemStoreSize = this.memstoreFlushSize *
         conf.getLong("hbase.hregion.memstore.block.multiplier", 2);
   }
@@ -550,22 +557,12 @@ public class HRegion implements HeapSize { // , Writable{
     cleanupTmpDir();
 
     // Load in all the HStores.
-    // Get minimum of the maxSeqId across all the store.
-    //
-    // Context: During replay we want to ensure that we do not lose any data. So, we
-    // have to be conservative in how we replay logs. For each store, we calculate
-    // the maxSeqId up to which the store was flushed. But, since different stores
-    // could have a different maxSeqId, we choose the
-    // minimum across all the stores.
-    // This could potentially result in duplication of data for stores that are ahead
-    // of others. ColumnTrackers in the ScanQueryMatchers do the de-duplication, so we
-    // do not have to worry.
-    // TODO: If there is a store that was never flushed in a long time, we could replay
-    // a lot of data. Currently, this is not a problem because we flush all the stores at
-    // the same time. If we move to per-cf flushing, we might want to revisit this and send
-    // in a vector of maxSeqIds instead of sending in a single number, which has to be the
-    // min across all the max.
-    long minSeqId = -1;
+    // Record the maxSeqId up to which each store was flushed. Stores are not
+    // always flushed together, so replay skips the edits of each store
+    // against its own maxSeqId. Replaying edits a store already flushed
+    // could bring back Puts whose Deletes a major compaction dropped since.
+    Map<byte[], Long> maxSeqIdInStores =
+      new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
     long maxSeqId = -1;
     // initialized to -1 so that we pick up MemstoreTS from column families
     long maxMemstoreTS = -1;
@@ -595,9 +592,8 @@ public class HRegion implements HeapSize { // , Writable{
 
           this.stores.put(store.getColumnFamilyName().getBytes(), store);
           long storeSeqId = store.getMaxSequenceId();
-          if (minSeqId == -1 || storeSeqId < minSeqId) {
-            minSeqId = storeSeqId;
-          }
+          maxSeqIdInStores.put(store.getColumnFamilyName().getBytes(),
+            storeSeqId);
           if (maxSeqId == -1 || storeSeqId > maxSeqId) {
             maxSeqId = storeSeqId;
           }
@@ -617,7 +613,11 @@ public class HRegion implements HeapSize { // , Writable{
     mvcc.initialize(maxMemstoreTS + 1);
     // Recover any edits if available.
     maxSeqId = Math.max(maxSeqId, replayRecoveredEditsIfAny(
-        this.regiondir, minSeqId, reporter, status));
+        this.regiondir, maxSeqIdInStores, reporter, status));
+    // Every edit from now on comes after what the stores hold
+    for (Store store : this.stores.values()) {
+      store.flushedSequenceId = maxSeqId;
+    }
 
     status.setStatus("Cleaning up detritus from prior splits");
     // Get rid of any splits or merges that were lost in-progress.  Clean out
@@ -1300,6 +1300,21 @@ public class HRegion implements HeapSize { // , Writable{
    * because a Snapshot was not properly persisted.
    */
   public boolean flushcache() throws IOException {
+    return flushcache(true);
+  }
+
+  /**
+   * Flush the cache, as {@link #flushcache()} does.
+   *
+   * @param flushAllStores false to only flush the stores holding more than
+   * <code>hbase.hregion.memstore.flush.lower.bound</code> in their memstore,
+   * if any does; true to flush every store
+   * @return true if cache was flushed
+   * @throws IOException general io exceptions
+   * @throws DroppedSnapshotException Thrown when replay of hlog is required
+   * because a Snapshot was not properly persisted.
+   */
+  public boolean flushcache(boolean flushAllStores) throws IOException {
     // fail-fast instead of waiting on the lock
     if (this.closing.get()) {
       LOG.debug("Skipping flush on " + this + " because closing");
@@ -1334,7 +1349,8 @@ public class HRegion implements HeapSize { // , Writable{
             return false;
           }
         }
-        boolean result = internalFlushcache(status);
+        boolean result = flushAllStores ? internalFlushcache(status) :
+            internalFlushcache(this.log, -1, status, selectStoresToFlush());
 
         if (coprocessorHost != null) {
           status.setStatus("Running post-flush coprocessor hooks");
@@ -1407,6 +1423,43 @@ public class HRegion implements HeapSize { // , Writable{
    */
   protected boolean internalFlushcache(
       final HLog wal, final long myseqid, MonitoredTask status)
+  throws IOException {
+    return internalFlushcache(wal, myseqid, status, stores.values());
+  }
+
+  /**
+   * @return The stores holding more than
+   * <code>hbase.hregion.memstore.flush.lower.bound</code> in their memstore,
+   * or all stores if none does, if the bound is not set or if this is a
+   * catalog region.
+   */
+  Collection<Store> selectStoresToFlush() {
+    if (this.memstoreFlushLowerBound <= 0 ||
+        this.regionInfo.isMetaRegion() || this.regionInfo.isRootRegion()) {
+      return stores.values();
+    }
+    List<Store> selected = new ArrayList<Store>(stores.size());
+    for (Store s : stores.values()) {
+      if (s.memstore.keySize() > this.memstoreFlushLowerBound) {
+        selected.add(s);
+      }
+    }
+    return selected.isEmpty() ? stores.values() : selected;
+  }
+
+  /**
+   * @param wal Null if we're NOT to go via hlog/wal.
+   * @param myseqid The seqid to use if <code>wal</code> is null writing out
+   * flush file.
+   * @param status
+   * @param storesToFlush The stores to flush; the others keep their memstore
+   * and the hlog keeps the edits they hold.
+   * @return true if the region needs compacting
+   * @throws IOException
+   * @see #internalFlushcache(MonitoredTask)
+   */
+  protected boolean internalFlushcache(final HLog wal, final long myseqid,
+      MonitoredTask status, final Collection<Store> storesToFlush)
   throws IOException {
     final long startTime = EnvironmentEdgeManager.currentTimeMillis();
     // Clear flush flag.
@@ -1432,6 +1485,8 @@ public class HRegion implements HeapSize { // , Writable{
     // during the flush
     long sequenceId = -1L;
     long completeSequenceId = -1L;
+    // Lowest sequence id the edits left in unflushed stores may have
+    long oldestUnflushedSeqId = -1L;
     MultiVersionConsistencyControl.WriteEntry w = null;
 
     // We have to take a write lock during snapshot, or else a write could
@@ -1439,9 +1494,27 @@ public class HRegion implements HeapSize { // , Writable{
     // rows then)
     status.setStatus("Obtaining lock to block concurrent updates");
     this.updatesLock.writeLock().lock();
-    long flushsize = this.memstoreSize.get();
+    boolean flushAllStores = storesToFlush.size() == stores.size();
+    long flushsize = 0;
+    if (flushAllStores) {
+      flushsize = this.memstoreSize.get();
+    } else {
+      for (Store s : storesToFlush) {
+        flushsize += s.memstore.keySize();
+      }
+      for (Store s : stores.values()) {
+        if (!storesToFlush.contains(s) && s.memstore.keySize() > 0) {
+          // its edits all came after the last flush of the store
+          long storeSeqId = s.flushedSequenceId + 1;
+          if (oldestUnflushedSeqId == -1 || storeSeqId < oldestUnflushedSeqId) {
+            oldestUnflushedSeqId = storeSeqId;
+          }
+        }
+      }
+    }
     status.setStatus("Preparing to flush by snapshotting stores");
-    List<StoreFlusher> storeFlushers = new ArrayList<StoreFlusher>(stores.size());
+    List<StoreFlusher> storeFlushers =
+      new ArrayList<StoreFlusher>(storesToFlush.size());
     try {
       // Record the mvcc for all transactions in progress.
       w = mvcc.beginMemstoreInsert();
@@ -1451,8 +1524,9 @@ public class HRegion implements HeapSize { // , Writable{
         wal.startCacheFlush(this.regionInfo.getEncodedNameAsBytes());
       completeSequenceId = this.getCompleteCacheFlushSequenceId(sequenceId);
 
-      for (Store s : stores.values()) {
+      for (Store s : storesToFlush) {
         storeFlushers.add(s.getStoreFlusher(completeSequenceId));
+        s.flushedSequenceId = sequenceId;
       }
 
       // prepare flush (take a snapshot)
@@ -1531,7 +1605,7 @@ public class HRegion implements HeapSize { // , Writable{
     if (wal != null) {
       wal.completeCacheFlush(this.regionInfo.getEncodedNameAsBytes(),
         regionInfo.getTableName(), completeSequenceId,
-        this.getRegionInfo().isMetaRegion());
+        this.getRegionInfo().isMetaRegion(), oldestUnflushedSeqId);
     }
 
     // C. Finally notify anyone waiting on memstore to clear:
@@ -1544,6 +1618,8 @@ public class HRegion implements HeapSize { // , Writable{
     long memstoresize = this.memstoreSize.get();
     String msg = "Finished memstore flush of ~" +
       StringUtils.humanReadableInt(flushsize) + "/" + flushsize +
+      (flushAllStores ? "" : " in " + storesToFlush.size() + " of " +
+        stores.size() + " stores") +
       ", currentsize=" +
       StringUtils.humanReadableInt(memstoresize) + "/" + memstoresize +
       " for region " + this + " in " + time + "ms, sequenceid=" + sequenceId +
@@ -1711,8 +1787,9 @@ public class HRegion implements HeapSize { // , Writable{
     this.writeRequestsCount.increment();
     try {
       byte [] row = delete.getRow();
-      // If we did not pass an existing row lock, obtain a new one
-      lid = getLock(lockid, row, true);
+      // If we did not pass an existing row lock, obtain a new one. Deletes
+      // read the row to resolve latest timestamps, so the lock is exclusive.
+      lid = getLock(lockid, row, true, true);
 
       try {
         // All edits for the given row (across all column families) must happen atomically.
@@ -1911,8 +1988,10 @@ public class HRegion implements HeapSize { // , Writable{
       // See HRegionServer#RegionListener for how the expire on HRegionServer
       // invokes a HRegion#abort.
       byte [] row = put.getRow();
-      // If we did not pass an existing row lock, obtain a new one
-      Integer lid = getLock(lockid, row, true);
+      // If we did not pass an existing row lock, obtain a new one. The lock
+      // is exclusive even though a put does not read the row: two puts of the
+      // same cell must reach the memstore and the WAL in the same order.
+      int lid = getLockId(lockid, row, true, true);
 
       try {
         // All edits for the given row (across all column families) must happen atomically.
@@ -2024,7 +2103,8 @@ public class HRegion implements HeapSize { // , Writable{
     boolean locked = false;
 
     /** Keep track of the locks we hold so we can release them in finally clause */
-    List<Integer> acquiredLocks = Lists.newArrayListWithCapacity(batchOp.operations.length);
+    int[] acquiredLocks = new int[batchOp.operations.length];
+    int numAcquiredLocks = 0;
     // reference family maps directly so coprocessors can mutate them if desired
     Map<byte[],List<KeyValue>>[] familyMaps = new Map[batchOp.operations.length];
     // We try to set up a batch in the range [firstIndex,lastIndexExclusive)
@@ -2069,14 +2149,15 @@ public class HRegion implements HeapSize { // , Writable{
         // If we haven't got any rows in our batch, we should block to
         // get the next one.
         boolean shouldBlock = numReadyToWrite == 0;
-        Integer acquiredLockId = getLock(providedLockId, put.getRow(), shouldBlock);
-        if (acquiredLockId == null) {
+        int acquiredLockId =
+          getLockId(providedLockId, put.getRow(), shouldBlock, true);
+        if (acquiredLockId == RowLockManager.NO_LOCK) {
           // We failed to grab another lock
           assert !shouldBlock : "Should never fail to get lock when blocking";
           break; // stop acquiring more rows for this batch
         }
         if (providedLockId == null) {
-          acquiredLocks.add(acquiredLockId);
+          acquiredLocks[numAcquiredLocks++] = acquiredLockId;
         }
         lastIndexExclusive++;
         numReadyToWrite++;
@@ -2177,12 +2258,10 @@ public class HRegion implements HeapSize { // , Writable{
         this.updatesLock.readLock().unlock();
         locked = false;
       }
-      if (acquiredLocks != null) {
-        for (Integer toRelease : acquiredLocks) {
-          releaseRowLock(toRelease);
-        }
-        acquiredLocks = null;
+      for (int i = 0; i < numAcquiredLocks; i++) {
+        releaseRowLock(acquiredLocks[i]);
       }
+      numAcquiredLocks = 0;
       // -------------------------
       // STEP 7. Sync wal.
       // -------------------------
@@ -2230,10 +2309,8 @@ public class HRegion implements HeapSize { // , Writable{
         this.updatesLock.readLock().unlock();
       }
 
-      if (acquiredLocks != null) {
-        for (Integer toRelease : acquiredLocks) {
-          releaseRowLock(toRelease);
-        }
+      for (int i = 0; i < numAcquiredLocks; i++) {
+        releaseRowLock(acquiredLocks[i]);
       }
 
       // do after lock
@@ -2296,7 +2373,7 @@ public class HRegion implements HeapSize { // , Writable{
       get.addColumn(family, qualifier);
 
       // Lock row
-      Integer lid = getLock(lockId, get.getRow(), true);
+      Integer lid = getLock(lockId, get.getRow(), true, true);
       List<KeyValue> result = new ArrayList<KeyValue>();
       try {
         result = get(get, false);
@@ -2662,9 +2739,9 @@ public class HRegion implements HeapSize { // , Writable{
    * Read the edits log put under this region by wal log splitting process.  Put
    * the recovered edits back up into this region.
    *
-   * <p>We can ignore any log message that has a sequence ID that's equal to or
-   * lower than minSeqId.  (Because we know such log messages are already
-   * reflected in the HFiles.)
+   * <p>We can ignore any edit of a store that has a sequence ID that's equal
+   * to or lower than the maxSeqId of that store.  (Because we know such edits
+   * are already reflected in its HFiles.)
    *
    * <p>While this is running we are putting pressure on memory yet we are
    * outside of our usual accounting because we are not yet an onlined region
@@ -2686,18 +2763,26 @@ public class HRegion implements HeapSize { // , Writable{
    * make sense in a this single region context only -- until we online.
    *
    * @param regiondir
-   * @param minSeqId Any edit found in split editlogs needs to be in excess of
-   * this minSeqId to be applied, else its skipped.
+   * @param maxSeqIdInStores Any edit found in split editlogs needs to be in
+   * excess of the maxSeqId of its store, keyed by family, to be applied, else
+   * its skipped.
    * @param reporter
    * @return the sequence id of the last edit added to this region out of the
-   * recovered edits log or <code>minSeqId</code> if nothing added from editlogs.
+   * recovered edits log or the lowest maxSeqId of the stores if nothing added
+   * from editlogs.
    * @throws UnsupportedEncodingException
    * @throws IOException
    */
   protected long replayRecoveredEditsIfAny(final Path regiondir,
-      final long minSeqId, final CancelableProgressable reporter,
-      final MonitoredTask status)
+      final Map<byte[], Long> maxSeqIdInStores,
+      final CancelableProgressable reporter, final MonitoredTask status)
       throws UnsupportedEncodingException, IOException {
+    long minSeqId = -1;
+    for (Long maxSeqIdInStore : maxSeqIdInStores.values()) {
+      if (minSeqId == -1 || maxSeqIdInStore < minSeqId) {
+        minSeqId = maxSeqIdInStore;
+      }
+    }
     long seqid = minSeqId;
     NavigableSet<Path> files = HLog.getSplitEditFilesSorted(this.fs, regiondir);
     if (files == null || files.isEmpty()) return seqid;
@@ -2728,7 +2813,7 @@ public class HRegion implements HeapSize { // , Writable{
       }
 
       try {
-        seqid = replayRecoveredEdits(edits, seqid, reporter);
+        seqid = replayRecoveredEdits(edits, seqid, maxSeqIdInStores, reporter);
       } catch (IOException e) {
         boolean skipErrors = conf.getBoolean("hbase.skip.errors", false);
         if (skipErrors) {
@@ -2759,13 +2844,17 @@ public class HRegion implements HeapSize { // , Writable{
    * @param edits File of recovered edits.
    * @param minSeqId Minimum sequenceid found in a store file.  Edits in log
    * must be larger than this to be replayed.
+   * @param maxSeqIdInStores Maximum sequenceid found in the files of each
+   * store, keyed by family.  Edits in log must also be larger than the one
+   * of their store to be replayed.
    * @param reporter
    * @return the sequence id of the last edit added to this region out of the
    * recovered edits log or <code>minSeqId</code> if nothing added from editlogs.
    * @throws IOException
    */
-  private long replayRecoveredEdits(final Path edits,
-      final long minSeqId, final CancelableProgressable reporter)
+  private long replayRecoveredEdits(final Path edits, final long minSeqId,
+      final Map<byte[], Long> maxSeqIdInStores,
+      final CancelableProgressable reporter)
     throws IOException {
     String msg = "Replaying edits from " + edits + "; minSequenceid=" +
       minSeqId + "; path=" + edits;
@@ -2861,6 +2950,14 @@ public class HRegion implements HeapSize { // , Writable{
               skippedEdits++;
               continue;
             }
+            // Skip the edits the store already flushed.
+            Long maxSeqIdInStore =
+              maxSeqIdInStores.get(store.getFamily().getName());
+            if (maxSeqIdInStore != null &&
+                key.getLogSeqNum() <= maxSeqIdInStore) {
+              skippedEdits++;
+              continue;
+            }
             // Once we are over the limit, restoreEdit will keep returning true to
             // flush -- but don't flush until we've played all the kvs that make up
             // the WALEdit.
@@ -2999,23 +3096,34 @@ public class HRegion implements HeapSize { // , Writable{
   }
 
   /**
-   * Obtain a lock on the given row.  Blocks until success.
-   *
-   * I know it's strange to have two mappings:
-   * <pre>
-   *   ROWS  ==> LOCKS
-   * </pre>
-   * as well as
-   * <pre>
-   *   LOCKS ==> ROWS
-   * </pre>
-   *
-   * But it acts as a guard on the client; a miswritten client just can't
-   * submit the name of a row and start writing to it; it must know the correct
-   * lockid, which matches the lock list in memory.
+   * Make sure the start row of a scan is in this region. A reversed scan
+   * reads the rows below its start row, so it may also start at the end key
+   * of the region, or with an empty start row in the last region.
+   * @throws IOException
+   */
+  void checkScanStartRow(final Scan scan) throws IOException {
+    byte [] row = scan.getStartRow();
+    if (scan.isReversed()) {
+      byte [] endKey = regionInfo.getEndKey();
+      if (row.length == 0 ? endKey.length == 0 : Bytes.equals(row, endKey)) {
+        return;
+      }
+      if (row.length == 0) {
+        throw new WrongRegionException("Reversed scan with no start row on " +
+          "HRegion " + this + ", getEndKey()='" +
+          Bytes.toStringBinary(endKey) + "'");
+      }
+    }
+    checkRow(row, "Scan");
+  }
+
+  /**
+   * Obtain an exclusive lock on the given row for a client.  Blocks until
+   * success.
    *
-   * <p>It would be more memory-efficient to assume a correctly-written client,
-   * which maybe we'll do in the future.
+   * The id returned acts as a guard on the client; a miswritten client just
+   * can't submit the name of a row and start writing to it; it must know the
+   * correct lockid, which matches a lock held in memory.
    *
    * @param row Name of row to lock.
    * @throws IOException
@@ -3025,7 +3133,7 @@ public class HRegion implements HeapSize { // , Writable{
     startRegionOperation();
     this.writeRequestsCount.increment();
     try {
-      return internalObtainRowLock(row, true);
+      return internalObtainRowLock(row, true, true, false);
     } finally {
       closeRegionOperation();
     }
@@ -3036,47 +3144,30 @@ public class HRegion implements HeapSize { // , Writable{
    * @param waitForLock if true, will block until the lock is available.
    *        Otherwise, just tries to obtain the lock and returns
    *        null if unavailable.
+   * @param exclusive false if the lock may be shared with others that only
+   *        read the row
+   * @param reentrant true if the calling thread may lock the row again while
+   *        holding it; false for locks held on behalf of a client
    */
-  private Integer internalObtainRowLock(final byte[] row, boolean waitForLock)
-      throws IOException {
+  private Integer internalObtainRowLock(final byte[] row, boolean waitForLock,
+      boolean exclusive, boolean reentrant) throws IOException {
+    int lockId = internalObtainRowLockId(row, waitForLock, exclusive,
+        reentrant);
+    return lockId == RowLockManager.NO_LOCK ? null : lockId;
+  }
+
+  /**
+   * As {@link #internalObtainRowLock(byte[], boolean, boolean, boolean)},
+   * without boxing the lock id.
+   * @return the lock id, or {@link RowLockManager#NO_LOCK} if unavailable
+   */
+  private int internalObtainRowLockId(final byte[] row, boolean waitForLock,
+      boolean exclusive, boolean reentrant) throws IOException {
     checkRow(row, "row lock");
     startRegionOperation();
     try {
-      HashedBytes rowKey = new HashedBytes(row);
-      CountDownLatch rowLatch = new CountDownLatch(1);
-
-      // loop until we acquire the row lock (unless !waitForLock)
-      while (true) {
-        CountDownLatch existingLatch = lockedRows.putIfAbsent(rowKey, rowLatch);
-        if (existingLatch == null) {
-          break;
-        } else {
-          // row already locked
-          if (!waitForLock) {
-            return null;
-          }
-          try {
-            if (!existingLatch.await(this.rowLockWaitDuration,
-                            TimeUnit.MILLISECONDS)) {
-                return null;
-            }
-          } catch (InterruptedException ie) {
-            // Empty
-          }
-        }
-      }
-
-      // loop until we generate an unused lock id
-      while (true) {
-        Integer lockId = lockIdGenerator.incrementAndGet();
-        HashedBytes existingRowKey = lockIds.putIfAbsent(lockId, rowKey);
-        if (existingRowKey == null) {
-          return lockId;
-        } else {
-          // lockId already in use, jump generator to a new spot
-          lockIdGenerator.set(rand.nextInt());
-        }
-      }
+      return rowLocks.lock(row, exclusive, reentrant,
+          waitForLock ? this.rowLockWaitDuration : 0);
     } finally {
       closeRegionOperation();
     }
@@ -3088,8 +3179,7 @@ public class HRegion implements HeapSize { // , Writable{
    * @return Row that goes with <code>lockid</code>
    */
   byte[] getRowFromLock(final Integer lockid) {
-    HashedBytes rowKey = lockIds.get(lockid);
-    return rowKey == null ? null : rowKey.getBytes();
+    return rowLocks.getRow(lockid);
   }
 
   /**
@@ -3097,18 +3187,17 @@ public class HRegion implements HeapSize { // , Writable{
    * @param lockId  The lock ID to release.
    */
   public void releaseRowLock(final Integer lockId) {
-    HashedBytes rowKey = lockIds.remove(lockId);
-    if (rowKey == null) {
-      LOG.warn("Release unknown lockId: " + lockId);
-      return;
+    if (lockId == null) {
+      LOG.warn("Release unknown lockId: null");
+    } else {
+      releaseRowLock(lockId.intValue());
     }
-    CountDownLatch rowLatch = lockedRows.remove(rowKey);
-    if (rowLatch == null) {
-      LOG.error("Releases row not locked, lockId: " + lockId + " row: "
-          + rowKey);
-      return;
+  }
+
+  private void releaseRowLock(final int lockId) {
+    if (!rowLocks.unlock(lockId)) {
+      LOG.warn("Release unknown lockId: " + lockId);
     }
-    rowLatch.countDown();
   }
 
   /**
@@ -3117,7 +3206,14 @@ public class HRegion implements HeapSize { // , Writable{
    * @return boolean
    */
   boolean isRowLocked(final Integer lockId) {
-    return lockIds.containsKey(lockId);
+    return lockId != null && rowLocks.isLocked(lockId);
+  }
+
+  /**
+   * @return the row locks of this region, for metrics and tests
+   */
+  RowLockManager getRowLocks() {
+    return rowLocks;
   }
 
   /**
@@ -3127,20 +3223,33 @@ public class HRegion implements HeapSize { // , Writable{
    * @param row the row to lock
    * @param waitForLock if true, will block until the lock is available, otherwise will
    * simply return null if it could not acquire the lock.
+   * @param exclusive false if the operation only reads the row;
+   * a lock held by the user is always exclusive
    * @return lockid or null if waitForLock is false and the lock was unavailable.
    */
-  private Integer getLock(Integer lockid, byte [] row, boolean waitForLock)
+  private Integer getLock(Integer lockid, byte [] row, boolean waitForLock,
+      boolean exclusive)
+  throws IOException {
+    int lid = getLockId(lockid, row, waitForLock, exclusive);
+    return lid == RowLockManager.NO_LOCK ? null : lid;
+  }
+
+  /**
+   * As {@link #getLock(Integer, byte[], boolean, boolean)}, without boxing
+   * the lock id on the write path.
+   * @return lockid or {@link RowLockManager#NO_LOCK} if waitForLock is false
+   * and the lock was unavailable.
+   */
+  private int getLockId(Integer lockid, byte [] row, boolean waitForLock,
+      boolean exclusive)
   throws IOException {
-    Integer lid = null;
     if (lockid == null) {
-      lid = internalObtainRowLock(row, waitForLock);
-    } else {
-      if (!isRowLocked(lockid)) {
-        throw new IOException("Invalid row lock");
-      }
-      lid = lockid;
+      return internalObtainRowLockId(row, waitForLock, exclusive, true);
     }
-    return lid;
+    if (!isRowLocked(lockid)) {
+      throw new IOException("Invalid row lock");
+    }
+    return lockid.intValue();
   }
 
   /**
@@ -3280,11 +3389,20 @@ public class HRegion implements HeapSize { // , Writable{
   class RegionScannerImpl implements RegionScanner {
     // Package local for testability
     KeyValueHeap storeHeap = null;
+    /** Heap of key-values that are not essential for the provided filters and are thus read
+     * on demand, if on-demand column family loading is enabled.*/
+    KeyValueHeap joinedHeap = null;
+    /**
+     * If the joined heap data gathering is interrupted due to scan limits, this will
+     * contain the row for which we are populating the values.*/
+    private byte [] joinedContinuationRow = null;
     private final byte [] stopRow;
     private Filter filter;
     private List<KeyValue> results = new ArrayList<KeyValue>();
     private int batch;
     private int isScan;
+    // Whether rows are read from the last to the first
+    private final boolean reversed;
     private boolean filterClosed = false;
     private long readPt;
 
@@ -3304,6 +3422,7 @@ public class HRegion implements HeapSize { // , Writable{
       // If we are doing a get, we want to be [startRow,endRow] normally
       // it is [startRow,endRow) and if startRow=endRow we get nothing.
       this.isScan = scan.isGetScan() ? -1 : 0;
+      this.reversed = scan.isReversed();
 
       // synchronize on scannerReadPoints so that nobody calculates
       // getSmallestReadPoint, before scannerReadPoints is updated.
@@ -3320,17 +3439,34 @@ public class HRegion implements HeapSize { // , Writable{
       }
 
       List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>();
+      List<KeyValueScanner> joinedScanners = new ArrayList<KeyValueScanner>();
       if (additionalScanners != null) {
         scanners.addAll(additionalScanners);
       }
 
+      // Filters that rework the whole row in filterRow(List) need to see all
+      // of it at once, so they do not get their families loaded on demand.
+      // Nor does a reversed scan, as the joined heap is sought forward.
+      boolean onDemand = this.filter != null && scan.doLoadColumnFamiliesOnDemand()
+          && !this.filter.hasFilterRow() && !this.reversed;
       for (Map.Entry<byte[], NavigableSet<byte[]>> entry :
           scan.getFamilyMap().entrySet()) {
         Store store = stores.get(entry.getKey());
         StoreScanner scanner = store.getScanner(scan, entry.getValue());
-        scanners.add(scanner);
+        if (!onDemand || this.filter.isFamilyEssential(entry.getKey())) {
+          scanners.add(scanner);
+        } else {
+          joinedScanners.add(scanner);
+        }
+      }
+      if (this.reversed) {
+        this.storeHeap = new ReversedKeyValueHeap(scanners, comparator);
+      } else {
+        this.storeHeap = new KeyValueHeap(scanners, comparator);
+      }
+      if (!joinedScanners.isEmpty()) {
+        this.joinedHeap = new KeyValueHeap(joinedScanners, comparator);
       }
-      this.storeHeap = new KeyValueHeap(scanners, comparator);
     }
 
     RegionScannerImpl(Scan scan) throws IOException {
@@ -3403,8 +3539,61 @@ public class HRegion implements HeapSize { // , Writable{
       return this.filter != null && this.filter.filterAllRemaining();
     }
 
+    /**
+     * Fetches the rest of the joined families for the row held in
+     * joinedContinuationRow, clearing it once the row is complete.
+     * @return true if the limit was reached before the row was complete
+     */
+    private boolean populateFromJoinedHeap(int limit, String metric)
+    throws IOException {
+      assert joinedContinuationRow != null;
+      boolean limitReached = false;
+      while (true) {
+        this.joinedHeap.next(results, limit - results.size(), metric);
+        KeyValue kv = this.joinedHeap.peek();
+        if (kv == null || !kv.matchingRow(joinedContinuationRow)) {
+          joinedContinuationRow = null;
+          break;
+        }
+        if (limit > 0 && results.size() == limit) {
+          limitReached = true;
+          break;
+        }
+      }
+      // The two heaps each return their families in order, but the
+      // families of one heap may sort between those of the other. Result
+      // relies on the list being sorted.
+      Collections.sort(results, comparator);
+      return limitReached;
+    }
+
+    /**
+     * Positions the joined heap on the given row.
+     * @return true if any of the joined families has data for the row
+     */
+    private boolean joinedHeapHasRow(byte [] row) throws IOException {
+      KeyValue kv = this.joinedHeap.peek();
+      if (kv != null && kv.matchingRow(row)) {
+        return true;
+      }
+      // The joined heap is only moved for rows that pass the filter, so it
+      // can be far behind: seek it forward to the row.
+      this.joinedHeap.requestSeek(KeyValue.createFirstOnRow(row), true, true);
+      kv = this.joinedHeap.peek();
+      return kv != null && kv.matchingRow(row);
+    }
+
     private boolean nextInternal(int limit, String metric) throws IOException {
       while (true) {
+        if (joinedContinuationRow != null) {
+          // The last call ran into the limit while reading the joined
+          // families of a row which has already passed the filter.
+          if (populateFromJoinedHeap(limit, metric)) {
+            return true;
+          }
+          byte [] nextRow = peekRow();
+          return !isStopRow(nextRow);
+        }
         byte [] currentRow = peekRow();
         if (isStopRow(currentRow)) {
           if (filter != null && filter.hasFilterRow()) {
@@ -3421,14 +3610,18 @@ public class HRegion implements HeapSize { // , Writable{
           byte [] nextRow;
           do {
             this.storeHeap.next(results, limit - results.size(), metric);
-            if (limit > 0 && results.size() == limit) {
+            nextRow = peekRow();
+            // If the limit falls on the last cell of the row, the row is
+            // complete: go on to filter it and read its joined families.
+            if (limit > 0 && results.size() == limit &&
+                Bytes.equals(currentRow, nextRow)) {
               if (this.filter != null && filter.hasFilterRow()) {
                 throw new IncompatibleFilterException(
                   "Filter with filterRow(List<KeyValue>) incompatible with scan with limit!");
               }
               return true; // we are expecting more yes, but also limited to how many we can return.
             }
-          } while (Bytes.equals(currentRow, nextRow = peekRow()));
+          } while (Bytes.equals(currentRow, nextRow));
 
           final boolean stopRow = isStopRow(nextRow);
 
@@ -3451,6 +3644,20 @@ public class HRegion implements HeapSize { // , Writable{
             // we should continue on.
 
             if (!stopRow) continue;
+            return false;
+          }
+
+          // The row passed the filter on its essential families; now read
+          // the families that were left out.
+          if (this.joinedHeap != null && joinedHeapHasRow(currentRow)) {
+            joinedContinuationRow = currentRow;
+            if (limit > 0 && results.size() == limit) {
+              // The joined families come with the next call.
+              return true;
+            }
+            if (populateFromJoinedHeap(limit, metric)) {
+              return true;
+            }
           }
           return !stopRow;
         }
@@ -3480,10 +3687,16 @@ public class HRegion implements HeapSize { // , Writable{
     }
 
     private boolean isStopRow(byte [] currentRow) {
-      return currentRow == null ||
-          (stopRow != null &&
-          comparator.compareRows(stopRow, 0, stopRow.length,
-              currentRow, 0, currentRow.length) <= isScan);
+      if (currentRow == null) {
+        return true;
+      }
+      if (stopRow == null) {
+        return false;
+      }
+      int ret = comparator.compareRows(stopRow, 0, stopRow.length,
+          currentRow, 0, currentRow.length);
+      // The stop row of a reversed scan is below its rows.
+      return reversed ? ret >= -isScan : ret <= isScan;
     }
 
     @Override
@@ -3492,6 +3705,10 @@ public class HRegion implements HeapSize { // , Writable{
         storeHeap.close();
         storeHeap = null;
       }
+      if (joinedHeap != null) {
+        joinedHeap.close();
+        joinedHeap = null;
+      }
       // no need to sychronize here.
       scannerReadPoints.remove(this);
       this.filterClosed = true;
@@ -4251,7 +4468,7 @@ public class HRegion implements HeapSize { // , Writable{
       acquiredLocks = new ArrayList<Integer>(rowsToLock.size());
       for (byte[] row : rowsToLock) {
         // attempt to lock all involved rows, fail if one lock times out
-        Integer lid = getLock(null, row, true);
+        Integer lid = getLock(null, row, true, true);
         if (lid == null) {
           throw new IOException("Failed to acquire lock on "
               + Bytes.toStringBinary(row));
@@ -4406,7 +4623,7 @@ public class HRegion implements HeapSize { // , Writable{
     List<KeyValue> mutations = new ArrayList<KeyValue>();
     try {
       // 1. Row lock
-      rowLockID = getLock(null, row, true);
+      rowLockID = getLock(null, row, true, !processor.readOnly());
 
       // 2. Region lock
       this.updatesLock.readLock().lock();
@@ -4563,7 +4780,7 @@ public class HRegion implements HeapSize { // , Writable{
     startRegionOperation();
     this.writeRequestsCount.increment();
     try {
-      Integer lid = getLock(lockid, row, true);
+      Integer lid = getLock(lockid, row, true, true);
       this.updatesLock.readLock().lock();
       try {
         // Process each family
@@ -4704,7 +4921,7 @@ public class HRegion implements HeapSize { // , Writable{
     startRegionOperation();
     this.writeRequestsCount.increment();
     try {
-      Integer lid = getLock(lockid, row, true);
+      Integer lid = getLock(lockid, row, true, true);
       this.updatesLock.readLock().lock();
       try {
         // Process each family
@@ -4903,16 +5120,16 @@ public class HRegion implements HeapSize { // , Writable{
   public static final long FIXED_OVERHEAD = ClassSize.align(
       ClassSize.OBJECT +
       ClassSize.ARRAY +
-      31 * ClassSize.REFERENCE + Bytes.SIZEOF_INT +
-      (6 * Bytes.SIZEOF_LONG) +
+      29 * ClassSize.REFERENCE + Bytes.SIZEOF_INT +
+      (7 * Bytes.SIZEOF_LONG) +
       Bytes.SIZEOF_BOOLEAN);
 
   public static final long DEEP_OVERHEAD = FIXED_OVERHEAD +
       ClassSize.OBJECT + // closeLock
       (2 * ClassSize.ATOMIC_BOOLEAN) + // closed, closing
       ClassSize.ATOMIC_LONG + // memStoreSize
-      ClassSize.ATOMIC_INTEGER + // lockIdGenerator
-      (3 * ClassSize.CONCURRENT_HASHMAP) +  // lockedRows, lockIds, scannerReadPoints
+      RowLockManager.FIXED_OVERHEAD + // rowLocks
+      ClassSize.CONCURRENT_HASHMAP +  // scannerReadPoints
       WriteState.HEAP_SIZE + // writestate
       ClassSize.CONCURRENT_SKIPLISTMAP + ClassSize.CONCURRENT_SKIPLISTMAP_ENTRY + // stores
       (2 * ClassSize.REENTRANT_LOCK) + // lock, updatesLock
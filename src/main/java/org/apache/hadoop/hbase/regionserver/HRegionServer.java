@@ -31,6 +31,7 @@ import java.lang.reflect.Method;
 import java.net.BindException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -44,6 +45,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -123,6 +125,7 @@ import org.apache.hadoop.hbase.ipc.RpcServer;
 import org.apache.hadoop.hbase.ipc.ServerNotRunningYetException;
 import org.apache.hadoop.hbase.regionserver.Leases.LeaseStillHeldException;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionProgress;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputController;
 import org.apache.hadoop.hbase.regionserver.handler.CloseMetaHandler;
 import org.apache.hadoop.hbase.regionserver.handler.CloseRegionHandler;
 import org.apache.hadoop.hbase.regionserver.handler.CloseRootHandler;
@@ -271,17 +274,48 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
    */
   Chore compactionChecker;
 
+  /*
+   * Tunes the limit on the throughput of compactions to the load.
+   */
+  Chore compactionThroughputTuner;
+
+  // Warms the block cache of opening regions; null if disabled.
+  private BlockCacheWarmer blockCacheWarmer;
+  private Chore blockCacheSnapshotChore;
+
   // HLog and HLog roller. log is protected rather than private to avoid
   // eclipse warning when accessed by inner classes
   protected volatile HLog hlog;
   LogRoller hlogRoller;
 
+  /**
+   * All the HLogs of this server, {@link #hlog} first. There is more than one
+   * if hbase.regionserver.hlog.count is set above 1, in which case regions are
+   * spread over them by {@link #getWAL(HRegionInfo)}.
+   */
+  private volatile List<HLog> hlogs;
+
+  // If true, regions of the same table share an HLog rather than being
+  // spread by encoded region name.
+  private boolean hlogPartitionByTable;
+
   // flag set after we're done setting up server threads (used for testing)
   protected volatile boolean isOnline;
 
   final Map<String, RegionScanner> scanners =
     new ConcurrentHashMap<String, RegionScanner>();
 
+  // Fills the next batch of client scanners ahead of time; null if disabled.
+  private ScannerPrefetcher scannerPrefetcher;
+
+  // Limits of the scanners opened with Scan#setMaxResultSize.
+  private final Map<String, ScanSizeLimit> scannerSizeLimits =
+    new ConcurrentHashMap<String, ScanSizeLimit>();
+
+  // Cells read at a time from a scanner whose rows may be split over calls
+  // to next; bounds how far a call goes past its size limit.
+  private static final int ROW_CHUNK_CELLS = 100;
+
   // zookeeper connection and watcher
   private ZooKeeperWatcher zooKeeper;
 
@@ -648,6 +682,18 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
       ".multiplier", 1000);
     this.compactionChecker = new CompactionChecker(this,
       this.threadWakeFrequency * multiplier, this);
+    this.compactionThroughputTuner = new CompactionThroughputTuner(this);
+
+    if (BlockCacheWarmer.isEnabled(conf, cacheConfig.getBlockCache())) {
+      this.blockCacheWarmer = new BlockCacheWarmer(conf,
+          cacheConfig.getBlockCache());
+      this.blockCacheSnapshotChore =
+          this.blockCacheWarmer.createSnapshotChore(this);
+    }
+
+    if (ScannerPrefetcher.isEnabled(conf)) {
+      this.scannerPrefetcher = new ScannerPrefetcher(conf);
+    }
 
     this.leases = new Leases((int) conf.getLong(
         HConstants.HBASE_REGIONSERVER_LEASE_PERIOD_KEY,
@@ -752,6 +798,8 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
         e.printStackTrace();
       }
     }
+    if (this.blockCacheWarmer != null) this.blockCacheWarmer.shutdown();
+    if (this.scannerPrefetcher != null) this.scannerPrefetcher.shutdown();
     // Send cache a shutdown.
     if (cacheConfig.isBlockCacheEnabled()) {
       cacheConfig.getBlockCache().shutdown();
@@ -764,6 +812,10 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
     if (this.hlogRoller != null) this.hlogRoller.interruptIfNecessary();
     if (this.compactionChecker != null)
       this.compactionChecker.interrupt();
+    if (this.compactionThroughputTuner != null)
+      this.compactionThroughputTuner.interrupt();
+    if (this.blockCacheSnapshotChore != null)
+      this.blockCacheSnapshotChore.interrupt();
 
     if (this.killed) {
       // Just skip out w/o closing regions.  Used when testing.
@@ -918,6 +970,14 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
 
   private void closeWAL(final boolean delete) {
     try {
+      // The extra logs share the directory of the first one, which deletes
+      // it; close them before that happens.
+      List<HLog> logs = this.hlogs;
+      if (logs != null) {
+        for (HLog log : logs) {
+          if (log != this.hlog) log.close();
+        }
+      }
       if (this.hlog != null) {
         if (delete) {
           hlog.closeAndDelete();
@@ -1244,6 +1304,49 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
     }
   }
 
+  /*
+   * Inner class that periodically tunes the compaction throughput limit to the
+   * read requests served and to how close the stores are to block updates.
+   */
+  private static class CompactionThroughputTuner extends Chore {
+    private final HRegionServer instance;
+    private final CompactionThroughputController controller;
+    private long lastReadRequestsCount = -1;
+    private long lastTuneTime;
+
+    CompactionThroughputTuner(final HRegionServer h) {
+      super("CompactionThroughputTuner",
+          h.compactSplitThread.getThroughputController().getTunePeriod(), h);
+      this.instance = h;
+      this.controller = h.compactSplitThread.getThroughputController();
+    }
+
+    @Override
+    protected void chore() {
+      long readRequestsCount = 0;
+      double pressure = 0.0;
+      for (HRegion r : this.instance.onlineRegions.values()) {
+        if (r == null)
+          continue;
+        readRequestsCount += r.readRequestsCount.get();
+        for (Store s : r.getStores().values()) {
+          pressure = Math.max(pressure, s.getCompactionPressure());
+        }
+      }
+      long now = EnvironmentEdgeManager.currentTimeMillis();
+      // regions moving in and out may make the count go backwards
+      double readRequestsPerSecond = Double.MAX_VALUE;
+      if (lastReadRequestsCount >= 0 && now > lastTuneTime &&
+          readRequestsCount >= lastReadRequestsCount) {
+        readRequestsPerSecond = (readRequestsCount - lastReadRequestsCount) *
+            1000.0 / (now - lastTuneTime);
+      }
+      this.lastReadRequestsCount = readRequestsCount;
+      this.lastTuneTime = now;
+      this.controller.tune(readRequestsPerSecond, pressure);
+    }
+  }
+
   /**
    * Report the status of the server. A server is online once all the startup is
    * completed (setting up filesystem, starting service threads, etc.). This
@@ -1274,7 +1377,24 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
     // Instantiate replication manager if replication enabled.  Pass it the
     // log directories.
     createNewReplicationInstance(conf, this, this.fs, logdir, oldLogDir);
-    return instantiateHLog(logdir, oldLogDir);
+    HLog first = instantiateHLog(logdir, oldLogDir);
+    int count = Math.max(1, this.conf.getInt("hbase.regionserver.hlog.count", 1));
+    this.hlogPartitionByTable = "table".equals(
+      this.conf.get("hbase.regionserver.hlog.partition", "region"));
+    List<HLog> logs = new ArrayList<HLog>(count);
+    logs.add(first);
+    for (int i = 1; i < count; i++) {
+      logs.add(instantiateHLog(logdir, oldLogDir, i));
+    }
+    for (HLog log : logs) {
+      this.hlogRoller.addWAL(log);
+    }
+    this.hlogs = Collections.unmodifiableList(logs);
+    if (count > 1) {
+      LOG.info("Running " + count + " HLogs, regions partitioned by " +
+        (this.hlogPartitionByTable? "table": "region"));
+    }
+    return first;
   }
 
   /**
@@ -1289,6 +1409,24 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
       getWALActionListeners(), this.serverNameFromMasterPOV.toString());
   }
 
+  /**
+   * Called by {@link #setupWALAndReplication()} creating the additional WAL
+   * instances when hbase.regionserver.hlog.count is more than 1. They write
+   * in the same directory as the first one under their own prefix so log
+   * splitting picks them all up.
+   * @param logdir
+   * @param oldLogDir
+   * @param index index of the WAL, starting at 1
+   * @return WAL instance.
+   * @throws IOException
+   */
+  protected HLog instantiateHLog(Path logdir, Path oldLogDir, int index)
+  throws IOException {
+    return new HLog(this.fs.getBackingFs(), logdir, oldLogDir, this.conf,
+      getWALActionListeners(), false,
+      HLog.getPrefixForIndex(this.serverNameFromMasterPOV.toString(), index));
+  }
+
   /**
    * Called by {@link #instantiateHLog(Path, Path)} setting up WAL instance.
    * Add any {@link WALActionsListener}s you want inserted before WAL startup.
@@ -1297,8 +1435,10 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
    */
   protected List<WALActionsListener> getWALActionListeners() {
     List<WALActionsListener> listeners = new ArrayList<WALActionsListener>();
-    // Log roller.
-    this.hlogRoller = new LogRoller(this, this);
+    // Log roller; one for all the WALs.
+    if (this.hlogRoller == null) {
+      this.hlogRoller = new LogRoller(this, this);
+    }
     listeners.add(this.hlogRoller);
     if (this.replicationSourceHandler != null &&
         this.replicationSourceHandler.getWALActionsListener() != null) {
@@ -1415,6 +1555,12 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
     this.metrics.stores.set(stores);
     this.metrics.storefiles.set(storefiles);
     this.metrics.memstoreSizeMB.set((int) (memstoreSize / (1024 * 1024)));
+    MemStoreChunkPool chunkPool = MemStoreChunkPool.getPool(conf);
+    if (chunkPool != null) {
+      this.metrics.memstoreChunkPoolSize.set(chunkPool.getPoolSize());
+      this.metrics.memstoreChunkPoolReuseRatio.set(
+          (int) (chunkPool.getReuseRatio() * 100));
+    }
     this.metrics.storefileIndexSizeMB.set(
         (int) (storefileIndexSize / (1024 * 1024)));
     this.metrics.rootIndexSizeKB.set(
@@ -1427,6 +1573,16 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
     this.metrics.writeRequestsCount.set(writeRequestsCount);
     this.metrics.compactionQueueSize.set(compactSplitThread
         .getCompactionQueueSize());
+    CompactionThroughputController throughputController =
+        compactSplitThread.getThroughputController();
+    double maxThroughput = throughputController.getMaxThroughput();
+    this.metrics.compactionThroughputLimit.set(
+        maxThroughput == CompactionThroughputController.NO_LIMIT ?
+            0 : (long) maxThroughput);
+    this.metrics.compactionBytesWritten.set(
+        throughputController.getBytesWritten());
+    this.metrics.compactionThrottleSleepTime.set(
+        throughputController.getSleepTime());
     this.metrics.flushQueueSize.set(cacheFlusher
         .getFlushQueueSize());
 
@@ -1515,6 +1671,12 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
       handler);
     Threads.setDaemonThreadRunning(this.compactionChecker.getThread(), n +
       ".compactionChecker", handler);
+    Threads.setDaemonThreadRunning(this.compactionThroughputTuner.getThread(),
+      n + ".compactionThroughputTuner", handler);
+    if (this.blockCacheSnapshotChore != null) {
+      Threads.setDaemonThreadRunning(this.blockCacheSnapshotChore.getThread(),
+        n + ".blockCacheSnapshot", handler);
+    }
 
     // Leases is not a Thread. Internally it runs a daemon thread. If it gets
     // an unhandled exception, it will just exit.
@@ -1601,6 +1763,32 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
     return this.hlog;
   }
 
+  @Override
+  public HLog getWAL(final HRegionInfo regionInfo) {
+    List<HLog> logs = this.hlogs;
+    // Catalog regions always go to the first log.
+    if (regionInfo == null || logs == null || logs.size() <= 1 ||
+        regionInfo.isMetaTable()) {
+      return this.hlog;
+    }
+    byte [] key = this.hlogPartitionByTable?
+      regionInfo.getTableName(): regionInfo.getEncodedNameAsBytes();
+    return logs.get((Bytes.hashCode(key) & Integer.MAX_VALUE) % logs.size());
+  }
+
+  /**
+   * @return All the WALs of this region server, the one returned by
+   * {@link #getWAL()} first
+   */
+  public List<HLog> getWALs() {
+    List<HLog> logs = this.hlogs;
+    if (logs == null) {
+      return this.hlog == null? Collections.<HLog>emptyList():
+        Collections.singletonList(this.hlog);
+    }
+    return logs;
+  }
+
   @Override
   public CatalogTracker getCatalogTracker() {
     return this.catalogTracker;
@@ -1736,6 +1924,7 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
    */
   protected void join() {
     Threads.shutdown(this.compactionChecker.getThread());
+    Threads.shutdown(this.compactionThroughputTuner.getThread());
     Threads.shutdown(this.cacheFlusher.getThread());
     if (this.hlogRoller != null) {
       Threads.shutdown(this.hlogRoller.getThread());
@@ -2300,7 +2489,7 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
     requestCount.incrementAndGet();
     try {
       HRegion r = getRegion(regionName);
-      r.checkRow(scan.getStartRow(), "Scan");
+      r.checkScanStartRow(scan);
       r.prepareScanner(scan);
       RegionScanner s = null;
       if (r.getCoprocessorHost() != null) {
@@ -2312,7 +2501,15 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
       if (r.getCoprocessorHost() != null) {
         s = r.getCoprocessorHost().postScannerOpen(scan, s);
       }
-      return addScanner(s);
+      long scannerId = addScanner(s);
+      if (scan.getMaxResultSize() > 0) {
+        // Rows already come in parts when the scan has a batch size. A
+        // filter is reset after each part, so it may need to see whole rows.
+        scannerSizeLimits.put(String.valueOf(scannerId),
+          new ScanSizeLimit(scan.getMaxResultSize(),
+            scan.getBatch() <= 0 && scan.getFilter() == null));
+      }
+      return scannerId;
     } catch (Throwable t) {
       throw convertThrowableToIOE(cleanup(t, "Failed openScanner"));
     }
@@ -2337,7 +2534,7 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
 
   public Result[] next(final long scannerId, int nbRows) throws IOException {
     String scannerName = String.valueOf(scannerId);
-    RegionScanner s = this.scanners.get(scannerName);
+    final RegionScanner s = this.scanners.get(scannerName);
     if (s == null) throw new UnknownScannerException("Name: " + scannerName);
     try {
       checkOpen();
@@ -2357,33 +2554,78 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
       // Remove lease while its being processed in server; protects against case
       // where processing of request takes > lease expiration time.
       lease = this.leases.removeLease(scannerName);
-      List<Result> results = new ArrayList<Result>(nbRows);
-      long currentScanResultSize = 0;
-      List<KeyValue> values = new ArrayList<KeyValue>();
-
-      // Call coprocessor. Get region info from scanner.
-      HRegion region = getRegion(s.getRegionInfo().getRegionName());
-      if (region != null && region.getCoprocessorHost() != null) {
-        Boolean bypass = region.getCoprocessorHost().preScannerNext(s,
-            results, nbRows);
-        if (!results.isEmpty()) {
-          for (Result r : results) {
-            for (KeyValue kv : r.raw()) {
-              currentScanResultSize += kv.heapSize();
+      ScannerPrefetcher.Batch batch = null;
+      if (this.scannerPrefetcher != null) {
+        batch = this.scannerPrefetcher.take(scannerName, nbRows);
+      }
+      final ScanSizeLimit sizeLimit = this.scannerSizeLimits.get(scannerName);
+      if (batch == null) {
+        batch = scanBatch(s, nbRows, sizeLimit);
+      }
+      if (this.scannerPrefetcher != null && batch.moreRows) {
+        final int rows = nbRows;
+        this.scannerPrefetcher.prefetch(scannerName,
+          new Callable<ScannerPrefetcher.Batch>() {
+            @Override
+            public ScannerPrefetcher.Batch call() throws IOException {
+              return scanBatch(s, rows, sizeLimit);
             }
+          });
+      }
+      return batch.results;
+    } catch (Throwable t) {
+      if (t instanceof NotServingRegionException) {
+        this.scanners.remove(scannerName);
+        releaseScanner(scannerName);
+      }
+      throw convertThrowableToIOE(cleanup(t));
+    } finally {
+      // We're done. On way out readd the above removed lease.  Adding resets
+      // expiration time on lease.
+      if (this.scanners.containsKey(scannerName)) {
+        if (lease != null) this.leases.addLease(lease);
+      }
+    }
+  }
+
+  /**
+   * Reads up to <code>nbRows</code> rows from a scanner for a call to
+   * {@link #next(long, int)}, running the coprocessor hooks around it.
+   * @param sizeLimit limit set by the client on the scan, or null
+   */
+  private ScannerPrefetcher.Batch scanBatch(final RegionScanner s, int nbRows,
+      ScanSizeLimit sizeLimit) throws IOException {
+    List<Result> results = new ArrayList<Result>(nbRows);
+    long currentScanResultSize = 0;
+    List<KeyValue> values = new ArrayList<KeyValue>();
+
+    // Call coprocessor. Get region info from scanner.
+    HRegion region = getRegion(s.getRegionInfo().getRegionName());
+    if (region != null && region.getCoprocessorHost() != null) {
+      Boolean bypass = region.getCoprocessorHost().preScannerNext(s,
+          results, nbRows);
+      if (!results.isEmpty()) {
+        for (Result r : results) {
+          for (KeyValue kv : r.raw()) {
+            currentScanResultSize += kv.heapSize();
           }
         }
-        if (bypass != null) {
-          return s.isFilterDone() && results.isEmpty() ? null
-              : results.toArray(new Result[0]);
-        }
       }
+      if (bypass != null) {
+        return new ScannerPrefetcher.Batch(s.isFilterDone() && results.isEmpty()
+            ? null : results.toArray(new Result[0]), false);
+      }
+    }
 
+    long maxResultSize = sizeLimit == null ? maxScannerResultSize
+        : sizeLimit.maxResultSize;
+    boolean moreRows = true;
+    if (sizeLimit == null || !sizeLimit.splitRows) {
       for (int i = 0; i < nbRows
-          && currentScanResultSize < maxScannerResultSize; i++) {
+          && currentScanResultSize < maxResultSize; i++) {
         requestCount.incrementAndGet();
         // Collect values to be returned here
-        boolean moreRows = s.next(values, HRegion.METRIC_NEXTSIZE);
+        moreRows = s.next(values, HRegion.METRIC_NEXTSIZE);
         if (!values.isEmpty()) {
           for (KeyValue kv : values) {
             currentScanResultSize += kv.heapSize();
@@ -2395,29 +2637,59 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
         }
         values.clear();
       }
-
-      // coprocessor postNext hook
-      if (region != null && region.getCoprocessorHost() != null) {
-        region.getCoprocessorHost().postScannerNext(s, results, nbRows, true);
-      }
-
-      // If the scanner's filter - if any - is done with the scan
-      // and wants to tell the client to stop the scan. This is done by passing
-      // a null result.
-      return s.isFilterDone() && results.isEmpty() ? null
-          : results.toArray(new Result[0]);
-    } catch (Throwable t) {
-      if (t instanceof NotServingRegionException) {
-        this.scanners.remove(scannerName);
+    } else {
+      // Read rows a chunk of cells at a time so the size limit can stop us
+      // in the middle of a row. A chunk shorter than asked for ends its row;
+      // a full one may too, which we only learn from the next chunk. Having
+      // enough rows, we still finish the open one: only the size limit may
+      // leave a row in parts, as that is how the client knows to join them.
+      List<KeyValue> row = null;
+      while ((results.size() < nbRows || row != null)
+          && currentScanResultSize < maxResultSize) {
+        requestCount.incrementAndGet();
+        moreRows = s.next(values, ROW_CHUNK_CELLS, HRegion.METRIC_NEXTSIZE);
+        if (!values.isEmpty()) {
+          for (KeyValue kv : values) {
+            currentScanResultSize += kv.heapSize();
+          }
+          if (row != null && !row.get(0).matchingRow(values.get(0))) {
+            results.add(new Result(row));
+            row = null;
+          }
+          if (row == null) {
+            row = new ArrayList<KeyValue>(values);
+          } else {
+            row.addAll(values);
+          }
+        }
+        if (row != null && values.size() < ROW_CHUNK_CELLS) {
+          results.add(new Result(row));
+          row = null;
+        }
+        if (!moreRows) {
+          break;
+        }
+        values.clear();
       }
-      throw convertThrowableToIOE(cleanup(t));
-    } finally {
-      // We're done. On way out readd the above removed lease.  Adding resets
-      // expiration time on lease.
-      if (this.scanners.containsKey(scannerName)) {
-        if (lease != null) this.leases.addLease(lease);
+      if (row != null) {
+        // We hit the size limit, so possibly only part of the row; the
+        // client scanner joins it with the first result of its next call if
+        // that has the same row.
+        results.add(new Result(row));
       }
     }
+
+    // coprocessor postNext hook
+    if (region != null && region.getCoprocessorHost() != null) {
+      region.getCoprocessorHost().postScannerNext(s, results, nbRows, true);
+    }
+
+    // If the scanner's filter - if any - is done with the scan
+    // and wants to tell the client to stop the scan. This is done by passing
+    // a null result.
+    boolean filterDone = s.isFilterDone();
+    return new ScannerPrefetcher.Batch(filterDone && results.isEmpty() ? null
+        : results.toArray(new Result[0]), moreRows && !filterDone);
   }
 
   public void close(final long scannerId) throws IOException {
@@ -2440,6 +2712,7 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
 
       s = scanners.remove(scannerName);
       if (s != null) {
+        releaseScanner(scannerName);
         s.close();
         this.leases.cancelLease(scannerName);
 
@@ -2452,6 +2725,31 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
     }
   }
 
+  /**
+   * Drop what is kept about a scanner besides the scanner itself.
+   */
+  private void releaseScanner(String scannerName) {
+    this.scannerSizeLimits.remove(scannerName);
+    if (this.scannerPrefetcher != null) {
+      this.scannerPrefetcher.cancel(scannerName);
+    }
+  }
+
+  /**
+   * Byte limit per call to next of a scanner opened with
+   * {@link Scan#setMaxResultSize(long)}.
+   */
+  private static class ScanSizeLimit {
+    final long maxResultSize;
+    // Whether a row may be returned in parts to stay within the limit.
+    final boolean splitRows;
+
+    ScanSizeLimit(long maxResultSize, boolean splitRows) {
+      this.maxResultSize = maxResultSize;
+      this.splitRows = splitRows;
+    }
+  }
+
   /**
    * Instantiated as a scanner lease. If the lease times out, the scanner is
    * closed
@@ -2466,6 +2764,7 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
     public void leaseExpired() {
       RegionScanner s = scanners.remove(this.scannerName);
       if (s != null) {
+        releaseScanner(this.scannerName);
         LOG.info("Scanner " + this.scannerName + " lease expired on region "
             + s.getRegionInfo().getRegionNameAsString());
         try {
@@ -3176,6 +3475,11 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
     return fs;
   }
 
+  @Override
+  public BlockCacheWarmer getBlockCacheWarmer() {
+    return this.blockCacheWarmer;
+  }
+
   /**
    * @return This servers {@link HServerInfo}
    */
@@ -3640,8 +3944,15 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
 
   @Override
   public byte[][] rollHLogWriter() throws IOException, FailedLogCloseException {
-    HLog wal = this.getWAL();
-    return wal.rollWriter(true);
+    List<byte []> regionsToFlush = new ArrayList<byte []>();
+    for (HLog wal : getWALs()) {
+      byte [][] regions = wal.rollWriter(true);
+      if (regions != null) {
+        regionsToFlush.addAll(Arrays.asList(regions));
+      }
+    }
+    return regionsToFlush.isEmpty()? null:
+      regionsToFlush.toArray(new byte [regionsToFlush.size()][]);
   }
 
   /**
@@ -3663,8 +3974,8 @@ public class HRegionServer implements HRegionInterface, HBaseRPCErrorHandler,
        LOG.debug("HTD for region = " + regionInfo.getRegionNameAsString()
            + " Is = " + htd );
        HRegion region =
-         HRegion.openHRegion(hRegion.getRegionInfo(), htd, hlog, conf,
-             this, null);
+         HRegion.openHRegion(hRegion.getRegionInfo(), htd,
+             getWAL(hRegion.getRegionInfo()), conf, this, null);
        // Add new region to the onlineRegions
        addToOnlineRegions(region);
      }
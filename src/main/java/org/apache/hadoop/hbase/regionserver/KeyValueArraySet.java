@@ -0,0 +1,252 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * An immutable, sorted {@link java.util.Set} of {@link KeyValue}s backed by a
+ * plain array. Used for flattened MemStore segments, which are read but never
+ * written once built: compared to a {@link KeyValueSkipListSet} it costs one
+ * reference per entry instead of a skip list node and index, and lookups are
+ * binary searches.
+ * <p>Views returned by the head and tail methods share the backing array.
+ * Mutators throw {@link UnsupportedOperationException}.
+ */
+@InterfaceAudience.Private
+class KeyValueArraySet extends AbstractSet<KeyValue>
+    implements NavigableSet<KeyValue> {
+  private final KeyValue [] kvs;
+  private final KeyValue.KVComparator comparator;
+  // This view covers kvs[from, to)
+  private final int from;
+  private final int to;
+
+  /**
+   * @param kvs Sorted by <code>c</code> and free of duplicates. Not copied.
+   */
+  KeyValueArraySet(final KeyValue [] kvs, final KeyValue.KVComparator c) {
+    this(kvs, c, 0, kvs.length);
+  }
+
+  private KeyValueArraySet(final KeyValue [] kvs,
+      final KeyValue.KVComparator c, final int from, final int to) {
+    this.kvs = kvs;
+    this.comparator = c;
+    this.from = from;
+    this.to = Math.max(from, to);
+  }
+
+  /**
+   * @return Heap used by a set of <code>count</code> entries, not counting
+   * the KeyValues themselves
+   */
+  static long arrayHeapSize(final int count) {
+    return ClassSize.align(ClassSize.OBJECT + 2 * ClassSize.REFERENCE +
+        2 * Bytes.SIZEOF_INT) +
+        ClassSize.align(ClassSize.ARRAY + count * ClassSize.REFERENCE);
+  }
+
+  /*
+   * @return Index of the first entry greater than (or equal to, if
+   * <code>inclusive</code>) <code>kv</code>; <code>to</code> if none.
+   */
+  private int lowerBound(final KeyValue kv, final boolean inclusive) {
+    int low = this.from;
+    int high = this.to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int cmp = this.comparator.compare(this.kvs[mid], kv);
+      if (cmp < 0 || (cmp == 0 && !inclusive)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return The entry equal to <code>kv</code>, or null
+   */
+  public KeyValue get(final KeyValue kv) {
+    int i = lowerBound(kv, true);
+    if (i < this.to && this.comparator.compare(this.kvs[i], kv) == 0) {
+      return this.kvs[i];
+    }
+    return null;
+  }
+
+  /**
+   * @return A copy of this set without the entry equal to <code>kv</code>
+   */
+  KeyValueArraySet without(final KeyValue kv) {
+    int i = lowerBound(kv, true);
+    if (i >= this.to || this.comparator.compare(this.kvs[i], kv) != 0) {
+      return this;
+    }
+    KeyValue [] copy = new KeyValue[size() - 1];
+    System.arraycopy(this.kvs, this.from, copy, 0, i - this.from);
+    System.arraycopy(this.kvs, i + 1, copy, i - this.from, this.to - i - 1);
+    return new KeyValueArraySet(copy, this.comparator);
+  }
+
+  @Override
+  public int size() {
+    return this.to - this.from;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return this.to == this.from;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof KeyValue && get((KeyValue)o) != null;
+  }
+
+  public Comparator<? super KeyValue> comparator() {
+    return this.comparator;
+  }
+
+  public KeyValue first() {
+    if (isEmpty()) throw new NoSuchElementException();
+    return this.kvs[this.from];
+  }
+
+  public KeyValue last() {
+    if (isEmpty()) throw new NoSuchElementException();
+    return this.kvs[this.to - 1];
+  }
+
+  public KeyValue ceiling(KeyValue e) {
+    int i = lowerBound(e, true);
+    return i < this.to ? this.kvs[i] : null;
+  }
+
+  public KeyValue higher(KeyValue e) {
+    int i = lowerBound(e, false);
+    return i < this.to ? this.kvs[i] : null;
+  }
+
+  public KeyValue floor(KeyValue e) {
+    int i = lowerBound(e, false) - 1;
+    return i >= this.from ? this.kvs[i] : null;
+  }
+
+  public KeyValue lower(KeyValue e) {
+    int i = lowerBound(e, true) - 1;
+    return i >= this.from ? this.kvs[i] : null;
+  }
+
+  public SortedSet<KeyValue> headSet(final KeyValue toElement) {
+    return headSet(toElement, false);
+  }
+
+  public NavigableSet<KeyValue> headSet(final KeyValue toElement,
+      boolean inclusive) {
+    return new KeyValueArraySet(this.kvs, this.comparator, this.from,
+        lowerBound(toElement, !inclusive));
+  }
+
+  public SortedSet<KeyValue> tailSet(KeyValue fromElement) {
+    return tailSet(fromElement, true);
+  }
+
+  public NavigableSet<KeyValue> tailSet(KeyValue fromElement,
+      boolean inclusive) {
+    return new KeyValueArraySet(this.kvs, this.comparator,
+        lowerBound(fromElement, inclusive), this.to);
+  }
+
+  public SortedSet<KeyValue> subSet(KeyValue fromElement,
+      KeyValue toElement) {
+    return subSet(fromElement, true, toElement, false);
+  }
+
+  public NavigableSet<KeyValue> subSet(KeyValue fromElement,
+      boolean fromInclusive, KeyValue toElement, boolean toInclusive) {
+    return new KeyValueArraySet(this.kvs, this.comparator,
+        lowerBound(fromElement, fromInclusive),
+        lowerBound(toElement, !toInclusive));
+  }
+
+  @Override
+  public Iterator<KeyValue> iterator() {
+    return new Iterator<KeyValue>() {
+      private int next = from;
+
+      public boolean hasNext() {
+        return this.next < to;
+      }
+
+      public KeyValue next() {
+        if (this.next >= to) throw new NoSuchElementException();
+        return kvs[this.next++];
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException("Immutable");
+      }
+    };
+  }
+
+  public Iterator<KeyValue> descendingIterator() {
+    return new Iterator<KeyValue>() {
+      private int next = to - 1;
+
+      public boolean hasNext() {
+        return this.next >= from;
+      }
+
+      public KeyValue next() {
+        if (this.next < from) throw new NoSuchElementException();
+        return kvs[this.next--];
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException("Immutable");
+      }
+    };
+  }
+
+  public NavigableSet<KeyValue> descendingSet() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public KeyValue pollFirst() {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  public KeyValue pollLast() {
+    throw new UnsupportedOperationException("Immutable");
+  }
+}
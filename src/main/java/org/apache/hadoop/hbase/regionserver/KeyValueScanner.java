@@ -122,5 +122,33 @@ public interface KeyValueScanner {
    * @return true if this is a file scanner. Otherwise a memory scanner is
    *         assumed.
    */
-  public boolean isFileScanner();  
+  public boolean isFileScanner();
+
+  // Support for reversed scans
+
+  /**
+   * Seek the scanner at the first KeyValue of the row which is the previous
+   * row of the specified key.
+   * @param key seek value
+   * @return true if the scanner is at the first valid KeyValue of the previous
+   *         row, false if there is no row before the specified key
+   */
+  public boolean seekToPreviousRow(KeyValue key) throws IOException;
+
+  /**
+   * Seek the scanner at the first KeyValue of the last row.
+   * @return true if the scanner has values, false if it is empty
+   */
+  public boolean seekToLastRow() throws IOException;
+
+  /**
+   * Seek the scanner at or before the row of the specified KeyValue. It first
+   * tries to seek at or after the specified KeyValue, and stays there if the
+   * KeyValue found is on the same row. Otherwise it seeks at the first
+   * KeyValue of the row before the specified one.
+   * @param key seek value
+   * @return true if the scanner has values left, false if it is at the
+   *         beginning
+   */
+  public boolean backwardSeek(KeyValue key) throws IOException;
 }
@@ -25,6 +25,7 @@ import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.*;
 import org.apache.hadoop.hbase.regionserver.wal.FailedLogCloseException;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
@@ -32,6 +33,8 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.HasThread;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -53,6 +56,9 @@ class LogRoller extends HasThread implements WALActionsListener {
   // Period to roll log.
   private final long rollperiod;
   private final int threadWakeFrequency;
+  // The logs this roller looks after. If none were added we roll whatever
+  // the region server hands back as its WAL.
+  private final List<HLog> wals = new CopyOnWriteArrayList<HLog>();
 
   /** @param server */
   public LogRoller(final Server server, final RegionServerServices services) {
@@ -92,10 +98,15 @@ class LogRoller extends HasThread implements WALActionsListener {
       rollLock.lock(); // FindBugs UL_UNRELEASED_LOCK_EXCEPTION_PATH
       try {
         this.lastrolltime = now;
-        // This is array of actual region names.
-        byte [][] regionsToFlush = this.services.getWAL().rollWriter(rollLog.get());
-        if (regionsToFlush != null) {
-          for (byte [] r: regionsToFlush) scheduleFlush(r);
+        boolean force = rollLog.get();
+        if (this.wals.isEmpty()) {
+          rollWAL(this.services.getWAL(), force);
+        } else {
+          // A roll request does not say which log asked for it, so roll
+          // them all.
+          for (HLog wal : this.wals) {
+            rollWAL(wal, force);
+          }
         }
       } catch (FailedLogCloseException e) {
         server.abort("Failed log close in log roller", e);
@@ -116,6 +127,25 @@ class LogRoller extends HasThread implements WALActionsListener {
     LOG.info("LogRoller exiting.");
   }
 
+  /**
+   * Register a log to be rolled by this roller. The roller must also be
+   * registered as a {@link WALActionsListener} on <code>wal</code> so it
+   * hears about roll requests.
+   * @param wal
+   */
+  void addWAL(final HLog wal) {
+    this.wals.add(wal);
+  }
+
+  private void rollWAL(final HLog wal, final boolean force)
+  throws IOException {
+    // This is array of actual region names.
+    byte [][] regionsToFlush = wal.rollWriter(force);
+    if (regionsToFlush != null) {
+      for (byte [] r: regionsToFlush) scheduleFlush(r);
+    }
+  }
+
   /**
    * @param encodedRegionName Encoded name of region to flush.
    */
@@ -126,7 +156,8 @@ class LogRoller extends HasThread implements WALActionsListener {
     if (r != null) {
       requester = this.services.getFlushRequester();
       if (requester != null) {
-        requester.requestFlush(r);
+        // the old edits of small stores must go too
+        requester.requestFlush(r, true);
         scheduled = true;
       }
     }
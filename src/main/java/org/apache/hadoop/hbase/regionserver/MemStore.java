@@ -23,6 +23,7 @@ package org.apache.hadoop.hbase.regionserver;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
 import java.rmi.UnexpectedException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
@@ -51,6 +52,10 @@ import org.apache.hadoop.hbase.util.ClassSize;
  * to snapshot and is cleared.  We continue to serve edits out of new memstore
  * and backing snapshot until flusher reports in that the flush succeeded. At
  * this point we let the snapshot go.
+ * <p>If a {@link MemStoreCompactor} is set, the current memstore is instead
+ * frozen from time to time into a pipeline of immutable segments that are
+ * merged in the background, see {@link #freeze()}. The pipeline is read along
+ * with the current memstore and moves to the snapshot with it.
  * TODO: Adjust size of the memstore when we remove items because they have
  * been deleted.
  * TODO: With new KVSLS, need to make sure we update HeapSize with difference
@@ -62,7 +67,7 @@ public class MemStore implements HeapSize {
 
   static final String USEMSLAB_KEY =
     "hbase.hregion.memstore.mslab.enabled";
-  private static final boolean USEMSLAB_DEFAULT = false;
+  static final boolean USEMSLAB_DEFAULT = false;
 
   private Configuration conf;
 
@@ -76,6 +81,16 @@ public class MemStore implements HeapSize {
   // Snapshot of memstore.  Made for flusher.
   volatile KeyValueSkipListSet snapshot;
 
+  // Segments frozen out of kvset and not yet flushed, newest first. Never
+  // modified in place; replaced by a new list instead.
+  volatile List<Segment> pipeline = Collections.emptyList();
+
+  // Pipeline of the snapshot, older than the snapshot kvset.
+  volatile List<Segment> snapshotSegments = Collections.emptyList();
+
+  // Null unless in-memory compaction is enabled
+  MemStoreCompactor compactor;
+
   final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
   final KeyValue.KVComparator comparator;
@@ -93,6 +108,8 @@ public class MemStore implements HeapSize {
   TimeRangeTracker snapshotTimeRangeTracker;
 
   MemStoreLAB allocator;
+  // Allocator of the snapshot, closed once the snapshot is cleared
+  MemStoreLAB snapshotAllocator;
 
 
 
@@ -126,13 +143,48 @@ public class MemStore implements HeapSize {
     }
   }
 
+  /**
+   * A part of the memstore frozen out of kvset. Either the frozen skip list
+   * itself or, once merged, a {@link KeyValueArraySet}.
+   */
+  static class Segment {
+    final NavigableSet<KeyValue> kvs;
+    final long heapSize;
+
+    Segment(final NavigableSet<KeyValue> kvs, final long heapSize) {
+      this.kvs = kvs;
+      this.heapSize = heapSize;
+    }
+
+    boolean isFlat() {
+      return this.kvs instanceof KeyValueArraySet;
+    }
+  }
+
   void dump() {
     for (KeyValue kv: this.kvset) {
       LOG.info(kv);
     }
+    for (Segment segment: this.pipeline) {
+      for (KeyValue kv: segment.kvs) {
+        LOG.info(kv);
+      }
+    }
     for (KeyValue kv: this.snapshot) {
       LOG.info(kv);
     }
+    for (Segment segment: this.snapshotSegments) {
+      for (KeyValue kv: segment.kvs) {
+        LOG.info(kv);
+      }
+    }
+  }
+
+  /**
+   * Enables in-memory compaction. Must be called before the memstore is used.
+   */
+  void setCompactor(final MemStoreCompactor compactor) {
+    this.compactor = compactor;
   }
 
   /**
@@ -145,19 +197,22 @@ public class MemStore implements HeapSize {
     try {
       // If snapshot currently has entries, then flusher failed or didn't call
       // cleanup.  Log a warning.
-      if (!this.snapshot.isEmpty()) {
+      if (!this.snapshot.isEmpty() || !this.snapshotSegments.isEmpty()) {
         LOG.warn("Snapshot called again without clearing previous. " +
           "Doing nothing. Another ongoing flush or did we fail last attempt?");
       } else {
-        if (!this.kvset.isEmpty()) {
+        if (!this.kvset.isEmpty() || !this.pipeline.isEmpty()) {
           this.snapshot = this.kvset;
           this.kvset = new KeyValueSkipListSet(this.comparator);
+          this.snapshotSegments = this.pipeline;
+          this.pipeline = Collections.emptyList();
           this.snapshotTimeRangeTracker = this.timeRangeTracker;
           this.timeRangeTracker = new TimeRangeTracker();
           // Reset heap to not include any keys
           this.size.set(DEEP_OVERHEAD);
           // Reset allocator so we get a fresh buffer for the new memstore
           if (allocator != null) {
+            this.snapshotAllocator = this.allocator;
             this.allocator = new MemStoreLAB(conf);
           }
         }
@@ -179,6 +234,20 @@ public class MemStore implements HeapSize {
     return this.snapshot;
   }
 
+  /**
+   * @return The segments frozen before the current snapshot was made; they
+   * are flushed along with it. Empty unless in-memory compaction is enabled.
+   */
+  List<SortedSet<KeyValue>> getSnapshotSegments() {
+    List<Segment> segments = this.snapshotSegments;
+    List<SortedSet<KeyValue>> result =
+      new ArrayList<SortedSet<KeyValue>>(segments.size());
+    for (Segment segment: segments) {
+      result.add(segment.kvs);
+    }
+    return result;
+  }
+
   /**
    * The passed snapshot was successfully persisted; it can be let go.
    * @param ss The snapshot to clean out.
@@ -187,6 +256,7 @@ public class MemStore implements HeapSize {
    */
   void clearSnapshot(final SortedSet<KeyValue> ss)
   throws UnexpectedException {
+    MemStoreLAB tmpAllocator = null;
     this.lock.writeLock().lock();
     try {
       if (this.snapshot != ss) {
@@ -195,13 +265,20 @@ public class MemStore implements HeapSize {
       }
       // OK. Passed in snapshot is same as current snapshot.  If not-empty,
       // create a new snapshot and let the old one go.
-      if (!ss.isEmpty()) {
+      if (!ss.isEmpty() || !this.snapshotSegments.isEmpty()) {
         this.snapshot = new KeyValueSkipListSet(this.comparator);
+        this.snapshotSegments = Collections.emptyList();
         this.snapshotTimeRangeTracker = new TimeRangeTracker();
+        tmpAllocator = this.snapshotAllocator;
+        this.snapshotAllocator = null;
       }
     } finally {
       this.lock.writeLock().unlock();
     }
+    // Its chunks go back to the pool once the last scanner is done with them
+    if (tmpAllocator != null) {
+      tmpAllocator.close();
+    }
   }
 
   /**
@@ -210,13 +287,105 @@ public class MemStore implements HeapSize {
    * @return approximate size of the passed key and value.
    */
   long add(final KeyValue kv) {
+    long s;
     this.lock.readLock().lock();
     try {
       KeyValue toAdd = maybeCloneWithAllocator(kv);
-      return internalAdd(toAdd);
+      s = internalAdd(toAdd);
     } finally {
       this.lock.readLock().unlock();
     }
+    maybeCompact();
+    return s;
+  }
+
+  /*
+   * @return Heap used by kvset alone
+   */
+  private long activeHeapSize() {
+    long s = this.size.get() - DEEP_OVERHEAD;
+    for (Segment segment: this.pipeline) {
+      s -= segment.heapSize;
+    }
+    return s;
+  }
+
+  /*
+   * Freezes kvset and has the pipeline merged in the background if kvset
+   * has grown past the compactor's threshold. Called without the lock held.
+   */
+  private void maybeCompact() {
+    MemStoreCompactor c = this.compactor;
+    if (c == null || !c.shouldFreeze(activeHeapSize()) || !c.tryStart()) {
+      return;
+    }
+    boolean submitted = false;
+    try {
+      if (freeze()) {
+        submitted = c.submit();
+      }
+    } finally {
+      if (!submitted) {
+        c.finish();
+      }
+    }
+  }
+
+  /**
+   * Moves kvset to the head of the pipeline and starts a new kvset. Unlike
+   * {@link #snapshot()} the frozen data stays in this memstore's size and
+   * the time range tracker goes on covering it.
+   * @return false if kvset was empty
+   */
+  boolean freeze() {
+    this.lock.writeLock().lock();
+    try {
+      if (this.kvset.isEmpty()) {
+        return false;
+      }
+      List<Segment> frozen = new ArrayList<Segment>(this.pipeline.size() + 1);
+      frozen.add(new Segment(this.kvset, activeHeapSize()));
+      frozen.addAll(this.pipeline);
+      this.pipeline = Collections.unmodifiableList(frozen);
+      this.kvset = new KeyValueSkipListSet(this.comparator);
+      return true;
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  List<Segment> getPipeline() {
+    return this.pipeline;
+  }
+
+  /**
+   * Replaces the pipeline by the result of merging it, unless it changed
+   * since it was read; a snapshot or a rollback may have taken place since.
+   * @param expected The pipeline that was merged
+   * @param merged The merge result
+   * @return Heap freed, or -1 if the pipeline changed and was kept
+   */
+  long swapPipeline(final List<Segment> expected, final Segment merged) {
+    this.lock.writeLock().lock();
+    try {
+      if (this.pipeline != expected) {
+        return -1;
+      }
+      long freed = 0;
+      for (Segment segment: expected) {
+        freed += segment.heapSize;
+      }
+      if (merged.kvs.isEmpty()) {
+        this.pipeline = Collections.emptyList();
+      } else {
+        this.pipeline = Collections.singletonList(merged);
+        freed -= merged.heapSize;
+      }
+      this.size.addAndGet(-freed);
+      return freed;
+    } finally {
+      this.lock.writeLock().unlock();
+    }
   }
 
   /**
@@ -271,6 +440,16 @@ public class MemStore implements HeapSize {
       if (found != null && found.getMemstoreTS() == kv.getMemstoreTS()) {
         this.snapshot.remove(kv);
       }
+      if (!this.snapshotSegments.isEmpty()) {
+        synchronized (this) {
+          this.snapshotSegments = rollback(this.snapshotSegments, kv, false);
+        }
+      }
+      if (!this.pipeline.isEmpty()) {
+        synchronized (this) {
+          this.pipeline = rollback(this.pipeline, kv, true);
+        }
+      }
       // If the key is in the memstore, delete it. Update this.size.
       found = this.kvset.get(kv);
       if (found != null && found.getMemstoreTS() == kv.getMemstoreTS()) {
@@ -283,6 +462,41 @@ public class MemStore implements HeapSize {
     }
   }
 
+  /*
+   * Remove kv from whichever segment holds it. Frozen skip lists are changed
+   * in place; flattened segments are copied. Either way the segment gets a
+   * new Segment instance, so a merge of the old pipeline will not be swapped
+   * in. Callers hold the read lock and synchronize on this memstore.
+   * @param tracked True if the segments count in this.size
+   * @return The segments with kv removed
+   */
+  private List<Segment> rollback(final List<Segment> segments,
+      final KeyValue kv, final boolean tracked) {
+    for (int i = 0; i < segments.size(); i++) {
+      Segment segment = segments.get(i);
+      SortedSet<KeyValue> tail = segment.kvs.tailSet(kv);
+      if (tail.isEmpty() || this.comparator.compare(tail.first(), kv) != 0) {
+        continue;
+      }
+      long s = heapSizeChange(kv, true);
+      NavigableSet<KeyValue> kvs;
+      if (segment.isFlat()) {
+        kvs = ((KeyValueArraySet)segment.kvs).without(kv);
+        s = kv.heapSize() + ClassSize.REFERENCE;
+      } else {
+        kvs = segment.kvs;
+        kvs.remove(kv);
+      }
+      List<Segment> result = new ArrayList<Segment>(segments);
+      result.set(i, new Segment(kvs, segment.heapSize - s));
+      if (tracked) {
+        this.size.addAndGet(-s);
+      }
+      return Collections.unmodifiableList(result);
+    }
+    return segments;
+  }
+
   /**
    * Write a delete
    * @param delete
@@ -299,6 +513,7 @@ public class MemStore implements HeapSize {
       this.lock.readLock().unlock();
     }
     this.size.addAndGet(s);
+    maybeCompact();
     return s;
   }
 
@@ -310,7 +525,15 @@ public class MemStore implements HeapSize {
   KeyValue getNextRow(final KeyValue kv) {
     this.lock.readLock().lock();
     try {
-      return getLowest(getNextRow(kv, this.kvset), getNextRow(kv, this.snapshot));
+      KeyValue lowest =
+        getLowest(getNextRow(kv, this.kvset), getNextRow(kv, this.snapshot));
+      for (Segment segment: this.pipeline) {
+        lowest = getLowest(lowest, getNextRow(kv, segment.kvs));
+      }
+      for (Segment segment: this.snapshotSegments) {
+        lowest = getLowest(lowest, getNextRow(kv, segment.kvs));
+      }
+      return lowest;
     } finally {
       this.lock.readLock().unlock();
     }
@@ -361,6 +584,12 @@ public class MemStore implements HeapSize {
     try {
       getRowKeyAtOrBefore(kvset, state);
       getRowKeyAtOrBefore(snapshot, state);
+      for (Segment segment: this.pipeline) {
+        getRowKeyAtOrBefore(segment.kvs, state);
+      }
+      for (Segment segment: this.snapshotSegments) {
+        getRowKeyAtOrBefore(segment.kvs, state);
+      }
     } finally {
       this.lock.readLock().unlock();
     }
@@ -401,7 +630,10 @@ public class MemStore implements HeapSize {
       // Did we go beyond the target row? If so break.
       if (state.isTooFar(kv, firstOnRow)) break;
       if (state.isExpired(kv)) {
-        i.remove();
+        // Flattened segments are immutable; leave expired entries be
+        if (!(set instanceof KeyValueArraySet)) {
+          i.remove();
+        }
         continue;
       }
       // If we added something, this row is a contender. break.
@@ -460,16 +692,14 @@ public class MemStore implements HeapSize {
       KeyValue firstKv = KeyValue.createFirstOnRow(
           row, family, qualifier);
       // Is there a KeyValue in 'snapshot' with the same TS? If so, upgrade the timestamp a bit.
-      SortedSet<KeyValue> snSs = snapshot.tailSet(firstKv);
-      if (!snSs.isEmpty()) {
-        KeyValue snKv = snSs.first();
-        // is there a matching KV in the snapshot?
-        if (snKv.matchingRow(firstKv) && snKv.matchingQualifier(firstKv)) {
-          if (snKv.getTimestamp() == now) {
-            // poop,
-            now += 1;
-          }
-        }
+      // The same goes for frozen segments, as a flush would not know which of
+      // two equal keys to keep.
+      now = skipSnapshotTimestamp(snapshot, firstKv, now);
+      for (Segment segment: this.snapshotSegments) {
+        now = skipSnapshotTimestamp(segment.kvs, firstKv, now);
+      }
+      for (Segment segment: this.pipeline) {
+        now = skipSnapshotTimestamp(segment.kvs, firstKv, now);
       }
 
       // logic here: the new ts MUST be at least 'now'. But it could be larger if necessary.
@@ -478,21 +708,11 @@ public class MemStore implements HeapSize {
       // so we cant add the new KV w/o knowing what's there already, but we also
       // want to take this chance to delete some kvs. So two loops (sad)
 
-      SortedSet<KeyValue> ss = kvset.tailSet(firstKv);
-      Iterator<KeyValue> it = ss.iterator();
-      while ( it.hasNext() ) {
-        KeyValue kv = it.next();
-
-        // if this isnt the row we are interested in, then bail:
-        if (!kv.matchingColumn(family,qualifier) || !kv.matchingRow(firstKv) ) {
-          break; // rows dont match, bail.
-        }
-
-        // if the qualifier matches and it's a put, just RM it out of the kvset.
-        if (kv.getType() == KeyValue.Type.Put.getCode() &&
-            kv.getTimestamp() > now && firstKv.matchingQualifier(kv)) {
-          now = kv.getTimestamp();
-        }
+      now = latestPutTimestamp(kvset, firstKv, family, qualifier, now);
+      // Puts frozen into the pipeline are not removed by the upsert, so the
+      // new value must not sort behind them either.
+      for (Segment segment: this.pipeline) {
+        now = latestPutTimestamp(segment.kvs, firstKv, family, qualifier, now);
       }
 
       // create or update (upsert) a new KeyValue with
@@ -505,6 +725,52 @@ public class MemStore implements HeapSize {
     }
   }
 
+  /*
+   * @return <code>now</code>, bumped by one if <code>set</code> has a
+   * KeyValue for the column of <code>firstKv</code> at exactly that time
+   */
+  private long skipSnapshotTimestamp(final SortedSet<KeyValue> set,
+      final KeyValue firstKv, long now) {
+    SortedSet<KeyValue> snSs = set.tailSet(firstKv);
+    if (!snSs.isEmpty()) {
+      KeyValue snKv = snSs.first();
+      // is there a matching KV in the snapshot?
+      if (snKv.matchingRow(firstKv) && snKv.matchingQualifier(firstKv)) {
+        if (snKv.getTimestamp() == now) {
+          // poop,
+          now += 1;
+        }
+      }
+    }
+    return now;
+  }
+
+  /*
+   * @return The greater of <code>now</code> and the timestamps of the puts
+   * to the column of <code>firstKv</code> in <code>set</code>
+   */
+  private long latestPutTimestamp(final SortedSet<KeyValue> set,
+      final KeyValue firstKv, final byte [] family, final byte [] qualifier,
+      long now) {
+    SortedSet<KeyValue> ss = set.tailSet(firstKv);
+    Iterator<KeyValue> it = ss.iterator();
+    while ( it.hasNext() ) {
+      KeyValue kv = it.next();
+
+      // if this isnt the row we are interested in, then bail:
+      if (!kv.matchingColumn(family,qualifier) || !kv.matchingRow(firstKv) ) {
+        break; // rows dont match, bail.
+      }
+
+      // if the qualifier matches and it's a put, just RM it out of the kvset.
+      if (kv.getType() == KeyValue.Type.Put.getCode() &&
+          kv.getTimestamp() > now && firstKv.matchingQualifier(kv)) {
+        now = kv.getTimestamp();
+      }
+    }
+    return now;
+  }
+
   /**
    * Update or insert the specified KeyValues.
    * <p>
@@ -625,7 +891,9 @@ public class MemStore implements HeapSize {
     for (Iterator<KeyValue> i = head.descendingIterator(); i.hasNext();) {
       KeyValue found = i.next();
       if (state.isExpired(found)) {
-        i.remove();
+        if (!(set instanceof KeyValueArraySet)) {
+          i.remove();
+        }
         continue;
       }
       return new Member(head, found);
@@ -670,24 +938,36 @@ public class MemStore implements HeapSize {
    * This behaves as if it were a real scanner but does not maintain position.
    */
   protected class MemStoreScanner extends NonLazyKeyValueScanner {
-    // Next row information for either kvset or snapshot
-    private KeyValue kvsetNextRow = null;
-    private KeyValue snapshotNextRow = null;
-
-    // iterator based scanning.
-    private Iterator<KeyValue> kvsetIt;
-    private Iterator<KeyValue> snapshotIt;
-
     // The kvset and snapshot at the time of creating this scanner
     volatile KeyValueSkipListSet kvsetAtCreation;
     volatile KeyValueSkipListSet snapshotAtCreation;
 
-    // Sub lists on which we're iterating
-    private SortedSet<KeyValue> kvTail;
-    private SortedSet<KeyValue> snapshotTail;
+    // Allocators holding the KeyValues we read; their chunks are not
+    // recycled until we are closed.
+    private MemStoreLAB allocatorAtCreation;
+    private MemStoreLAB snapshotAllocatorAtCreation;
+    // True if those chunks are pooled. KeyValues handed out then are copies,
+    // as callers keep them after we are closed (a Get's Result is serialized
+    // after its scanner is closed) while the chunks may be refilled by then.
+    private boolean copyKeyValues = false;
+
+    // Every set read by this scanner, newest first: kvset, the pipeline, the
+    // snapshot and the snapshot pipeline. Where two sets hold an equal key
+    // the newer one is returned first.
+    private final List<SortedSet<KeyValue>> setsAtCreation;
+
+    // Sub lists on which we're iterating, one per set
+    private final List<SortedSet<KeyValue>> tails;
+
+    // iterator based scanning, and the next row of each iterator.
+    private final List<Iterator<KeyValue>> iterators;
+    private final KeyValue [] nextRows;
 
     // the pre-calculated KeyValue to be returned by peek() or next()
     private KeyValue theNext;
+    // copy of theNext handed out if copyKeyValues, and what it was copied from
+    private KeyValue theNextCopy;
+    private KeyValue theNextCopySource;
 
     /*
     Some notes...
@@ -715,6 +995,31 @@ public class MemStore implements HeapSize {
 
       kvsetAtCreation = kvset;
       snapshotAtCreation = snapshot;
+      if (allocator != null) {
+        allocatorAtCreation = allocator;
+        allocatorAtCreation.incScannerCount();
+        copyKeyValues |= allocatorAtCreation.isPooled();
+      }
+      if (snapshotAllocator != null) {
+        snapshotAllocatorAtCreation = snapshotAllocator;
+        snapshotAllocatorAtCreation.incScannerCount();
+        copyKeyValues |= snapshotAllocatorAtCreation.isPooled();
+      }
+      List<Segment> pipelineAtCreation = pipeline;
+      List<Segment> snapshotSegmentsAtCreation = snapshotSegments;
+      setsAtCreation = new ArrayList<SortedSet<KeyValue>>(2 +
+          pipelineAtCreation.size() + snapshotSegmentsAtCreation.size());
+      setsAtCreation.add(kvsetAtCreation);
+      for (Segment segment: pipelineAtCreation) {
+        setsAtCreation.add(segment.kvs);
+      }
+      setsAtCreation.add(snapshotAtCreation);
+      for (Segment segment: snapshotSegmentsAtCreation) {
+        setsAtCreation.add(segment.kvs);
+      }
+      tails = new ArrayList<SortedSet<KeyValue>>(setsAtCreation.size());
+      iterators = new ArrayList<Iterator<KeyValue>>(setsAtCreation.size());
+      nextRows = new KeyValue[setsAtCreation.size()];
     }
 
     protected KeyValue getNext(Iterator<KeyValue> it) {
@@ -746,8 +1051,10 @@ public class MemStore implements HeapSize {
 
       // kvset and snapshot will never be null.
       // if tailSet can't find anything, SortedSet is empty (not null).
-      kvTail = kvsetAtCreation.tailSet(key);
-      snapshotTail = snapshotAtCreation.tailSet(key);
+      tails.clear();
+      for (SortedSet<KeyValue> set: setsAtCreation) {
+        tails.add(set.tailSet(key));
+      }
 
       return seekInSubLists(key);
     }
@@ -757,14 +1064,15 @@ public class MemStore implements HeapSize {
      * (Re)initialize the iterators after a seek or a reseek.
      */
     private synchronized boolean seekInSubLists(KeyValue key){
-      kvsetIt = kvTail.iterator();
-      snapshotIt = snapshotTail.iterator();
-
-      kvsetNextRow = getNext(kvsetIt);
-      snapshotNextRow = getNext(snapshotIt);
+      iterators.clear();
+      for (int i = 0; i < nextRows.length; i++) {
+        Iterator<KeyValue> it = tails.get(i).iterator();
+        iterators.add(it);
+        nextRows[i] = getNext(it);
+      }
 
       // Calculate the next value
-      theNext = getLowest(kvsetNextRow, snapshotNextRow);
+      theNext = getLowest();
 
       // has data
       return (theNext != null);
@@ -796,17 +1104,94 @@ public class MemStore implements HeapSize {
        readpoint performed in the next() function.
        */
 
-      kvTail = kvTail.tailSet(key);
-      snapshotTail = snapshotTail.tailSet(key);
+      for (int i = 0; i < tails.size(); i++) {
+        tails.set(i, tails.get(i).tailSet(key));
+      }
 
       return seekInSubLists(key);
     }
 
+    /**
+     * Seek at the first KeyValue of the row before the row of the given key.
+     * The last key of each set before that row is found walking the skip
+     * lists from their end. Rows with nothing visible at our read point are
+     * skipped, however many there are.
+     */
+    @Override
+    public synchronized boolean seekToPreviousRow(KeyValue key) {
+      KeyValue firstOnRow = KeyValue.createFirstOnRow(key.getRow());
+      while (true) {
+        KeyValue lastBeforeRow = null;
+        for (SortedSet<KeyValue> set: setsAtCreation) {
+          SortedSet<KeyValue> head = set.headSet(firstOnRow);
+          if (!head.isEmpty()) {
+            lastBeforeRow = getHighest(lastBeforeRow, head.last());
+          }
+        }
+        if (lastBeforeRow == null) {
+          theNext = null;
+          return false;
+        }
+        KeyValue firstOnPreviousRow =
+            KeyValue.createFirstOnRow(lastBeforeRow.getRow());
+        if (seek(firstOnPreviousRow) &&
+            theNext.matchingRow(lastBeforeRow.getBuffer(),
+                lastBeforeRow.getRowOffset(), lastBeforeRow.getRowLength())) {
+          return true;
+        }
+        // Nothing of that row is visible at our read point; keep going back.
+        firstOnRow = firstOnPreviousRow;
+      }
+    }
+
+    @Override
+    public synchronized boolean seekToLastRow() {
+      KeyValue last = null;
+      for (SortedSet<KeyValue> set: setsAtCreation) {
+        if (!set.isEmpty()) {
+          last = getHighest(last, set.last());
+        }
+      }
+      if (last == null) {
+        theNext = null;
+        return false;
+      }
+      KeyValue firstOnLastRow = KeyValue.createFirstOnRow(last.getRow());
+      if (seek(firstOnLastRow)) {
+        return true;
+      }
+      return seekToPreviousRow(firstOnLastRow);
+    }
+
+    @Override
+    public synchronized boolean backwardSeek(KeyValue key) {
+      seek(key);
+      if (theNext == null || !theNext.matchingRow(key.getBuffer(),
+          key.getRowOffset(), key.getRowLength())) {
+        return seekToPreviousRow(key);
+      }
+      return true;
+    }
+
 
     @Override
     public synchronized KeyValue peek() {
       //DebugPrint.println(" MS@" + hashCode() + " peek = " + getLowest());
-      return theNext;
+      return handOut();
+    }
+
+    /*
+     * Returns theNext, or a copy of it out of the pooled chunks.
+     */
+    private KeyValue handOut() {
+      if (!copyKeyValues || theNext == null) {
+        return theNext;
+      }
+      if (theNextCopySource != theNext) {
+        theNextCopy = theNext.deepCopy();
+        theNextCopySource = theNext;
+      }
+      return theNextCopy;
     }
 
     @Override
@@ -815,17 +1200,18 @@ public class MemStore implements HeapSize {
           return null;
       }
 
-      final KeyValue ret = theNext;
+      final KeyValue ret = handOut();
 
-      // Advance one of the iterators
-      if (theNext == kvsetNextRow) {
-        kvsetNextRow = getNext(kvsetIt);
-      } else {
-        snapshotNextRow = getNext(snapshotIt);
+      // Advance the iterator the returned value came from
+      for (int i = 0; i < nextRows.length; i++) {
+        if (theNext == nextRows[i]) {
+          nextRows[i] = getNext(iterators.get(i));
+          break;
+        }
       }
 
       // Calculate the next value
-      theNext = getLowest(kvsetNextRow, snapshotNextRow);
+      theNext = getLowest();
 
       //long readpoint = ReadWriteConsistencyControl.getThreadReadPoint();
       //DebugPrint.println(" MS@" + hashCode() + " next: " + theNext + " next_next: " +
@@ -833,6 +1219,18 @@ public class MemStore implements HeapSize {
       return ret;
     }
 
+    /*
+     * Returns the lowest of the next values of all iterators, the one of the
+     * newest set if several are equal.
+     */
+    private KeyValue getLowest() {
+      KeyValue lowest = null;
+      for (KeyValue kv: nextRows) {
+        lowest = getLowest(lowest, kv);
+      }
+      return lowest;
+    }
+
     /*
      * Returns the lower of the two key values, or null if they are both null.
      * This uses comparator.compare() to compare the KeyValue using the memstore
@@ -849,12 +1247,34 @@ public class MemStore implements HeapSize {
       return (first != null ? first : second);
     }
 
-    public synchronized void close() {
-      this.kvsetNextRow = null;
-      this.snapshotNextRow = null;
+    /*
+     * Returns the higher of the two key values, or null if they are both null.
+     */
+    private KeyValue getHighest(KeyValue first, KeyValue second) {
+      if (first == null && second == null) {
+        return null;
+      }
+      if (first != null && second != null) {
+        int compare = comparator.compare(first, second);
+        return (compare > 0 ? first : second);
+      }
+      return (first != null ? first : second);
+    }
 
-      this.kvsetIt = null;
-      this.snapshotIt = null;
+    public synchronized void close() {
+      Arrays.fill(this.nextRows, null);
+      this.iterators.clear();
+      this.theNextCopy = null;
+      this.theNextCopySource = null;
+
+      if (this.allocatorAtCreation != null) {
+        this.allocatorAtCreation.decScannerCount();
+        this.allocatorAtCreation = null;
+      }
+      if (this.snapshotAllocatorAtCreation != null) {
+        this.snapshotAllocatorAtCreation.decScannerCount();
+        this.snapshotAllocatorAtCreation = null;
+      }
     }
 
     /**
@@ -874,7 +1294,7 @@ public class MemStore implements HeapSize {
   }
 
   public final static long FIXED_OVERHEAD = ClassSize.align(
-      ClassSize.OBJECT + (11 * ClassSize.REFERENCE));
+      ClassSize.OBJECT + (15 * ClassSize.REFERENCE));
 
   public final static long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD +
       ClassSize.REENTRANT_LOCK + ClassSize.ATOMIC_LONG +
@@ -0,0 +1,201 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.regionserver.MemStoreLAB.Chunk;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * A pool of {@link MemStoreLAB} chunks shared by all memstores of a region
+ * server.
+ * <p>
+ * Without a pool every memstore allocates its chunks afresh and drops them
+ * after it is flushed, so the write path keeps promoting 2MB arrays to the
+ * old generation only for them to die there. With a pool, a flushed
+ * memstore's chunks are kept and handed to the next memstore that needs
+ * them, see {@link MemStoreLAB#close()}.
+ * <p>
+ * The pool holds at most
+ * <code>hbase.hregion.memstore.chunkpool.maxsize</code> times the global
+ * memstore limit; chunks given back beyond that are left to the garbage
+ * collector. A part of the pool, set with
+ * <code>hbase.hregion.memstore.chunkpool.initialsize</code>, is allocated up
+ * front. The pool is disabled by default, and only used when the MSLAB is
+ * enabled.
+ */
+@InterfaceAudience.Private
+public class MemStoreChunkPool {
+  private static final Log LOG = LogFactory.getLog(MemStoreChunkPool.class);
+
+  /** Pool size as a fraction of the global memstore limit */
+  static final String CHUNK_POOL_MAXSIZE_KEY =
+      "hbase.hregion.memstore.chunkpool.maxsize";
+  /** Part of the pool allocated up front, as a fraction of its size */
+  static final String CHUNK_POOL_INITIALSIZE_KEY =
+      "hbase.hregion.memstore.chunkpool.initialsize";
+  static final float POOL_MAX_SIZE_DEFAULT = 0.0f;
+  static final float POOL_INITIAL_SIZE_DEFAULT = 0.0f;
+
+  // Set up on first use; null if disabled
+  private static MemStoreChunkPool globalInstance;
+  private static boolean chunkPoolDisabled = false;
+
+  private final int maxCount;
+  private final int chunkSize;
+  private final BlockingQueue<Chunk> reclaimedChunks;
+
+  // Chunks allocated because the pool was empty, and chunks reused
+  private final AtomicLong createdChunkCount = new AtomicLong();
+  private final AtomicLong reusedChunkCount = new AtomicLong();
+
+  MemStoreChunkPool(int chunkSize, int maxCount, int initialCount) {
+    this.chunkSize = chunkSize;
+    this.maxCount = maxCount;
+    this.reclaimedChunks = new LinkedBlockingQueue<Chunk>();
+    for (int i = 0; i < initialCount; i++) {
+      Chunk chunk = new Chunk(chunkSize);
+      chunk.init();
+      chunk.reset();
+      this.reclaimedChunks.add(chunk);
+    }
+  }
+
+  /**
+   * @return A chunk from the pool, or a new one if the pool is empty. It
+   * must be initialized with {@link Chunk#init()} before use.
+   */
+  Chunk getChunk() {
+    Chunk chunk = this.reclaimedChunks.poll();
+    if (chunk == null) {
+      this.createdChunkCount.incrementAndGet();
+      return new Chunk(this.chunkSize);
+    }
+    this.reusedChunkCount.incrementAndGet();
+    chunk.reset();
+    return chunk;
+  }
+
+  /**
+   * Give back the chunks of a flushed memstore, as many as fit.
+   */
+  void putbackChunks(BlockingQueue<Chunk> chunks) {
+    int toAdd = Math.min(chunks.size(),
+        this.maxCount - this.reclaimedChunks.size());
+    for (int i = 0; i < toAdd; i++) {
+      Chunk chunk = chunks.poll();
+      if (chunk == null) break;
+      this.reclaimedChunks.add(chunk);
+    }
+    chunks.clear();
+  }
+
+  /**
+   * Give back a single chunk, if it fits.
+   */
+  void putbackChunk(Chunk chunk) {
+    if (this.reclaimedChunks.size() < this.maxCount) {
+      this.reclaimedChunks.add(chunk);
+    }
+  }
+
+  /**
+   * @return Number of chunks waiting in the pool
+   */
+  public int getPoolSize() {
+    return this.reclaimedChunks.size();
+  }
+
+  public int getMaxCount() {
+    return this.maxCount;
+  }
+
+  public long getCreatedChunkCount() {
+    return this.createdChunkCount.get();
+  }
+
+  public long getReusedChunkCount() {
+    return this.reusedChunkCount.get();
+  }
+
+  /**
+   * @return Share of chunk requests served from the pool, between 0 and 1
+   */
+  public double getReuseRatio() {
+    long reused = this.reusedChunkCount.get();
+    long total = reused + this.createdChunkCount.get();
+    return total == 0 ? 0 : (double)reused / total;
+  }
+
+  /**
+   * Empty the pool. For tests.
+   */
+  void clearChunks() {
+    this.reclaimedChunks.clear();
+  }
+
+  /**
+   * @return The region server's chunk pool, or null if there is none
+   */
+  static synchronized MemStoreChunkPool getPool(Configuration conf) {
+    if (globalInstance != null) return globalInstance;
+    if (chunkPoolDisabled) return null;
+
+    float poolSizePercentage = conf.getFloat(CHUNK_POOL_MAXSIZE_KEY,
+        POOL_MAX_SIZE_DEFAULT);
+    if (poolSizePercentage <= 0 ||
+        !conf.getBoolean(MemStore.USEMSLAB_KEY, MemStore.USEMSLAB_DEFAULT)) {
+      chunkPoolDisabled = true;
+      return null;
+    }
+    if (poolSizePercentage > 1.0) {
+      throw new IllegalArgumentException(CHUNK_POOL_MAXSIZE_KEY +
+          " must be between 0.0 and 1.0");
+    }
+    long heapMax = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+        .getMax();
+    long globalMemStoreLimit = MemStoreFlusher.globalMemStoreLimit(heapMax,
+        MemStoreFlusher.DEFAULT_UPPER, MemStoreFlusher.UPPER_KEY, conf);
+    int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY,
+        MemStoreLAB.CHUNK_SIZE_DEFAULT);
+    int maxCount = (int)(globalMemStoreLimit * poolSizePercentage / chunkSize);
+
+    float initialCountPercentage = conf.getFloat(CHUNK_POOL_INITIALSIZE_KEY,
+        POOL_INITIAL_SIZE_DEFAULT);
+    if (initialCountPercentage > 1.0 || initialCountPercentage < 0) {
+      throw new IllegalArgumentException(CHUNK_POOL_INITIALSIZE_KEY +
+          " must be between 0.0 and 1.0");
+    }
+    int initialCount = (int)(initialCountPercentage * maxCount);
+    LOG.info("Allocating MemStoreChunkPool with chunk size " +
+        StringUtils.humanReadableInt(chunkSize) + ", max count " + maxCount +
+        ", initial count " + initialCount);
+    globalInstance = new MemStoreChunkPool(chunkSize, maxCount, initialCount);
+    return globalInstance;
+  }
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * In-memory compaction of a {@link MemStore}.
+ * <p>Once the active skip list of a memstore has grown past a fraction of the
+ * region flush size, it is frozen into the memstore's pipeline (see
+ * {@link MemStore#freeze()}) and the whole pipeline is merged, in the
+ * background, into one {@link KeyValueArraySet}. While merging, puts that no
+ * reader can see any more are dropped: those beyond the family's maximum
+ * number of versions of a column, and those shadowed by a newer put with the
+ * same timestamp. Rows holding delete markers are kept as they are, and only
+ * edits older than every open scanner's read point are considered.
+ * <p>The heap given back is taken off the memstore and region sizes, so a
+ * region holding many versions of few cells flushes less often and in smaller
+ * files. Only one merge runs per memstore at a time; the merge threads are
+ * shared by all memstores of the region server.
+ */
+@InterfaceAudience.Private
+class MemStoreCompactor implements Runnable {
+  static final Log LOG = LogFactory.getLog(MemStoreCompactor.class);
+
+  /** Configuration key to enable in-memory compaction of memstores */
+  static final String COMPACTING_KEY =
+      "hbase.hregion.memstore.compacting.enabled";
+
+  /**
+   * Configuration key for the size at which the active part of a memstore is
+   * frozen and merged, as a fraction of the region flush size
+   */
+  static final String THRESHOLD_KEY =
+      "hbase.hregion.memstore.compacting.threshold";
+  static final float DEFAULT_THRESHOLD = 0.25f;
+
+  /** Configuration key for the number of threads merging memstores */
+  static final String THREADS_KEY =
+      "hbase.hregion.memstore.compacting.threads";
+  static final int DEFAULT_THREADS = 2;
+
+  private static ThreadPoolExecutor pool = null;
+
+  private final MemStore memstore;
+  // Null in tests; then every edit counts as seen by all readers
+  private final HRegion region;
+  private final int maxVersions;
+  private final long threshold;
+  private final AtomicBoolean running = new AtomicBoolean(false);
+
+  /**
+   * @param threshold Size of the active part of the memstore at which it is
+   * frozen and merged
+   */
+  MemStoreCompactor(final MemStore memstore, final HRegion region,
+      final int maxVersions, final long threshold) {
+    this.memstore = memstore;
+    this.region = region;
+    this.maxVersions = maxVersions;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Enables in-memory compaction of the memstore of <code>store</code> if
+   * the configuration asks for it.
+   */
+  static void configure(final Configuration conf, final Store store,
+      final MemStore memstore) {
+    if (!conf.getBoolean(COMPACTING_KEY, false)) {
+      return;
+    }
+    long flushSize = store.getHRegion().memstoreFlushSize;
+    if (flushSize <= 0) {
+      flushSize = conf.getLong(HConstants.HREGION_MEMSTORE_FLUSH_SIZE,
+          HTableDescriptor.DEFAULT_MEMSTORE_FLUSH_SIZE);
+    }
+    long threshold = (long)(flushSize * conf.getFloat(THRESHOLD_KEY,
+        DEFAULT_THRESHOLD));
+    configurePool(conf);
+    memstore.setCompactor(new MemStoreCompactor(memstore, store.getHRegion(),
+        store.getFamily().getMaxVersions(), threshold));
+  }
+
+  private static synchronized void configurePool(final Configuration conf) {
+    if (pool != null) return;
+    int threads = Math.max(1, conf.getInt(THREADS_KEY, DEFAULT_THREADS));
+    pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setName("memstoreCompactor-" + System.currentTimeMillis());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    pool.allowCoreThreadTimeOut(true);
+  }
+
+  boolean shouldFreeze(final long activeHeapSize) {
+    return activeHeapSize >= this.threshold && !this.running.get();
+  }
+
+  /**
+   * @return false if a merge of this memstore is already under way
+   */
+  boolean tryStart() {
+    return this.running.compareAndSet(false, true);
+  }
+
+  void finish() {
+    this.running.set(false);
+  }
+
+  /**
+   * Queues a merge of the pipeline. {@link #finish()} is called once it is
+   * done.
+   * @return false if the merge could not be queued
+   */
+  boolean submit() {
+    ThreadPoolExecutor p;
+    synchronized (MemStoreCompactor.class) {
+      p = pool;
+    }
+    if (p == null) {
+      return false;
+    }
+    try {
+      p.execute(this);
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      compact();
+    } catch (Throwable t) {
+      LOG.warn("In-memory compaction failed", t);
+    } finally {
+      finish();
+    }
+  }
+
+  /**
+   * Merges the pipeline of the memstore and swaps the result in.
+   * @return Heap freed, or -1 if there was nothing to do or the pipeline
+   * changed while it was merged
+   */
+  long compact() {
+    List<MemStore.Segment> inputs = this.memstore.getPipeline();
+    if (inputs.isEmpty() || (inputs.size() == 1 && inputs.get(0).isFlat())) {
+      return -1;
+    }
+    long start = EnvironmentEdgeManager.currentTimeMillis();
+    long smallestReadPoint = this.region == null ?
+        Long.MAX_VALUE : this.region.getSmallestReadPoint();
+    List<KeyValue []> sorted = new ArrayList<KeyValue []>(inputs.size());
+    for (MemStore.Segment segment: inputs) {
+      sorted.add(segment.kvs.toArray(new KeyValue[0]));
+    }
+    KeyValueArraySet merged = merge(sorted, this.memstore.comparator,
+        this.maxVersions, smallestReadPoint);
+    MemStore.Segment result = new MemStore.Segment(merged, heapSize(merged));
+
+    // Hold off flushes while swapping so that a flush never sizes a
+    // snapshot from before the swap and then sees the freed heap taken off.
+    Lock updates = this.region == null ?
+        null : this.region.getUpdatesLock().readLock();
+    long freed;
+    if (updates != null) updates.lock();
+    try {
+      freed = this.memstore.swapPipeline(inputs, result);
+      if (freed > 0 && this.region != null) {
+        this.region.addAndGetGlobalMemstoreSize(-freed);
+      }
+    } finally {
+      if (updates != null) updates.unlock();
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Merged " + inputs.size() + " memstore segments into " +
+          merged.size() + " entries in " +
+          (EnvironmentEdgeManager.currentTimeMillis() - start) + "ms, " +
+          (freed < 0 ? "discarded as the memstore changed" :
+            "freed " + freed + " bytes"));
+    }
+    return freed;
+  }
+
+  static long heapSize(final KeyValueArraySet set) {
+    long heapSize = KeyValueArraySet.arrayHeapSize(set.size());
+    for (KeyValue kv: set) {
+      heapSize += kv.heapSize();
+    }
+    return heapSize;
+  }
+
+  /**
+   * Merges sorted runs of KeyValues into one set, dropping puts no reader
+   * can see.
+   * @param runs Sorted runs, newest first. Of equal keys, the one from the
+   * newest run is kept.
+   * @param maxVersions Maximum versions kept per column
+   * @param smallestReadPoint Edits with a memstoreTS up to this are visible
+   * to every reader
+   */
+  static KeyValueArraySet merge(final List<KeyValue []> runs,
+      final KeyValue.KVComparator comparator, final int maxVersions,
+      final long smallestReadPoint) {
+    int count = 0;
+    for (KeyValue [] run: runs) {
+      count += run.length;
+    }
+    KeyValue [] all = new KeyValue[count];
+    int pos = 0;
+    for (KeyValue [] run: runs) {
+      System.arraycopy(run, 0, all, pos, run.length);
+      pos += run.length;
+    }
+    // The sort is stable and makes use of the presorted runs.
+    Arrays.sort(all, comparator);
+
+    KeyValue [] kept = new KeyValue[count];
+    int n = 0;
+    int rowStart = 0;
+    while (rowStart < count) {
+      int rowEnd = rowStart + 1;
+      boolean hasDelete = all[rowStart].isDelete();
+      while (rowEnd < count && all[rowEnd].matchingRow(all[rowStart])) {
+        hasDelete |= all[rowEnd].isDelete();
+        rowEnd++;
+      }
+      KeyValue previous = null;
+      KeyValue lastVersion = null;
+      int versions = 0;
+      for (int i = rowStart; i < rowEnd; i++) {
+        KeyValue kv = all[i];
+        if (previous != null && comparator.compare(previous, kv) == 0) {
+          // Same key and memstoreTS in an older run
+          continue;
+        }
+        previous = kv;
+        if (hasDelete) {
+          kept[n++] = kv;
+          continue;
+        }
+        if (lastVersion == null || !kv.matchingQualifier(lastVersion)) {
+          versions = 0;
+          lastVersion = null;
+        }
+        boolean settled = kv.getMemstoreTS() <= smallestReadPoint;
+        if (!settled || kv.getType() != KeyValue.Type.Put.getCode()) {
+          kept[n++] = kv;
+          continue;
+        }
+        if (lastVersion != null &&
+            lastVersion.getTimestamp() == kv.getTimestamp()) {
+          // Shadowed by a newer put of the same timestamp
+          continue;
+        }
+        lastVersion = kv;
+        if (++versions <= maxVersions) {
+          kept[n++] = kv;
+        }
+      }
+      rowStart = rowEnd;
+    }
+    if (n < count) {
+      kept = Arrays.copyOf(kept, n);
+    }
+    return new KeyValueArraySet(kept, comparator);
+  }
+}
@@ -76,9 +76,9 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
   protected final long globalMemStoreLimit;
   protected final long globalMemStoreLimitLowMark;
 
-  private static final float DEFAULT_UPPER = 0.4f;
+  static final float DEFAULT_UPPER = 0.4f;
   private static final float DEFAULT_LOWER = 0.35f;
-  private static final String UPPER_KEY =
+  static final String UPPER_KEY =
     "hbase.regionserver.global.memstore.upperLimit";
   private static final String LOWER_KEY =
     "hbase.regionserver.global.memstore.lowerLimit";
@@ -201,7 +201,7 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
       Preconditions.checkState(regionToFlush.memstoreSize.get() > 0);
 
       LOG.info("Flush of region " + regionToFlush + " due to global heap pressure");
-      flushedOne = flushRegion(regionToFlush, true);
+      flushedOne = flushRegion(regionToFlush, true, false);
       if (!flushedOne) {
         LOG.info("Excluding unflushable region " + regionToFlush +
           " - trying to find a different region to flush.");
@@ -311,13 +311,20 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
   }
 
   public void requestFlush(HRegion r) {
+    requestFlush(r, false);
+  }
+
+  public void requestFlush(HRegion r, boolean flushAllStores) {
     synchronized (regionsInQueue) {
-      if (!regionsInQueue.containsKey(r)) {
+      FlushRegionEntry queued = regionsInQueue.get(r);
+      if (queued == null) {
         // This entry has no delay so it will be added at the top of the flush
         // queue.  It'll come out near immediately.
-        FlushRegionEntry fqe = new FlushRegionEntry(r);
+        FlushRegionEntry fqe = new FlushRegionEntry(r, flushAllStores);
         this.regionsInQueue.put(r, fqe);
         this.flushQueue.add(fqe);
+      } else if (flushAllStores) {
+        queued.flushAllStores = true;
       }
     }
   }
@@ -373,7 +380,7 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
         return true;
       }
     }
-    return flushRegion(region, false);
+    return flushRegion(region, false, false);
   }
 
   /*
@@ -383,12 +390,15 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
    * needs to be removed from the flush queue. If false, when we were called
    * from the main flusher run loop and we got the entry to flush by calling
    * poll on the flush queue (which removed it).
+   * @param flushAllStores Set if every store must be flushed. If false, stores
+   * holding little are left out; see {@link HRegion#flushcache(boolean)}.
    *
    * @return true if the region was successfully flushed, false otherwise. If
    * false, there will be accompanying log messages explaining why the log was
    * not flushed.
    */
-  private boolean flushRegion(final HRegion region, final boolean emergencyFlush) {
+  private boolean flushRegion(final HRegion region, final boolean emergencyFlush,
+      boolean flushAllStores) {
     synchronized (this.regionsInQueue) {
       FlushRegionEntry fqe = this.regionsInQueue.remove(region);
       if (fqe != null && emergencyFlush) {
@@ -396,10 +406,14 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
         // emergencyFlush, then item was removed via a flushQueue.poll.
         flushQueue.remove(fqe);
      }
+     if (fqe != null) {
+       // a request to flush all stores may have come since it was queued
+       flushAllStores |= fqe.flushAllStores;
+     }
      lock.lock();
     }
     try {
-      boolean shouldCompact = region.flushcache();
+      boolean shouldCompact = region.flushcache(flushAllStores);
       // We just want to check the size
       boolean shouldSplit = region.checkSplit() != null;
       if (shouldSplit) {
@@ -433,7 +447,7 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
 
   private boolean isTooManyStoreFiles(HRegion region) {
     for (Store hstore: region.stores.values()) {
-      if (hstore.getStorefilesCount() > this.blockingStoreFilesNumber) {
+      if (hstore.getBlockingFilesCount() > this.blockingStoreFilesNumber) {
         return true;
       }
     }
@@ -495,13 +509,16 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
    */
   static class FlushRegionEntry implements FlushQueueEntry {
     private final HRegion region;
+    // guarded by regionsInQueue
+    private boolean flushAllStores;
 
     private final long createTime;
     private long whenToExpire;
     private int requeueCount = 0;
 
-    FlushRegionEntry(final HRegion r) {
+    FlushRegionEntry(final HRegion r, final boolean flushAllStores) {
       this.region = r;
+      this.flushAllStores = flushAllStores;
       this.createTime = System.currentTimeMillis();
       this.whenToExpire = this.createTime;
     }
@@ -19,6 +19,9 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -38,6 +41,10 @@ import com.google.common.base.Preconditions;
  * only to large chunks of contiguous memory, we ensure that large blocks
  * get freed up when the memstore is flushed.
  * <p>
+ * If the region server has a {@link MemStoreChunkPool}, chunks are taken from
+ * it and handed back once the memstore is flushed and no scanner reads it
+ * any more, see {@link #close()}, so that the write path hardly allocates.
+ * <p>
  * Without the MSLAB, the byte array allocated during insertion end up
  * interleaved throughout the heap, and the old generation gets progressively
  * more fragmented until a stop-the-world compacting collection occurs.
@@ -59,13 +66,27 @@ public class MemStoreLAB {
   final static int MAX_ALLOC_DEFAULT = 256  * 1024; // allocs bigger than this don't go through allocator
   final int maxAlloc;
 
+  // Null if chunks are not pooled
+  private final MemStoreChunkPool chunkPool;
+  // Chunks taken from the pool, to give back on close
+  private final BlockingQueue<Chunk> chunkQueue;
+  private final AtomicInteger openScannerCount = new AtomicInteger();
+  private volatile boolean closed = false;
+  private final AtomicBoolean reclaimed = new AtomicBoolean(false);
+
   public MemStoreLAB() {
     this(new Configuration());
   }
 
   public MemStoreLAB(Configuration conf) {
+    this(conf, MemStoreChunkPool.getPool(conf));
+  }
+
+  MemStoreLAB(Configuration conf, MemStoreChunkPool pool) {
     chunkSize = conf.getInt(CHUNK_SIZE_KEY, CHUNK_SIZE_DEFAULT);
     maxAlloc = conf.getInt(MAX_ALLOC_KEY, MAX_ALLOC_DEFAULT);
+    this.chunkPool = pool;
+    this.chunkQueue = pool == null ? null : new LinkedBlockingQueue<Chunk>();
 
     // if we don't exclude allocations >CHUNK_SIZE, we'd infiniteloop on one!
     Preconditions.checkArgument(
@@ -105,6 +126,49 @@ public class MemStoreLAB {
     }
   }
 
+  /**
+   * Called once no new allocations will be made, i.e. the memstore using
+   * this allocator has been flushed. Chunks are given back to the pool as
+   * soon as the last scanner reading them is closed.
+   */
+  void close() {
+    this.closed = true;
+    if (this.openScannerCount.get() == 0) {
+      recycleChunks();
+    }
+  }
+
+  /**
+   * Called when a scanner that may read KeyValues held in our chunks opens.
+   */
+  void incScannerCount() {
+    this.openScannerCount.incrementAndGet();
+  }
+
+  /**
+   * Called when a scanner counted by {@link #incScannerCount()} is closed.
+   */
+  void decScannerCount() {
+    int count = this.openScannerCount.decrementAndGet();
+    if (this.closed && count == 0) {
+      recycleChunks();
+    }
+  }
+
+  /**
+   * @return true if our chunks go back to a pool once we are closed, and so
+   * may be refilled while KeyValues read from them are still referenced
+   */
+  boolean isPooled() {
+    return this.chunkPool != null;
+  }
+
+  private void recycleChunks() {
+    if (this.chunkPool != null && this.reclaimed.compareAndSet(false, true)) {
+      this.chunkPool.putbackChunks(this.chunkQueue);
+    }
+  }
+
   /**
    * Try to retire the current chunk if it is still
    * <code>c</code>. Postcondition is that curChunk.get()
@@ -135,14 +199,20 @@ public class MemStoreLAB {
 
       // No current chunk, so we want to allocate one. We race
       // against other allocators to CAS in an uninitialized chunk
-      // (which is cheap to allocate)
-      c = new Chunk(chunkSize);
+      // (which is cheap to allocate, or comes out of the pool)
+      c = chunkPool != null ? chunkPool.getChunk() : new Chunk(chunkSize);
       if (curChunk.compareAndSet(null, c)) {
         // we won race - now we need to actually do the expensive
-        // allocation step
+        // allocation step, unless the pool already did
         c.init();
+        if (chunkQueue != null) {
+          chunkQueue.add(c);
+        }
         return c;
       }
+      if (chunkPool != null) {
+        chunkPool.putbackChunk(c);
+      }
       // someone else won race - that's fine, we'll try to grab theirs
       // in the next iteration of the loop.
     }
@@ -151,7 +221,7 @@ public class MemStoreLAB {
   /**
    * A chunk of memory out of which allocations are sliced.
    */
-  private static class Chunk {
+  static class Chunk {
     /** Actual underlying data */
     private byte[] data;
 
@@ -174,7 +244,7 @@ public class MemStoreLAB {
      * this is cheap.
      * @param size in bytes
      */
-    private Chunk(int size) {
+    Chunk(int size) {
       this.size = size;
     }
 
@@ -186,7 +256,9 @@ public class MemStoreLAB {
     public void init() {
       assert nextFreeOffset.get() == UNINITIALIZED;
       try {
-        data = new byte[size];
+        if (data == null) {
+          data = new byte[size];
+        }
       } catch (OutOfMemoryError e) {
         boolean failInit = nextFreeOffset.compareAndSet(UNINITIALIZED, OOM);
         assert failInit; // should be true.
@@ -201,6 +273,21 @@ public class MemStoreLAB {
           "Multiple threads tried to init same chunk");
     }
 
+    /**
+     * Make a pooled chunk ready for reuse. Its memory is kept and handed out
+     * again from the start on the next {@link #init()}.
+     */
+    void reset() {
+      if (nextFreeOffset.get() != UNINITIALIZED) {
+        nextFreeOffset.set(UNINITIALIZED);
+        allocCount.set(0);
+      }
+    }
+
+    int getSize() {
+      return size;
+    }
+
     /**
      * Try to allocate <code>size</code> bytes from the chunk.
      * @return the offset of the successful allocation, or -1 to indicate not-enough-space
@@ -68,4 +68,22 @@ public abstract class NonLazyKeyValueScanner implements KeyValueScanner {
     // Not a file by default.
     return false;
   }
+
+  @Override
+  public boolean seekToPreviousRow(KeyValue key) throws IOException {
+    throw new NotImplementedException("seekToPreviousRow must not be called " +
+        "on a " + getClass().getSimpleName());
+  }
+
+  @Override
+  public boolean seekToLastRow() throws IOException {
+    throw new NotImplementedException("seekToLastRow must not be called " +
+        "on a " + getClass().getSimpleName());
+  }
+
+  @Override
+  public boolean backwardSeek(KeyValue key) throws IOException {
+    throw new NotImplementedException("backwardSeek must not be called " +
+        "on a " + getClass().getSimpleName());
+  }
 }
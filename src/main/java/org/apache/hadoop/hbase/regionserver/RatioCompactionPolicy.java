@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactSelection;
+import org.apache.hadoop.util.StringUtils;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Collections2;
+
+/**
+ * The default {@link CompactionPolicy}: a minor compaction takes the oldest
+ * files that are small relative to the sum of the newer files, and a major
+ * compaction runs on request or once the major compaction period elapses.
+ */
+@InterfaceAudience.Private
+public class RatioCompactionPolicy extends CompactionPolicy {
+  static final Log LOG = LogFactory.getLog(RatioCompactionPolicy.class);
+
+  /**
+   * Algorithm to choose which files to compact
+   *
+   * Configuration knobs:
+   *  "hbase.hstore.compaction.ratio"
+   *    normal case: minor compact when file <= sum(smaller_files) * ratio
+   *  "hbase.hstore.compaction.min.size"
+   *    unconditionally compact individual files below this size
+   *  "hbase.hstore.compaction.max.size"
+   *    never compact individual files above this size (unless splitting)
+   *  "hbase.hstore.compaction.min"
+   *    min files needed to minor compact
+   *  "hbase.hstore.compaction.max"
+   *    max files to compact at once (avoids OOM)
+   *
+   * @param candidates candidate files, ordered from oldest to newest
+   * @param forcemajor true if a major compaction was requested
+   * @return subset copy of candidate list that meets compaction criteria
+   * @throws IOException
+   */
+  @Override
+  protected CompactSelection selectCompaction(List<StoreFile> candidates,
+      boolean forcemajor) throws IOException {
+    /* normal skew:
+     *
+     *         older ----> newer
+     *     _
+     *    | |   _
+     *    | |  | |   _
+     *  --|-|- |-|- |-|---_-------_-------  minCompactSize
+     *    | |  | |  | |  | |  _  | |
+     *    | |  | |  | |  | | | | | |
+     *    | |  | |  | |  | | | | | |
+     */
+    CompactSelection compactSelection =
+      new CompactSelection(getConf(), candidates);
+
+    if (!forcemajor) {
+      // Delete the expired store files before the compaction selection.
+      CompactSelection expiredSelection =
+        selectExpiredStoreFiles(compactSelection);
+      // If there is any expired store files, delete them  by compaction.
+      if (expiredSelection != null) {
+        return expiredSelection;
+      }
+      // do not compact old files above a configurable threshold
+      // save all references. we MUST compact them
+      int pos = 0;
+      while (pos < compactSelection.getFilesToCompact().size() &&
+             compactSelection.getFilesToCompact().get(pos).getReader().length()
+               > store.maxCompactSize &&
+             !compactSelection.getFilesToCompact().get(pos).isReference()) ++pos;
+      compactSelection.clearSubList(0, pos);
+    }
+
+    if (compactSelection.getFilesToCompact().isEmpty()) {
+      LOG.debug(store.getHRegionInfo().getEncodedName() + " - " +
+        store.getColumnFamilyName() + ": no store files to compact");
+      compactSelection.emptyFileList();
+      return compactSelection;
+    }
+
+    // major compact on user action or age (caveat: we have too many files)
+    boolean majorcompaction =
+      (forcemajor || store.isMajorCompaction(compactSelection.getFilesToCompact()))
+      && compactSelection.getFilesToCompact().size() < store.maxFilesToCompact;
+
+    if (!majorcompaction &&
+        !store.hasReferences(compactSelection.getFilesToCompact())) {
+      // we're doing a minor compaction, let's see what files are applicable
+      int start = 0;
+      double r = compactSelection.getCompactSelectionRatio();
+
+      // skip selection algorithm if we don't have enough files
+      if (StoreFile.getCompactionRunStarts(
+            compactSelection.getFilesToCompact()).length - 1 <
+          store.minFilesToCompact) {
+        compactSelection.emptyFileList();
+        return compactSelection;
+      }
+
+      // remove bulk import files that request to be excluded from minors
+      compactSelection.getFilesToCompact().removeAll(Collections2.filter(
+          compactSelection.getFilesToCompact(),
+          new Predicate<StoreFile>() {
+            public boolean apply(StoreFile input) {
+              return input.excludeFromMinorCompaction();
+            }
+          }));
+
+      /* TODO: add sorting + unit test back in when HBASE-2856 is fixed
+      // Sort files by size to correct when normal skew is altered by bulk load.
+      Collections.sort(filesToCompact, StoreFile.Comparators.FILE_SIZE);
+       */
+
+      // get store file sizes for incremental compacting selection. The files
+      // of a compaction run, such as a parallel major compaction, are weighed
+      // and selected together as one file.
+      int [] runStarts = StoreFile.getCompactionRunStarts(
+          compactSelection.getFilesToCompact());
+      int countOfFiles = runStarts.length - 1;
+      long [] fileSizes = new long[countOfFiles];
+      long [] sumSize = new long[countOfFiles];
+      for (int i = countOfFiles-1; i >= 0; --i) {
+        for (int j = runStarts[i]; j < runStarts[i + 1]; j++) {
+          StoreFile file = compactSelection.getFilesToCompact().get(j);
+          fileSizes[i] += file.getReader().length();
+        }
+        // calculate the sum of fileSizes[i,i+maxFilesToCompact-1) for algo
+        int tooFar = i + store.maxFilesToCompact - 1;
+        sumSize[i] = fileSizes[i]
+                   + ((i+1    < countOfFiles) ? sumSize[i+1]      : 0)
+                   - ((tooFar < countOfFiles) ? fileSizes[tooFar] : 0);
+      }
+
+      /* Start at the oldest file and stop when you find the first file that
+       * meets compaction criteria:
+       *   (1) a recently-flushed, small file (i.e. <= minCompactSize)
+       *      OR
+       *   (2) within the compactRatio of sum(newer_files)
+       * Given normal skew, any newer files will also meet this criteria
+       *
+       * Additional Note:
+       * If fileSizes.size() >> maxFilesToCompact, we will recurse on
+       * compact().  Consider the oldest files first to avoid a
+       * situation where we always compact [end-threshold,end).  Then, the
+       * last file becomes an aggregate of the previous compactions.
+       */
+      while(countOfFiles - start >= store.minFilesToCompact &&
+            fileSizes[start] >
+              Math.max(store.minCompactSize, (long)(sumSize[start+1] * r))) {
+        ++start;
+      }
+      int end = Math.min(countOfFiles, start + store.maxFilesToCompact);
+      // keep whole runs while staying within the max files to compact
+      while (end - start > 1 &&
+             runStarts[end] - runStarts[start] > store.maxFilesToCompact) {
+        --end;
+      }
+      long totalSize = fileSizes[start]
+                     + ((start+1 < countOfFiles) ? sumSize[start+1] : 0);
+      compactSelection = compactSelection.getSubList(
+          runStarts[start], runStarts[end]);
+
+      // if we don't have enough files to compact, just wait
+      if (end - start < store.minFilesToCompact) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Skipped compaction of " + store.getColumnFamilyName()
+            + ".  Only " + (end - start) + " file(s) of size "
+            + StringUtils.humanReadableInt(totalSize)
+            + " have met compaction criteria.");
+        }
+        compactSelection.emptyFileList();
+        return compactSelection;
+      }
+    } else {
+      // all files included in this compaction, up to max
+      if (compactSelection.getFilesToCompact().size() > store.maxFilesToCompact) {
+        int pastMax =
+          compactSelection.getFilesToCompact().size() - store.maxFilesToCompact;
+        compactSelection.clearSubList(0, pastMax);
+      }
+    }
+    return compactSelection;
+  }
+}
@@ -24,6 +24,7 @@ import java.util.Map;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.catalog.CatalogTracker;
 import org.apache.hadoop.hbase.ipc.RpcServer;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
@@ -42,6 +43,13 @@ public interface RegionServerServices extends OnlineRegions {
   /** @return the HLog */
   public HLog getWAL();
 
+  /**
+   * @param regionInfo region to get the HLog for
+   * @return the HLog the passed region should write to. Same as
+   * {@link #getWAL()} unless the server runs more than one HLog.
+   */
+  public HLog getWAL(HRegionInfo regionInfo);
+
   /**
    * @return Implementation of {@link CompactionRequestor} or null.
    */
@@ -86,4 +94,9 @@ public interface RegionServerServices extends OnlineRegions {
    * @return Return the FileSystem object used by the regionserver
    */
   public FileSystem getFileSystem();
+
+  /**
+   * @return the warmer of the block cache, or null if warming is disabled
+   */
+  public BlockCacheWarmer getBlockCacheWarmer();
 }
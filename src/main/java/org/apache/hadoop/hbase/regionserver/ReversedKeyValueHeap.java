@@ -0,0 +1,189 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+
+/**
+ * A {@link KeyValueHeap} for reversed scans. Rows come out from the last to
+ * the first, the KeyValues of each row in their usual order.
+ * <p>
+ * Every sub-scanner is kept on the first KeyValue of the row it is reading.
+ * When one moves past the end of its row it is sent back to the start of the
+ * previous row with {@link KeyValueScanner#seekToPreviousRow(KeyValue)}.
+ * Forward seeks are not supported.
+ */
+@InterfaceAudience.Private
+public class ReversedKeyValueHeap extends KeyValueHeap {
+
+  /**
+   * @param scanners
+   * @param comparator
+   */
+  public ReversedKeyValueHeap(List<? extends KeyValueScanner> scanners,
+      KVComparator comparator) throws IOException {
+    super(scanners, new ReversedKVScannerComparator(comparator));
+  }
+
+  @Override
+  public boolean seek(KeyValue seekKey) throws IOException {
+    throw new IllegalStateException(
+        "seek cannot be called on ReversedKeyValueHeap");
+  }
+
+  @Override
+  public boolean reseek(KeyValue seekKey) throws IOException {
+    throw new IllegalStateException(
+        "reseek cannot be called on ReversedKeyValueHeap");
+  }
+
+  @Override
+  public boolean requestSeek(KeyValue key, boolean forward, boolean useBloom)
+      throws IOException {
+    throw new IllegalStateException(
+        "requestSeek cannot be called on ReversedKeyValueHeap");
+  }
+
+  @Override
+  public boolean seekToLastRow() throws IOException {
+    throw new IllegalStateException(
+        "seekToLastRow cannot be called on ReversedKeyValueHeap");
+  }
+
+  @Override
+  public KeyValue next() throws IOException {
+    if (this.current == null) {
+      return null;
+    }
+    KeyValue kvReturn = this.current.next();
+    KeyValue kvNext = this.current.peek();
+    if (kvNext == null ||
+        this.comparator.getComparator().compareRows(kvNext, kvReturn) > 0) {
+      // Done with this row in this scanner; move it to the previous one.
+      if (this.current.seekToPreviousRow(kvReturn)) {
+        this.heap.add(this.current);
+      } else {
+        this.current.close();
+      }
+      this.current = pollRealKV();
+    } else {
+      KeyValueScanner topScanner = this.heap.peek();
+      if (topScanner != null &&
+          this.comparator.compare(this.current, topScanner) > 0) {
+        this.heap.add(this.current);
+        this.current = pollRealKV();
+      }
+    }
+    return kvReturn;
+  }
+
+  /**
+   * Moves every scanner that is not yet before the row of the given key to
+   * the start of the previous row.
+   * @param seekKey a key of the row to move before
+   * @return true if KeyValues exist before the row, false if not
+   */
+  @Override
+  public boolean seekToPreviousRow(KeyValue seekKey) throws IOException {
+    if (this.current == null) {
+      return false;
+    }
+    this.heap.add(this.current);
+    this.current = null;
+
+    KeyValueScanner scanner;
+    while ((scanner = this.heap.poll()) != null) {
+      KeyValue topKey = scanner.peek();
+      if (this.comparator.getComparator().compareRows(topKey, seekKey) < 0) {
+        // The top scanner, and so all of them, is before the row.
+        this.heap.add(scanner);
+        this.current = pollRealKV();
+        return this.current != null;
+      }
+      if (!scanner.seekToPreviousRow(seekKey)) {
+        scanner.close();
+      } else {
+        this.heap.add(scanner);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Moves every scanner to the given key if its row has it, or else to the
+   * start of the previous row.
+   * @param seekKey key to seek at or before
+   * @return true if KeyValues exist at or before the key, false if not
+   */
+  @Override
+  public boolean backwardSeek(KeyValue seekKey) throws IOException {
+    if (this.current == null) {
+      return false;
+    }
+    this.heap.add(this.current);
+    this.current = null;
+
+    KVComparator kvComparator = this.comparator.getComparator();
+    KeyValueScanner scanner;
+    while ((scanner = this.heap.poll()) != null) {
+      KeyValue topKey = scanner.peek();
+      int rowComparison = kvComparator.compareRows(topKey, seekKey);
+      if (rowComparison < 0 ||
+          (rowComparison == 0 && kvComparator.compare(topKey, seekKey) >= 0)) {
+        // The top scanner, and so all of them, is where it should be.
+        this.heap.add(scanner);
+        this.current = pollRealKV();
+        return this.current != null;
+      }
+      if (!scanner.backwardSeek(seekKey)) {
+        scanner.close();
+      } else {
+        this.heap.add(scanner);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Orders scanners by descending row, then as {@link KeyValueHeap} does.
+   */
+  private static class ReversedKVScannerComparator
+      extends KVScannerComparator {
+
+    public ReversedKVScannerComparator(KVComparator kvComparator) {
+      super(kvComparator);
+    }
+
+    @Override
+    public int compare(KeyValueScanner left, KeyValueScanner right) {
+      int rowComparison = this.kvComparator.compareRows(left.peek(),
+          right.peek());
+      if (rowComparison != 0) {
+        return -rowComparison;
+      }
+      return super.compare(left, right);
+    }
+  }
+}
@@ -0,0 +1,382 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * Row locks of one region.<p>
+ *
+ * A lock is either exclusive or shared. Exclusive locks are taken by every
+ * operation that writes a row, and by clients explicitly locking a row;
+ * writes must hold the row alone so that their memstore order and their WAL
+ * order agree. Shared locks are taken by row processors that only read the
+ * row, which may proceed together. Once an exclusive request is waiting on a
+ * row no new shared lock is granted on it, so a steady stream of readers
+ * cannot starve the writers of a hot row.
+ * A thread holding an exclusive lock it took itself may lock the same row
+ * again in either mode; locks taken for a client are not reentrant since
+ * the client may come back on any handler thread.<p>
+ *
+ * Rows hash to a fixed number of stripes, each guarded by its own monitor.
+ * A stripe keeps its locked rows in a short list of pooled entries, so
+ * locking an uncontended row allocates nothing and touches a single
+ * monitor. Waiters wait on the monitor of the stripe and are woken when a
+ * row of that stripe is released. A lock is identified by an int carrying
+ * the stripe, the slot of its entry and a generation, so a stale id never
+ * matches a later lock of the same slot until the generation wraps.
+ */
+@InterfaceAudience.Private
+public class RowLockManager {
+  /** Returned by {@link #lock} when the lock could not be taken in time */
+  public static final int NO_LOCK = -1;
+
+  /** Numeric metric counting lock requests that had to wait */
+  public static final String METRIC_CONTENDED = "rowLockContended";
+  /** Numeric metric counting lock requests that gave up */
+  public static final String METRIC_FAILED = "rowLockFailed";
+  /** Time varying metric of the time spent waiting for contended locks */
+  public static final String METRIC_WAIT = "rowLockWait_";
+
+  /** Bits of a lock id addressing the entry within its stripe */
+  static final int SLOT_BITS = 12;
+  /** Largest number of rows of one stripe locked at the same time */
+  static final int MAX_SLOTS = 1 << SLOT_BITS;
+  static final int MAX_STRIPES = 1024;
+
+  public static final long FIXED_OVERHEAD = ClassSize.align(
+      ClassSize.OBJECT + ClassSize.REFERENCE + 3 * Bytes.SIZEOF_INT);
+
+  private static final class Entry {
+    final int slot;
+    int generation = 1;
+    byte[] row;
+    int hash;
+    // Outstanding acquisitions; an entry with waiters but no holds is kept.
+    int holds;
+    boolean exclusive;
+    // Thread that may re-enter, null for shared and client locks.
+    Thread owner;
+    int waiters;
+    int exclusiveWaiters;
+    // Next locked row of the stripe, or next free entry.
+    Entry next;
+
+    Entry(int slot) {
+      this.slot = slot;
+    }
+  }
+
+  private static final class Stripe {
+    Entry[] slots = new Entry[8];
+    int allocated = 0;
+    Entry active = null;
+    Entry free = null;
+    int waiters = 0;
+    long contended = 0;
+    long failed = 0;
+  }
+
+  private final Stripe[] stripes;
+  private final int stripeBits;
+  private final int generationMask;
+
+  /**
+   * @param stripes number of stripes; rounded up to a power of two of at
+   * most {@link #MAX_STRIPES}
+   */
+  public RowLockManager(int stripes) {
+    int n = Integer.highestOneBit(
+        Math.min(MAX_STRIPES, Math.max(2, stripes)) - 1) << 1;
+    this.stripes = new Stripe[n];
+    for (int i = 0; i < n; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    this.stripeBits = Integer.numberOfTrailingZeros(n);
+    this.generationMask = (1 << (31 - stripeBits - SLOT_BITS)) - 1;
+  }
+
+  int getStripeCount() {
+    return stripes.length;
+  }
+
+  private int stripeIndex(int hash) {
+    return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+  }
+
+  private int toId(int stripe, Entry e) {
+    return (e.generation << (stripeBits + SLOT_BITS)) |
+        (stripe << SLOT_BITS) | e.slot;
+  }
+
+  /**
+   * @return the held entry for <code>id</code>, or null if it is stale. Must
+   * be called holding the monitor of <code>s</code>.
+   */
+  private static Entry lookup(Stripe s, int id, int generation) {
+    int slot = id & (MAX_SLOTS - 1);
+    if (slot >= s.allocated) return null;
+    Entry e = s.slots[slot];
+    return e.generation == generation && e.holds > 0 ? e : null;
+  }
+
+  private Stripe stripeOf(int id) {
+    if (id < 0) return null;
+    return stripes[(id >>> SLOT_BITS) & (stripes.length - 1)];
+  }
+
+  private int generationOf(int id) {
+    return id >>> (stripeBits + SLOT_BITS);
+  }
+
+  private static Entry find(Stripe s, byte[] row, int hash) {
+    for (Entry e = s.active; e != null; e = e.next) {
+      if (e.hash == hash && Bytes.equals(e.row, row)) return e;
+    }
+    return null;
+  }
+
+  private static Entry allocate(Stripe s, byte[] row, int hash) {
+    Entry e = s.free;
+    if (e != null) {
+      s.free = e.next;
+    } else {
+      if (s.allocated == MAX_SLOTS) return null;
+      if (s.allocated == s.slots.length) {
+        Entry[] grown = new Entry[Math.min(MAX_SLOTS, s.slots.length * 2)];
+        System.arraycopy(s.slots, 0, grown, 0, s.allocated);
+        s.slots = grown;
+      }
+      e = new Entry(s.allocated);
+      s.slots[s.allocated++] = e;
+    }
+    e.row = row;
+    e.hash = hash;
+    e.next = s.active;
+    s.active = e;
+    return e;
+  }
+
+  private void release(Stripe s, Entry e) {
+    Entry prev = null;
+    for (Entry cur = s.active; cur != null; prev = cur, cur = cur.next) {
+      if (cur == e) {
+        if (prev == null) {
+          s.active = e.next;
+        } else {
+          prev.next = e.next;
+        }
+        break;
+      }
+    }
+    e.row = null;
+    e.owner = null;
+    e.generation = (e.generation + 1) & generationMask;
+    if (e.generation == 0) e.generation = 1;
+    e.next = s.free;
+    s.free = e;
+  }
+
+  private static boolean canGrant(Entry e, boolean exclusive, Thread t) {
+    if (e.holds == 0) return true;
+    if (t != null && e.owner == t) return true;
+    return !exclusive && !e.exclusive && e.exclusiveWaiters == 0;
+  }
+
+  private static void grant(Entry e, boolean exclusive, Thread t) {
+    if (e.holds == 0) {
+      e.exclusive = exclusive;
+      e.owner = exclusive ? t : null;
+    }
+    e.holds++;
+  }
+
+  /**
+   * Locks a row.
+   * @param row the row; the array is kept until the lock is released and
+   * must not change meanwhile
+   * @param exclusive false for a shared lock
+   * @param reentrant true if the calling thread may lock the row again while
+   * holding an exclusive lock on it; false for locks held for a client
+   * @param timeoutMs how long to wait if the row is locked; 0 to give up
+   * right away
+   * @return the lock id, or {@link #NO_LOCK} if the lock was not obtained
+   */
+  public int lock(byte[] row, boolean exclusive, boolean reentrant,
+      long timeoutMs) {
+    int hash = Bytes.hashCode(row);
+    int index = stripeIndex(hash);
+    Stripe s = stripes[index];
+    Thread t = reentrant ? Thread.currentThread() : null;
+    synchronized (s) {
+      Entry e = find(s, row, hash);
+      if (e == null) {
+        e = allocate(s, row, hash);
+      }
+      if (e != null && canGrant(e, exclusive, t)) {
+        grant(e, exclusive, t);
+        return toId(index, e);
+      }
+    }
+    return lockContended(s, index, row, hash, exclusive, t, timeoutMs);
+  }
+
+  private int lockContended(Stripe s, int index, byte[] row, int hash,
+      boolean exclusive, Thread t, long timeoutMs) {
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    boolean interrupted = false;
+    int id = NO_LOCK;
+    synchronized (s) {
+      s.contended++;
+      while (true) {
+        Entry e = find(s, row, hash);
+        if (e == null) {
+          e = allocate(s, row, hash);
+        }
+        if (e != null && canGrant(e, exclusive, t)) {
+          grant(e, exclusive, t);
+          id = toId(index, e);
+          break;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          s.failed++;
+          break;
+        }
+        // Park on the stripe; the entry is kept alive while we wait on it so
+        // a waiting exclusive request keeps holding off new shared ones.
+        if (e != null) {
+          e.waiters++;
+          if (exclusive) e.exclusiveWaiters++;
+        }
+        s.waiters++;
+        try {
+          TimeUnit.NANOSECONDS.timedWait(s, remaining);
+        } catch (InterruptedException ie) {
+          // Keep waiting, as callers have always expected, but let them know.
+          interrupted = true;
+        }
+        s.waiters--;
+        if (e != null) {
+          e.waiters--;
+          if (exclusive) {
+            e.exclusiveWaiters--;
+            // Shared requests may have been held off by us alone.
+            if (e.exclusiveWaiters == 0 && s.waiters > 0) s.notifyAll();
+          }
+          // An entry left without holds is granted to us at the top of the
+          // loop, so it never lingers once its last waiter is gone.
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (timeoutMs > 0) {
+      HRegion.incrNumericMetric(METRIC_CONTENDED, 1);
+      HRegion.incrTimeVaryingMetric(METRIC_WAIT,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      if (id == NO_LOCK) HRegion.incrNumericMetric(METRIC_FAILED, 1);
+    }
+    return id;
+  }
+
+  /**
+   * Releases one acquisition of a lock.
+   * @return false if <code>id</code> is not a held lock
+   */
+  public boolean unlock(int id) {
+    Stripe s = stripeOf(id);
+    if (s == null) return false;
+    synchronized (s) {
+      Entry e = lookup(s, id, generationOf(id));
+      if (e == null) return false;
+      if (--e.holds == 0) {
+        e.owner = null;
+        if (e.waiters == 0) release(s, e);
+        if (s.waiters > 0) s.notifyAll();
+      }
+      return true;
+    }
+  }
+
+  /**
+   * @return true if <code>id</code> is a held lock
+   */
+  public boolean isLocked(int id) {
+    Stripe s = stripeOf(id);
+    if (s == null) return false;
+    synchronized (s) {
+      return lookup(s, id, generationOf(id)) != null;
+    }
+  }
+
+  /**
+   * @return the row locked by <code>id</code>, or null if it is not held
+   */
+  public byte[] getRow(int id) {
+    Stripe s = stripeOf(id);
+    if (s == null) return null;
+    synchronized (s) {
+      Entry e = lookup(s, id, generationOf(id));
+      return e == null ? null : e.row;
+    }
+  }
+
+  /** @return number of rows currently locked */
+  public int getLockedRowCount() {
+    int count = 0;
+    for (Stripe s : stripes) {
+      synchronized (s) {
+        for (Entry e = s.active; e != null; e = e.next) {
+          if (e.holds > 0) count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /** @return number of lock requests that found their row locked */
+  public long getContendedCount() {
+    long count = 0;
+    for (Stripe s : stripes) {
+      synchronized (s) {
+        count += s.contended;
+      }
+    }
+    return count;
+  }
+
+  /** @return number of lock requests that did not get their lock */
+  public long getFailedCount() {
+    long count = 0;
+    for (Stripe s : stripes) {
+      synchronized (s) {
+        count += s.failed;
+      }
+    }
+    return count;
+  }
+}
@@ -20,6 +20,8 @@
 
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.Arrays;
+
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.regionserver.DeleteTracker.DeleteResult;
@@ -84,9 +86,11 @@ public class ScanDeleteTracker implements DeleteTracker {
           return;
         }
       }
-      // new column, or more general delete type
-      deleteBuffer = buffer;
-      deleteOffset = qualifierOffset;
+      // new column, or more general delete type. Copy the column, as the
+      // KeyValue it came from may be reused.
+      deleteBuffer = Arrays.copyOfRange(buffer, qualifierOffset,
+          qualifierOffset + qualifierLength);
+      deleteOffset = 0;
       deleteLength = qualifierLength;
       deleteType = type;
       deleteTimestamp = timestamp;
@@ -127,6 +127,9 @@ public class ScanQueryMatcher {
   
   private final boolean isUserScan;
 
+  /** Whether rows are read from the last to the first */
+  private final boolean isReversed;
+
   /**
    * Construct a QueryMatcher for a scan
    * @param scan
@@ -150,6 +153,7 @@ public class ScanQueryMatcher {
     this.earliestPutTs = earliestPutTs;
     this.maxReadPointToTrackVersions = readPointToUse;
     this.timeToPurgeDeletes = scanInfo.getTimeToPurgeDeletes();
+    this.isReversed = scan.isReversed();
 
     /* how to deal with deletes */
     this.isUserScan = scanType == ScanType.USER_SCAN;
@@ -228,6 +232,10 @@ public class ScanQueryMatcher {
 
     int ret = this.rowComparator.compareRows(row, 0, row.length,
         bytes, offset, rowLength);
+    if (isReversed) {
+      // The next row to read is before the current one.
+      ret = -ret;
+    }
     if (ret <= -1) {
       return MatchCode.DONE;
     } else if (ret >= 1) {
@@ -366,10 +374,13 @@ public class ScanQueryMatcher {
   }
 
   public boolean moreRowsMayExistAfter(KeyValue kv) {
-    if (!Bytes.equals(stopRow , HConstants.EMPTY_END_ROW) &&
-        rowComparator.compareRows(kv.getBuffer(),kv.getRowOffset(),
-            kv.getRowLength(), stopRow, 0, stopRow.length) >= 0) {
-      // KV >= STOPROW
+    if (Bytes.equals(stopRow , HConstants.EMPTY_END_ROW)) {
+      return true;
+    }
+    int ret = rowComparator.compareRows(kv.getBuffer(),kv.getRowOffset(),
+        kv.getRowLength(), stopRow, 0, stopRow.length);
+    if (isReversed ? ret <= 0 : ret >= 0) {
+      // KV >= STOPROW, or KV <= STOPROW for a reversed scan
       // then NO there is nothing left.
       return false;
     } else {
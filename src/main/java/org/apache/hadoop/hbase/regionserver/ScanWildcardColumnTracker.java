@@ -33,9 +33,9 @@ import org.apache.hadoop.hbase.util.Bytes;
  */
 @InterfaceAudience.Private
 public class ScanWildcardColumnTracker implements ColumnTracker {
+  // Copy of the current column, as the KeyValue it came from may be reused
   private byte [] columnBuffer = null;
-  private int columnOffset = 0;
-  private int columnLength = 0;
+  private int columnLength = -1;
   private int currentCount = 0;
   private int maxVersions;
   private int minVersions;
@@ -70,7 +70,7 @@ public class ScanWildcardColumnTracker implements ColumnTracker {
   public MatchCode checkColumn(byte[] bytes, int offset, int length,
       long timestamp, byte type, boolean ignoreCount) throws IOException {
     
-    if (columnBuffer == null) {
+    if (columnLength < 0) {
       // first iteration.
       resetBuffer(bytes, offset, length);
       if (ignoreCount) return ScanQueryMatcher.MatchCode.INCLUDE;
@@ -78,7 +78,7 @@ public class ScanWildcardColumnTracker implements ColumnTracker {
       return checkVersion(type, timestamp);
     }
     int cmp = Bytes.compareTo(bytes, offset, length,
-        columnBuffer, columnOffset, columnLength);
+        columnBuffer, 0, columnLength);
     if (cmp == 0) {
       if (ignoreCount) return ScanQueryMatcher.MatchCode.INCLUDE;
 
@@ -110,8 +110,10 @@ public class ScanWildcardColumnTracker implements ColumnTracker {
   }
 
   private void resetBuffer(byte[] bytes, int offset, int length) {
-    columnBuffer = bytes;
-    columnOffset = offset;
+    if (columnBuffer == null || columnBuffer.length < length) {
+      columnBuffer = new byte[Math.max(length, 16)];
+    }
+    System.arraycopy(bytes, offset, columnBuffer, 0, length);
     columnLength = length;
     currentCount = 0;
   }
@@ -151,7 +153,7 @@ public class ScanWildcardColumnTracker implements ColumnTracker {
 
   @Override
   public void reset() {
-    columnBuffer = null;
+    columnLength = -1;
     resetTSAndType();
   }
 
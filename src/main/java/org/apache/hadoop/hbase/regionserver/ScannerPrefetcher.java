@@ -0,0 +1,261 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * Fills the next batch of a client scanner in the background while the
+ * client is busy with the batch it was just sent, so that its next call to
+ * {@link HRegionServer#next(long, int)} can return at once.<p>
+ *
+ * At most one batch is prefetched per scanner, of the size the client asked
+ * for last. Prefetching stops while the prefetched batches not yet taken
+ * hold more than {@link #MAX_MEMORY_KEY} bytes. A prefetched batch is
+ * dropped when its scanner is closed or its lease expires; the lease keeps
+ * running while the batch is filled.
+ */
+@InterfaceAudience.Private
+public class ScannerPrefetcher {
+  /** Configuration key enabling scanner prefetch */
+  public static final String PREFETCH_KEY = "hbase.regionserver.scan.prefetch";
+
+  /** Configuration key for the memory prefetched batches may hold, in bytes */
+  public static final String MAX_MEMORY_KEY =
+      "hbase.regionserver.scan.prefetch.maxmemory";
+
+  /** Configuration key for the number of threads filling batches */
+  public static final String THREADS_KEY =
+      "hbase.regionserver.scan.prefetch.threads";
+
+  static final long DEFAULT_MAX_MEMORY = 64 * 1024 * 1024;
+  static final int DEFAULT_THREADS = 10;
+
+  /**
+   * The rows of one call to next on a scanner.
+   */
+  static class Batch {
+    /** The rows, or null if the scanner's filter says the scan is over */
+    final Result[] results;
+    /** Whether the scanner may have rows after these */
+    final boolean moreRows;
+    final long heapSize;
+
+    Batch(Result[] results, boolean moreRows) {
+      this.results = results;
+      this.moreRows = moreRows;
+      this.heapSize = heapSize(results);
+    }
+
+    private static long heapSize(Result[] results) {
+      long size = 0;
+      if (results != null) {
+        for (Result r : results) {
+          for (KeyValue kv : r.raw()) {
+            size += kv.heapSize();
+          }
+        }
+      }
+      return size;
+    }
+  }
+
+  /**
+   * A batch being filled, or filled and waiting to be taken.
+   */
+  private class Prefetch implements Runnable {
+    private final Callable<Batch> scan;
+    private Batch batch = null;
+    private Throwable error = null;
+    private boolean done = false;
+    private boolean cancelled = false;
+
+    Prefetch(Callable<Batch> scan) {
+      this.scan = scan;
+    }
+
+    Prefetch(Batch batch) {
+      this.scan = null;
+      this.batch = batch;
+      this.done = true;
+      usedMemory.addAndGet(batch.heapSize);
+    }
+
+    @Override
+    public void run() {
+      Batch b = null;
+      Throwable t = null;
+      try {
+        b = scan.call();
+      } catch (Throwable e) {
+        t = e;
+      }
+      synchronized (this) {
+        this.batch = b;
+        this.error = t;
+        this.done = true;
+        if (b != null && !cancelled) {
+          usedMemory.addAndGet(b.heapSize);
+        }
+        notifyAll();
+      }
+    }
+
+    synchronized Batch get() throws IOException, InterruptedException {
+      while (!done) {
+        wait();
+      }
+      if (error != null) {
+        if (error instanceof IOException) throw (IOException)error;
+        if (error instanceof RuntimeException) throw (RuntimeException)error;
+        throw new IOException(error);
+      }
+      usedMemory.addAndGet(-batch.heapSize);
+      return batch;
+    }
+
+    synchronized void cancel() {
+      if (done && batch != null && !cancelled) {
+        usedMemory.addAndGet(-batch.heapSize);
+      }
+      cancelled = true;
+    }
+  }
+
+  private final long maxMemory;
+  private final ThreadPoolExecutor pool;
+  private final Map<String, Prefetch> pending =
+      new ConcurrentHashMap<String, Prefetch>();
+  private final AtomicLong usedMemory = new AtomicLong(0);
+  private volatile boolean stopped = false;
+
+  /**
+   * @return whether scanner prefetch is configured
+   */
+  public static boolean isEnabled(Configuration conf) {
+    return conf.getBoolean(PREFETCH_KEY, false);
+  }
+
+  public ScannerPrefetcher(Configuration conf) {
+    this.maxMemory = conf.getLong(MAX_MEMORY_KEY, DEFAULT_MAX_MEMORY);
+    int threads = Math.max(1, conf.getInt(THREADS_KEY, DEFAULT_THREADS));
+    final String n = Thread.currentThread().getName();
+    this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setName(n + "-scannerPrefetcher-" + System.currentTimeMillis());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    this.pool.allowCoreThreadTimeOut(true);
+  }
+
+  public void shutdown() {
+    stopped = true;
+    pool.shutdownNow();
+  }
+
+  /**
+   * Start filling the next batch of a scanner, unless one is already pending
+   * for it or the prefetched batches hold too much memory.
+   * @param scannerName name of the scanner
+   * @param scan fills the batch; run by a prefetch thread
+   * @return whether the prefetch was started
+   */
+  boolean prefetch(String scannerName, Callable<Batch> scan) {
+    if (stopped || usedMemory.get() >= maxMemory ||
+        pending.containsKey(scannerName)) {
+      return false;
+    }
+    Prefetch p = new Prefetch(scan);
+    pending.put(scannerName, p);
+    try {
+      pool.execute(p);
+    } catch (RejectedExecutionException e) {
+      // Shutting down
+      pending.remove(scannerName);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Take the prefetched batch of a scanner, waiting for it to be filled if
+   * needed. Rows beyond <code>nbRows</code> are kept for the next call.
+   * @return the batch, or null if there is none for the scanner
+   * @throws IOException if filling the batch failed
+   */
+  Batch take(String scannerName, int nbRows) throws IOException {
+    Prefetch p = pending.remove(scannerName);
+    if (p == null) {
+      return null;
+    }
+    Batch batch;
+    try {
+      batch = p.get();
+    } catch (InterruptedException e) {
+      p.cancel();
+      throw new InterruptedIOException("Interrupted waiting for prefetch of " +
+          scannerName);
+    }
+    if (batch.results == null || batch.results.length <= nbRows) {
+      return batch;
+    }
+    // The client asked for fewer rows than last time.
+    pending.put(scannerName, new Prefetch(new Batch(Arrays.copyOfRange(
+        batch.results, nbRows, batch.results.length), batch.moreRows)));
+    return new Batch(Arrays.copyOf(batch.results, nbRows), true);
+  }
+
+  /**
+   * Drop the batch of a scanner that is being closed. A batch still being
+   * filled is dropped once done.
+   */
+  void cancel(String scannerName) {
+    Prefetch p = pending.remove(scannerName);
+    if (p != null) {
+      p.cancel();
+    }
+  }
+
+  /** @return bytes held by prefetched batches not yet taken */
+  long getUsedMemory() {
+    return usedMemory.get();
+  }
+}
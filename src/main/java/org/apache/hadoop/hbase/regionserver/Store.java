@@ -34,7 +34,9 @@ import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -57,6 +59,7 @@ import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.Compression;
 import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileBlockIndex;
 import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoder;
 import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoderImpl;
 import org.apache.hadoop.hbase.io.hfile.HFileScanner;
@@ -67,6 +70,7 @@ import org.apache.hadoop.hbase.regionserver.StoreScanner.ScanType;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactSelection;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionProgress;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputController;
 import org.apache.hadoop.hbase.regionserver.metrics.SchemaConfigured;
 import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -75,11 +79,10 @@ import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.hadoop.hbase.util.CollectionBackedScanner;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.util.StringUtils;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
@@ -118,11 +121,11 @@ public class Store extends SchemaConfigured implements HeapSize {
   final Configuration conf;
   final CacheConfig cacheConf;
   // ttl in milliseconds.
-  private long ttl;
-  private final int minFilesToCompact;
-  private final int maxFilesToCompact;
-  private final long minCompactSize;
-  private final long maxCompactSize;
+  long ttl;
+  final int minFilesToCompact;
+  final int maxFilesToCompact;
+  final long minCompactSize;
+  final long maxCompactSize;
   private long lastCompactSize = 0;
   volatile boolean forceMajor = false;
   /* how many bytes to write between status checks */
@@ -135,7 +138,17 @@ public class Store extends SchemaConfigured implements HeapSize {
   private final String storeNameStr;
   private CompactionProgress progress;
   private final int compactionKVMax;
+  private final int parallelCompactionThreads;
+  private final long parallelCompactionMinSize;
   private final boolean verifyBulkLoads;
+  private final CompactionPolicy compactionPolicy;
+  /** Key ranges the store files are split into, or null if not striped */
+  final StoreStripes stripes;
+  /**
+   * Sequence id of the last flush of this store; the edits in its memstore
+   * all come after it. Maintained by the region.
+   */
+  volatile long flushedSequenceId = -1L;
 
   // not private for testing
   /* package */ScanInfo scanInfo;
@@ -224,6 +237,7 @@ public class Store extends SchemaConfigured implements HeapSize {
         family.getMaxVersions(), ttl, family.getKeepDeletedCells(),
         timeToPurgeDeletes, this.comparator);
     this.memstore = new MemStore(conf, this.comparator);
+    MemStoreCompactor.configure(conf, this, this.memstore);
     this.storeNameStr = getColumnFamilyName();
 
     // By default, compact if storefile.count >= minFilesToCompact
@@ -242,6 +256,11 @@ public class Store extends SchemaConfigured implements HeapSize {
     this.maxCompactSize
       = conf.getLong("hbase.hstore.compaction.max.size", Long.MAX_VALUE);
     this.compactionKVMax = conf.getInt("hbase.hstore.compaction.kv.max", 10);
+    this.parallelCompactionThreads =
+      conf.getInt("hbase.hstore.compaction.parallel.threads", 1);
+    this.parallelCompactionMinSize =
+      conf.getLong("hbase.hstore.compaction.parallel.min.size",
+          1024 * 1024 * 1024L /* 1 GB */);
 
     this.verifyBulkLoads = conf.getBoolean("hbase.hstore.bulkload.verify",
         false);
@@ -256,6 +275,9 @@ public class Store extends SchemaConfigured implements HeapSize {
     this.checksumType = getChecksumType(conf);
     // initilize bytes per checksum
     this.bytesPerChecksum = getBytesPerChecksum(conf);
+
+    this.stripes = StoreStripes.create(family, info);
+    this.compactionPolicy = CompactionPolicy.create(this, conf);
   }
 
   /**
@@ -650,22 +672,26 @@ public class Store extends SchemaConfigured implements HeapSize {
    * previously.
    * @param logCacheFlushId flush sequence number
    * @param snapshot
+   * @param snapshotSegments Segments of the snapshot frozen by in-memory
+   * compaction, flushed along with <code>snapshot</code>
    * @param snapshotTimeRangeTracker
    * @param flushedSize The number of bytes flushed
    * @param status
-   * @return Path The path name of the tmp file to which the store was flushed
+   * @return The path names of the tmp files to which the store was flushed,
+   * one per stripe of a striped store
    * @throws IOException
    */
-  private Path flushCache(final long logCacheFlushId,
+  private List<Path> flushCache(final long logCacheFlushId,
       SortedSet<KeyValue> snapshot,
+      List<SortedSet<KeyValue>> snapshotSegments,
       TimeRangeTracker snapshotTimeRangeTracker,
       AtomicLong flushedSize,
       MonitoredTask status) throws IOException {
     // If an exception happens flushing, we let it out without clearing
     // the memstore snapshot.  The old snapshot will be returned when we say
     // 'snapshot', the next time flush comes around.
-    return internalFlushCache(
-        snapshot, logCacheFlushId, snapshotTimeRangeTracker, flushedSize, status);
+    return internalFlushCache(snapshot, snapshotSegments, logCacheFlushId,
+        snapshotTimeRangeTracker, flushedSize, status);
   }
 
   /*
@@ -673,10 +699,11 @@ public class Store extends SchemaConfigured implements HeapSize {
    * @param logCacheFlushId
    * @param snapshotTimeRangeTracker
    * @param flushedSize The number of bytes flushed
-   * @return Path The path name of the tmp file to which the store was flushed
+   * @return The path names of the tmp files to which the store was flushed
    * @throws IOException
    */
-  private Path internalFlushCache(final SortedSet<KeyValue> set,
+  private List<Path> internalFlushCache(final SortedSet<KeyValue> set,
+      final List<SortedSet<KeyValue>> segments,
       final long logCacheFlushId,
       TimeRangeTracker snapshotTimeRangeTracker,
       AtomicLong flushedSize,
@@ -686,18 +713,26 @@ public class Store extends SchemaConfigured implements HeapSize {
     // Find the smallest read point across all the Scanners.
     long smallestReadPoint = region.getSmallestReadPoint();
     long flushed = 0;
-    Path pathName;
+    List<Path> pathNames = new ArrayList<Path>(1);
     // Don't flush if there are no entries.
-    if (set.size() == 0) {
-      return null;
+    int entries = set.size();
+    List<KeyValueScanner> memstoreScanners =
+      new ArrayList<KeyValueScanner>(segments.size() + 1);
+    memstoreScanners.add(new CollectionBackedScanner(set, this.comparator));
+    for (SortedSet<KeyValue> segment : segments) {
+      entries += segment.size();
+      memstoreScanners.add(
+          new CollectionBackedScanner(segment, this.comparator));
+    }
+    if (entries == 0) {
+      return pathNames;
     }
     Scan scan = new Scan();
     scan.setMaxVersions(scanInfo.getMaxVersions());
     // Use a store scanner to find which rows to flush.
     // Note that we need to retain deletes, hence
     // treat this as a minor compaction.
-    InternalScanner scanner = new StoreScanner(this, scan, Collections
-        .singletonList(new CollectionBackedScanner(set, this.comparator)),
+    InternalScanner scanner = new StoreScanner(this, scan, memstoreScanners,
         ScanType.MINOR_COMPACT, this.region.getSmallestReadPoint(),
         HConstants.OLDEST_TIMESTAMP);
     try {
@@ -707,16 +742,30 @@ public class Store extends SchemaConfigured implements HeapSize {
       synchronized (flushLock) {
         status.setStatus("Flushing " + this + ": creating writer");
         // A. Write the map out to the disk
-        writer = createWriterInTmp(set.size());
+        writer = createWriterInTmp(entries);
         writer.setTimeRangeTracker(snapshotTimeRangeTracker);
-        pathName = writer.getPath();
+        pathNames.add(writer.getPath());
         try {
           List<KeyValue> kvs = new ArrayList<KeyValue>();
+          int stripe = -1;
           boolean hasMore;
           do {
             hasMore = scanner.next(kvs);
             if (!kvs.isEmpty()) {
               for (KeyValue kv : kvs) {
+                if (this.stripes != null) {
+                  // Each stripe of a striped store gets its own file
+                  int kvStripe = this.stripes.getStripe(kv.getBuffer(),
+                      kv.getRowOffset(), kv.getRowLength());
+                  if (stripe != -1 && kvStripe != stripe) {
+                    writer.appendMetadata(logCacheFlushId, false);
+                    writer.close();
+                    writer = createWriterInTmp(entries);
+                    writer.setTimeRangeTracker(snapshotTimeRangeTracker);
+                    pathNames.add(writer.getPath());
+                  }
+                  stripe = kvStripe;
+                }
                 // If we know that this KV is going to be included always, then let us
                 // set its memstoreTS to 0. This will help us save space when writing to disk.
                 if (kv.getMemstoreTS() <= smallestReadPoint) {
@@ -748,9 +797,10 @@ public class Store extends SchemaConfigured implements HeapSize {
       LOG.info("Flushed " + 
                ", sequenceid=" + logCacheFlushId +
                ", memsize=" + StringUtils.humanReadableInt(flushed) +
-               ", into tmp file " + pathName);
+               ", into tmp file" + (pathNames.size() > 1 ? "s " : " ") +
+               pathNames);
     }
-    return pathName;
+    return pathNames;
   }
 
   /*
@@ -784,14 +834,6 @@ public class Store extends SchemaConfigured implements HeapSize {
     StoreFile.Reader r = sf.createReader();
     this.storeSize += r.length();
     this.totalUncompressedBytes += r.getTotalUncompressedBytes();
-
-    // This increments the metrics associated with total flushed bytes for this
-    // family. The overall flush count is stored in the static metrics and
-    // retrieved from HRegion.recentFlushes, which is set within
-    // HRegion.internalFlushcache, which indirectly calls this to actually do
-    // the flushing through the StoreFlusherImpl class
-    getSchemaMetrics().updatePersistentStoreMetric(
-        SchemaMetrics.StoreMetricType.FLUSH_SIZE, flushedSize.longValue());
     if (LOG.isInfoEnabled()) {
       LOG.info("Added " + sf + ", entries=" + r.getEntries() +
         ", sequenceid=" + logCacheFlushId +
@@ -845,19 +887,19 @@ public class Store extends SchemaConfigured implements HeapSize {
   }
 
   /*
-   * Change storefiles adding into place the Reader produced by this new flush.
-   * @param sf
-   * @param set That was used to make the passed file <code>p</code>.
+   * Change storefiles adding into place the Readers produced by this new flush.
+   * @param sfs
+   * @param set That was used to make the passed files.
    * @throws IOException
    * @return Whether compaction is required.
    */
-  private boolean updateStorefiles(final StoreFile sf,
+  private boolean updateStorefiles(final List<StoreFile> sfs,
                                    final SortedSet<KeyValue> set)
   throws IOException {
     this.lock.writeLock().lock();
     try {
       ArrayList<StoreFile> newList = new ArrayList<StoreFile>(storefiles);
-      newList.add(sf);
+      newList.addAll(sfs);
       storefiles = sortAndClone(newList);
 
       this.memstore.clearSnapshot(set);
@@ -984,15 +1026,13 @@ public class Store extends SchemaConfigured implements HeapSize {
         + " into tmpdir=" + region.getTmpDir() + ", seqid=" + maxId + ", totalSize="
         + StringUtils.humanReadableInt(cr.getSize()));
 
-    StoreFile sf = null;
+    List<StoreFile> sfs = null;
     try {
-      StoreFile.Writer writer = compactStore(filesToCompact, cr.isMajor(),
-          maxId);
+      List<StoreFile.Writer> writers = compactStore(filesToCompact,
+          cr.isMajor(), maxId, cr.getThroughputController());
       // Move the compaction into place.
-      sf = completeCompaction(filesToCompact, writer);
-      if (region.getCoprocessorHost() != null) {
-        region.getCoprocessorHost().postCompact(this, sf);
-      }
+      sfs = completeCompaction(filesToCompact, writers);
+      postCompact(sfs);
     } finally {
       synchronized (filesCompacting) {
         filesCompacting.removeAll(filesToCompact);
@@ -1002,14 +1042,40 @@ public class Store extends SchemaConfigured implements HeapSize {
     LOG.info("Completed" + (cr.isMajor() ? " major " : " ") + "compaction of "
         + filesToCompact.size() + " file(s) in " + this.storeNameStr + " of "
         + this.region.getRegionInfo().getRegionNameAsString()
-        + " into " +
-        (sf == null ? "none" : sf.getPath().getName()) +
-        ", size=" + (sf == null ? "none" :
-          StringUtils.humanReadableInt(sf.getReader().length()))
+        + " into " + getCompactedFilesSummary(sfs)
         + "; total size for store is "
         + StringUtils.humanReadableInt(storeSize));
   }
 
+  private void postCompact(List<StoreFile> sfs) {
+    if (region.getCoprocessorHost() == null) {
+      return;
+    }
+    if (sfs.isEmpty()) {
+      region.getCoprocessorHost().postCompact(this, null);
+    }
+    for (StoreFile sf : sfs) {
+      region.getCoprocessorHost().postCompact(this, sf);
+    }
+  }
+
+  private static String getCompactedFilesSummary(List<StoreFile> sfs) {
+    if (sfs == null || sfs.isEmpty()) {
+      return "none";
+    }
+    StringBuilder sb = new StringBuilder();
+    long size = 0;
+    for (StoreFile sf : sfs) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(sf.getPath().getName());
+      size += sf.getReader().length();
+    }
+    return sb.append(", size=").append(StringUtils.humanReadableInt(size))
+        .toString();
+  }
+
   /**
    * Compact the most recent N files. Used in testing.
    */
@@ -1047,12 +1113,10 @@ public class Store extends SchemaConfigured implements HeapSize {
 
     try {
       // Ready to go. Have list of files to compact.
-      StoreFile.Writer writer = compactStore(filesToCompact, isMajor, maxId);
+      List<StoreFile.Writer> writers =
+        compactStore(filesToCompact, isMajor, maxId);
       // Move the compaction into place.
-      StoreFile sf = completeCompaction(filesToCompact, writer);
-      if (region.getCoprocessorHost() != null) {
-        region.getCoprocessorHost().postCompact(this, sf);
-      }
+      postCompact(completeCompaction(filesToCompact, writers));
     } finally {
       synchronized (filesCompacting) {
         filesCompacting.removeAll(filesToCompact);
@@ -1068,7 +1132,7 @@ public class Store extends SchemaConfigured implements HeapSize {
    * @param files
    * @return True if any of the files in <code>files</code> are References.
    */
-  private boolean hasReferences(Collection<StoreFile> files) {
+  boolean hasReferences(Collection<StoreFile> files) {
     if (files != null && files.size() > 0) {
       for (StoreFile hsf: files) {
         if (hsf.isReference()) {
@@ -1130,7 +1194,7 @@ public class Store extends SchemaConfigured implements HeapSize {
    * @param filesToCompact Files to compact. Can be null.
    * @return True if we should run a major compaction.
    */
-  private boolean isMajorCompaction(final List<StoreFile> filesToCompact) throws IOException {
+  boolean isMajorCompaction(final List<StoreFile> filesToCompact) throws IOException {
     boolean result = false;
     long mcTime = getNextMajorCompactTime();
     if (filesToCompact == null || filesToCompact.isEmpty() || mcTime == 0) {
@@ -1141,18 +1205,22 @@ public class Store extends SchemaConfigured implements HeapSize {
     long now = System.currentTimeMillis();
     if (lowTimestamp > 0l && lowTimestamp < (now - mcTime)) {
       // Major compaction time has elapsed.
-      if (filesToCompact.size() == 1) {
-        // Single file
-        StoreFile sf = filesToCompact.get(0);
-        long oldest =
-            (sf.getReader().timeRangeTracker == null) ?
-                Long.MIN_VALUE :
-                now - sf.getReader().timeRangeTracker.minimumTimestamp;
-        if (sf.isMajorCompaction() &&
+      if (StoreFile.getCompactionRunStarts(filesToCompact).length == 2) {
+        // Single file, or the files of a single parallel major compaction
+        boolean majorCompacted = true;
+        long oldest = Long.MIN_VALUE;
+        for (StoreFile sf : filesToCompact) {
+          majorCompacted &= sf.isMajorCompaction();
+          if (sf.getReader().timeRangeTracker != null) {
+            oldest = Math.max(oldest,
+                now - sf.getReader().timeRangeTracker.minimumTimestamp);
+          }
+        }
+        if (majorCompacted &&
             (this.ttl == HConstants.FOREVER || oldest < this.ttl)) {
           if (LOG.isDebugEnabled()) {
             LOG.debug("Skipping major compaction of " + this.storeNameStr +
-                " because one (major) compacted file only and oldestTime " +
+                " because one (major) compaction run only and oldestTime " +
                 oldest + "ms is < ttl=" + this.ttl);
           }
         } else if (this.ttl != HConstants.FOREVER && oldest > this.ttl) {
@@ -1282,19 +1350,7 @@ public class Store extends SchemaConfigured implements HeapSize {
   }
 
   /**
-   * Algorithm to choose which files to compact
-   *
-   * Configuration knobs:
-   *  "hbase.hstore.compaction.ratio"
-   *    normal case: minor compact when file <= sum(smaller_files) * ratio
-   *  "hbase.hstore.compaction.min.size"
-   *    unconditionally compact individual files below this size
-   *  "hbase.hstore.compaction.max.size"
-   *    never compact individual files above this size (unless splitting)
-   *  "hbase.hstore.compaction.min"
-   *    min files needed to minor compact
-   *  "hbase.hstore.compaction.max"
-   *    max files to compact at once (avoids OOM)
+   * Choose which files to compact, using the store's {@link CompactionPolicy}.
    *
    * @param candidates candidate files, ordered from oldest to newest
    * @return subset copy of candidate list that meets compaction criteria
@@ -1303,139 +1359,8 @@ public class Store extends SchemaConfigured implements HeapSize {
   CompactSelection compactSelection(List<StoreFile> candidates)
       throws IOException {
     // ASSUMPTION!!! filesCompacting is locked when calling this function
-
-    /* normal skew:
-     *
-     *         older ----> newer
-     *     _
-     *    | |   _
-     *    | |  | |   _
-     *  --|-|- |-|- |-|---_-------_-------  minCompactSize
-     *    | |  | |  | |  | |  _  | |
-     *    | |  | |  | |  | | | | | |
-     *    | |  | |  | |  | | | | | |
-     */
-    CompactSelection compactSelection = new CompactSelection(conf, candidates);
-
-    boolean forcemajor = this.forceMajor && filesCompacting.isEmpty();
-    if (!forcemajor) {
-      // Delete the expired store files before the compaction selection.
-      if (conf.getBoolean("hbase.store.delete.expired.storefile", false)
-          && (ttl != Long.MAX_VALUE) && (this.scanInfo.minVersions == 0)) {
-        CompactSelection expiredSelection = compactSelection
-            .selectExpiredStoreFilesToCompact(
-                EnvironmentEdgeManager.currentTimeMillis() - this.ttl);
-
-        // If there is any expired store files, delete them  by compaction.
-        if (expiredSelection != null) {
-          return expiredSelection;
-        }
-      }
-      // do not compact old files above a configurable threshold
-      // save all references. we MUST compact them
-      int pos = 0;
-      while (pos < compactSelection.getFilesToCompact().size() &&
-             compactSelection.getFilesToCompact().get(pos).getReader().length()
-               > maxCompactSize &&
-             !compactSelection.getFilesToCompact().get(pos).isReference()) ++pos;
-      compactSelection.clearSubList(0, pos);
-    }
-
-    if (compactSelection.getFilesToCompact().isEmpty()) {
-      LOG.debug(this.getHRegionInfo().getEncodedName() + " - " +
-        this.storeNameStr + ": no store files to compact");
-      compactSelection.emptyFileList();
-      return compactSelection;
-    }
-
-    // major compact on user action or age (caveat: we have too many files)
-    boolean majorcompaction =
-      (forcemajor || isMajorCompaction(compactSelection.getFilesToCompact()))
-      && compactSelection.getFilesToCompact().size() < this.maxFilesToCompact;
-
-    if (!majorcompaction &&
-        !hasReferences(compactSelection.getFilesToCompact())) {
-      // we're doing a minor compaction, let's see what files are applicable
-      int start = 0;
-      double r = compactSelection.getCompactSelectionRatio();
-
-      // skip selection algorithm if we don't have enough files
-      if (compactSelection.getFilesToCompact().size() < this.minFilesToCompact) {
-        compactSelection.emptyFileList();
-        return compactSelection;
-      }
-
-      // remove bulk import files that request to be excluded from minors
-      compactSelection.getFilesToCompact().removeAll(Collections2.filter(
-          compactSelection.getFilesToCompact(),
-          new Predicate<StoreFile>() {
-            public boolean apply(StoreFile input) {
-              return input.excludeFromMinorCompaction();
-            }
-          }));
-
-      /* TODO: add sorting + unit test back in when HBASE-2856 is fixed
-      // Sort files by size to correct when normal skew is altered by bulk load.
-      Collections.sort(filesToCompact, StoreFile.Comparators.FILE_SIZE);
-       */
-
-      // get store file sizes for incremental compacting selection.
-      int countOfFiles = compactSelection.getFilesToCompact().size();
-      long [] fileSizes = new long[countOfFiles];
-      long [] sumSize = new long[countOfFiles];
-      for (int i = countOfFiles-1; i >= 0; --i) {
-        StoreFile file = compactSelection.getFilesToCompact().get(i);
-        fileSizes[i] = file.getReader().length();
-        // calculate the sum of fileSizes[i,i+maxFilesToCompact-1) for algo
-        int tooFar = i + this.maxFilesToCompact - 1;
-        sumSize[i] = fileSizes[i]
-                   + ((i+1    < countOfFiles) ? sumSize[i+1]      : 0)
-                   - ((tooFar < countOfFiles) ? fileSizes[tooFar] : 0);
-      }
-
-      /* Start at the oldest file and stop when you find the first file that
-       * meets compaction criteria:
-       *   (1) a recently-flushed, small file (i.e. <= minCompactSize)
-       *      OR
-       *   (2) within the compactRatio of sum(newer_files)
-       * Given normal skew, any newer files will also meet this criteria
-       *
-       * Additional Note:
-       * If fileSizes.size() >> maxFilesToCompact, we will recurse on
-       * compact().  Consider the oldest files first to avoid a
-       * situation where we always compact [end-threshold,end).  Then, the
-       * last file becomes an aggregate of the previous compactions.
-       */
-      while(countOfFiles - start >= this.minFilesToCompact &&
-            fileSizes[start] >
-              Math.max(minCompactSize, (long)(sumSize[start+1] * r))) {
-        ++start;
-      }
-      int end = Math.min(countOfFiles, start + this.maxFilesToCompact);
-      long totalSize = fileSizes[start]
-                     + ((start+1 < countOfFiles) ? sumSize[start+1] : 0);
-      compactSelection = compactSelection.getSubList(start, end);
-
-      // if we don't have enough files to compact, just wait
-      if (compactSelection.getFilesToCompact().size() < this.minFilesToCompact) {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Skipped compaction of " + this.storeNameStr
-            + ".  Only " + (end - start) + " file(s) of size "
-            + StringUtils.humanReadableInt(totalSize)
-            + " have met compaction criteria.");
-        }
-        compactSelection.emptyFileList();
-        return compactSelection;
-      }
-    } else {
-      // all files included in this compaction, up to max
-      if (compactSelection.getFilesToCompact().size() > this.maxFilesToCompact) {
-        int pastMax =
-          compactSelection.getFilesToCompact().size() - this.maxFilesToCompact;
-        compactSelection.clearSubList(0, pastMax);
-      }
-    }
-    return compactSelection;
+    return compactionPolicy.selectCompaction(candidates,
+        this.forceMajor && filesCompacting.isEmpty());
   }
 
   /**
@@ -1445,12 +1370,34 @@ public class Store extends SchemaConfigured implements HeapSize {
    * @param filesToCompact which files to compact
    * @param majorCompaction true to major compact (prune all deletes, max versions, etc)
    * @param maxId Readers maximum sequence id.
-   * @return Product of compaction or null if all cells expired or deleted and
-   * nothing made it through the compaction.
+   * @return Product of compaction, one file per stripe of a striped store,
+   * or an empty list if all cells expired or deleted and nothing made it
+   * through the compaction.
+   * @throws IOException
+   */
+  List<StoreFile.Writer> compactStore(
+      final Collection<StoreFile> filesToCompact,
+      final boolean majorCompaction, final long maxId) throws IOException {
+    return compactStore(filesToCompact, majorCompaction, maxId, null);
+  }
+
+  /**
+   * Do a minor/major compaction on an explicit set of storefiles in a Store,
+   * limiting the rate at which it writes.
+   *
+   * @param filesToCompact which files to compact
+   * @param majorCompaction true to major compact (prune all deletes, max versions, etc)
+   * @param maxId Readers maximum sequence id.
+   * @param throughputController limits the writes of the compaction, or null
+   * to write as fast as possible
+   * @return Product of compaction, as for
+   * {@link #compactStore(Collection, boolean, long)}
    * @throws IOException
    */
-  StoreFile.Writer compactStore(final Collection<StoreFile> filesToCompact,
-                               final boolean majorCompaction, final long maxId)
+  List<StoreFile.Writer> compactStore(
+      final Collection<StoreFile> filesToCompact,
+      final boolean majorCompaction, final long maxId,
+      final CompactionThroughputController throughputController)
       throws IOException {
     // calculate maximum key count after compaction (for blooms)
     int maxKeyCount = 0;
@@ -1489,20 +1436,182 @@ public class Store extends SchemaConfigured implements HeapSize {
     // keep track of compaction progress
     progress = new CompactionProgress(maxKeyCount);
 
+    // Find the smallest read point across all the Scanners.
+    long smallestReadPoint = region.getSmallestReadPoint();
+    List<byte[]> splitRows = majorCompaction ?
+        getParallelCompactionSplitRows(filesToCompact) :
+        Collections.<byte[]>emptyList();
+    if (splitRows.isEmpty()) {
+      return compactRange(filesToCompact, majorCompaction, maxId, maxKeyCount,
+          earliestPutTs, smallestReadPoint, HConstants.EMPTY_START_ROW,
+          HConstants.EMPTY_END_ROW, false, progress, throughputController);
+    }
+    return compactRangesInParallel(filesToCompact, majorCompaction, maxId,
+        maxKeyCount, earliestPutTs, smallestReadPoint, splitRows, progress,
+        throughputController);
+  }
+
+  /**
+   * Pick rows splitting the key range of a major compaction into up to
+   * <code>hbase.hstore.compaction.parallel.threads</code> sub-ranges of
+   * similar size. The rows are taken from the root level of the block index
+   * of the largest file, each entry of which covers a similar share of it.
+   *
+   * @param filesToCompact which files to compact
+   * @return the split rows in increasing order, or an empty list if the
+   * compaction should run on a single thread
+   */
+  List<byte[]> getParallelCompactionSplitRows(
+      final Collection<StoreFile> filesToCompact) {
+    List<byte[]> splitRows = new ArrayList<byte[]>();
+    if (this.parallelCompactionThreads <= 1) {
+      return splitRows;
+    }
+    long totalSize = 0;
+    StoreFile.Reader largest = null;
+    for (StoreFile file : filesToCompact) {
+      StoreFile.Reader r = file.getReader();
+      if (r == null) {
+        continue;
+      }
+      totalSize += r.length();
+      if (largest == null || r.length() > largest.length()) {
+        largest = r;
+      }
+    }
+    if (largest == null || totalSize < this.parallelCompactionMinSize) {
+      return splitRows;
+    }
+    HFileBlockIndex.BlockIndexReader index =
+      largest.getHFileReader().getDataBlockIndexReader();
+    int rootCount = index.getRootBlockCount();
+    int ranges = Math.min(this.parallelCompactionThreads, rootCount);
+    for (int i = 1; i < ranges; i++) {
+      byte[] row = KeyValue.createKeyValueFromKey(
+          index.getRootBlockKey(i * rootCount / ranges)).getRow();
+      if (splitRows.isEmpty() ||
+          Bytes.compareTo(row, splitRows.get(splitRows.size() - 1)) > 0) {
+        splitRows.add(row);
+      }
+    }
+    return splitRows;
+  }
+
+  /**
+   * Compact the sub-ranges between split rows on their own threads, each
+   * into its own files. Coprocessors see one compaction per sub-range.
+   * If a sub-range fails, the files of all are deleted so that the store
+   * keeps its current files.
+   *
+   * @return Product of compaction, in key order
+   * @throws IOException
+   */
+  private List<StoreFile.Writer> compactRangesInParallel(
+      final Collection<StoreFile> filesToCompact,
+      final boolean majorCompaction, final long maxId, final int maxKeyCount,
+      final long earliestPutTs, final long smallestReadPoint,
+      final List<byte[]> splitRows, final CompactionProgress progress,
+      final CompactionThroughputController throughputController)
+      throws IOException {
+    int ranges = splitRows.size() + 1;
+    LOG.info("Compacting " + this.storeNameStr + " in " + ranges +
+        " parallel sub-ranges");
+    final String threadNamePrefix = "StoreCompactorThread-" +
+      this.family.getNameAsString();
+    ThreadPoolExecutor compactorThreadPool = Threads.getBoundedCachedThreadPool(
+        ranges, 30L, TimeUnit.SECONDS, new ThreadFactory() {
+          private int count = 1;
+
+          public Thread newThread(Runnable r) {
+            return new Thread(r, threadNamePrefix + "-" + count++);
+          }
+        });
+    List<Future<List<StoreFile.Writer>>> futures =
+      new ArrayList<Future<List<StoreFile.Writer>>>(ranges);
+    for (int i = 0; i < ranges; i++) {
+      final byte[] startRow = i == 0 ?
+          HConstants.EMPTY_START_ROW : splitRows.get(i - 1);
+      final byte[] stopRow = i == ranges - 1 ?
+          HConstants.EMPTY_END_ROW : splitRows.get(i);
+      futures.add(compactorThreadPool.submit(
+          new Callable<List<StoreFile.Writer>>() {
+            public List<StoreFile.Writer> call() throws IOException {
+              return compactRange(filesToCompact, majorCompaction, maxId,
+                  maxKeyCount, earliestPutTs, smallestReadPoint, startRow,
+                  stopRow, true, progress, throughputController);
+            }
+          }));
+    }
+
+    // Wait on every sub-range, even after one failed, so that no thread is
+    // still writing when the files are cleaned up.
+    List<StoreFile.Writer> writers = new ArrayList<StoreFile.Writer>();
+    IOException failure = null;
+    try {
+      for (Future<List<StoreFile.Writer>> future : futures) {
+        try {
+          writers.addAll(future.get());
+        } catch (InterruptedException e) {
+          failure = new InterruptedIOException(
+              "Interrupted while compacting store " + this);
+          failure.initCause(e);
+          for (Future<List<StoreFile.Writer>> f : futures) {
+            f.cancel(true);
+          }
+          break;
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause() instanceof IOException ?
+                (IOException) e.getCause() : new IOException(e.getCause());
+          }
+        }
+      }
+    } finally {
+      compactorThreadPool.shutdownNow();
+    }
+    if (failure != null) {
+      for (StoreFile.Writer w : writers) {
+        fs.delete(w.getPath(), false);
+      }
+      throw failure;
+    }
+    return writers;
+  }
+
+  /**
+   * Compact the rows of the files between a start row, inclusive, and a
+   * stop row, exclusive.
+   *
+   * @param pread true to read the files with positional reads, so that
+   * sub-ranges compacted in parallel do not contend on the file streams
+   * @return Product of compaction, one file per stripe of a striped store,
+   * or an empty list if nothing made it through the compaction.
+   * @throws IOException
+   */
+  private List<StoreFile.Writer> compactRange(
+      final Collection<StoreFile> filesToCompact,
+      final boolean majorCompaction, final long maxId, final int maxKeyCount,
+      final long earliestPutTs, final long smallestReadPoint,
+      final byte[] startRow, final byte[] stopRow, final boolean pread,
+      final CompactionProgress progress,
+      final CompactionThroughputController throughputController)
+      throws IOException {
     // For each file, obtain a scanner:
     List<StoreFileScanner> scanners = StoreFileScanner
-      .getScannersForStoreFiles(filesToCompact, false, false, true);
+      .getScannersForStoreFiles(filesToCompact, false, pread, true);
 
     // Make the instantiation lazy in case compaction produces no product; i.e.
     // where all source cells are expired or deleted.
+    List<StoreFile.Writer> writers = new ArrayList<StoreFile.Writer>(1);
     StoreFile.Writer writer = null;
-    // Find the smallest read point across all the Scanners.
-    long smallestReadPoint = region.getSmallestReadPoint();
+    int stripe = -1;
     MultiVersionConsistencyControl.setThreadReadPoint(smallestReadPoint);
+    CompactionThroughputController.Operation throttle =
+      throughputController == null ? null : throughputController.start();
     try {
       InternalScanner scanner = null;
       try {
-        Scan scan = new Scan();
+        Scan scan = new Scan(startRow, stopRow);
         scan.setMaxVersions(family.getMaxVersions());
         /* include deletes, unless we are doing a major compaction */
         scanner = new StoreScanner(this, scan, scanners,
@@ -1513,7 +1622,7 @@ public class Store extends SchemaConfigured implements HeapSize {
               this, scanner);
           // NULL scanner returned from coprocessor hooks means skip normal processing
           if (cpScanner == null) {
-            return null;
+            return writers;
           }
 
           scanner = cpScanner;
@@ -1527,19 +1636,48 @@ public class Store extends SchemaConfigured implements HeapSize {
         boolean hasMore;
         do {
           hasMore = scanner.next(kvs, this.compactionKVMax);
+          // the scanner does not stop at the stop row by itself
+          if (stopRow.length > 0) {
+            for (int i = 0; i < kvs.size(); i++) {
+              KeyValue kv = kvs.get(i);
+              if (Bytes.compareTo(kv.getBuffer(), kv.getRowOffset(),
+                  kv.getRowLength(), stopRow, 0, stopRow.length) >= 0) {
+                kvs.subList(i, kvs.size()).clear();
+                hasMore = false;
+                break;
+              }
+            }
+          }
           if (writer == null && !kvs.isEmpty()) {
             writer = createWriterInTmp(maxKeyCount, this.compactionCompression,
                 true);
+            writers.add(writer);
           }
           if (writer != null) {
+            int compactedKVs = 0;
             // output to writer:
             for (KeyValue kv : kvs) {
+              if (this.stripes != null) {
+                // Each stripe of a striped store gets its own file
+                int kvStripe = this.stripes.getStripe(kv.getBuffer(),
+                    kv.getRowOffset(), kv.getRowLength());
+                if (stripe != -1 && kvStripe != stripe) {
+                  writer.appendMetadata(maxId, majorCompaction);
+                  writer.close();
+                  writer = createWriterInTmp(maxKeyCount,
+                      this.compactionCompression, true);
+                  writers.add(writer);
+                }
+                stripe = kvStripe;
+              }
               if (kv.getMemstoreTS() <= smallestReadPoint) {
                 kv.setMemstoreTS(0);
               }
               writer.append(kv);
-              // update progress per key
-              ++progress.currentCompactedKVs;
+              ++compactedKVs;
+              if (throttle != null) {
+                throttle.control(kv.getLength());
+              }
 
               // check periodically to see if a system stop is requested
               if (Store.closeCheckInterval > 0) {
@@ -1548,7 +1686,10 @@ public class Store extends SchemaConfigured implements HeapSize {
                   bytesWritten = 0;
                   if (!this.region.areWritesEnabled()) {
                     writer.close();
-                    fs.delete(writer.getPath(), false);
+                    writer = null;
+                    for (StoreFile.Writer w : writers) {
+                      fs.delete(w.getPath(), false);
+                    }
                     throw new InterruptedIOException(
                         "Aborting compaction of store " + this +
                         " in region " + this.region +
@@ -1557,6 +1698,10 @@ public class Store extends SchemaConfigured implements HeapSize {
                 }
               }
             }
+            // update progress per batch; sub-ranges may share it
+            synchronized (progress) {
+              progress.currentCompactedKVs += compactedKVs;
+            }
           }
           kvs.clear();
         } while (hasMore);
@@ -1566,12 +1711,15 @@ public class Store extends SchemaConfigured implements HeapSize {
         }
       }
     } finally {
+      if (throttle != null) {
+        throttle.finish();
+      }
       if (writer != null) {
         writer.appendMetadata(maxId, majorCompaction);
         writer.close();
       }
     }
-    return writer;
+    return writers;
   }
 
   /**
@@ -1615,18 +1763,24 @@ public class Store extends SchemaConfigured implements HeapSize {
    * </pre>
    *
    * @param compactedFiles list of files that were compacted
-   * @param compactedFile StoreFile that is the result of the compaction
-   * @return StoreFile created. May be null.
+   * @param compactedFileWriters StoreFiles that are the result of the
+   * compaction, one per stripe of a striped store
+   * @return StoreFiles created. May be empty.
    * @throws IOException
    */
-  StoreFile completeCompaction(final Collection<StoreFile> compactedFiles,
-                                       final StoreFile.Writer compactedFile)
-      throws IOException {
+  List<StoreFile> completeCompaction(
+      final Collection<StoreFile> compactedFiles,
+      final List<StoreFile.Writer> compactedFileWriters) throws IOException {
     // 1. Moving the new files into place -- if there is a new file (may not
     // be if all cells were expired or deleted).
-    StoreFile result = null;
-    if (compactedFile != null) {
+    List<StoreFile> results =
+      new ArrayList<StoreFile>(compactedFileWriters.size());
+    // Validate all files before moving any, so that a corrupt file leaves
+    // the store unchanged.
+    for (StoreFile.Writer compactedFile : compactedFileWriters) {
       validateStoreFile(compactedFile.getPath());
+    }
+    for (StoreFile.Writer compactedFile : compactedFileWriters) {
       // Move the file into the right spot
       Path origPath = compactedFile.getPath();
       Path destPath = new Path(homedir, origPath.getName());
@@ -1637,10 +1791,12 @@ public class Store extends SchemaConfigured implements HeapSize {
         throw new IOException("Failed move of compacted file " + origPath +
             " to " + destPath);
       }
-      result = new StoreFile(this.fs, destPath, this.conf, this.cacheConf,
-          this.family.getBloomFilterType(), this.dataBlockEncoder);
+      StoreFile result = new StoreFile(this.fs, destPath, this.conf,
+          this.cacheConf, this.family.getBloomFilterType(),
+          this.dataBlockEncoder);
       passSchemaMetricsTo(result);
       result.createReader();
+      results.add(result);
     }
     try {
       this.lock.writeLock().lock();
@@ -1653,10 +1809,8 @@ public class Store extends SchemaConfigured implements HeapSize {
         newStoreFiles.removeAll(compactedFiles);
         filesCompacting.removeAll(compactedFiles); // safe bc: lock.writeLock()
 
-        // If a StoreFile result, move it into place.  May be null.
-        if (result != null) {
-          newStoreFiles.add(result);
-        }
+        // If StoreFile results, move them into place.  May be empty.
+        newStoreFiles.addAll(results);
 
         this.storefiles = sortAndClone(newStoreFiles);
       } finally {
@@ -1677,7 +1831,7 @@ public class Store extends SchemaConfigured implements HeapSize {
     } catch (IOException e) {
       e = RemoteExceptionHandler.checkIOException(e);
       LOG.error("Failed replacing compacted files in " + this.storeNameStr +
-        ". Compacted file is " + (result == null? "none": result.toString()) +
+        ". Compacted files are " + (results.isEmpty() ? "none" : results) +
         ".  Files replaced " + compactedFiles.toString() +
         " some of which may have been already removed", e);
     }
@@ -1694,7 +1848,7 @@ public class Store extends SchemaConfigured implements HeapSize {
       this.storeSize += r.length();
       this.totalUncompressedBytes += r.getTotalUncompressedBytes();
     }
-    return result;
+    return results;
   }
 
   public ImmutableList<StoreFile> sortAndClone(List<StoreFile> storeFiles) {
@@ -1768,7 +1922,10 @@ public class Store extends SchemaConfigured implements HeapSize {
         // Update the candidate keys from the current map file
         rowAtOrBeforeFromStoreFile(sf, state);
       }
-      return state.getCandidate();
+      // The candidate may sit in a pooled memstore chunk that is refilled
+      // once the memstore is flushed, so hand out a copy.
+      KeyValue candidate = state.getCandidate();
+      return candidate == null ? null : candidate.deepCopy();
     } finally {
       this.lock.readLock().unlock();
     }
@@ -2017,6 +2174,33 @@ public class Store extends SchemaConfigured implements HeapSize {
     return this.storefiles.size();
   }
 
+  /**
+   * @return Count of store files weighed against the blocking store files
+   * limit: all files, or the files of the fullest stripe of a striped store
+   */
+  int getBlockingFilesCount() {
+    List<StoreFile> files = this.storefiles;
+    if (this.stripes == null) {
+      return files.size();
+    }
+    // a file spanning stripes is read along with the files of every stripe
+    int spanning = 0;
+    int[] filesPerStripe = new int[this.stripes.getStripeCount()];
+    for (StoreFile sf : files) {
+      int stripe = this.stripes.getStripe(sf);
+      if (stripe == StoreStripes.NO_STRIPE) {
+        spanning++;
+      } else {
+        filesPerStripe[stripe]++;
+      }
+    }
+    int max = 0;
+    for (int count : filesPerStripe) {
+      max = Math.max(max, count);
+    }
+    return max + spanning;
+  }
+
   /**
    * @return The size of the store files, in bytes, uncompressed.
    */
@@ -2098,7 +2282,20 @@ public class Store extends SchemaConfigured implements HeapSize {
    * @return The priority that this store should have in the compaction queue
    */
   public int getCompactPriority() {
-    return this.blockingStoreFileCount - this.storefiles.size();
+    return this.blockingStoreFileCount - getBlockingFilesCount();
+  }
+
+  /**
+   * @return How close this store is to block updates, from 0 when it has no
+   * more files than the minimum to compact, to 1 when it blocks updates
+   */
+  double getCompactionPressure() {
+    int files = getBlockingFilesCount();
+    if (files <= this.minFilesToCompact) {
+      return 0.0;
+    }
+    int range = Math.max(1, this.blockingStoreFileCount - this.minFilesToCompact);
+    return Math.min(1.0, (double) (files - this.minFilesToCompact) / range);
   }
 
   HRegion getHRegion() {
@@ -2174,8 +2371,7 @@ public class Store extends SchemaConfigured implements HeapSize {
 
     private long cacheFlushId;
     private SortedSet<KeyValue> snapshot;
-    private StoreFile storeFile;
-    private Path storeFilePath;
+    private List<Path> storeFilePaths;
     private TimeRangeTracker snapshotTimeRangeTracker;
     private AtomicLong flushedSize;
 
@@ -2193,20 +2389,34 @@ public class Store extends SchemaConfigured implements HeapSize {
 
     @Override
     public void flushCache(MonitoredTask status) throws IOException {
-      storeFilePath = Store.this.flushCache(
-        cacheFlushId, snapshot, snapshotTimeRangeTracker, flushedSize, status);
+      // Segments are read only now: a rollback replaces rather than changes
+      // a flattened segment, and all rollbacks are done by the time we flush.
+      storeFilePaths = Store.this.flushCache(
+        cacheFlushId, snapshot, memstore.getSnapshotSegments(),
+        snapshotTimeRangeTracker, flushedSize, status);
     }
 
     @Override
     public boolean commit(MonitoredTask status) throws IOException {
-      if (storeFilePath == null) {
+      if (storeFilePaths == null || storeFilePaths.isEmpty()) {
         return false;
       }
-      storeFile = Store.this.commitFile(storeFilePath, cacheFlushId,
-                               snapshotTimeRangeTracker, flushedSize, status);
-      // Add new file to store files.  Clear snapshot too while we have
+      List<StoreFile> storeFiles =
+        new ArrayList<StoreFile>(storeFilePaths.size());
+      for (Path storeFilePath : storeFilePaths) {
+        storeFiles.add(Store.this.commitFile(storeFilePath, cacheFlushId,
+            snapshotTimeRangeTracker, flushedSize, status));
+      }
+      // This increments the metrics associated with total flushed bytes for
+      // this family. The overall flush count is stored in the static metrics
+      // and retrieved from HRegion.recentFlushes, which is set within
+      // HRegion.internalFlushcache, which indirectly calls this to actually
+      // do the flushing through the StoreFlusherImpl class
+      getSchemaMetrics().updatePersistentStoreMetric(
+          SchemaMetrics.StoreMetricType.FLUSH_SIZE, flushedSize.longValue());
+      // Add new files to store files.  Clear snapshot too while we have
       // the Store write lock.
-      return Store.this.updateStorefiles(storeFile, snapshot);
+      return Store.this.updateStorefiles(storeFiles, snapshot);
     }
   }
 
@@ -2216,7 +2426,16 @@ public class Store extends SchemaConfigured implements HeapSize {
    *  the number defined in minFilesToCompact
    */
   public boolean needsCompaction() {
-    return (storefiles.size() - filesCompacting.size()) > minFilesToCompact;
+    if (this.stripes != null) {
+      return getBlockingFilesCount() > minFilesToCompact;
+    }
+    // the files of a compaction run count once
+    List<StoreFile> files = new ArrayList<StoreFile>(this.storefiles);
+    synchronized (filesCompacting) {
+      files.removeAll(filesCompacting);
+    }
+    int runs = StoreFile.getCompactionRunStarts(files).length - 1;
+    return runs > minFilesToCompact;
   }
 
   /**
@@ -2228,8 +2447,8 @@ public class Store extends SchemaConfigured implements HeapSize {
 
   public static final long FIXED_OVERHEAD = 
       ClassSize.align(SchemaConfigured.SCHEMA_CONFIGURED_UNALIGNED_HEAP_SIZE +
-          + (20 * ClassSize.REFERENCE) + (6 * Bytes.SIZEOF_LONG)
-          + (6 * Bytes.SIZEOF_INT) + Bytes.SIZEOF_BOOLEAN);
+          + (22 * ClassSize.REFERENCE) + (8 * Bytes.SIZEOF_LONG)
+          + (7 * Bytes.SIZEOF_INT) + Bytes.SIZEOF_BOOLEAN);
 
   public static final long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD
       + ClassSize.OBJECT + ClassSize.REENTRANT_LOCK
@@ -23,10 +23,12 @@ import java.io.DataInput;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.UUID;
@@ -50,6 +52,7 @@ import org.apache.hadoop.hbase.io.HalfStoreFileReader;
 import org.apache.hadoop.hbase.io.Reference;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.BlockPrefetcher;
 import org.apache.hadoop.hbase.io.hfile.BlockType;
 import org.apache.hadoop.hbase.io.hfile.Compression;
 import org.apache.hadoop.hbase.io.hfile.HFile;
@@ -408,6 +411,34 @@ public class StoreFile extends SchemaConfigured {
     return max;
   }
 
+  /**
+   * Find the compaction runs of a list of store files. The files written by
+   * a single compaction, such as the sub-ranges of a parallel major
+   * compaction, cover disjoint key ranges and share its max sequence id, so
+   * compaction selection weighs each run like a single file. Bulk loaded
+   * files each make a run of their own.
+   * @param sfs store files ordered by sequence id
+   * @return the index in <code>sfs</code> of the first file of each run,
+   * followed by the number of files
+   */
+  static int[] getCompactionRunStarts(List<StoreFile> sfs) {
+    int[] starts = new int[sfs.size() + 1];
+    int runs = 0;
+    for (int i = 0; i < sfs.size(); i++) {
+      if (i == 0 || !isSameCompactionRun(sfs.get(i - 1), sfs.get(i))) {
+        starts[runs++] = i;
+      }
+    }
+    starts[runs++] = sfs.size();
+    return Arrays.copyOf(starts, runs);
+  }
+
+  private static boolean isSameCompactionRun(StoreFile a, StoreFile b) {
+    return a.getMaxSequenceId() >= 0 &&
+      a.getMaxSequenceId() == b.getMaxSequenceId() &&
+      !a.isBulkLoadResult() && !b.isBulkLoadResult();
+  }
+
   /**
    * @return true if this storefile was created by HFileOutputFormat
    * for a bulk load.
@@ -596,6 +627,12 @@ public class StoreFile extends SchemaConfigured {
           "proceeding without", e);
       this.reader.timeRangeTracker = null;
     }
+
+    // Now that the schema metrics are set up, the data blocks can be read
+    // into the cache in the background.
+    if (cacheConf.shouldPrefetchOnOpen()) {
+      BlockPrefetcher.prefetchFile(reader.getHFileReader());
+    }
     return this.reader;
   }
 
@@ -1350,10 +1387,55 @@ public class StoreFile extends SchemaConfigured {
       }
     }
 
+    /**
+     * Check if this storeFile may contain rows the scan reads, so that a
+     * scan over some stripes of a striped store skips the files of the others.
+     * @param scan the current scan
+     * @return false if queried rows definitely don't exist in this StoreFile
+     */
+    boolean passesKeyRangeFilter(Scan scan) {
+      byte[] firstKey = getFirstKey();
+      byte[] lastKey = getLastKey();
+      if (firstKey == null || lastKey == null) {
+        // no keys at all
+        return false;
+      }
+      RawComparator<byte[]> comparator = getComparator();
+      // a reversed scan starts at its largest row
+      byte[] lowestRow = scan.isReversed() ? scan.getStopRow()
+          : scan.getStartRow();
+      byte[] highestRow = scan.isReversed() ? scan.getStartRow()
+          : scan.getStopRow();
+      // the start row is included, the stop row is not unless the scan is
+      // a get
+      boolean includesLowest = !scan.isReversed() || scan.isGetScan();
+      boolean includesHighest = scan.isReversed() || scan.isGetScan();
+      if (lowestRow.length > 0) {
+        KeyValue lowest = includesLowest ? KeyValue.createFirstOnRow(lowestRow)
+            : KeyValue.createLastOnRow(lowestRow);
+        if (comparator.compare(lastKey, lowest.getKey()) < 0) {
+          return false;
+        }
+      }
+      if (highestRow.length > 0) {
+        KeyValue highest = includesHighest ?
+            KeyValue.createLastOnRow(highestRow)
+            : KeyValue.createFirstOnRow(highestRow);
+        if (comparator.compare(firstKey, highest.getKey()) > 0 ||
+            (!includesHighest &&
+             comparator.compare(firstKey, highest.getKey()) == 0)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
     /**
      * Checks whether the given scan passes the Bloom filter (if present). Only
-     * checks Bloom filters for single-row or single-row-column scans. Bloom
-     * filter checking for multi-gets is implemented as part of the store
+     * checks Bloom filters for single-row scans. A row-column Bloom filter is
+     * probed with every requested column at once, see
+     * {@link #passesGeneralBloomFilter(byte[], SortedSet)}. Bloom filter
+     * checking for multi-row scans is implemented as part of the store
      * scanner system (see {@link StoreFileScanner#seekExactly}) and uses
      * the lower-level API {@link #passesGeneralBloomFilter(byte[], int, int, byte[],
      * int, int)}.
@@ -1384,10 +1466,11 @@ public class StoreFile extends SchemaConfigured {
             byte[] column = columns.first();
             return passesGeneralBloomFilter(row, 0, row.length, column, 0,
                 column.length);
+          } else if (columns != null && columns.size() > 1) {
+            return passesGeneralBloomFilter(row, columns);
           }
 
-          // For multi-column queries the Bloom filter is checked from the
-          // seekExact operation.
+          // Without explicit columns there is nothing to look up.
           return true;
 
         default:
@@ -1521,6 +1604,9 @@ public class StoreFile extends SchemaConfigured {
           }
 
           getSchemaMetrics().updateBloomMetrics(exists);
+          if (!exists) {
+            getSchemaMetrics().updateBloomSeeksAvoided(1);
+          }
           return exists;
         }
       } catch (IOException e) {
@@ -1535,6 +1621,84 @@ public class StoreFile extends SchemaConfigured {
       return true;
     }
 
+    /**
+     * Checks a row and several of its columns against the row-column Bloom
+     * filter in one go, so that a multi-column get can skip this file when
+     * none of its columns can be here. The columns are probed in order,
+     * reading each Bloom chunk they fall into only once.
+     *
+     * @param row the row of the get
+     * @param columns the requested columns
+     * @return true if any of the columns may be in this file
+     */
+    boolean passesGeneralBloomFilter(byte[] row, SortedSet<byte[]> columns) {
+      // Cache Bloom filter as a local variable in case it is set to null by
+      // another thread on an IO error.
+      BloomFilter bloomFilter = this.generalBloomFilter;
+
+      if (bloomFilter == null || bloomFilterType != BloomType.ROWCOL) {
+        return true;
+      }
+
+      // Empty file
+      if (reader.getTrailer().getEntryCount() == 0)
+        return false;
+
+      try {
+        ByteBuffer bloom;
+        if (bloomFilter.supportsAutoLoading()) {
+          bloom = null;
+        } else {
+          bloom = reader.getMetaBlock(HFileWriterV1.BLOOM_FILTER_DATA_KEY,
+              true);
+          if (bloom == null) {
+            return true;
+          }
+        }
+
+        // As for a single column, the file is needed if the row alone is in
+        // the Bloom filter, as it may hold a row delete.
+        byte[] rowBloomKey = bloomFilter.createBloomKey(row, 0, row.length,
+            null, 0, 0);
+        boolean exists;
+        if (lastBloomKey != null && bloomFilter.getComparator().compare(
+            rowBloomKey, lastBloomKey) > 0) {
+          exists = false;
+        } else {
+          // Columns past the last Bloom key cannot be in this file.
+          List<byte[]> keys = new ArrayList<byte[]>(columns.size());
+          for (byte[] column : columns) {
+            byte[] key = bloomFilter.createBloomKey(row, 0, row.length,
+                column, 0, column.length);
+            if (lastBloomKey != null && bloomFilter.getComparator().compare(
+                key, lastBloomKey) > 0) {
+              break;
+            }
+            keys.add(key);
+          }
+          exists =
+              bloomFilter.containsAny(keys.toArray(new byte[keys.size()][]),
+                  bloom) ||
+              bloomFilter.contains(rowBloomKey, 0, rowBloomKey.length, bloom);
+        }
+
+        getSchemaMetrics().updateBloomMetrics(exists);
+        if (!exists) {
+          getSchemaMetrics().updateBloomSeeksAvoided(columns.size());
+        }
+        return exists;
+      } catch (IOException e) {
+        LOG.error("Error reading bloom filter data -- proceeding without",
+            e);
+        setGeneralBloomFilterFaulty();
+      } catch (IllegalArgumentException e) {
+        LOG.error("Bad bloom filter data -- proceeding without", e);
+        setGeneralBloomFilterFaulty();
+      }
+
+      return true;
+    }
+
     public Map<byte[], byte[]> loadFileInfo() throws IOException {
       Map<byte [], byte []> fi = reader.loadFileInfo();
 
@@ -1707,8 +1871,13 @@ public class StoreFile extends SchemaConfigured {
       this.deleteFamilyBloomFilter = null;
     }
 
+    /**
+     * @return the maximum timestamp in the file, or Long.MAX_VALUE if the
+     * file has no time range information
+     */
     public long getMaxTimestamp() {
-      return timeRangeTracker.maximumTimestamp;
+      return timeRangeTracker == null ? Long.MAX_VALUE
+          : timeRangeTracker.maximumTimestamp;
     }
 
     @Override
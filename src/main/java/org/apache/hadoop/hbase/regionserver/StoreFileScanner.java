@@ -110,6 +110,12 @@ class StoreFileScanner implements KeyValueScanner {
       StoreFileScanner scanner = r.getStoreFileScanner(cacheBlocks, usePread,
           isCompaction);
       scanner.setScanQueryMatcher(matcher);
+      if (matcher != null && !isCompaction) {
+        // The StoreScanner answering the query copies only the KeyValues it
+        // returns, so most of those a filter drops need no buffer of their
+        // own.
+        scanner.hfs.setAllowTransientKeyValues(true);
+      }
       scanners.add(scanner);
     }
     return scanners;
@@ -182,6 +188,77 @@ class StoreFileScanner implements KeyValueScanner {
     }
   }
 
+  @Override
+  public boolean seekToPreviousRow(KeyValue key) throws IOException {
+    try {
+      try {
+        KeyValue seekKey = KeyValue.createFirstOnRow(key.getRow());
+        while (true) {
+          seekCount.incrementAndGet();
+          // The block index finds the block holding the key before the row,
+          // stepping back to the previous block if the row starts a block.
+          if (!hfs.seekBefore(seekKey.getBuffer(), seekKey.getKeyOffset(),
+              seekKey.getKeyLength())) {
+            close();
+            return false;
+          }
+          KeyValue firstKeyOfPreviousRow =
+              KeyValue.createFirstOnRow(hfs.getKeyValue().getRow());
+
+          seekCount.incrementAndGet();
+          if (!seekAtOrAfter(hfs, firstKeyOfPreviousRow)) {
+            close();
+            return false;
+          }
+          this.isReseekable = true;
+          cur = hfs.getKeyValue();
+
+          // skipKVsNewerThanReadpoint closes us if it runs off the end; the
+          // rows before may still have something visible.
+          if (skipKVsNewerThanReadpoint() && cur.matchingRow(
+              firstKeyOfPreviousRow.getBuffer(),
+              firstKeyOfPreviousRow.getRowOffset(),
+              firstKeyOfPreviousRow.getRowLength())) {
+            return true;
+          }
+          // Nothing of that row is visible at our read point; keep going back.
+          seekKey = firstKeyOfPreviousRow;
+        }
+      } finally {
+        realSeekDone = true;
+      }
+    } catch (IOException ioe) {
+      throw new IOException("Could not seekToPreviousRow " + this +
+          " to key " + key, ioe);
+    }
+  }
+
+  @Override
+  public boolean seekToLastRow() throws IOException {
+    byte[] lastKey = reader.getLastKey();
+    if (lastKey == null) {
+      close();
+      return false;
+    }
+    KeyValue lastKV = KeyValue.createKeyValueFromKey(lastKey, 0,
+        lastKey.length);
+    KeyValue seekKey = KeyValue.createFirstOnRow(lastKV.getRow());
+    if (seek(seekKey)) {
+      return true;
+    }
+    return seekToPreviousRow(seekKey);
+  }
+
+  @Override
+  public boolean backwardSeek(KeyValue key) throws IOException {
+    seek(key);
+    if (cur == null || !cur.matchingRow(key.getBuffer(), key.getRowOffset(),
+        key.getRowLength())) {
+      return seekToPreviousRow(key);
+    }
+    return true;
+  }
+
   protected boolean skipKVsNewerThanReadpoint() throws IOException {
     long readPoint = MultiVersionConsistencyControl.getThreadReadPoint();
 
@@ -212,8 +289,8 @@ class StoreFileScanner implements KeyValueScanner {
   }
 
   public void close() {
-    // Nothing to close on HFileScanner?
     cur = null;
+    this.hfs.close();
   }
 
   /**
@@ -373,6 +450,7 @@ class StoreFileScanner implements KeyValueScanner {
   public boolean shouldUseScanner(Scan scan, SortedSet<byte[]> columns,
       long oldestUnexpiredTS) {
     return reader.passesTimerangeFilter(scan, oldestUnexpiredTS) &&
+        reader.passesKeyRangeFilter(scan) &&
         reader.passesBloomFilter(scan, columns);
   }
 }
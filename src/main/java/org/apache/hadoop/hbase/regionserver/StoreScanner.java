@@ -33,6 +33,7 @@ import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.io.encoding.TransientKeyValue;
 import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
@@ -62,6 +63,8 @@ class StoreScanner extends NonLazyKeyValueScanner
   private final NavigableSet<byte[]> columns;
   private final long oldestUnexpiredTS;
   private final int minVersions;
+  // Whether rows are read from the last to the first
+  private final boolean reversed;
 
   /** We don't ever expect to change this, the constant is just for clarity. */
   static final boolean LAZY_SEEK_ENABLED_BY_DEFAULT = true;
@@ -72,6 +75,8 @@ class StoreScanner extends NonLazyKeyValueScanner
 
   // if heap == null and lastTop != null, you need to reseek given the key below
   private KeyValue lastTop = null;
+  // Holds the key of the previous KeyValue when it was transient
+  private byte[] prevKeyBuffer = null;
 
   /** An internal constructor. */
   private StoreScanner(Store store, boolean cacheBlocks, Scan scan,
@@ -85,6 +90,7 @@ class StoreScanner extends NonLazyKeyValueScanner
     this.columns = columns;
     oldestUnexpiredTS = EnvironmentEdgeManager.currentTimeMillis() - ttl;
     this.minVersions = minVersions;
+    this.reversed = scan.isReversed();
 
     // We look up row-column Bloom filters for multi-column queries as part of
     // the seek operation. However, we also look the row-column Bloom filter
@@ -122,7 +128,9 @@ class StoreScanner extends NonLazyKeyValueScanner
     // key does not exist, then to the start of the next matching Row).
     // Always check bloom filter to optimize the top row seek for delete
     // family marker.
-    if (explicitColumnQuery && lazySeekEnabledGlobally) {
+    if (reversed) {
+      seekScannersBackward(scanners, matcher.getStartKey());
+    } else if (explicitColumnQuery && lazySeekEnabledGlobally) {
       for (KeyValueScanner scanner : scanners) {
         scanner.requestSeek(matcher.getStartKey(), false, true);
       }
@@ -133,7 +141,7 @@ class StoreScanner extends NonLazyKeyValueScanner
     }
 
     // Combine all seeked scanners with a heap
-    heap = new KeyValueHeap(scanners, store.comparator);
+    heap = newHeap(scanners, store.comparator);
 
     this.store.addChangedReaderObserver(this);
   }
@@ -189,10 +197,39 @@ class StoreScanner extends NonLazyKeyValueScanner
         Long.MAX_VALUE, earliestPutTs, oldestUnexpiredTS);
 
     // Seek all scanners to the initial key
+    if (reversed) {
+      seekScannersBackward(scanners, matcher.getStartKey());
+    } else {
+      for (KeyValueScanner scanner : scanners) {
+        scanner.seek(matcher.getStartKey());
+      }
+    }
+    heap = newHeap(scanners, scanInfo.getComparator());
+  }
+
+  /**
+   * Seek the scanners of a reversed scan to the start of the first row to
+   * read: the start row of the scan if they have it, else the row before.
+   * An empty start row means the last row of the store.
+   */
+  private void seekScannersBackward(List<? extends KeyValueScanner> scanners,
+      KeyValue startKey) throws IOException {
+    boolean fromLastRow = scan.getStartRow().length == 0;
     for (KeyValueScanner scanner : scanners) {
-      scanner.seek(matcher.getStartKey());
+      if (fromLastRow) {
+        scanner.seekToLastRow();
+      } else {
+        scanner.backwardSeek(startKey);
+      }
+    }
+  }
+
+  private KeyValueHeap newHeap(List<? extends KeyValueScanner> scanners,
+      KeyValue.KVComparator comparator) throws IOException {
+    if (reversed) {
+      return new ReversedKeyValueHeap(scanners, comparator);
     }
-    heap = new KeyValueHeap(scanners, scanInfo.getComparator());
+    return new KeyValueHeap(scanners, comparator);
   }
 
   /**
@@ -353,19 +390,24 @@ class StoreScanner extends NonLazyKeyValueScanner
         store != null ? store.getComparator() : null;
 
     LOOP: while((kv = this.heap.peek()) != null) {
-      // Check that the heap gives us KVs in an increasing order.
-      if (prevKV != null && comparator != null
-          && comparator.compare(prevKV, kv) > 0) {
+      // Check that the heap gives us KVs in an increasing order, rows being
+      // in decreasing order for a reversed scan.
+      if (prevKV != null && comparator != null && isOutOfOrder(prevKV, kv,
+          comparator)) {
         throw new IOException("Key " + prevKV + " followed by a " +
-            "smaller key " + kv + " in cf " + store);
+            "wrongly ordered key " + kv + " in cf " + store);
       }
-      prevKV = kv;
+      prevKV = keepForOrderCheck(kv);
       ScanQueryMatcher.MatchCode qcode = matcher.match(kv);
       switch(qcode) {
         case INCLUDE:
         case INCLUDE_AND_SEEK_NEXT_ROW:
         case INCLUDE_AND_SEEK_NEXT_COL:
 
+          if (kv instanceof TransientKeyValue) {
+            // Its buffer is reused once the heap moves on
+            kv = kv.deepCopy();
+          }
           Filter f = matcher.getFilter();
           if (f != null) {
             kv = f.transform(kv);
@@ -382,9 +424,9 @@ class StoreScanner extends NonLazyKeyValueScanner
               outResult.addAll(results);
               return false;
             }
-            reseek(matcher.getKeyForNextRow(kv));
+            seekToNextRow(kv);
           } else if (qcode == ScanQueryMatcher.MatchCode.INCLUDE_AND_SEEK_NEXT_COL) {
-            reseek(matcher.getKeyForNextColumn(kv));
+            seekAsDirection(matcher.getKeyForNextColumn(kv));
           } else {
             this.heap.next();
           }
@@ -415,11 +457,11 @@ class StoreScanner extends NonLazyKeyValueScanner
             return false;
           }
 
-          reseek(matcher.getKeyForNextRow(kv));
+          seekToNextRow(kv);
           break;
 
         case SEEK_NEXT_COL:
-          reseek(matcher.getKeyForNextColumn(kv));
+          seekAsDirection(matcher.getKeyForNextColumn(kv));
           break;
 
         case SKIP:
@@ -428,7 +470,8 @@ class StoreScanner extends NonLazyKeyValueScanner
 
         case SEEK_NEXT_USING_HINT:
           KeyValue nextKV = matcher.getNextKeyHint(kv);
-          if (nextKV != null) {
+          // Hints point forward, so a reversed scan can only step on.
+          if (nextKV != null && !reversed) {
             reseek(nextKV);
           } else {
             heap.next();
@@ -451,6 +494,59 @@ class StoreScanner extends NonLazyKeyValueScanner
     return false;
   }
 
+  private boolean isOutOfOrder(KeyValue prevKV, KeyValue kv,
+      KeyValue.KVComparator comparator) {
+    if (!reversed) {
+      return comparator.compare(prevKV, kv) > 0;
+    }
+    int rowComparison = comparator.compareRows(prevKV, kv);
+    return rowComparison < 0 ||
+        (rowComparison == 0 && comparator.compare(prevKV, kv) > 0);
+  }
+
+  /**
+   * Move to the start of the next row to read: the row after kv's, or the
+   * row before it for a reversed scan.
+   */
+  private boolean seekToNextRow(KeyValue kv) throws IOException {
+    if (reversed) {
+      return heap.seekToPreviousRow(kv);
+    }
+    return reseek(matcher.getKeyForNextRow(kv));
+  }
+
+  /**
+   * Move to the given key of the current row. When the row has nothing left
+   * at or after it, a reversed scan goes on to the start of the previous row.
+   */
+  private boolean seekAsDirection(KeyValue kv) throws IOException {
+    if (reversed) {
+      return heap.backwardSeek(kv);
+    }
+    return reseek(kv);
+  }
+
+  /**
+   * @return <code>kv</code>, or a copy of its key if the heap may reuse its
+   *         buffer before it is compared with the next one
+   */
+  private KeyValue keepForOrderCheck(KeyValue kv) {
+    if (!(kv instanceof TransientKeyValue)) {
+      return kv;
+    }
+    int length = KeyValue.ROW_OFFSET + kv.getKeyLength();
+    if (prevKeyBuffer == null || prevKeyBuffer.length < length) {
+      prevKeyBuffer = new byte[length];
+    }
+    int pos = Bytes.putInt(prevKeyBuffer, 0, kv.getKeyLength());
+    pos = Bytes.putInt(prevKeyBuffer, pos, 0);
+    System.arraycopy(kv.getBuffer(), kv.getKeyOffset(), prevKeyBuffer, pos,
+        kv.getKeyLength());
+    KeyValue key = new KeyValue(prevKeyBuffer, 0, length);
+    key.setMemstoreTS(kv.getMemstoreTS());
+    return key;
+  }
+
   @Override
   public synchronized boolean next(List<KeyValue> outResult) throws IOException {
     return next(outResult, -1, null);
@@ -518,11 +614,15 @@ class StoreScanner extends NonLazyKeyValueScanner
     List<KeyValueScanner> scanners = getScannersNoCompaction();
 
     for(KeyValueScanner scanner : scanners) {
-      scanner.seek(lastTopKey);
+      if (reversed) {
+        scanner.backwardSeek(lastTopKey);
+      } else {
+        scanner.seek(lastTopKey);
+      }
     }
 
     // Combine all seeked scanners with a heap
-    heap = new KeyValueHeap(scanners, store.comparator);
+    heap = newHeap(scanners, store.comparator);
 
     // Reset the state of the Query Matcher and set to top row.
     // Only reset and call setRow if the row changes; avoids confusing the
@@ -548,6 +648,19 @@ class StoreScanner extends NonLazyKeyValueScanner
     }
   }
 
+  @Override
+  public synchronized boolean seekToPreviousRow(KeyValue key)
+      throws IOException {
+    checkReseek();
+    return this.heap != null && this.heap.seekToPreviousRow(key);
+  }
+
+  @Override
+  public synchronized boolean backwardSeek(KeyValue key) throws IOException {
+    checkReseek();
+    return this.heap != null && this.heap.backwardSeek(key);
+  }
+
   @Override
   public long getSequenceID() {
     return 0;
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The key ranges a striped store is split into, see
+ * {@link HColumnDescriptor#setStripeBoundaries(byte[]...)}. Stripe i holds
+ * the rows from boundary i - 1, inclusive, to boundary i, exclusive; the
+ * first and the last stripes are bounded by the region.
+ */
+@InterfaceAudience.Private
+class StoreStripes {
+  /** Stripe of a store file whose rows are not all in the same stripe */
+  static final int NO_STRIPE = -1;
+
+  private final byte[][] boundaries;
+
+  StoreStripes(byte[][] boundaries) {
+    this.boundaries = boundaries;
+  }
+
+  /**
+   * @param family
+   * @param info region of the store
+   * @return the stripes of the store of the family in the region, or null
+   * if the store is not striped
+   */
+  static StoreStripes create(HColumnDescriptor family, HRegionInfo info) {
+    byte[][] boundaries = family.getStripeBoundaries();
+    // catalog regions do not sort rows in byte order
+    if (boundaries == null || info.isMetaTable()) {
+      return null;
+    }
+    List<byte[]> inRegion = new ArrayList<byte[]>(boundaries.length);
+    for (byte[] boundary : boundaries) {
+      if (Bytes.compareTo(boundary, info.getStartKey()) > 0 &&
+          (info.getEndKey().length == 0 ||
+           Bytes.compareTo(boundary, info.getEndKey()) < 0)) {
+        inRegion.add(boundary);
+      }
+    }
+    if (inRegion.isEmpty()) {
+      return null;
+    }
+    return new StoreStripes(inRegion.toArray(new byte[inRegion.size()][]));
+  }
+
+  int getStripeCount() {
+    return boundaries.length + 1;
+  }
+
+  /**
+   * @return the stripe holding the given row
+   */
+  int getStripe(byte[] row, int offset, int length) {
+    int low = 0;
+    int high = boundaries.length;
+    // find the number of boundaries at or before the row
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (Bytes.compareTo(boundaries[mid], 0, boundaries[mid].length,
+          row, offset, length) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the stripe holding all rows of the store file, or
+   * {@link #NO_STRIPE} if they span several stripes or the file is empty
+   */
+  int getStripe(StoreFile sf) {
+    StoreFile.Reader r = sf.getReader();
+    byte[] firstKey = r == null ? null : r.getFirstKey();
+    byte[] lastKey = r == null ? null : r.getLastKey();
+    if (sf.isReference() || firstKey == null || lastKey == null) {
+      return NO_STRIPE;
+    }
+    int stripe = getStripeOfKey(firstKey);
+    return stripe == getStripeOfKey(lastKey) ? stripe : NO_STRIPE;
+  }
+
+  private int getStripeOfKey(byte[] key) {
+    // a key starts with the length of its row, then the row
+    return getStripe(key, Bytes.SIZEOF_SHORT, Bytes.toShort(key, 0));
+  }
+}
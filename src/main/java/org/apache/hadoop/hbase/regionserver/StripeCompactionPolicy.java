@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactSelection;
+
+/**
+ * The default {@link CompactionPolicy} of a striped store, see
+ * {@link StoreStripes}. A minor compaction rewrites the files of a single
+ * stripe, chosen like {@link RatioCompactionPolicy} chooses files among
+ * the files of that stripe, so the size of a compaction is bounded by the
+ * size of a stripe rather than of the whole store.
+ * <p>
+ * Files spanning several stripes, written before the store was striped or
+ * bulk loaded, are compacted first: their compaction writes one file per
+ * stripe. A requested major compaction still rewrites the whole store.
+ */
+@InterfaceAudience.Private
+public class StripeCompactionPolicy extends CompactionPolicy {
+  static final Log LOG = LogFactory.getLog(StripeCompactionPolicy.class);
+
+  /** Chooses the files to compact within a stripe */
+  private CompactionPolicy stripePolicy;
+
+  @Override
+  protected void configureForStore(Store store) {
+    super.configureForStore(store);
+    this.stripePolicy = new RatioCompactionPolicy();
+    this.stripePolicy.setConf(getConf());
+    this.stripePolicy.configureForStore(store);
+  }
+
+  @Override
+  protected CompactSelection selectCompaction(List<StoreFile> candidates,
+      boolean forceMajor) throws IOException {
+    StoreStripes stripes = store.stripes;
+    if (stripes == null || forceMajor) {
+      return stripePolicy.selectCompaction(candidates, forceMajor);
+    }
+
+    // Compact the files spanning stripes, along with the files in between
+    // so that the compaction keeps the sequence id order of the store.
+    int firstSpanning = -1;
+    int lastSpanning = -1;
+    List<List<StoreFile>> filesPerStripe =
+      new ArrayList<List<StoreFile>>(stripes.getStripeCount());
+    for (int i = 0; i < stripes.getStripeCount(); i++) {
+      filesPerStripe.add(new ArrayList<StoreFile>());
+    }
+    for (int i = 0; i < candidates.size(); i++) {
+      StoreFile file = candidates.get(i);
+      int stripe = stripes.getStripe(file);
+      if (stripe == StoreStripes.NO_STRIPE) {
+        if (firstSpanning == -1) {
+          firstSpanning = i;
+        }
+        lastSpanning = i;
+      } else {
+        filesPerStripe.get(stripe).add(file);
+      }
+    }
+    if (firstSpanning != -1) {
+      int end = Math.min(lastSpanning + 1,
+          firstSpanning + store.maxFilesToCompact);
+      return new CompactSelection(getConf(), candidates).getSubList(
+          firstSpanning, end);
+    }
+
+    // Otherwise compact the stripe offering the most files to compact.
+    CompactSelection best = null;
+    for (List<StoreFile> stripeFiles : filesPerStripe) {
+      if (stripeFiles.size() < store.minFilesToCompact) {
+        continue;
+      }
+      CompactSelection selection =
+        stripePolicy.selectCompaction(stripeFiles, false);
+      if (best == null || selection.getFilesToCompact().size() >
+          best.getFilesToCompact().size()) {
+        if (best != null) {
+          best.finishRequest();
+        }
+        best = selection;
+      } else {
+        selection.finishRequest();
+      }
+    }
+    if (best == null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(store.getHRegionInfo().getEncodedName() + " - " +
+          store.getColumnFamilyName() + ": no stripe has enough files to" +
+          " compact among " + candidates.size() + " file(s)");
+      }
+      best = new CompactSelection(getConf(), new ArrayList<StoreFile>());
+    }
+    return best;
+  }
+}
@@ -56,6 +56,7 @@ public class CompactionRequest implements Comparable<CompactionRequest>,
     private int p;
     private final Long timeInNanos;
     private HRegionServer server = null;
+    private CompactionThroughputController throughputController = null;
 
     public CompactionRequest(HRegion r, Store s,
         CompactSelection files, boolean isMajor, int p) {
@@ -155,6 +156,19 @@ public class CompactionRequest implements Comparable<CompactionRequest>,
       this.server = hrs;
     }
 
+    /**
+     * @return the controller limiting the writes of this compaction, or null
+     * if they are not limited
+     */
+    public CompactionThroughputController getThroughputController() {
+      return throughputController;
+    }
+
+    public void setThroughputController(
+        CompactionThroughputController controller) {
+      this.throughputController = controller;
+    }
+
     @Override
     public String toString() {
       String fsList = Joiner.on(", ").join(
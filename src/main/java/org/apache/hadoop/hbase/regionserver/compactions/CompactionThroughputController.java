@@ -0,0 +1,228 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Limits the rate at which the compactions of a region server write, so that
+ * they leave disk bandwidth to reads. The limit is shared evenly by the
+ * running compactions.
+ * <p>
+ * The limit moves between
+ * <code>hbase.hstore.compaction.throughput.lower.bound</code> and
+ * <code>hbase.hstore.compaction.throughput.higher.bound</code>, in bytes per
+ * second, as the server is tuned every
+ * <code>hbase.hstore.compaction.throughput.tune.period</code>: it is the
+ * higher bound while the server serves fewer than
+ * <code>hbase.hstore.compaction.throughput.idle.read.requests</code> reads a
+ * second, and otherwise rises from the lower bound with the compaction
+ * pressure, see {@link #tune(double, double)}. Compactions are not limited
+ * once a store blocks updates, or if the higher bound is not set, which is
+ * the default.
+ * <p>
+ * The bounds are read again from the configuration files at every tuning,
+ * so they can be changed without restarting the server.
+ */
+@InterfaceAudience.Private
+public class CompactionThroughputController {
+  static final Log LOG =
+    LogFactory.getLog(CompactionThroughputController.class);
+
+  public static final String HIGHER_BOUND_KEY =
+    "hbase.hstore.compaction.throughput.higher.bound";
+  public static final String LOWER_BOUND_KEY =
+    "hbase.hstore.compaction.throughput.lower.bound";
+  public static final String IDLE_READ_REQUESTS_KEY =
+    "hbase.hstore.compaction.throughput.idle.read.requests";
+  public static final String TUNE_PERIOD_KEY =
+    "hbase.hstore.compaction.throughput.tune.period";
+  public static final String CHECK_INTERVAL_KEY =
+    "hbase.hstore.compaction.throughput.check.interval";
+
+  static final long DEFAULT_IDLE_READ_REQUESTS = 10;
+  static final int DEFAULT_TUNE_PERIOD = 60 * 1000;
+  static final long DEFAULT_CHECK_INTERVAL = 1024 * 1024;
+
+  /** Limit meaning compactions write as fast as they can */
+  public static final double NO_LIMIT = Double.MAX_VALUE;
+
+  // Copy of the server configuration whose resources are reloaded on tuning
+  private final Configuration conf;
+  private final long checkInterval;
+  private final int tunePeriod;
+
+  private volatile double maxThroughput = NO_LIMIT;
+  private final AtomicInteger activeOperations = new AtomicInteger();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private final AtomicLong sleepTime = new AtomicLong();
+
+  public CompactionThroughputController(Configuration conf) {
+    this.conf = new Configuration(conf);
+    this.checkInterval = Math.max(1,
+        conf.getLong(CHECK_INTERVAL_KEY, DEFAULT_CHECK_INTERVAL));
+    this.tunePeriod = conf.getInt(TUNE_PERIOD_KEY, DEFAULT_TUNE_PERIOD);
+    // until the first tuning, assume the server is busy and relaxed
+    tune(Double.MAX_VALUE, 0.0);
+  }
+
+  /**
+   * Set the limit for the current load of the server.
+   * @param readRequestsPerSecond reads served a second since the last tuning
+   * @param pressure how close the fullest store is to block updates, from 0
+   * when it has no more files than the minimum to compact, to 1 when it
+   * blocks updates
+   */
+  public synchronized void tune(double readRequestsPerSecond,
+      double pressure) {
+    conf.reloadConfiguration();
+    long higher = conf.getLong(HIGHER_BOUND_KEY, 0);
+    long lower = conf.getLong(LOWER_BOUND_KEY, 0);
+    if (lower <= 0 || lower > higher) {
+      lower = higher;
+    }
+    double limit;
+    if (higher <= 0 || pressure >= 1.0) {
+      limit = NO_LIMIT;
+    } else if (readRequestsPerSecond <
+        conf.getLong(IDLE_READ_REQUESTS_KEY, DEFAULT_IDLE_READ_REQUESTS)) {
+      limit = higher;
+    } else {
+      limit = lower + (higher - lower) * Math.max(0.0, pressure);
+    }
+    if (limit != maxThroughput && LOG.isDebugEnabled()) {
+      LOG.debug("Compaction throughput limit set to " + (limit == NO_LIMIT ?
+          "none" : StringUtils.humanReadableInt((long) limit) + "/s") +
+          "; readRequestsPerSecond=" + (long) readRequestsPerSecond +
+          ", pressure=" + pressure);
+    }
+    this.maxThroughput = limit;
+  }
+
+  /**
+   * @return the period between two tunings, in milliseconds
+   */
+  public int getTunePeriod() {
+    return tunePeriod;
+  }
+
+  /**
+   * @return the limit shared by all compactions, in bytes per second, or
+   * {@link #NO_LIMIT}
+   */
+  public double getMaxThroughput() {
+    return maxThroughput;
+  }
+
+  /**
+   * @return bytes written by all compactions so far
+   */
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  /**
+   * @return time compactions spent waiting on the limit so far, in
+   * milliseconds
+   */
+  public long getSleepTime() {
+    return sleepTime.get();
+  }
+
+  /**
+   * Register a compaction about to write.
+   * @return the handle through which the compaction reports its writes;
+   * {@link Operation#finish()} must be called once it is done
+   */
+  public Operation start() {
+    activeOperations.incrementAndGet();
+    return new Operation();
+  }
+
+  /**
+   * The writes of one compaction.
+   */
+  public class Operation {
+    private long size = 0;
+    private long lastControlSize = 0;
+    private long lastControlTime = EnvironmentEdgeManager.currentTimeMillis();
+    private boolean finished = false;
+
+    /**
+     * Account for bytes written, and wait if the compaction writes faster
+     * than its share of the limit.
+     * @param written bytes written since the last call
+     * @return milliseconds waited
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public long control(long written) throws InterruptedIOException {
+      size += written;
+      bytesWritten.addAndGet(written);
+      long sinceLastControl = size - lastControlSize;
+      if (sinceLastControl < checkInterval) {
+        return 0;
+      }
+      lastControlSize = size;
+      long now = EnvironmentEdgeManager.currentTimeMillis();
+      double limit = maxThroughput;
+      if (limit == NO_LIMIT) {
+        lastControlTime = now;
+        return 0;
+      }
+      double share = limit / Math.max(1, activeOperations.get());
+      long minTime = (long) (sinceLastControl * 1000 / share);
+      long elapsed = now - lastControlTime;
+      long sleep = 0;
+      if (elapsed < minTime) {
+        sleep = minTime - elapsed;
+        try {
+          Thread.sleep(sleep);
+        } catch (InterruptedException e) {
+          InterruptedIOException iioe = new InterruptedIOException(
+              "Interrupted while waiting on the compaction throughput limit");
+          iioe.initCause(e);
+          throw iioe;
+        }
+        sleepTime.addAndGet(sleep);
+      }
+      lastControlTime = now + sleep;
+      return sleep;
+    }
+
+    /**
+     * Unregister the compaction, giving its share of the limit to the others.
+     */
+    public void finish() {
+      if (!finished) {
+        finished = true;
+        activeOperations.decrementAndGet();
+      }
+    }
+  }
+}
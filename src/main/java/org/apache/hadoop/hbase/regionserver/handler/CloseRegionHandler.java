@@ -27,6 +27,7 @@ import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.Server;
 import org.apache.hadoop.hbase.executor.EventHandler;
+import org.apache.hadoop.hbase.regionserver.BlockCacheWarmer;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.RegionServerServices;
 import org.apache.hadoop.hbase.zookeeper.ZKAssign;
@@ -114,6 +115,12 @@ public class CloseRegionHandler extends EventHandler {
         return;
       }
 
+      // Leave the hot blocks for the next server while they are cached.
+      BlockCacheWarmer warmer = this.rsServices.getBlockCacheWarmer();
+      if (warmer != null && !abort) {
+        warmer.regionClosing(region);
+      }
+
       // Close the region
       try {
         // TODO: If we need to keep updating CLOSING stamp to prevent against
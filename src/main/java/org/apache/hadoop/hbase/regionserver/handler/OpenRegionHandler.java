@@ -29,6 +29,7 @@ import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.Server;
 import org.apache.hadoop.hbase.executor.EventHandler;
+import org.apache.hadoop.hbase.regionserver.BlockCacheWarmer;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.RegionServerServices;
 import org.apache.hadoop.hbase.util.CancelableProgressable;
@@ -137,6 +138,12 @@ public class OpenRegionHandler extends EventHandler {
       // Successful region open, and add it to OnlineRegions
       this.rsServices.addToOnlineRegions(region);
 
+      // Read the blocks that were hot before back in, in the background.
+      BlockCacheWarmer warmer = this.rsServices.getBlockCacheWarmer();
+      if (warmer != null) {
+        warmer.warm(region);
+      }
+
       // Done!  Successful region open
       LOG.debug("Opened " + name + " on server:" +
         this.server.getServerName());
@@ -331,7 +338,7 @@ public class OpenRegionHandler extends EventHandler {
       // Instantiate the region.  This also periodically tickles our zk OPENING
       // state so master doesn't timeout this region in transition.
       region = HRegion.openHRegion(this.regionInfo, this.htd,
-          this.rsServices.getWAL(), this.server.getConfiguration(),
+          this.rsServices.getWAL(this.regionInfo), this.server.getConfiguration(),
           this.rsServices,
         new CancelableProgressable() {
           public boolean progress() {
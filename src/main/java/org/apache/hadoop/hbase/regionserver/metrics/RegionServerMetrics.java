@@ -176,11 +176,43 @@ public class RegionServerMetrics implements Updater {
   public final MetricsIntValue memstoreSizeMB =
     new MetricsIntValue("memstoreSizeMB", registry);
 
+  /**
+   * Number of MemStoreLAB chunks waiting in the chunk pool for reuse
+   */
+  public final MetricsIntValue memstoreChunkPoolSize =
+    new MetricsIntValue("memstoreChunkPoolSize", registry);
+
+  /**
+   * Percentage of MemStoreLAB chunks served from the chunk pool rather than
+   * allocated
+   */
+  public final MetricsIntValue memstoreChunkPoolReuseRatio =
+    new MetricsIntValue("memstoreChunkPoolReuseRatio", registry);
+
   /**
    * Size of the compaction queue.
    */
   public final MetricsIntValue compactionQueueSize =
     new MetricsIntValue("compactionQueueSize", registry);
+
+  /**
+   * Limit on the bytes written a second by compactions, 0 if unlimited
+   */
+  public final MetricsLongValue compactionThroughputLimit =
+    new MetricsLongValue("compactionThroughputLimit", registry);
+
+  /**
+   * Bytes written by compactions since the server started
+   */
+  public final MetricsLongValue compactionBytesWritten =
+    new MetricsLongValue("compactionBytesWritten", registry);
+
+  /**
+   * Milliseconds compactions waited on the throughput limit since the server
+   * started
+   */
+  public final MetricsLongValue compactionThrottleSleepTime =
+    new MetricsLongValue("compactionThrottleSleepTime", registry);
   
   /**
    * Size of the flush queue.
@@ -313,11 +345,16 @@ public class RegionServerMetrics implements Updater {
       this.totalStaticIndexSizeKB.pushMetric(this.metricsRecord);
       this.totalStaticBloomSizeKB.pushMetric(this.metricsRecord);
       this.memstoreSizeMB.pushMetric(this.metricsRecord);
+      this.memstoreChunkPoolSize.pushMetric(this.metricsRecord);
+      this.memstoreChunkPoolReuseRatio.pushMetric(this.metricsRecord);
       this.readRequestsCount.pushMetric(this.metricsRecord);
       this.writeRequestsCount.pushMetric(this.metricsRecord);
       this.regions.pushMetric(this.metricsRecord);
       this.requests.pushMetric(this.metricsRecord);
       this.compactionQueueSize.pushMetric(this.metricsRecord);
+      this.compactionThroughputLimit.pushMetric(this.metricsRecord);
+      this.compactionBytesWritten.pushMetric(this.metricsRecord);
+      this.compactionThrottleSleepTime.pushMetric(this.metricsRecord);
       this.flushQueueSize.pushMetric(this.metricsRecord);
       this.blockCacheSize.pushMetric(this.metricsRecord);
       this.blockCacheFree.pushMetric(this.metricsRecord);
@@ -462,12 +499,19 @@ public class RegionServerMetrics implements Updater {
         Integer.valueOf(this.totalStaticBloomSizeKB.get()));
     sb = Strings.appendKeyValue(sb, this.memstoreSizeMB.getName(),
       Integer.valueOf(this.memstoreSizeMB.get()));
+    sb = Strings.appendKeyValue(sb, this.memstoreChunkPoolSize.getName(),
+      Integer.valueOf(this.memstoreChunkPoolSize.get()));
+    sb = Strings.appendKeyValue(sb,
+      this.memstoreChunkPoolReuseRatio.getName(),
+      Integer.valueOf(this.memstoreChunkPoolReuseRatio.get()) + "%");
     sb = Strings.appendKeyValue(sb, "readRequestsCount",
         Long.valueOf(this.readRequestsCount.get()));
     sb = Strings.appendKeyValue(sb, "writeRequestsCount",
         Long.valueOf(this.writeRequestsCount.get()));
     sb = Strings.appendKeyValue(sb, "compactionQueueSize",
       Integer.valueOf(this.compactionQueueSize.get()));
+    sb = Strings.appendKeyValue(sb, "compactionThroughputLimit",
+      Long.valueOf(this.compactionThroughputLimit.get()));
     sb = Strings.appendKeyValue(sb, "flushQueueSize",
       Integer.valueOf(this.flushQueueSize.get()));
     // Duplicate from jvmmetrics because metrics are private there so
@@ -250,6 +250,7 @@ public class SchemaMetrics {
       new boolean[NUM_BLOCK_METRICS];
 
   private final String[] bloomMetricNames = new String[2];
+  private final String bloomSeeksAvoidedMetricName;
   private final String[] storeMetricNames = new String[NUM_STORE_METRIC_TYPES];
   private final String[] storeMetricNamesMax = new String[NUM_STORE_METRIC_TYPES];
 
@@ -295,6 +296,7 @@ public class SchemaMetrics {
       bloomMetricNames[isInBloom ? 1 : 0] = metricPrefix
           + (isInBloom ? "keyMaybeInBloomCnt" : "keyNotInBloomCnt");
     }
+    bloomSeeksAvoidedMetricName = metricPrefix + "seeksAvoidedByBloomCnt";
 
     for (StoreMetricType storeMetric : StoreMetricType.values()) {
       String coreName = metricPrefix + storeMetric.toString();
@@ -357,6 +359,10 @@ public class SchemaMetrics {
     return bloomMetricNames[isInBloom ? 1 : 0];
   }
 
+  public String getBloomSeeksAvoidedMetricName() {
+    return bloomSeeksAvoidedMetricName;
+  }
+
   /**
    * Increments the given metric, both per-CF and aggregate, for both the given
    * category and all categories in aggregate (four counters total).
@@ -508,6 +514,17 @@ public class SchemaMetrics {
     }
   }
 
+  /**
+   * Increments both the per-CF and the aggregate counter of row/column seeks
+   * that did not have to go to a store file because of its Bloom filter.
+   */
+  public void updateBloomSeeksAvoided(int count) {
+    HRegion.incrNumericMetric(bloomSeeksAvoidedMetricName, count);
+    if (this != ALL_SCHEMA_METRICS) {
+      ALL_SCHEMA_METRICS.updateBloomSeeksAvoided(count);
+    }
+  }
+
   /**
    * Sets the flag whether to use table name in metric names according to the
    * given configuration. This must be called at least once before
@@ -712,6 +729,7 @@ public class SchemaMetrics {
       }
     }
     allMetricNames.addAll(Arrays.asList(bloomMetricNames));
+    allMetricNames.add(bloomSeeksAvoidedMetricName);
     return allMetricNames;
   }
 
@@ -845,7 +863,8 @@ public class SchemaMetrics {
     for (String key : allKeys) {
       if (BLOCK_CATEGORY_RE.matcher(key).find() ||
           key.contains(ALL_SCHEMA_METRICS.getBloomMetricName(false)) ||
-          key.contains(ALL_SCHEMA_METRICS.getBloomMetricName(true))){
+          key.contains(ALL_SCHEMA_METRICS.getBloomMetricName(true)) ||
+          key.contains(ALL_SCHEMA_METRICS.getBloomSeeksAvoidedMetricName())){
         // Skip per-block-category metrics. Also skip bloom filters, because
         // they are not aggregated per block type.
         continue;
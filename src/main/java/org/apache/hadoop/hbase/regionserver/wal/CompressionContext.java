@@ -0,0 +1,47 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * The dictionaries used to compress the entries of one log file. A writer
+ * and every reader of the file each hold their own instance.
+ */
+@InterfaceAudience.Private
+class CompressionContext {
+  final Dictionary regionDict = new LRUDictionary();
+  final Dictionary tableDict = new LRUDictionary();
+  final Dictionary rowDict = new LRUDictionary();
+  final Dictionary familyDict = new LRUDictionary();
+  final Dictionary qualifierDict = new LRUDictionary();
+
+  /**
+   * Forget everything seen so far, as when reading a file again from the
+   * start.
+   */
+  void clear() {
+    this.regionDict.clear();
+    this.tableDict.clear();
+    this.rowDict.clear();
+    this.familyDict.clear();
+    this.qualifierDict.clear();
+  }
+}
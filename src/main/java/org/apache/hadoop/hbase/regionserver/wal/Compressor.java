@@ -0,0 +1,90 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Reads and writes byte arrays against a {@link Dictionary}. An array seen
+ * before is written as its two byte index; otherwise a
+ * {@link Dictionary#NOT_IN_DICTIONARY} byte, the length and the bytes follow
+ * and both sides add it to their dictionary.
+ */
+@InterfaceAudience.Private
+class Compressor {
+  private Compressor() {
+  }
+
+  static void writeCompressed(final byte [] data, final int offset,
+      final int length, final DataOutput out, final Dictionary dict)
+  throws IOException {
+    short idx = dict.findEntry(data, offset, length);
+    if (idx == Dictionary.NOT_IN_DICTIONARY) {
+      out.writeByte(Dictionary.NOT_IN_DICTIONARY);
+      WritableUtils.writeVInt(out, length);
+      out.write(data, offset, length);
+    } else {
+      out.writeShort(idx);
+    }
+  }
+
+  static byte [] readCompressed(final DataInput in, final Dictionary dict)
+  throws IOException {
+    byte status = in.readByte();
+    if (status == Dictionary.NOT_IN_DICTIONARY) {
+      int length = WritableUtils.readVInt(in);
+      byte [] arr = new byte[length];
+      in.readFully(arr);
+      dict.addEntry(arr, 0, length);
+      return arr;
+    }
+    short idx = toShort(status, in.readByte());
+    byte [] entry = dict.getEntry(idx);
+    if (entry == null) {
+      throw new IOException("Missing dictionary entry for index " + idx);
+    }
+    return entry;
+  }
+
+  /**
+   * Read a compressed array into <code>to</code>.
+   * @return the length of the array
+   */
+  static int readCompressed(final DataInput in, final byte [] to,
+      final int offset, final Dictionary dict)
+  throws IOException {
+    byte [] entry = readCompressed(in, dict);
+    if (offset + entry.length > to.length) {
+      throw new IOException("Compressed entry of " + entry.length +
+        " bytes does not fit at offset " + offset + " of " + to.length);
+    }
+    System.arraycopy(entry, 0, to, offset, entry.length);
+    return entry.length;
+  }
+
+  static short toShort(final byte hi, final byte lo) {
+    return (short)(((hi & 0xFF) << 8) | (lo & 0xFF));
+  }
+}
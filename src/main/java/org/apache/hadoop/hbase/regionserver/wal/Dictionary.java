@@ -0,0 +1,57 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Dictionary used to compress the repeated fields of a log file. Writer and
+ * reader each keep one and feed it the same sequence of entries, so an index
+ * handed out on one side names the same entry on the other.
+ */
+@InterfaceAudience.Private
+interface Dictionary {
+  /** Written in place of an index when the entry follows in full. */
+  static final byte NOT_IN_DICTIONARY = -1;
+
+  /**
+   * Get the entry at an index previously handed out.
+   * @param idx index of the entry
+   * @return the entry, or null if there is none at that index
+   */
+  byte [] getEntry(short idx);
+
+  /**
+   * Look for an entry, adding it if it is not there. Used on the write side.
+   * @return the index of the entry, or {@link #NOT_IN_DICTIONARY} if it was
+   * just added
+   */
+  short findEntry(byte [] data, int offset, int length);
+
+  /**
+   * Add an entry without looking for it first. Used on the read side for
+   * entries the writer added with {@link #findEntry}.
+   * @return the index of the new entry
+   */
+  short addEntry(byte [] data, int offset, int length);
+
+  /** Forget all entries. */
+  void clear();
+}
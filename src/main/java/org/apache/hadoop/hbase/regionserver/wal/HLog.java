@@ -23,6 +23,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
@@ -40,10 +41,18 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -72,6 +81,8 @@ import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.util.StringUtils;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * HLog stores all the edits to the HStore.  Its the hbase write-ahead-log
  * implementation.
@@ -141,6 +152,8 @@ public class HLog implements Syncable {
   private final String prefix;
   private final AtomicLong unflushedEntries = new AtomicLong(0);
   private volatile long syncedTillHere = 0;
+  // Highest txid of a ring buffer batch that could not be synced
+  private volatile long failedTillHere = 0;
   private long lastDeferredTxid;
   private final Path oldLogDir;
   private boolean logRollRunning;
@@ -168,6 +181,11 @@ public class HLog implements Syncable {
     Entry next(Entry reuse) throws IOException;
     void seek(long pos) throws IOException;
     long getPosition() throws IOException;
+    /**
+     * Reopen the log at the current position to see what has been appended
+     * to it since it was opened.
+     */
+    void reset() throws IOException;
   }
 
   public interface Writer {
@@ -245,6 +263,28 @@ public class HLog implements Syncable {
    */
   private final LogSyncer logSyncerThread;
 
+  /**
+   * If hbase.regionserver.hlog.ringbuffer.enabled is set, appends are
+   * published to this ring instead of going through updateLock and the
+   * LogSyncer pending list; {@link #ringBufferSyncer} writes and syncs them.
+   */
+  private final WALRingBuffer ringBuffer;
+  private final RingBufferSyncer ringBufferSyncer;
+
+  /*
+   * If hbase.regionserver.hlog.standby.enabled is set (ring buffer only), we
+   * keep the next log file open ahead of time. When a sync of the current
+   * writer takes longer than standbySyncTimeout, the ring buffer syncer
+   * rewrites the unsynced batch to the standby, syncs it there and carries on
+   * with the standby as the current writer, leaving the slow sync to finish
+   * in the background. Guarded by updateLock.
+   */
+  private StandbyWriter standbyWriter;
+  private final long standbySyncTimeout;
+  // Runs the syncs of the current writer when a standby is in use, and
+  // the creation of standbys and closing of abandoned writers.
+  private final ExecutorService standbyExecutor;
+
   /** Number of log close errors tolerated before we abort */
   private final int closeErrorsTolerated;
 
@@ -301,6 +341,8 @@ public class HLog implements Syncable {
   //For measuring slow HLog appends
   private static AtomicLong slowHLogAppendCount = new AtomicLong();
   private static Metric slowHLogAppendTime = new Metric();
+  // Times a slow sync made us switch to the standby writer
+  private static AtomicLong standbySwitchCount = new AtomicLong();
   
   public static Metric getWriteTime() {
     return writeTime.get();
@@ -326,6 +368,10 @@ public class HLog implements Syncable {
     return slowHLogAppendTime.get();
   }
 
+  public static long getStandbySwitchCount() {
+    return standbySwitchCount.get();
+  }
+
   /**
    * Constructor.
    *
@@ -442,10 +488,47 @@ public class HLog implements Syncable {
     // handle the reflection necessary to call getNumCurrentReplicas()
     this.getNumCurrentReplicas = getGetNumCurrentReplicas(this.hdfs_out);
 
-    logSyncerThread = new LogSyncer(this.optionalFlushInterval);
-    Threads.setDaemonThreadRunning(logSyncerThread.getThread(),
-        Thread.currentThread().getName() + ".logSyncer");
+    boolean useRingBuffer =
+      conf.getBoolean("hbase.regionserver.hlog.ringbuffer.enabled", false);
+    this.standbySyncTimeout =
+      conf.getLong("hbase.regionserver.hlog.standby.sync.timeout", 500);
+    if (conf.getBoolean("hbase.regionserver.hlog.standby.enabled", false)) {
+      if (useRingBuffer) {
+        this.standbyExecutor = Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat(
+            Thread.currentThread().getName() + ".standbyLog-%d").build());
+      } else {
+        LOG.warn("hbase.regionserver.hlog.standby.enabled needs " +
+          "hbase.regionserver.hlog.ringbuffer.enabled; not using a standby log");
+        this.standbyExecutor = null;
+      }
+    } else {
+      this.standbyExecutor = null;
+    }
+
+    if (useRingBuffer) {
+      this.ringBuffer = new WALRingBuffer(
+        conf.getInt("hbase.regionserver.hlog.ringbuffer.size", 1024));
+      LOG.info("Using WAL ring buffer with " + this.ringBuffer.getCapacity() +
+        " slots");
+      this.logSyncerThread = null;
+      this.ringBufferSyncer = new RingBufferSyncer(this.optionalFlushInterval);
+      this.ringBuffer.setConsumerThread(this.ringBufferSyncer.getThread());
+      Threads.setDaemonThreadRunning(this.ringBufferSyncer.getThread(),
+          Thread.currentThread().getName() + ".logSyncer");
+    } else {
+      this.ringBuffer = null;
+      this.ringBufferSyncer = null;
+      logSyncerThread = new LogSyncer(this.optionalFlushInterval);
+      Threads.setDaemonThreadRunning(logSyncerThread.getThread(),
+          Thread.currentThread().getName() + ".logSyncer");
+    }
     coprocessorHost = new WALCoprocessorHost(this, conf);
+    if (this.standbyExecutor != null) {
+      LOG.info("Switching to a standby hlog on syncs slower than " +
+        this.standbySyncTimeout + "ms");
+      prepareStandbyWriter();
+    }
   }
 
   /**
@@ -595,7 +678,15 @@ public class HLog implements Syncable {
       if (currentFilenum > 0) {
         oldPath = computeFilename(currentFilenum);
       }
-      this.filenum = System.currentTimeMillis();
+      // A standby log is already open; roll to it rather than wait on
+      // creating a new file.
+      StandbyWriter standby = null;
+      synchronized (updateLock) {
+        standby = this.standbyWriter;
+        this.standbyWriter = null;
+      }
+      this.filenum = standby != null? standby.filenum:
+        System.currentTimeMillis();
       Path newPath = computeFilename();
 
       // Tell our listeners that a new log is about to be created
@@ -604,13 +695,19 @@ public class HLog implements Syncable {
           i.preLogRoll(oldPath, newPath);
         }
       }
-      HLog.Writer nextWriter = this.createWriterInstance(fs, newPath, conf);
-      // Can we get at the dfsclient outputstream?  If an instance of
-      // SFLW, it'll have done the necessary reflection to get at the
-      // protected field name.
+      HLog.Writer nextWriter;
       FSDataOutputStream nextHdfsOut = null;
-      if (nextWriter instanceof SequenceFileLogWriter) {
-        nextHdfsOut = ((SequenceFileLogWriter)nextWriter).getWriterFSDataOutputStream();
+      if (standby != null) {
+        nextWriter = standby.writer;
+        nextHdfsOut = standby.hdfsOut;
+      } else {
+        nextWriter = this.createWriterInstance(fs, newPath, conf);
+        // Can we get at the dfsclient outputstream?  If an instance of
+        // SFLW, it'll have done the necessary reflection to get at the
+        // protected field name.
+        if (nextWriter instanceof SequenceFileLogWriter) {
+          nextHdfsOut = ((SequenceFileLogWriter)nextWriter).getWriterFSDataOutputStream();
+        }
       }
       // Tell our listeners that a new log was created
       if (!this.listeners.isEmpty()) {
@@ -652,9 +749,77 @@ public class HLog implements Syncable {
       this.logRollRunning = false;
       this.cacheFlushLock.unlock();
     }
+    if (this.standbyExecutor != null) {
+      prepareStandbyWriter();
+    }
     return regionsToFlush;
   }
 
+  /**
+   * A log file opened ahead of time, see {@link #standbyWriter}.
+   */
+  private static class StandbyWriter {
+    final Writer writer;
+    final FSDataOutputStream hdfsOut;
+    final long filenum;
+
+    StandbyWriter(final Writer writer, final FSDataOutputStream hdfsOut,
+        final long filenum) {
+      this.writer = writer;
+      this.hdfsOut = hdfsOut;
+      this.filenum = filenum;
+    }
+  }
+
+  /**
+   * Open the next log file ahead of time, unless there is a standby already.
+   * Its file number is above the current one, so log splitting and
+   * replication read it after the current file whether it is switched to
+   * because of a slow sync or taken by the next roll.
+   */
+  private void prepareStandbyWriter() {
+    synchronized (updateLock) {
+      if (this.closed || this.standbyWriter != null) return;
+    }
+    long num = Math.max(System.currentTimeMillis(), this.filenum + 1);
+    Path path = computeFilename(num);
+    StandbyWriter standby;
+    try {
+      Writer w = createWriterInstance(this.fs, path, this.conf);
+      FSDataOutputStream out = null;
+      if (w instanceof SequenceFileLogWriter) {
+        out = ((SequenceFileLogWriter)w).getWriterFSDataOutputStream();
+      }
+      standby = new StandbyWriter(w, out, num);
+    } catch (IOException e) {
+      LOG.warn("Failed creating standby hlog " + FSUtils.getPath(path), e);
+      return;
+    }
+    synchronized (updateLock) {
+      if (!this.closed && this.standbyWriter == null && num > this.filenum) {
+        this.standbyWriter = standby;
+        return;
+      }
+    }
+    // Closed, raced with another standby or overtaken by a roll.
+    discardStandbyWriter(standby);
+  }
+
+  /**
+   * Close and remove a standby log that never had anything written to it.
+   */
+  private void discardStandbyWriter(final StandbyWriter standby) {
+    Path path = computeFilename(standby.filenum);
+    try {
+      standby.writer.close();
+      if (!this.fs.delete(path, false)) {
+        LOG.warn("Unable to delete standby hlog " + FSUtils.getPath(path));
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed discarding standby hlog " + FSUtils.getPath(path), e);
+    }
+  }
+
   /**
    * This method allows subclasses to inject different writers without having to
    * extend other methods like rollWriter().
@@ -835,7 +1000,10 @@ public class HLog implements Syncable {
       try {
         // Wait till all current transactions are written to the hlog.
         // No new transactions can occur because we have the updatelock.
-        if (this.unflushedEntries.get() != this.syncedTillHere) {
+        // The ring buffer syncer syncs each batch before it lets go of the
+        // updatelock so there is nothing outstanding in that case.
+        if (this.ringBuffer == null &&
+            this.unflushedEntries.get() != this.syncedTillHere) {
           LOG.debug("cleanupCurrentWriter " +
                    " waiting for transactions to get synced " +
                    " total " + this.unflushedEntries.get() +
@@ -959,10 +1127,16 @@ public class HLog implements Syncable {
    */
   public void close() throws IOException {
     try {
-      logSyncerThread.interrupt();
-      logSyncerThread.close();
-      // Make sure we synced everything
-      logSyncerThread.join(this.optionalFlushInterval*2);
+      if (this.ringBufferSyncer != null) {
+        // Not interrupted; it drains what has been published and exits.
+        this.ringBufferSyncer.close();
+        this.ringBufferSyncer.join(this.optionalFlushInterval*2);
+      } else {
+        logSyncerThread.interrupt();
+        logSyncerThread.close();
+        // Make sure we synced everything
+        logSyncerThread.join(this.optionalFlushInterval*2);
+      }
     } catch (InterruptedException e) {
       LOG.error("Exception while waiting for syncer thread to die", e);
     }
@@ -984,6 +1158,17 @@ public class HLog implements Syncable {
           this.writer.close();
         }
       }
+      StandbyWriter standby;
+      synchronized (updateLock) {
+        standby = this.standbyWriter;
+        this.standbyWriter = null;
+      }
+      if (standby != null) {
+        discardStandbyWriter(standby);
+      }
+      if (this.standbyExecutor != null) {
+        this.standbyExecutor.shutdown();
+      }
     } finally {
       cacheFlushLock.unlock();
     }
@@ -1018,21 +1203,27 @@ public class HLog implements Syncable {
       throw new IOException("Cannot append; log is closed");
     }
     long txid = 0;
-    synchronized (updateLock) {
-      long seqNum = obtainSeqNum();
-      logKey.setLogSeqNum(seqNum);
-      // The 'lastSeqWritten' map holds the sequence number of the oldest
-      // write for each region (i.e. the first edit added to the particular
-      // memstore). When the cache is flushed, the entry for the
-      // region being flushed is removed if the sequence number of the flush
-      // is greater than or equal to the value in lastSeqWritten.
-      this.lastSeqWritten.putIfAbsent(regionInfo.getEncodedNameAsBytes(),
-        Long.valueOf(seqNum));
-      doWrite(regionInfo, logKey, logEdit, htd);
-      txid = this.unflushedEntries.incrementAndGet();
-      this.numEntries.incrementAndGet();
-      if (htd.isDeferredLogFlush()) {
-        lastDeferredTxid = txid;
+    if (this.ringBuffer != null) {
+      // The ring buffer syncer stamps the sequence number on logKey.
+      txid = this.ringBuffer.next();
+      this.ringBuffer.publish(txid, regionInfo, logKey, logEdit, htd, true);
+    } else {
+      synchronized (updateLock) {
+        long seqNum = obtainSeqNum();
+        logKey.setLogSeqNum(seqNum);
+        // The 'lastSeqWritten' map holds the sequence number of the oldest
+        // write for each region (i.e. the first edit added to the particular
+        // memstore). When the cache is flushed, the entry for the
+        // region being flushed is removed if the sequence number of the flush
+        // is greater than or equal to the value in lastSeqWritten.
+        this.lastSeqWritten.putIfAbsent(regionInfo.getEncodedNameAsBytes(),
+          Long.valueOf(seqNum));
+        doWrite(regionInfo, logKey, logEdit, htd);
+        txid = this.unflushedEntries.incrementAndGet();
+        this.numEntries.incrementAndGet();
+        if (htd.isDeferredLogFlush()) {
+          lastDeferredTxid = txid;
+        }
       }
     }
 
@@ -1092,28 +1283,40 @@ public class HLog implements Syncable {
   private long append(HRegionInfo info, byte [] tableName, WALEdit edits, UUID clusterId,
       final long now, HTableDescriptor htd, boolean doSync)
     throws IOException {
-      if (edits.isEmpty()) return this.unflushedEntries.get();;
+      if (edits.isEmpty()) {
+        return this.ringBuffer != null?
+          this.ringBuffer.getCursor(): this.unflushedEntries.get();
+      }
       if (this.closed) {
         throw new IOException("Cannot append; log is closed");
       }
       long txid = 0;
-      synchronized (this.updateLock) {
-        long seqNum = obtainSeqNum();
-        // The 'lastSeqWritten' map holds the sequence number of the oldest
-        // write for each region (i.e. the first edit added to the particular
-        // memstore). . When the cache is flushed, the entry for the
-        // region being flushed is removed if the sequence number of the flush
-        // is greater than or equal to the value in lastSeqWritten.
-        // Use encoded name.  Its shorter, guaranteed unique and a subset of
-        // actual  name.
-        byte [] encodedRegionName = info.getEncodedNameAsBytes();
-        this.lastSeqWritten.putIfAbsent(encodedRegionName, seqNum);
-        HLogKey logKey = makeKey(encodedRegionName, tableName, seqNum, now, clusterId);
-        doWrite(info, logKey, edits, htd);
-        this.numEntries.incrementAndGet();
-        txid = this.unflushedEntries.incrementAndGet();
-        if (htd.isDeferredLogFlush()) {
-          lastDeferredTxid = txid;
+      if (this.ringBuffer != null) {
+        // The sequence number is assigned by the ring buffer syncer when it
+        // writes the entry, in the same order entries reach the file.
+        HLogKey logKey = makeKey(info.getEncodedNameAsBytes(), tableName,
+          0, now, clusterId);
+        txid = this.ringBuffer.next();
+        this.ringBuffer.publish(txid, info, logKey, edits, htd, true);
+      } else {
+        synchronized (this.updateLock) {
+          long seqNum = obtainSeqNum();
+          // The 'lastSeqWritten' map holds the sequence number of the oldest
+          // write for each region (i.e. the first edit added to the particular
+          // memstore). . When the cache is flushed, the entry for the
+          // region being flushed is removed if the sequence number of the flush
+          // is greater than or equal to the value in lastSeqWritten.
+          // Use encoded name.  Its shorter, guaranteed unique and a subset of
+          // actual  name.
+          byte [] encodedRegionName = info.getEncodedNameAsBytes();
+          this.lastSeqWritten.putIfAbsent(encodedRegionName, seqNum);
+          HLogKey logKey = makeKey(encodedRegionName, tableName, seqNum, now, clusterId);
+          doWrite(info, logKey, edits, htd);
+          this.numEntries.incrementAndGet();
+          txid = this.unflushedEntries.incrementAndGet();
+          if (htd.isDeferredLogFlush()) {
+            lastDeferredTxid = txid;
+          }
         }
       }
       // Sync if catalog region, and if not then check if that table supports
@@ -1243,13 +1446,278 @@ public class HLog implements Syncable {
     }
   }
 
+  /**
+   * Single consumer of {@link #ringBuffer}. Takes whatever producers have
+   * published, assigns sequence numbers in slot order, appends the entries and
+   * syncs once for the whole batch before waking the waiters parked on the
+   * batch's slots. It holds updateLock only while it has the writer in hand so
+   * a log roll can swap writers between batches.
+   */
+  class RingBufferSyncer extends HasThread {
+    private final long optionalFlushInterval;
+    private volatile boolean closeSyncer = false;
+    private final List<WALRingBuffer.Slot> batch;
+
+    RingBufferSyncer(long optionalFlushInterval) {
+      this.optionalFlushInterval = optionalFlushInterval;
+      this.batch = new ArrayList<WALRingBuffer.Slot>(ringBuffer.getCapacity());
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!this.closeSyncer) {
+          if (ringBuffer.drainTo(this.batch, ringBuffer.getCapacity()) == 0) {
+            ringBuffer.waitForPublish(this.optionalFlushInterval);
+            continue;
+          }
+          processBatch();
+        }
+        // Flush out whatever was published before we were asked to close.
+        while (ringBuffer.drainTo(this.batch, ringBuffer.getCapacity()) > 0) {
+          processBatch();
+        }
+      } finally {
+        LOG.info(getName() + " exiting");
+      }
+    }
+
+    private void processBatch() {
+      IOException error = null;
+      long now = System.currentTimeMillis();
+      synchronized (updateLock) {
+        try {
+          if (closed) {
+            throw new IOException("Cannot append; log is closed");
+          }
+          for (WALRingBuffer.Slot slot : this.batch) {
+            writeSlot(slot);
+          }
+          if (standbyExecutor != null) {
+            syncOrSwitch();
+          } else {
+            writer.sync();
+          }
+        } catch (IOException e) {
+          error = e;
+        }
+      }
+      long last = this.batch.get(this.batch.size() - 1).getSequence();
+      if (error == null) {
+        syncBatchSize.addAndGet(this.batch.size());
+        syncedTillHere = last;
+        syncTime.inc(System.currentTimeMillis() - now);
+      } else {
+        failedTillHere = last;
+      }
+      ringBuffer.complete(this.batch, error);
+      this.batch.clear();
+      if (error != null) {
+        if (!closed) {
+          LOG.fatal("Could not sync. Requesting close of hlog", error);
+          requestLogRoll();
+        }
+      } else if (!logRollRunning) {
+        checkLowReplication();
+        try {
+          if (writer.getLength() > logrollsize) {
+            requestLogRoll();
+          }
+        } catch (IOException e) {
+          LOG.warn("Failed getting length of hlog writer", e);
+          requestLogRoll();
+        }
+      }
+    }
+
+    private void writeSlot(WALRingBuffer.Slot slot) throws IOException {
+      if (slot.assignSeqNum) {
+        long seqNum = obtainSeqNum();
+        slot.key.setLogSeqNum(seqNum);
+        // See the comment on lastSeqWritten in append; we are the only writer
+        // of new entries so the first edit of a memstore wins here.
+        lastSeqWritten.putIfAbsent(slot.info.getEncodedNameAsBytes(),
+          Long.valueOf(seqNum));
+      }
+      if (slot.info == null) {
+        // Cache flush marker; no listeners or coprocessors see those.
+        writer.append(new Entry(slot.key, slot.edit));
+      } else {
+        doWrite(slot.info, slot.key, slot.edit, slot.htd);
+      }
+      numEntries.incrementAndGet();
+    }
+
+    /**
+     * Sync the current writer from another thread, giving it
+     * standbySyncTimeout ms before moving the batch over to the standby log.
+     * Called holding updateLock.
+     */
+    private void syncOrSwitch() throws IOException {
+      final Writer current = writer;
+      Future<Void> pending = standbyExecutor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          current.sync();
+          return null;
+        }
+      });
+      try {
+        try {
+          pending.get(standbySyncTimeout, TimeUnit.MILLISECONDS);
+          return;
+        } catch (TimeoutException e) {
+          if (switchToStandby(current, pending)) return;
+        }
+        // No standby to go to; wait it out.
+        pending.get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) throw (IOException)cause;
+        throw new IOException(cause);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw (InterruptedIOException)
+          new InterruptedIOException("Interrupted syncing hlog").initCause(e);
+      }
+    }
+
+    /**
+     * Write the current batch to the standby log, sync it and make it the
+     * current writer. The entries of the batch may end up in both files; the
+     * old one is read first on replay and the copies carry the same sequence
+     * numbers, so applying them twice is harmless. Called holding updateLock.
+     * @return false if there was no standby to switch to or using it failed,
+     * in which case the caller keeps waiting on the current writer
+     */
+    private boolean switchToStandby(final Writer current,
+        final Future<Void> pending) {
+      // Rolls and cache flush bookkeeping hold this; leave the file alone
+      // while they run.
+      if (!cacheFlushLock.tryLock()) return false;
+      try {
+        StandbyWriter standby = standbyWriter;
+        if (standby == null) return false;
+        standbyWriter = null;
+        Path oldPath = computeFilename(filenum);
+        Path newPath = computeFilename(standby.filenum);
+        try {
+          for (WALRingBuffer.Slot slot : this.batch) {
+            standby.writer.append(new Entry(slot.key, slot.edit));
+          }
+          standby.writer.sync();
+          if (!listeners.isEmpty()) {
+            for (WALActionsListener i : listeners) {
+              i.preLogRoll(oldPath, newPath);
+            }
+          }
+        } catch (IOException e) {
+          LOG.warn("Failed switching to standby hlog " +
+            FSUtils.getPath(newPath) + "; waiting on the current one", e);
+          discardStandbyWriter(standby);
+          return false;
+        }
+        outputfiles.put(Long.valueOf(logSeqNum.get()), oldPath);
+        writer = standby.writer;
+        hdfs_out = standby.hdfsOut;
+        filenum = standby.filenum;
+        numEntries.set(this.batch.size());
+        standbySwitchCount.incrementAndGet();
+        LOG.warn("Sync of " + FSUtils.getPath(oldPath) + " took more than " +
+          standbySyncTimeout + "ms; switched to " + FSUtils.getPath(newPath));
+        if (!listeners.isEmpty()) {
+          for (WALActionsListener i : listeners) {
+            try {
+              i.postLogRoll(oldPath, newPath);
+            } catch (IOException e) {
+              LOG.warn("Listener failed on switch to " + newPath, e);
+            }
+          }
+        }
+        closeAbandonedWriter(current, pending, oldPath);
+        standbyExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            prepareStandbyWriter();
+          }
+        });
+        return true;
+      } finally {
+        cacheFlushLock.unlock();
+      }
+    }
+
+    private void closeAbandonedWriter(final Writer w, final Future<Void> pending,
+        final Path path) {
+      standbyExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            pending.get();
+          } catch (Exception e) {
+            // Its edits were synced to the standby.
+            LOG.info("Abandoned sync of " + FSUtils.getPath(path) +
+              " failed: " + e);
+          }
+          try {
+            w.close();
+          } catch (IOException e) {
+            LOG.warn("Failed close of abandoned hlog " +
+              FSUtils.getPath(path), e);
+          }
+        }
+      });
+    }
+
+    void close() {
+      this.closeSyncer = true;
+      LockSupport.unpark(getThread());
+    }
+  }
+
   // sync all known transactions
   private void syncer() throws IOException {
+    if (this.ringBuffer != null) {
+      syncer(this.ringBuffer.getCursor());
+      return;
+    }
     syncer(this.unflushedEntries.get()); // sync all pending items
   }
 
+  /*
+   * Wait on the ring buffer slot of txid until the ring buffer syncer has
+   * synced the batch holding it. Throws the error of that batch if it failed.
+   */
+  private void ringBufferSync(long txid) throws IOException {
+    // A later batch may have been synced after the one holding txid failed,
+    // so only skip the wait if no batch failed at or after txid. Nothing was
+    // appended below txid 1.
+    if (txid <= 0 ||
+        (txid <= this.syncedTillHere && txid > this.failedTillHere)) {
+      return;
+    }
+    try {
+      while (!this.ringBuffer.await(txid, this.optionalFlushInterval)) {
+        if (this.closed && !this.ringBufferSyncer.isAlive()) {
+          throw new IOException("HLog closed before txid " + txid +
+            " was synced");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException iie = new InterruptedIOException(
+        "Interrupted waiting on sync of txid " + txid);
+      iie.initCause(e);
+      throw iie;
+    }
+  }
+
   // sync all transactions upto the specified txid
   private void syncer(long txid) throws IOException {
+    if (this.ringBuffer != null) {
+      ringBufferSync(txid);
+      return;
+    }
     synchronized (this.updateLock) {
       if (this.closed) return;
     }
@@ -1411,8 +1879,13 @@ public class HLog implements Syncable {
       long now = System.currentTimeMillis();
       // coprocessor hook:
       if (!coprocessorHost.preWALWrite(info, logKey, logEdit)) {
-        // write to our buffer for the Hlog file.
-        logSyncerThread.append(new HLog.Entry(logKey, logEdit));
+        if (this.ringBuffer != null) {
+          // We are on the ring buffer syncer, which owns the writer.
+          this.writer.append(new HLog.Entry(logKey, logEdit));
+        } else {
+          // write to our buffer for the Hlog file.
+          logSyncerThread.append(new HLog.Entry(logKey, logEdit));
+        }
       }
       long took = System.currentTimeMillis() - now;
       coprocessorHost.postWALWrite(info, logKey, logEdit);
@@ -1496,6 +1969,17 @@ public class HLog implements Syncable {
    */
   public long startCacheFlush(final byte[] encodedRegionName) {
     this.cacheFlushLock.lock();
+    if (this.ringBuffer != null) {
+      // Edits already appended may not have been given their sequence number
+      // yet; let the syncer catch up so lastSeqWritten is current and the
+      // sequence number we hand out is above every edit in the snapshot.
+      try {
+        ringBufferSync(this.ringBuffer.getCursor());
+      } catch (IOException e) {
+        LOG.warn("Failed waiting on ring buffer before cache flush of " +
+          Bytes.toString(encodedRegionName), e);
+      }
+    }
     Long seq = this.lastSeqWritten.remove(encodedRegionName);
     // seq is the lsn of the oldest edit associated with this region. If a
     // snapshot already exists - because the last flush failed - then seq will
@@ -1530,31 +2014,74 @@ public class HLog implements Syncable {
    */
   public void completeCacheFlush(final byte [] encodedRegionName,
       final byte [] tableName, final long logSeqId, final boolean isMetaRegion)
+  throws IOException {
+    completeCacheFlush(encodedRegionName, tableName, logSeqId, isMetaRegion,
+        -1);
+  }
+
+  /**
+   * Complete a cache flush that left some stores of the region out.
+   *
+   * Protected by cacheFlushLock
+   *
+   * @param encodedRegionName
+   * @param tableName
+   * @param logSeqId
+   * @param oldestUnflushedSeqId no more than the sequence id of any edit
+   * still in the memstores of the stores not flushed, or -1 if all stores were
+   * flushed. The region keeps the edits from there on, so that the logs
+   * holding them are not archived.
+   * @throws IOException
+   */
+  public void completeCacheFlush(final byte [] encodedRegionName,
+      final byte [] tableName, final long logSeqId, final boolean isMetaRegion,
+      final long oldestUnflushedSeqId)
   throws IOException {
     try {
       if (this.closed) {
         return;
       }
       long txid = 0;
-      synchronized (updateLock) {
-        long now = System.currentTimeMillis();
+      if (this.ringBuffer != null) {
         WALEdit edit = completeCacheFlushLogEdit();
         HLogKey key = makeKey(encodedRegionName, tableName, logSeqId,
             System.currentTimeMillis(), HConstants.DEFAULT_CLUSTER_ID);
-        logSyncerThread.append(new Entry(key, edit));
-        txid = this.unflushedEntries.incrementAndGet();
-        writeTime.inc(System.currentTimeMillis() - now);
-        long len = 0;
-        for (KeyValue kv : edit.getKeyValues()) {
-          len += kv.getLength();
+        txid = this.ringBuffer.next();
+        this.ringBuffer.publish(txid, null, key, edit, null, false);
+      } else {
+        synchronized (updateLock) {
+          long now = System.currentTimeMillis();
+          WALEdit edit = completeCacheFlushLogEdit();
+          HLogKey key = makeKey(encodedRegionName, tableName, logSeqId,
+              System.currentTimeMillis(), HConstants.DEFAULT_CLUSTER_ID);
+          logSyncerThread.append(new Entry(key, edit));
+          txid = this.unflushedEntries.incrementAndGet();
+          writeTime.inc(System.currentTimeMillis() - now);
+          long len = 0;
+          for (KeyValue kv : edit.getKeyValues()) {
+            len += kv.getLength();
+          }
+          writeSize.inc(len);
+          this.numEntries.incrementAndGet();
         }
-        writeSize.inc(len);
-        this.numEntries.incrementAndGet();
       }
       // sync txn to file system
       this.sync(txid);
 
     } finally {
+      if (oldestUnflushedSeqId >= 0) {
+        Long snapshotSeq =
+          this.lastSeqWritten.get(getSnapshotName(encodedRegionName));
+        if (snapshotSeq != null) {
+          // The unflushed edits are no older than the oldest of the snapshot.
+          // Edits appended since the flush started all come after them.
+          long seq = Math.max(snapshotSeq.longValue(), oldestUnflushedSeqId);
+          Long current = this.lastSeqWritten.put(encodedRegionName, seq);
+          if (current != null && current.longValue() < seq) {
+            this.lastSeqWritten.put(encodedRegionName, current);
+          }
+        }
+      }
       // updateLock not needed for removing snapshot's entry
       // Cleaning up of lastSeqWritten is in the finally clause because we
       // don't want to confuse getOldestOutstandingSeqNum()
@@ -1671,6 +2198,16 @@ public class HLog implements Syncable {
       return key;
     }
 
+    /**
+     * Set the dictionaries the key and edit are compressed with when written
+     * to or read from a log file; null to go back to plain serialization.
+     * @param compressionContext
+     */
+    void setCompressionContext(CompressionContext compressionContext) {
+      this.key.setCompressionContext(compressionContext);
+      this.edit.setCompressionContext(compressionContext);
+    }
+
     @Override
     public String toString() {
       return this.key + "=" + this.edit;
@@ -1715,6 +2252,43 @@ public class HLog implements Syncable {
     return pattern.matcher(filename).matches();
   }
 
+  /**
+   * A region server running more than one HLog names each of them after the
+   * server plus this infix and the index of the log, so all of them can share
+   * the server's log directory.
+   * @param serverName the prefix used for the first HLog of the server
+   * @param index index of the HLog on the server, 0 for the first one
+   * @return prefix to pass when creating the HLog
+   */
+  public static String getPrefixForIndex(final String serverName,
+      final int index) {
+    return index == 0? serverName: serverName + ".wal" + index;
+  }
+
+  /**
+   * Get the part of an HLog file name that precedes its file number. All the
+   * files written by the same HLog instance share it.
+   * @param logName name of an HLog file
+   * @return the name without its trailing file number
+   */
+  public static String getLogPrefix(final String logName) {
+    int index = logName.lastIndexOf('.');
+    return index < 0? logName: logName.substring(0, index);
+  }
+
+  /**
+   * @param logName name of an HLog file
+   * @return the file number of the log, -1 if the name doesn't end with one
+   */
+  static long getLogFileNum(final String logName) {
+    int index = logName.lastIndexOf('.');
+    try {
+      return Long.parseLong(logName.substring(index + 1));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
   static Path getHLogArchivePath(Path oldLogDir, Path p) {
     return new Path(oldLogDir, p.getName());
   }
@@ -57,6 +57,9 @@ public class HLogKey implements WritableComparable<HLogKey> {
 
   private UUID clusterId;
 
+  // Set while reading or writing a compressed log file.
+  private CompressionContext compressionContext;
+
   /** Writable Consructor -- Do not use. */
   public HLogKey() {
     this(null, null, 0L, HConstants.LATEST_TIMESTAMP,
@@ -84,6 +87,14 @@ public class HLogKey implements WritableComparable<HLogKey> {
     this.clusterId = clusterId;
   }
 
+  /**
+   * @param compressionContext dictionaries to compress the region and table
+   * names with on the next write or read, or null for none
+   */
+  void setCompressionContext(CompressionContext compressionContext) {
+    this.compressionContext = compressionContext;
+  }
+
   /** @return encoded region name */
   public byte [] getEncodedRegionName() {
     return encodedRegionName;
@@ -216,8 +227,16 @@ public class HLogKey implements WritableComparable<HLogKey> {
   @Override
   public void write(DataOutput out) throws IOException {
     WritableUtils.writeVInt(out, VERSION);
-    Bytes.writeByteArray(out, this.encodedRegionName);
-    Bytes.writeByteArray(out, this.tablename);
+    if (this.compressionContext == null) {
+      Bytes.writeByteArray(out, this.encodedRegionName);
+      Bytes.writeByteArray(out, this.tablename);
+    } else {
+      Compressor.writeCompressed(this.encodedRegionName, 0,
+        this.encodedRegionName.length, out,
+        this.compressionContext.regionDict);
+      Compressor.writeCompressed(this.tablename, 0, this.tablename.length,
+        out, this.compressionContext.tableDict);
+    }
     out.writeLong(this.logSeqNum);
     out.writeLong(this.writeTime);
     // avoid storing 16 bytes when replication is not enabled
@@ -245,11 +264,21 @@ public class HLogKey implements WritableComparable<HLogKey> {
     if (len < 0) {
       // what we just read was the version
       version = len;
-      len = WritableUtils.readVInt(in);
+      // Compressed logs are always written with a version.
+      if (this.compressionContext == null) {
+        len = WritableUtils.readVInt(in);
+      }
+    }
+    if (this.compressionContext == null) {
+      this.encodedRegionName = new byte[len];
+      in.readFully(this.encodedRegionName);
+      this.tablename = Bytes.readByteArray(in);
+    } else {
+      this.encodedRegionName = Compressor.readCompressed(in,
+        this.compressionContext.regionDict);
+      this.tablename = Compressor.readCompressed(in,
+        this.compressionContext.tableDict);
     }
-    this.encodedRegionName = new byte[len];
-    in.readFully(this.encodedRegionName);
-    this.tablename = Bytes.readByteArray(in);
     this.logSeqNum = in.readLong();
     this.writeTime = in.readLong();
     this.clusterId = HConstants.DEFAULT_CLUSTER_ID;
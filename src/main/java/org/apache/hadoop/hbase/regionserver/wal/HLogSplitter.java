@@ -26,7 +26,9 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -199,6 +201,7 @@ public class HLogSplitter {
     }
     logAndReport("Splitting " + logfiles.length + " hlog(s) in "
     + srcDir.toString());
+    sortLogFiles(logfiles);
     splits = splitLog(logfiles);
 
     splitTime = EnvironmentEdgeManager.currentTimeMillis() - startTime;
@@ -209,6 +212,29 @@ public class HLogSplitter {
     return splits;
   }
   
+  /**
+   * A region server may run several HLogs side by side in the same directory
+   * (see hbase.regionserver.hlog.count). A region only ever writes to one of
+   * them, so its edits stay in order as long as the files of each HLog are
+   * split oldest first. Sort by log prefix, then by file number.
+   * @param logfiles files to sort in place
+   */
+  static void sortLogFiles(final FileStatus[] logfiles) {
+    Arrays.sort(logfiles, new Comparator<FileStatus>() {
+      @Override
+      public int compare(FileStatus o1, FileStatus o2) {
+        String n1 = o1.getPath().getName();
+        String n2 = o2.getPath().getName();
+        int ret = HLog.getLogPrefix(n1).compareTo(HLog.getLogPrefix(n2));
+        if (ret != 0) return ret;
+        long f1 = HLog.getLogFileNum(n1);
+        long f2 = HLog.getLogFileNum(n2);
+        if (f1 != f2) return f1 < f2? -1: 1;
+        return n1.compareTo(n2);
+      }
+    });
+  }
+
   private void logAndReport(String msg) {
     status.setStatus(msg);
     LOG.info(msg);
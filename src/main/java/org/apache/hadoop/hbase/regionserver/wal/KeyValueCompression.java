@@ -0,0 +1,96 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Writes a {@link KeyValue} with its row, family and qualifier run through
+ * the dictionaries of a {@link CompressionContext}. The layout is: key length
+ * and value length as vints, compressed row, family and qualifier, then the
+ * timestamp, type and value as is.
+ */
+@InterfaceAudience.Private
+class KeyValueCompression {
+  private KeyValueCompression() {
+  }
+
+  static void writeKV(final DataOutput out, final KeyValue kv,
+      final CompressionContext ctx)
+  throws IOException {
+    byte [] buffer = kv.getBuffer();
+    int keyLength = kv.getKeyLength();
+    int valueLength = kv.getValueLength();
+    WritableUtils.writeVInt(out, keyLength);
+    WritableUtils.writeVInt(out, valueLength);
+    int roffset = kv.getRowOffset();
+    short rlength = kv.getRowLength();
+    Compressor.writeCompressed(buffer, roffset, rlength, out, ctx.rowDict);
+    int foffset = kv.getFamilyOffset(rlength);
+    byte flength = kv.getFamilyLength(foffset);
+    Compressor.writeCompressed(buffer, foffset, flength, out, ctx.familyDict);
+    int qoffset = kv.getQualifierOffset(foffset);
+    int qlength = kv.getQualifierLength(rlength, flength);
+    Compressor.writeCompressed(buffer, qoffset, qlength, out,
+      ctx.qualifierDict);
+    // Timestamp, type and value are contiguous.
+    int remainingOffset = qoffset + qlength;
+    out.write(buffer, remainingOffset,
+      KeyValue.TIMESTAMP_TYPE_SIZE + valueLength);
+  }
+
+  static KeyValue readKV(final DataInput in, final CompressionContext ctx)
+  throws IOException {
+    int keyLength = WritableUtils.readVInt(in);
+    int valueLength = WritableUtils.readVInt(in);
+    int length = KeyValue.KEYVALUE_INFRASTRUCTURE_SIZE + keyLength +
+      valueLength;
+    byte [] backing = new byte[length];
+    int pos = Bytes.putInt(backing, 0, keyLength);
+    pos = Bytes.putInt(backing, pos, valueLength);
+    // Row, preceded by its short length.
+    int rlength = Compressor.readCompressed(in, backing,
+      pos + KeyValue.ROW_LENGTH_SIZE, ctx.rowDict);
+    Bytes.putShort(backing, pos, (short)rlength);
+    pos += KeyValue.ROW_LENGTH_SIZE + rlength;
+    // Family, preceded by its byte length.
+    int flength = Compressor.readCompressed(in, backing,
+      pos + KeyValue.FAMILY_LENGTH_SIZE, ctx.familyDict);
+    backing[pos] = (byte)flength;
+    pos += KeyValue.FAMILY_LENGTH_SIZE + flength;
+    int qlength = Compressor.readCompressed(in, backing, pos,
+      ctx.qualifierDict);
+    pos += qlength;
+    int remaining = length - pos;
+    if (remaining != KeyValue.TIMESTAMP_TYPE_SIZE + valueLength) {
+      throw new IOException("Bad compressed KeyValue; key length " +
+        keyLength + " does not match row/family/qualifier lengths");
+    }
+    in.readFully(backing, pos, remaining);
+    return new KeyValue(backing, 0, length);
+  }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.util.HashMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * {@link Dictionary} holding up to a fixed number of entries and evicting the
+ * least recently used one when full. Lookups, additions and evictions are
+ * deterministic so two instances fed the same calls stay in step.
+ */
+@InterfaceAudience.Private
+class LRUDictionary implements Dictionary {
+  // Indices are written as shorts, high byte first; keeping them below
+  // Short.MAX_VALUE means the first byte never reads as NOT_IN_DICTIONARY.
+  static final short MAX_SIZE = Short.MAX_VALUE;
+
+  private final Node [] indexToNode;
+  private final HashMap<Node, Short> nodeToIndex = new HashMap<Node, Short>();
+  private int currSize = 0;
+  // Most and least recently used ends of the list.
+  private Node head;
+  private Node tail;
+
+  LRUDictionary() {
+    this(MAX_SIZE);
+  }
+
+  LRUDictionary(final int capacity) {
+    if (capacity <= 0 || capacity > MAX_SIZE) {
+      throw new IllegalArgumentException("Capacity must be in (0, " +
+        MAX_SIZE + "]: " + capacity);
+    }
+    this.indexToNode = new Node[capacity];
+    for (int i = 0; i < capacity; i++) {
+      this.indexToNode[i] = new Node();
+    }
+  }
+
+  @Override
+  public byte [] getEntry(short idx) {
+    if (idx < 0 || idx >= this.currSize) {
+      return null;
+    }
+    Node node = this.indexToNode[idx];
+    moveToHead(node);
+    return node.container;
+  }
+
+  @Override
+  public short findEntry(byte [] data, int offset, int length) {
+    Short idx = this.nodeToIndex.get(new Node(data, offset, length));
+    if (idx == null) {
+      addEntry(data, offset, length);
+      return NOT_IN_DICTIONARY;
+    }
+    moveToHead(this.indexToNode[idx.shortValue()]);
+    return idx.shortValue();
+  }
+
+  @Override
+  public short addEntry(byte [] data, int offset, int length) {
+    byte [] copy = new byte[length];
+    System.arraycopy(data, offset, copy, 0, length);
+    short idx;
+    if (this.currSize < this.indexToNode.length) {
+      idx = (short)this.currSize++;
+    } else {
+      // Reuse the slot of the least recently used entry.
+      Node lru = this.tail;
+      this.nodeToIndex.remove(lru);
+      unlink(lru);
+      idx = lru.index;
+    }
+    Node node = this.indexToNode[idx];
+    node.setContents(copy, 0, length);
+    node.index = idx;
+    this.nodeToIndex.put(node, Short.valueOf(idx));
+    linkAtHead(node);
+    return idx;
+  }
+
+  @Override
+  public void clear() {
+    this.nodeToIndex.clear();
+    for (int i = 0; i < this.currSize; i++) {
+      Node node = this.indexToNode[i];
+      node.setContents(null, 0, 0);
+      node.prev = null;
+      node.next = null;
+    }
+    this.currSize = 0;
+    this.head = null;
+    this.tail = null;
+  }
+
+  int size() {
+    return this.currSize;
+  }
+
+  private void moveToHead(final Node node) {
+    if (node == this.head) return;
+    unlink(node);
+    linkAtHead(node);
+  }
+
+  private void unlink(final Node node) {
+    if (node.prev != null) {
+      node.prev.next = node.next;
+    } else {
+      this.head = node.next;
+    }
+    if (node.next != null) {
+      node.next.prev = node.prev;
+    } else {
+      this.tail = node.prev;
+    }
+    node.prev = null;
+    node.next = null;
+  }
+
+  private void linkAtHead(final Node node) {
+    node.next = this.head;
+    node.prev = null;
+    if (this.head != null) {
+      this.head.prev = node;
+    }
+    this.head = node;
+    if (this.tail == null) {
+      this.tail = node;
+    }
+  }
+
+  /**
+   * An entry of the dictionary; doubles as the lookup key.
+   */
+  private static class Node {
+    byte [] container;
+    int offset;
+    int length;
+    short index;
+    Node prev;
+    Node next;
+
+    Node() {
+    }
+
+    Node(final byte [] container, final int offset, final int length) {
+      setContents(container, offset, length);
+    }
+
+    void setContents(final byte [] container, final int offset,
+        final int length) {
+      this.container = container;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = 1;
+      for (int i = this.offset; i < this.offset + this.length; i++) {
+        hash = (31 * hash) + this.container[i];
+      }
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Node)) {
+        return false;
+      }
+      Node n = (Node)other;
+      return Bytes.equals(this.container, this.offset, this.length,
+        n.container, n.offset, n.length);
+    }
+  }
+}
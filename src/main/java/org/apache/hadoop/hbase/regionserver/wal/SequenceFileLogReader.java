@@ -36,6 +36,7 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
 
 @InterfaceAudience.Private
 public class SequenceFileLogReader implements HLog.Reader {
@@ -135,11 +136,17 @@ public class SequenceFileLogReader implements HLog.Reader {
   }
 
   Configuration conf;
+  FileSystem fs;
   WALReader reader;
   // Needed logging exceptions
   Path path;
   int edit = 0;
   long entryStart = 0;
+  // Dictionaries if the file is compressed, else null.
+  private CompressionContext compressionContext;
+  // True if the last call to next failed part way through an entry, in which
+  // case the dictionaries may hold some of its words.
+  private boolean nextFailed = false;
 
   protected Class<? extends HLogKey> keyClass;
 
@@ -164,8 +171,21 @@ public class SequenceFileLogReader implements HLog.Reader {
   public void init(FileSystem fs, Path path, Configuration conf)
       throws IOException {
     this.conf = conf;
+    this.fs = fs;
     this.path = path;
     reader = new WALReader(fs, path, conf);
+    Text compressed = reader.getMetadata().get(
+      SequenceFileLogWriter.COMPRESSION_METADATA_KEY);
+    if (SequenceFileLogWriter.COMPRESSION_METADATA_VALUE.equals(compressed)) {
+      this.compressionContext = new CompressionContext();
+    }
+  }
+
+  /**
+   * @return true if the entries of this file are dictionary compressed
+   */
+  boolean isCompressed() {
+    return this.compressionContext != null;
   }
 
   @Override
@@ -204,10 +224,20 @@ public class SequenceFileLogReader implements HLog.Reader {
       e = new HLog.Entry(key, val);
     }
     boolean b = false;
+    if (this.compressionContext != null) {
+      e.setCompressionContext(this.compressionContext);
+    }
     try {
       b = this.reader.next(e.getKey(), e.getEdit());
+      this.nextFailed = false;
     } catch (IOException ioe) {
+      this.nextFailed = true;
       throw addFileInfoToException(ioe);
+    } finally {
+      if (this.compressionContext != null) {
+        // Callers may ship or rewrite the entry; it must serialize plain.
+        e.setCompressionContext(null);
+      }
     }
     edit++;
     return b? e: null;
@@ -215,6 +245,10 @@ public class SequenceFileLogReader implements HLog.Reader {
 
   @Override
   public void seek(long pos) throws IOException {
+    if (this.compressionContext != null) {
+      seekCompressed(pos);
+      return;
+    }
     try {
       reader.seek(pos);
     } catch (IOException ioe) {
@@ -222,6 +256,59 @@ public class SequenceFileLogReader implements HLog.Reader {
     }
   }
 
+  /**
+   * The dictionaries at <code>pos</code> depend on every entry before it, so
+   * rather than jump there we read up to it, starting over from the top of
+   * the file if <code>pos</code> is behind us.
+   */
+  private void seekCompressed(long pos) throws IOException {
+    if (pos < getPosition() || this.nextFailed) {
+      this.reader.close();
+      this.reader = new WALReader(this.fs, this.path, this.conf);
+      this.compressionContext.clear();
+      this.nextFailed = false;
+      this.edit = 0;
+    }
+    while (getPosition() < pos) {
+      if (next() == null) {
+        throw addFileInfoToException(new IOException("Cannot seek to " +
+          pos + " in compressed log; reached the end at " + getPosition()));
+      }
+    }
+    if (getPosition() != pos) {
+      throw addFileInfoToException(new IOException("Cannot seek to " + pos +
+        " in compressed log; it is not the start of an entry"));
+    }
+  }
+
+  /**
+   * Reopen the file to see what has been appended to it since it was opened,
+   * going back to where we were. The dictionaries describe everything before
+   * that position, so a compressed log does not have to be decoded again from
+   * the top unless the last read failed part way through an entry.
+   */
+  @Override
+  public void reset() throws IOException {
+    long pos = this.nextFailed ? this.entryStart : getPosition();
+    WALReader reopened = new WALReader(this.fs, this.path, this.conf);
+    try {
+      this.reader.close();
+    } catch (IOException ioe) {
+      LOG.warn("Failed closing " + this.path + " before reopening it", ioe);
+    }
+    this.reader = reopened;
+    if (this.compressionContext != null && this.nextFailed) {
+      seekCompressed(pos);
+      return;
+    }
+    this.nextFailed = false;
+    try {
+      this.reader.seek(pos);
+    } catch (IOException ioe) {
+      throw addFileInfoToException(ioe);
+    }
+  }
+
   @Override
   public long getPosition() throws IOException {
     return reader.getPosition();
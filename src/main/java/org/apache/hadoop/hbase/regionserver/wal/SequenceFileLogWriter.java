@@ -36,6 +36,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.SequenceFile.Metadata;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.DefaultCodec;
 
@@ -45,6 +46,18 @@ import org.apache.hadoop.io.compress.DefaultCodec;
  */
 @InterfaceAudience.Private
 public class SequenceFileLogWriter implements HLog.Writer {
+  /**
+   * If true, new log files are written with their region and table names,
+   * rows, families and qualifiers dictionary compressed.
+   */
+  public static final String ENABLE_COMPRESSION_KEY =
+    "hbase.regionserver.wal.enablecompression";
+
+  // Set in the SequenceFile metadata of compressed log files.
+  static final Text COMPRESSION_METADATA_KEY =
+    new Text("hbase.regionserver.wal.compressed");
+  static final Text COMPRESSION_METADATA_VALUE = new Text("true");
+
   private final Log LOG = LogFactory.getLog(this.getClass());
   // The sequence file we delegate to.
   private SequenceFile.Writer writer;
@@ -57,6 +70,9 @@ public class SequenceFileLogWriter implements HLog.Writer {
   private Method syncFs = null;
   private Method hflush = null;
 
+  // Dictionaries for this file if it is compressed, else null.
+  private CompressionContext compressionContext;
+
   /**
    * Default constructor.
    */
@@ -82,6 +98,12 @@ public class SequenceFileLogWriter implements HLog.Writer {
       keyClass = HLog.getKeyClass(conf);
     }
 
+    Metadata metadata = new Metadata();
+    if (conf.getBoolean(ENABLE_COMPRESSION_KEY, false)) {
+      this.compressionContext = new CompressionContext();
+      metadata.set(COMPRESSION_METADATA_KEY, COMPRESSION_METADATA_VALUE);
+    }
+
     // Create a SF.Writer instance.
     try {
       // reflection for a version of SequenceFile.createWriter that doesn't
@@ -101,7 +123,7 @@ public class SequenceFileLogWriter implements HLog.Writer {
                 fs.getDefaultBlockSize())),
             Boolean.valueOf(false) /*createParent*/,
             SequenceFile.CompressionType.NONE, new DefaultCodec(),
-            new Metadata()
+            metadata
             });
     } catch (InvocationTargetException ite) {
       // function was properly called, but threw it's own exception
@@ -123,7 +145,7 @@ public class SequenceFileLogWriter implements HLog.Writer {
         SequenceFile.CompressionType.NONE,
         new DefaultCodec(),
         null,
-        new Metadata());
+        metadata);
     } else {
       LOG.debug("using new createWriter -- HADOOP-6840");
     }
@@ -133,7 +155,8 @@ public class SequenceFileLogWriter implements HLog.Writer {
     this.hflush = getHFlush();
     String msg = "Path=" + path +
       ", syncFs=" + (this.syncFs != null) +
-      ", hflush=" + (this.hflush != null);
+      ", hflush=" + (this.hflush != null) +
+      ", compression=" + (this.compressionContext != null);
     if (this.syncFs != null || this.hflush != null) {
       LOG.debug(msg);
     } else {
@@ -207,7 +230,19 @@ public class SequenceFileLogWriter implements HLog.Writer {
 
   @Override
   public void append(HLog.Entry entry) throws IOException {
-    this.writer.append(entry.getKey(), entry.getEdit());
+    if (this.compressionContext == null) {
+      this.writer.append(entry.getKey(), entry.getEdit());
+      return;
+    }
+    // The entry is serialized by the time append returns; don't leave the
+    // dictionaries attached to an entry that may go elsewhere, e.g. to
+    // another log file after a roll.
+    entry.setCompressionContext(this.compressionContext);
+    try {
+      this.writer.append(entry.getKey(), entry.getEdit());
+    } finally {
+      entry.setCompressionContext(null);
+    }
   }
 
   @Override
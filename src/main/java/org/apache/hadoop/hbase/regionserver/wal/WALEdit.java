@@ -76,9 +76,20 @@ public class WALEdit implements Writable, HeapSize {
   private final ArrayList<KeyValue> kvs = new ArrayList<KeyValue>();
   private NavigableMap<byte[], Integer> scopes;
 
+  // Set while reading or writing a compressed log file.
+  private CompressionContext compressionContext;
+
   public WALEdit() {
   }
 
+  /**
+   * @param compressionContext dictionaries to compress the KeyValues with on
+   * the next write or read, or null for none
+   */
+  void setCompressionContext(final CompressionContext compressionContext) {
+    this.compressionContext = compressionContext;
+  }
+
   public void add(KeyValue kv) {
     this.kvs.add(kv);
   }
@@ -116,9 +127,13 @@ public class WALEdit implements Writable, HeapSize {
       // this is new style HLog entry containing multiple KeyValues.
       int numEdits = in.readInt();
       for (int idx = 0; idx < numEdits; idx++) {
-        KeyValue kv = new KeyValue();
-        kv.readFields(in);
-        this.add(kv);
+        if (compressionContext != null) {
+          this.add(KeyValueCompression.readKV(in, compressionContext));
+        } else {
+          KeyValue kv = new KeyValue();
+          kv.readFields(in);
+          this.add(kv);
+        }
       }
       int numFamilies = in.readInt();
       if (numFamilies > 0) {
@@ -146,7 +161,11 @@ public class WALEdit implements Writable, HeapSize {
     out.writeInt(kvs.size());
     // We interleave the two lists for code simplicity
     for (KeyValue kv : kvs) {
-      kv.write(out);
+      if (compressionContext != null) {
+        KeyValueCompression.writeKV(out, kv, compressionContext);
+      } else {
+        kv.write(out);
+      }
     }
     if (scopes == null) {
       out.writeInt(0);
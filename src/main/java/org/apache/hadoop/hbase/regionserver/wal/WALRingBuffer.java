@@ -0,0 +1,263 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+
+/**
+ * Pre-allocated ring of WAL append slots shared by many producers (the
+ * handler threads calling {@link HLog#append}) and a single consumer (the
+ * thread that writes and syncs the log).
+ *
+ * <p>A producer claims the next sequence with a single atomic increment, waits
+ * until the consumer has released the slot that sequence maps to, fills it and
+ * publishes it. The only monitor taken on the append path is that of the
+ * slot's {@link SyncFuture}, which is contended only by writers still waiting
+ * on the sequence the slot held before. The consumer drains
+ * contiguous published slots in sequence order, so entries reach the writer in
+ * the order their sequences were claimed.
+ *
+ * <p>Each slot carries a {@link SyncFuture}. A caller that needs its edit to be
+ * durable parks on the future of the slot its sequence maps to and is woken by
+ * the consumer once the batch holding that sequence has been synced.
+ */
+@InterfaceAudience.Private
+class WALRingBuffer {
+  /**
+   * One entry of the ring. Fields other than <code>published</code> are only
+   * written by the producer that claimed the slot before it publishes, and
+   * only read by the consumer after it sees the publish.
+   */
+  static class Slot {
+    private volatile long published = -1;
+    HRegionInfo info;
+    HLogKey key;
+    WALEdit edit;
+    HTableDescriptor htd;
+    // False if the key already carries its sequence number, as the cache
+    // flush marker does.
+    boolean assignSeqNum;
+    final SyncFuture future = new SyncFuture();
+
+    long getSequence() {
+      return this.published;
+    }
+
+    void clear() {
+      this.info = null;
+      this.key = null;
+      this.edit = null;
+      this.htd = null;
+    }
+  }
+
+  /**
+   * Completion handle for the sequence currently occupying a slot. Once a
+   * slot is reused by a later sequence, waiters on the earlier sequence are
+   * released: the consumer never hands a slot back before it has finished
+   * with it. The last failure seen by the slot outlives the reuse, so such a
+   * waiter still learns that its sequence may not have been synced.
+   */
+  static class SyncFuture {
+    private long txid = -1;
+    private boolean done = false;
+    private IOException error = null;
+    // Highest sequence of this slot whose batch failed, and why
+    private long failedTxid = -1;
+    private IOException failure = null;
+
+    synchronized void reset(long txid) {
+      this.txid = txid;
+      this.done = false;
+      this.error = null;
+      notifyAll();
+    }
+
+    synchronized void complete(long txid, IOException error) {
+      if (this.txid != txid) return;
+      this.done = true;
+      this.error = error;
+      if (error != null) {
+        this.failedTxid = txid;
+        this.failure = error;
+      }
+      notifyAll();
+    }
+
+    /**
+     * @return true if <code>txid</code> has been completed, false if we timed
+     * out first
+     * @throws IOException if the batch holding <code>txid</code> failed, or
+     * if the slot was reused and a batch holding it since failed, in which case
+     * we cannot tell whether <code>txid</code> was synced
+     */
+    synchronized boolean get(long txid, long timeoutMs)
+    throws IOException, InterruptedException {
+      long deadline = System.currentTimeMillis() + timeoutMs;
+      while (this.txid < txid || (this.txid == txid && !this.done)) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) return false;
+        wait(remaining);
+      }
+      if (this.txid == txid && this.error != null) {
+        throw this.error;
+      }
+      if (this.txid > txid && this.failedTxid >= txid) {
+        throw this.failure;
+      }
+      return true;
+    }
+  }
+
+  private final Slot [] slots;
+  private final int mask;
+
+  // Highest sequence claimed by a producer.
+  private final AtomicLong cursor = new AtomicLong(0);
+  // Highest sequence the consumer is done with; slots up to here are free.
+  private volatile long consumed = 0;
+  private volatile Thread consumerThread;
+
+  /**
+   * @param size Number of slots; rounded up to the next power of two
+   */
+  WALRingBuffer(int size) {
+    int capacity = Integer.highestOneBit(Math.max(2, size) - 1) << 1;
+    this.slots = new Slot[capacity];
+    for (int i = 0; i < capacity; i++) {
+      this.slots[i] = new Slot();
+    }
+    this.mask = capacity - 1;
+  }
+
+  int getCapacity() {
+    return this.slots.length;
+  }
+
+  /** @return The highest sequence handed out to a producer so far */
+  long getCursor() {
+    return this.cursor.get();
+  }
+
+  /** @return The highest sequence the consumer has finished with */
+  long getConsumed() {
+    return this.consumed;
+  }
+
+  void setConsumerThread(Thread t) {
+    this.consumerThread = t;
+  }
+
+  /**
+   * Claim the next sequence, waiting while the ring is full.
+   * @return the claimed sequence; it must be passed to {@link #publish}
+   */
+  long next() {
+    long seq = this.cursor.incrementAndGet();
+    long wrapPoint = seq - this.slots.length;
+    while (wrapPoint > this.consumed) {
+      LockSupport.parkNanos(1000L);
+    }
+    return seq;
+  }
+
+  /**
+   * Fill the slot for a previously claimed sequence and make it visible to
+   * the consumer.
+   */
+  void publish(long seq, HRegionInfo info, HLogKey key, WALEdit edit,
+      HTableDescriptor htd, boolean assignSeqNum) {
+    Slot slot = this.slots[(int)(seq & this.mask)];
+    slot.info = info;
+    slot.key = key;
+    slot.edit = edit;
+    slot.htd = htd;
+    slot.assignSeqNum = assignSeqNum;
+    slot.future.reset(seq);
+    slot.published = seq;
+    Thread t = this.consumerThread;
+    if (t != null) {
+      LockSupport.unpark(t);
+    }
+  }
+
+  /**
+   * Collect contiguous published slots following the last consumed one.
+   * Only called from the consumer thread.
+   * @return number of slots added to <code>batch</code>
+   */
+  int drainTo(List<Slot> batch, int max) {
+    long next = this.consumed + 1;
+    int added = 0;
+    while (added < max) {
+      Slot slot = this.slots[(int)(next & this.mask)];
+      if (slot.getSequence() != next) break;
+      batch.add(slot);
+      next++;
+      added++;
+    }
+    return added;
+  }
+
+  /**
+   * Hand the drained slots back to producers and wake anybody waiting on
+   * them. Only called from the consumer thread.
+   * @param error null if the batch was synced successfully
+   */
+  void complete(List<Slot> batch, IOException error) {
+    if (batch.isEmpty()) return;
+    long last = batch.get(batch.size() - 1).getSequence();
+    for (Slot slot : batch) {
+      long seq = slot.getSequence();
+      slot.clear();
+      slot.future.complete(seq, error);
+    }
+    this.consumed = last;
+  }
+
+  /**
+   * Wait for the consumer to be done with <code>txid</code>.
+   * @return true if done, false if <code>timeoutMs</code> elapsed first
+   * @throws IOException if the batch holding <code>txid</code> failed
+   */
+  boolean await(long txid, long timeoutMs)
+  throws IOException, InterruptedException {
+    // The future keeps the outcome of txid until a later sequence reuses the
+    // slot, which can only happen once a whole lap of the ring has completed.
+    return this.slots[(int)(txid & this.mask)].future.get(txid, timeoutMs);
+  }
+
+  /**
+   * Park the consumer until a producer publishes or the timeout expires.
+   */
+  void waitForPublish(long timeoutMs) {
+    Slot slot = this.slots[(int)((this.consumed + 1) & this.mask)];
+    if (slot.getSequence() == this.consumed + 1) return;
+    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+  }
+}
@@ -343,8 +343,11 @@ public class ReplicationSource extends Thread
           if (this.currentPath != null && !gotIOE) {
             this.position = this.reader.getPosition();
           }
-          if (this.reader != null) {
-            this.reader.close();
+          // Keep the reader of a log we are not done with, the next round
+          // reopens it where this one stopped. Starting over on a compressed
+          // log would decode it again from the top to rebuild its dictionaries.
+          if (this.reader != null && (this.currentPath == null || gotIOE)) {
+            closeReader();
           }
         } catch (IOException e) {
           gotIOE = true;
@@ -370,6 +373,11 @@ public class ReplicationSource extends Thread
       shipEdits();
 
     }
+    try {
+      closeReader();
+    } catch (IOException e) {
+      LOG.debug("Attempt to close reader failed", e);
+    }
     if (this.conn != null) {
       try {
         this.conn.close();
@@ -473,6 +481,17 @@ public class ReplicationSource extends Thread
    */
   protected boolean openReader(int sleepMultiplier) {
     try {
+      if (this.reader != null) {
+        try {
+          // Pick up what was appended since the last round
+          this.reader.reset();
+          return true;
+        } catch (IOException ioe) {
+          LOG.debug("Unable to reopen " + this.currentPath +
+              ", opening it anew", ioe);
+          closeReader();
+        }
+      }
       LOG.debug("Opening log for replication " + this.currentPath.getName() +
           " at " + this.position);
       try {
@@ -540,6 +559,18 @@ public class ReplicationSource extends Thread
     return true;
   }
 
+  /**
+   * Close the reader of the current log, if any
+   * @throws IOException
+   */
+  private void closeReader() throws IOException {
+    HLog.Reader r = this.reader;
+    this.reader = null;
+    if (r != null) {
+      r.close();
+    }
+  }
+
   /**
    * Do the sleeping logic
    * @param msg Why we sleep
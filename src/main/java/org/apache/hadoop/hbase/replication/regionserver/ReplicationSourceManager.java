@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
@@ -43,6 +44,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.replication.ReplicationZookeeper;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperListener;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
@@ -58,6 +60,11 @@ import org.apache.zookeeper.KeeperException;
  * When a region server dies, this class uses a watcher to get notified and it
  * tries to grab a lock in order to transfer all the queues in a local
  * old source.
+ *
+ * A region server running more than one HLog gets one normal source per peer
+ * cluster and per HLog, each following the files of a single HLog (its WAL
+ * group, the log name without the file number). All the sources of a peer
+ * share the same queue in ZK.
  */
 @InterfaceAudience.Private
 public class ReplicationSourceManager {
@@ -77,8 +84,10 @@ public class ReplicationSourceManager {
   private final Map<String, SortedSet<String>> hlogsById;
   private final Configuration conf;
   private final FileSystem fs;
-  // The path to the latest log we saw, for new coming sources
-  private Path latestPath;
+  // The path to the latest log we saw per WAL group, for new coming sources
+  private final Map<String, Path> latestPaths;
+  // The WAL group each normal source follows, null until it saw its first log
+  private final Map<ReplicationSourceInterface, String> walGroups;
   // List of all the other region servers in this cluster
   private final List<String> otherRegionServers;
   // Path to the hlogs directories
@@ -113,6 +122,8 @@ public class ReplicationSourceManager {
     this.zkHelper = zkHelper;
     this.stopper = stopper;
     this.hlogsById = new HashMap<String, SortedSet<String>>();
+    this.latestPaths = new HashMap<String, Path>();
+    this.walGroups = new HashMap<ReplicationSourceInterface, String>();
     this.oldsources = new ArrayList<ReplicationSourceInterface>();
     this.conf = conf;
     this.fs = fs;
@@ -157,13 +168,21 @@ public class ReplicationSourceManager {
     synchronized (this.hlogsById) {
       SortedSet<String> hlogs = this.hlogsById.get(id);
       if (!queueRecovered && hlogs.first() != key) {
-        SortedSet<String> hlogSet = hlogs.headSet(key);
+        // Only the logs of the same WAL group are behind this one, the other
+        // groups are followed by other sources.
+        String group = HLog.getLogPrefix(key);
+        List<String> hlogSet = new ArrayList<String>();
+        for (String hlog : hlogs.headSet(key)) {
+          if (group.equals(HLog.getLogPrefix(hlog))) {
+            hlogSet.add(hlog);
+          }
+        }
         LOG.info("Removing " + hlogSet.size() +
             " logs in the list: " + hlogSet);
         for (String hlog : hlogSet) {
           this.zkHelper.removeLogFromList(hlog, id);
         }
-        hlogSet.clear();
+        hlogs.removeAll(hlogSet);
       }
     }
   }
@@ -195,22 +214,25 @@ public class ReplicationSourceManager {
   }
 
   /**
-   * Add a new normal source to this region server
+   * Add a new normal source to this region server, one per WAL group if we
+   * already know about more than one
    * @param id the id of the peer cluster
-   * @return the source that was created
+   * @return the source that was created, the first one if more than one
    * @throws IOException
    */
   public ReplicationSourceInterface addSource(String id) throws IOException {
-    ReplicationSourceInterface src =
-        getReplicationSource(this.conf, this.fs, this, stopper, replicating, id);
-    // TODO set it to what's in ZK
-    src.setSourceEnabled(true);
+    List<ReplicationSourceInterface> added =
+        new ArrayList<ReplicationSourceInterface>();
     synchronized (this.hlogsById) {
-      this.sources.add(src);
       this.hlogsById.put(id, new TreeSet<String>());
-      // Add the latest hlog to that source's queue
-      if (this.latestPath != null) {
-        String name = this.latestPath.getName();
+      if (this.latestPaths.isEmpty()) {
+        added.add(createSource(id, null));
+      }
+      // Add the latest hlog of each group to that group's source queue
+      for (Map.Entry<String, Path> e : this.latestPaths.entrySet()) {
+        ReplicationSourceInterface src = createSource(id, e.getKey());
+        added.add(src);
+        String name = e.getValue().getName();
         this.hlogsById.get(id).add(name);
         try {
           this.zkHelper.addLogToList(name, src.getPeerClusterZnode());
@@ -220,10 +242,31 @@ public class ReplicationSourceManager {
           stopper.stop(message);
           throw new IOException(message, ke);
         }
-        src.enqueueLog(this.latestPath);
+        src.enqueueLog(e.getValue());
       }
     }
-    src.startup();
+    for (ReplicationSourceInterface src : added) {
+      src.startup();
+    }
+    return added.get(0);
+  }
+
+  /**
+   * Create a normal source and register it. Must be called while holding
+   * the lock on hlogsById; the caller starts it.
+   * @param id the id of the peer cluster
+   * @param group the WAL group the source follows, null if not known yet
+   * @return the source that was created
+   * @throws IOException
+   */
+  private ReplicationSourceInterface createSource(String id, String group)
+      throws IOException {
+    ReplicationSourceInterface src =
+        getReplicationSource(this.conf, this.fs, this, stopper, replicating, id);
+    // TODO set it to what's in ZK
+    src.setSourceEnabled(true);
+    this.sources.add(src);
+    this.walGroups.put(src, group);
     return src;
   }
 
@@ -262,9 +305,14 @@ public class ReplicationSourceManager {
       return;
     }
 
+    String name = newLog.getName();
+    String group = HLog.getLogPrefix(name);
+    List<ReplicationSourceInterface> groupSources;
+    List<ReplicationSourceInterface> added =
+        new ArrayList<ReplicationSourceInterface>();
     synchronized (this.hlogsById) {
-      String name = newLog.getName();
-      for (ReplicationSourceInterface source : this.sources) {
+      groupSources = getSourcesForGroup(group, added);
+      for (ReplicationSourceInterface source : groupSources) {
         try {
           this.zkHelper.addLogToList(name, source.getPeerClusterZnode());
         } catch (KeeperException ke) {
@@ -275,17 +323,72 @@ public class ReplicationSourceManager {
         if (this.sources.isEmpty()) {
           // If there's no slaves, don't need to keep the old hlogs since
           // we only consider the last one when a new slave comes in
-          hlogs.clear();
+          for (Iterator<String> it = hlogs.iterator(); it.hasNext();) {
+            if (group.equals(HLog.getLogPrefix(it.next()))) it.remove();
+          }
         }
         hlogs.add(name);
       }
+      this.latestPaths.put(group, newLog);
     }
 
-    this.latestPath = newLog;
     // This only updates the sources we own, not the recovered ones
+    for (ReplicationSourceInterface source : groupSources) {
+      source.enqueueLog(newLog);
+    }
+    for (ReplicationSourceInterface source : added) {
+      source.startup();
+    }
+  }
+
+  /**
+   * Find the normal sources following the given WAL group. A peer cluster
+   * with no source for the group hands it to its sources that have no group
+   * yet, or else gets a new source for it. Must be called while holding the
+   * lock on hlogsById.
+   * @param group the WAL group
+   * @param added gets the sources that were created and need starting
+   * @return the sources of the group
+   * @throws IOException
+   */
+  private List<ReplicationSourceInterface> getSourcesForGroup(String group,
+      List<ReplicationSourceInterface> added) throws IOException {
+    List<ReplicationSourceInterface> groupSources =
+        new ArrayList<ReplicationSourceInterface>();
+    List<String> peerIds = getPeerIds();
     for (ReplicationSourceInterface source : this.sources) {
-      source.enqueueLog(newLog);    
+      if (group.equals(this.walGroups.get(source))) {
+        groupSources.add(source);
+        peerIds.remove(source.getPeerClusterId());
+      }
+    }
+    for (String peerId : peerIds) {
+      boolean found = false;
+      for (ReplicationSourceInterface source : this.sources) {
+        if (peerId.equals(source.getPeerClusterId()) &&
+            this.walGroups.get(source) == null) {
+          this.walGroups.put(source, group);
+          groupSources.add(source);
+          found = true;
+        }
+      }
+      if (!found) {
+        ReplicationSourceInterface source = createSource(peerId, group);
+        added.add(source);
+        groupSources.add(source);
+      }
     }
+    return groupSources;
+  }
+
+  private List<String> getPeerIds() {
+    List<String> peerIds = new ArrayList<String>();
+    for (ReplicationSourceInterface source : this.sources) {
+      if (!peerIds.contains(source.getPeerClusterId())) {
+        peerIds.add(source.getPeerClusterId());
+      }
+    }
+    return peerIds;
   }
 
   /**
@@ -368,7 +471,8 @@ public class ReplicationSourceManager {
         + sources.size() + " and another "
         + oldsources.size() + " that were recovered");
     String terminateMessage = "Replication stream was removed by a user";
-    ReplicationSourceInterface srcToRemove = null;
+    List<ReplicationSourceInterface> srcToRemove =
+        new ArrayList<ReplicationSourceInterface>();
     List<ReplicationSourceInterface> oldSourcesToDelete =
         new ArrayList<ReplicationSourceInterface>();
     // First close all the recovered sources for this peer
@@ -383,19 +487,25 @@ public class ReplicationSourceManager {
     }
     LOG.info("Number of deleted recovered sources for " + id + ": "
         + oldSourcesToDelete.size());
-    // Now look for the one on this cluster
-    for (ReplicationSourceInterface src : this.sources) {
-      if (id.equals(src.getPeerClusterId())) {
-        srcToRemove = src;
-        break;
+    // Now look for the ones on this cluster, one per WAL group
+    synchronized (this.hlogsById) {
+      for (ReplicationSourceInterface src : this.sources) {
+        if (id.equals(src.getPeerClusterId())) {
+          srcToRemove.add(src);
+        }
+      }
+      this.sources.removeAll(srcToRemove);
+      for (ReplicationSourceInterface src : srcToRemove) {
+        this.walGroups.remove(src);
       }
     }
-    if (srcToRemove == null) {
+    if (srcToRemove.isEmpty()) {
       LOG.error("The queue we wanted to close is missing " + id);
       return;
     }
-    srcToRemove.terminate(terminateMessage);
-    this.sources.remove(srcToRemove);
+    for (ReplicationSourceInterface src : srcToRemove) {
+      src.terminate(terminateMessage);
+    }
     this.zkHelper.deleteSource(id, true);
   }
 
@@ -56,6 +56,17 @@ public interface BloomFilter extends BloomFilterBase {
    */
   boolean contains(byte [] buf, int offset, int length, ByteBuffer bloom);
 
+  /**
+   * Check if any of the specified keys is contained in the bloom filter.
+   *
+   * @param keys keys to check for existence of, sorted by the comparator
+   *        of this filter so that neighbouring keys can share a chunk
+   * @param bloom bloom filter data to search. This can be null if auto-loading
+   *        is supported.
+   * @return true if any of the keys is matched by bloom, false if none is
+   */
+  boolean containsAny(byte [][] keys, ByteBuffer bloom);
+
   /**
    * @return true if this Bloom filter can automatically load its data
    *         and thus allows a null byte buffer to be passed to contains()
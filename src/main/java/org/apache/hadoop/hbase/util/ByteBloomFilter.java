@@ -590,6 +590,16 @@ public class ByteBloomFilter implements BloomFilter, BloomFilterWriter {
     return bloom != null;
   }
 
+  @Override
+  public boolean containsAny(byte[][] keys, ByteBuffer theBloom) {
+    for (byte[] key : keys) {
+      if (contains(key, 0, key.length, theBloom)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public static void setFakeLookupMode(boolean enabled) {
     if (enabled) {
       randomGeneratorForTest = new Random(283742987L);
@@ -119,6 +119,43 @@ public class CollectionBackedScanner extends NonLazyKeyValueScanner {
     return false;
   }
 
+  @Override
+  public boolean seekToPreviousRow(KeyValue key) {
+    KeyValue lastBeforeRow = null;
+    for (KeyValue kv : data) {
+      if (comparator.compareRows(kv, key) >= 0) {
+        break;
+      }
+      lastBeforeRow = kv;
+    }
+    if (lastBeforeRow == null) {
+      current = null;
+      return false;
+    }
+    return seek(KeyValue.createFirstOnRow(lastBeforeRow.getRow()));
+  }
+
+  @Override
+  public boolean seekToLastRow() {
+    KeyValue last = null;
+    for (KeyValue kv : data) {
+      last = kv;
+    }
+    if (last == null) {
+      current = null;
+      return false;
+    }
+    return seek(KeyValue.createFirstOnRow(last.getRow()));
+  }
+
+  @Override
+  public boolean backwardSeek(KeyValue key) {
+    if (seek(key) && comparator.matchingRows(current, key)) {
+      return true;
+    }
+    return seekToPreviousRow(key);
+  }
+
   @Override
   public long getSequenceID() {
     return 0;
@@ -94,33 +94,70 @@ public class CompoundBloomFilter extends CompoundBloomFilterBase
     if (block < 0) {
       result = false; // This key is not in the file.
     } else {
-      HFileBlock bloomBlock;
-      try {
-        // We cache the block and use a positional read.
-        bloomBlock = reader.readBlock(index.getRootBlockOffset(block),
-            index.getRootBlockDataSize(block), true, true, false,
-            BlockType.BLOOM_CHUNK);
-      } catch (IOException ex) {
-        // The Bloom filter is broken, turn it off.
-        throw new IllegalArgumentException(
-            "Failed to load Bloom block for key "
-                + Bytes.toStringBinary(key, keyOffset, keyLength), ex);
+      result = chunkContains(readChunk(block, key, keyOffset, keyLength), key,
+          keyOffset, keyLength);
+    }
+
+    updateTestingStats(block, result);
+    return result;
+  }
+
+  /**
+   * Probes the keys in order, reading every chunk they fall into at most
+   * once. Sorted keys of one row usually all fall into the same chunk.
+   */
+  @Override
+  public boolean containsAny(byte[][] keys, ByteBuffer bloom) {
+    int loadedBlock = -1;
+    HFileBlock bloomBlock = null;
+    for (byte[] key : keys) {
+      int block = index.rootBlockContainingKey(key, 0, key.length);
+      boolean result = false;
+      if (block >= 0) {
+        if (block != loadedBlock) {
+          bloomBlock = readChunk(block, key, 0, key.length);
+          loadedBlock = block;
+        }
+        result = chunkContains(bloomBlock, key, 0, key.length);
       }
+      updateTestingStats(block, result);
+      if (result) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-      ByteBuffer bloomBuf = bloomBlock.getBufferReadOnly();
-      result = ByteBloomFilter.contains(key, keyOffset, keyLength,
-          bloomBuf.array(), bloomBuf.arrayOffset() + bloomBlock.headerSize(),
-          bloomBlock.getUncompressedSizeWithoutHeader(), hash, hashCount);
+  private HFileBlock readChunk(int block, byte[] key, int keyOffset,
+      int keyLength) {
+    try {
+      // We cache the block and use a positional read.
+      return reader.readBlock(index.getRootBlockOffset(block),
+          index.getRootBlockDataSize(block), true, true, false,
+          BlockType.BLOOM_CHUNK);
+    } catch (IOException ex) {
+      // The Bloom filter is broken, turn it off.
+      throw new IllegalArgumentException(
+          "Failed to load Bloom block for key "
+              + Bytes.toStringBinary(key, keyOffset, keyLength), ex);
     }
+  }
 
+  private boolean chunkContains(HFileBlock bloomBlock, byte[] key,
+      int keyOffset, int keyLength) {
+    ByteBuffer bloomBuf = bloomBlock.getBufferReadOnly();
+    return ByteBloomFilter.contains(key, keyOffset, keyLength,
+        bloomBuf.array(), bloomBuf.arrayOffset() + bloomBlock.headerSize(),
+        bloomBlock.getUncompressedSizeWithoutHeader(), hash, hashCount);
+  }
+
+  private void updateTestingStats(int block, boolean result) {
     if (numQueriesPerChunk != null && block >= 0) {
       // Update statistics. Only used in unit tests.
       ++numQueriesPerChunk[block];
       if (result)
         ++numPositivesPerChunk[block];
     }
-
-    return result;
   }
 
   public boolean supportsAutoLoading() {
@@ -54,6 +54,7 @@ import org.apache.hadoop.hbase.coprocessor.MultiRowMutationProtocol;
 import org.apache.hadoop.hbase.filter.BinaryComparator;
 import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.DependentColumnFilter;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
@@ -4511,6 +4512,151 @@ public class TestFromClientSide {
     assertEquals(numOfRegions, scanMetrics.countOfRegions.getCurrentIntervalValue());
   }
 
+  /**
+   * A row wider than the size limit of a scan is sent over several RPCs and
+   * comes out whole.
+   */
+  @Test
+  public void testScanMaxResultSizeSplitsRows() throws Exception {
+    byte [] TABLENAME = Bytes.toBytes("testScanMaxResultSizeSplitsRows");
+    HTable ht = TEST_UTIL.createTable(TABLENAME, FAMILY);
+    byte [] value = new byte[1024];
+    byte [][] rows = { Bytes.toBytes("a"), Bytes.toBytes("b"),
+        Bytes.toBytes("c") };
+    int wideColumns = 1000;
+    Put put = new Put(rows[0]);
+    put.add(FAMILY, QUALIFIER, value);
+    ht.put(put);
+    put = new Put(rows[1]);
+    for (int i = 0; i < wideColumns; i++) {
+      put.add(FAMILY, Bytes.toBytes(i), value);
+    }
+    ht.put(put);
+    put = new Put(rows[2]);
+    put.add(FAMILY, QUALIFIER, value);
+    ht.put(put);
+
+    Scan scan = new Scan();
+    scan.setCaching(10);
+    scan.setMaxResultSize(16 * 1024);
+    ResultScanner scanner = ht.getScanner(scan);
+    Result [] results = scanner.next(10);
+    scanner.close();
+    assertEquals(3, results.length);
+    for (int i = 0; i < rows.length; i++) {
+      assertTrue(Bytes.equals(rows[i], results[i].getRow()));
+    }
+    assertEquals(wideColumns, results[1].size());
+
+    // With a batch the parts are returned as they are.
+    scan = new Scan();
+    scan.setCaching(10);
+    scan.setBatch(100);
+    scan.setMaxResultSize(16 * 1024);
+    scanner = ht.getScanner(scan);
+    int count = 0;
+    for (Result r : scanner) {
+      assertTrue(r.size() <= 100);
+      count++;
+    }
+    scanner.close();
+    assertEquals(2 + wideColumns / 100, count);
+    ht.close();
+  }
+
+  /**
+   * Rows are only split by the size limit of a scan, not by its caching: a
+   * row of exactly one chunk of cells followed by a wider row comes out as
+   * two whole rows, one per RPC.
+   */
+  @Test
+  public void testScanMaxResultSizeDoesNotSplitRowsOnCaching()
+  throws Exception {
+    byte [] TABLENAME =
+      Bytes.toBytes("testScanMaxResultSizeDoesNotSplitRowsOnCaching");
+    HTable ht = TEST_UTIL.createTable(TABLENAME, FAMILY);
+    byte [][] rows = { Bytes.toBytes("a"), Bytes.toBytes("b"),
+        Bytes.toBytes("c") };
+    int [] widths = { 100, 250, 1 };
+    for (int r = 0; r < rows.length; r++) {
+      Put put = new Put(rows[r]);
+      for (int i = 0; i < widths[r]; i++) {
+        put.add(FAMILY, Bytes.toBytes(i), VALUE);
+      }
+      ht.put(put);
+    }
+
+    Scan scan = new Scan();
+    scan.setCaching(1);
+    scan.setMaxResultSize(1024 * 1024);
+    ResultScanner scanner = ht.getScanner(scan);
+    int count = 0;
+    for (Result r : scanner) {
+      assertTrue(count < rows.length);
+      assertTrue(Bytes.equals(rows[count], r.getRow()));
+      assertEquals(widths[count], r.size());
+      count++;
+    }
+    scanner.close();
+    assertEquals(rows.length, count);
+    ht.close();
+  }
+
+  /**
+   * Filters see the whole rows of a scan with a size limit, even rows wider
+   * than the limit.
+   */
+  @Test
+  public void testScanMaxResultSizeWithRowFilters() throws Exception {
+    byte [] TABLENAME = Bytes.toBytes("testScanMaxResultSizeWithRowFilters");
+    HTable ht = TEST_UTIL.createTable(TABLENAME, FAMILY);
+    byte [] status = Bytes.toBytes("status");
+    byte [] yes = Bytes.toBytes("yes");
+    byte [] value = new byte[100];
+    int wideColumns = 300;
+    // Row a matches on a column after its wide columns, row b has no such
+    // column and row c does not match.
+    byte [][] rows = { Bytes.toBytes("a"), Bytes.toBytes("b"),
+        Bytes.toBytes("c") };
+    for (byte [] row : rows) {
+      Put put = new Put(row);
+      for (int i = 0; i < wideColumns; i++) {
+        put.add(FAMILY, Bytes.toBytes(String.format("col%03d", i)), value);
+      }
+      if (row == rows[0]) {
+        put.add(FAMILY, status, yes);
+      } else if (row == rows[2]) {
+        put.add(FAMILY, status, Bytes.toBytes("no"));
+      }
+      ht.put(put);
+    }
+
+    SingleColumnValueFilter scvf = new SingleColumnValueFilter(FAMILY,
+        status, CompareOp.EQUAL, yes);
+    scvf.setFilterIfMissing(true);
+    // The dependent column filter keeps the rows having the column.
+    Filter [] filters = { scvf, new DependentColumnFilter(FAMILY, status) };
+    byte [][][] expectedRows = { { rows[0] }, { rows[0], rows[2] } };
+    for (int f = 0; f < filters.length; f++) {
+      for (long maxResultSize : new long [] { 1024 * 1024, 4 * 1024 }) {
+        Scan scan = new Scan();
+        scan.setCaching(10);
+        scan.setMaxResultSize(maxResultSize);
+        scan.setFilter(filters[f]);
+        ResultScanner scanner = ht.getScanner(scan);
+        Result [] results = scanner.next(10);
+        scanner.close();
+        assertEquals(filters[f] + " " + maxResultSize,
+            expectedRows[f].length, results.length);
+        for (int i = 0; i < results.length; i++) {
+          assertTrue(Bytes.equals(expectedRows[f][i], results[i].getRow()));
+          assertEquals(wideColumns + 1, results[i].size());
+        }
+      }
+    }
+    ht.close();
+  }
+
   /**
    * Tests that cache on write works all the way up from the client-side.
    *
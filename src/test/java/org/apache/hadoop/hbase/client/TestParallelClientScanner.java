@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.*;
+
+import java.util.TreeSet;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Compares scans of a table with many regions through
+ * {@link ParallelClientScanner} with plain scans.
+ */
+@Category(MediumTests.class)
+public class TestParallelClientScanner {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] TABLE = Bytes.toBytes("testParallelScan");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static HTable table;
+  private static int rowCount;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    // A small prefetch queue, so the ranges have to wait for the caller.
+    TEST_UTIL.getConfiguration().setInt(
+      ParallelClientScanner.PREFETCH_SIZE_KEY, 10);
+    TEST_UTIL.startMiniCluster(2);
+    table = TEST_UTIL.createTable(TABLE, FAMILY);
+    TEST_UTIL.createMultiRegions(table, FAMILY);
+    rowCount = TEST_UTIL.loadTable(table, FAMILY);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    table.close();
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  @Test
+  public void testOrderedScanMatchesPlainScan() throws Exception {
+    Scan scan = new Scan();
+    scan.setCaching(7);
+    ResultScanner expected = table.getScanner(new Scan(scan));
+    ResultScanner parallel = table.getParallelScanner(scan, 4, true);
+    int count = 0;
+    for (Result r : expected) {
+      Result p = parallel.next();
+      assertNotNull(p);
+      assertTrue(Bytes.equals(r.getRow(), p.getRow()));
+      count++;
+    }
+    assertNull(parallel.next());
+    assertEquals(rowCount, count);
+    expected.close();
+    parallel.close();
+  }
+
+  @Test
+  public void testUnorderedScanWithinRange() throws Exception {
+    byte[] startRow = Bytes.toBytes("ccc");
+    byte[] stopRow = Bytes.toBytes("kkk");
+    TreeSet<byte[]> expected = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    ResultScanner scanner = table.getScanner(new Scan(startRow, stopRow));
+    for (Result r : scanner) {
+      expected.add(r.getRow());
+    }
+    scanner.close();
+
+    TreeSet<byte[]> seen = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    scanner = table.getParallelScanner(new Scan(startRow, stopRow), 3, false);
+    for (Result r : scanner) {
+      assertTrue("Row returned twice: " + Bytes.toString(r.getRow()),
+        seen.add(r.getRow()));
+    }
+    scanner.close();
+    assertEquals(expected.size(), seen.size());
+    assertEquals(expected, seen);
+  }
+
+  @Test
+  public void testCloseBeforeEnd() throws Exception {
+    ResultScanner scanner = table.getParallelScanner(new Scan(), 4, false);
+    assertNotNull(scanner.next());
+    scanner.close();
+    assertNull(scanner.next());
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
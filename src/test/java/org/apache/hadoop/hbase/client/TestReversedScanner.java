@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Runs reversed scans through {@link HTable} over a table with many regions
+ * and compares them with forward scans.
+ */
+@Category(MediumTests.class)
+public class TestReversedScanner {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] TABLE = Bytes.toBytes("testReversedScan");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static HTable table;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.startMiniCluster(1);
+    table = TEST_UTIL.createTable(TABLE, FAMILY);
+    TEST_UTIL.createMultiRegions(table, FAMILY);
+    TEST_UTIL.loadTable(table, FAMILY);
+    assertTrue(table.getStartKeys().length > 1);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    table.close();
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  @Test
+  public void testReversedScanWithoutStartRow() throws Exception {
+    List<byte[]> expected = scanForward(null);
+    Collections.reverse(expected);
+    assertRows(expected, new Scan());
+  }
+
+  @Test
+  public void testReversedScanWithStartRow() throws Exception {
+    // A region start key, then a row that is not in the table.
+    for (String start : new String[] { "ccc", "kkkx" }) {
+      byte[] startRow = Bytes.toBytes(start);
+      List<byte[]> expected = scanForward(startRow);
+      Collections.reverse(expected);
+      assertFalse(expected.isEmpty());
+      assertRows(expected, new Scan(startRow));
+    }
+  }
+
+  @Test
+  public void testReversedScanWithStopRow() throws Exception {
+    byte[] startRow = Bytes.toBytes("mmm");
+    byte[] stopRow = Bytes.toBytes("ddd");
+    List<byte[]> expected = new ArrayList<byte[]>();
+    for (byte[] row : scanForward(startRow)) {
+      if (Bytes.compareTo(row, stopRow) > 0) {
+        expected.add(row);
+      }
+    }
+    Collections.reverse(expected);
+    assertRows(expected, new Scan(startRow, stopRow));
+  }
+
+  /**
+   * @return the rows at or below <code>lastRow</code>, or all rows when it
+   * is null, in forward order
+   */
+  private static List<byte[]> scanForward(byte[] lastRow) throws Exception {
+    List<byte[]> rows = new ArrayList<byte[]>();
+    ResultScanner scanner = table.getScanner(new Scan());
+    for (Result r : scanner) {
+      if (lastRow != null && Bytes.compareTo(r.getRow(), lastRow) > 0) {
+        break;
+      }
+      rows.add(r.getRow());
+    }
+    scanner.close();
+    return rows;
+  }
+
+  private static void assertRows(List<byte[]> expected, Scan scan)
+      throws Exception {
+    scan.setReversed(true);
+    scan.setCaching(7);
+    ResultScanner scanner = table.getScanner(scan);
+    int i = 0;
+    for (Result r : scanner) {
+      assertTrue("Too many rows", i < expected.size());
+      assertTrue("Expected " + Bytes.toStringBinary(expected.get(i)) +
+        " but got " + Bytes.toStringBinary(r.getRow()),
+        Bytes.equals(expected.get(i), r.getRow()));
+      i++;
+    }
+    scanner.close();
+    assertEquals(expected.size(), i);
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
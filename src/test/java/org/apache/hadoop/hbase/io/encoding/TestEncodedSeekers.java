@@ -27,15 +27,22 @@ import java.util.Map;
 
 import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.QualifierFilter;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.Compression.Algorithm;
 import org.apache.hadoop.hbase.io.hfile.HFile;
 import org.apache.hadoop.hbase.io.hfile.LruBlockCache;
 import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
 import org.apache.hadoop.hbase.regionserver.StoreFile.BloomType;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.LoadTestKVGenerator;
@@ -157,4 +164,134 @@ public class TestEncodedSeekers {
     assertTrue(encodingCounts.get(encodingInCache) > 0);
   }
 
+  /**
+   * Scans with column filters over store files and the memstore, so that the
+   * column and delete trackers see the KeyValues decoded from the encoded
+   * blocks, and checks that only the matching cells come back intact.
+   */
+  @Test
+  public void testScanWithQualifierFilter() throws IOException {
+    HRegion region = testUtil.createTestRegion(
+        TABLE_NAME + "Filtered", new HColumnDescriptor(CF_NAME)
+            .setMaxVersions(MAX_VERSIONS)
+            .setDataBlockEncoding(encoding)
+            .setEncodeOnDisk(encodeOnDisk)
+    );
+    final int numRows = 200;
+    final int numCols = 10;
+    try {
+      // Version 1 of every cell goes to the store files, version 2 of the
+      // even rows and a delete of c5 on every third row stay in the memstore.
+      for (int i = 0; i < numRows; ++i) {
+        Put put = new Put(filterRow(i));
+        for (int j = 0; j < numCols; ++j) {
+          put.add(CF_BYTES, filterQualifier(j), 1L, filterValue(i, j, 1L));
+        }
+        region.put(put);
+        if ((i + 1) % (numRows / NUM_HFILES) == 0) {
+          region.flushcache();
+        }
+      }
+      for (int i = 0; i < numRows; ++i) {
+        if (i % 2 == 0) {
+          Put put = new Put(filterRow(i));
+          for (int j = 0; j < numCols; ++j) {
+            put.add(CF_BYTES, filterQualifier(j), 2L, filterValue(i, j, 2L));
+          }
+          region.put(put);
+        }
+        if (i % 3 == 0) {
+          Delete delete = new Delete(filterRow(i));
+          delete.deleteColumns(CF_BYTES, filterQualifier(5));
+          region.delete(delete, null, true);
+        }
+      }
+
+      for (int doneCompaction = 0; doneCompaction <= 1; ++doneCompaction) {
+        // All versions of one column
+        Scan scan = new Scan();
+        scan.setMaxVersions(MAX_VERSIONS);
+        scan.setFilter(new QualifierFilter(CompareOp.EQUAL,
+            new BinaryComparator(filterQualifier(5))));
+        List<List<KeyValue>> rows = scanAll(region, scan);
+        int expectedRow = 0;
+        for (List<KeyValue> row : rows) {
+          while (expectedRow % 3 == 0) {
+            expectedRow++;
+          }
+          long[] timestamps = expectedRow % 2 == 0 ?
+              new long[] { 2L, 1L } : new long[] { 1L };
+          assertEquals(timestamps.length, row.size());
+          for (int k = 0; k < timestamps.length; ++k) {
+            assertCell(row.get(k), expectedRow, 5, timestamps[k]);
+          }
+          expectedRow++;
+        }
+        assertEquals(numRows - (numRows + 2) / 3, rows.size());
+
+        // The newest version of the last three columns
+        scan = new Scan();
+        scan.setFilter(new QualifierFilter(CompareOp.GREATER_OR_EQUAL,
+            new BinaryComparator(filterQualifier(numCols - 3))));
+        rows = scanAll(region, scan);
+        assertEquals(numRows, rows.size());
+        for (int i = 0; i < numRows; ++i) {
+          List<KeyValue> row = rows.get(i);
+          assertEquals(3, row.size());
+          for (int k = 0; k < 3; ++k) {
+            assertCell(row.get(k), i, numCols - 3 + k, i % 2 == 0 ? 2L : 1L);
+          }
+        }
+
+        if (doneCompaction == 0) {
+          region.flushcache();
+          region.compactStores();
+        }
+      }
+    } finally {
+      region.close();
+      region.getLog().closeAndDelete();
+    }
+  }
+
+  private static List<List<KeyValue>> scanAll(HRegion region, Scan scan)
+      throws IOException {
+    List<List<KeyValue>> rows = new ArrayList<List<KeyValue>>();
+    InternalScanner scanner = region.getScanner(scan);
+    try {
+      boolean more;
+      do {
+        List<KeyValue> row = new ArrayList<KeyValue>();
+        more = scanner.next(row);
+        if (!row.isEmpty()) {
+          rows.add(row);
+        }
+      } while (more);
+    } finally {
+      scanner.close();
+    }
+    return rows;
+  }
+
+  private static void assertCell(KeyValue kv, int row, int col, long ts) {
+    assertTrue(kv.toString(), Bytes.equals(filterRow(row), kv.getRow()));
+    assertTrue(kv.toString(),
+        Bytes.equals(filterQualifier(col), kv.getQualifier()));
+    assertEquals(ts, kv.getTimestamp());
+    assertTrue(kv.toString(),
+        Bytes.equals(filterValue(row, col, ts), kv.getValue()));
+  }
+
+  private static byte[] filterRow(int i) {
+    return Bytes.toBytes(String.format("row%04d", i));
+  }
+
+  private static byte[] filterQualifier(int j) {
+    return Bytes.toBytes("c" + j);
+  }
+
+  private static byte[] filterValue(int i, int j, long ts) {
+    return Bytes.toBytes("value-" + i + "-" + j + "-" + ts);
+  }
+
 }
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests of the row tree and the in-block binary search of
+ * {@link PrefixTreeEncoder}.
+ */
+@Category(SmallTests.class)
+public class TestPrefixTreeEncoder {
+  private static final byte [] FAMILY = Bytes.toBytes("f");
+  private static final byte [] VALUE = Bytes.toBytes("value");
+
+  private final PrefixTreeEncoder encoder = new PrefixTreeEncoder();
+
+  private static List<KeyValue> createKeyValues(String... rows) {
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    for (String row : rows) {
+      for (int q = 0; q < 3; q++) {
+        for (long ts = 3; ts > 0; ts -= 2) {
+          kvs.add(new KeyValue(Bytes.toBytes(row), FAMILY,
+              Bytes.toBytes("q" + q), ts, KeyValue.Type.Put, VALUE));
+        }
+      }
+    }
+    return kvs;
+  }
+
+  private ByteBuffer encode(ByteBuffer unencoded) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    encoder.compressKeyValues(new DataOutputStream(baos), unencoded, false);
+    return ByteBuffer.wrap(baos.toByteArray());
+  }
+
+  private static byte [] getKey(KeyValue kv) {
+    return Arrays.copyOfRange(kv.getBuffer(), kv.getKeyOffset(),
+        kv.getKeyOffset() + kv.getKeyLength());
+  }
+
+  @Test
+  public void testRowsThatArePrefixesOfOthers() throws IOException {
+    // "ab" ends inside the node first created for "abc", splitting it
+    List<KeyValue> kvs = createKeyValues("", "a", "abc", "abd", "ab", "b");
+    Collections.sort(kvs, KeyValue.COMPARATOR);
+    ByteBuffer unencoded =
+        RedundantKVGenerator.convertKvToByteBuffer(kvs, false);
+    ByteBuffer encoded = encode(unencoded);
+    ByteBuffer decoded = encoder.uncompressKeyValues(new DataInputStream(
+        new ByteArrayInputStream(encoded.array())), false);
+    unencoded.rewind();
+    decoded.rewind();
+    assertEquals(Bytes.toStringBinary(unencoded),
+        Bytes.toStringBinary(decoded));
+
+    ByteBuffer firstKey = encoder.getFirstKeyInBlock(encoded);
+    assertTrue(Bytes.equals(getKey(kvs.get(0)), firstKey.array()));
+  }
+
+  @Test
+  public void testSeekInBlock() throws IOException {
+    List<KeyValue> kvs = createKeyValues("row1", "row10", "row2", "row3");
+    ByteBuffer encoded =
+        encode(RedundantKVGenerator.convertKvToByteBuffer(kvs, false));
+    DataBlockEncoder.EncodedSeeker seeker =
+        encoder.createSeeker(KeyValue.KEY_COMPARATOR, false);
+    seeker.setCurrentBuffer(encoded);
+
+    for (int i = 0; i < kvs.size(); i++) {
+      byte [] key = getKey(kvs.get(i));
+      assertEquals(0, seeker.seekToKeyInBlock(key, 0, key.length, false));
+      assertEquals(kvs.get(i), seeker.getKeyValue());
+      if (i > 0) {
+        assertEquals(1, seeker.seekToKeyInBlock(key, 0, key.length, true));
+        assertEquals(kvs.get(i - 1), seeker.getKeyValue());
+      }
+    }
+
+    // A timestamp between the two stored ones lands on the newer version
+    KeyValue between = new KeyValue(Bytes.toBytes("row10"), FAMILY,
+        Bytes.toBytes("q1"), 2, KeyValue.Type.Put);
+    byte [] key = getKey(between);
+    assertEquals(1, seeker.seekToKeyInBlock(key, 0, key.length, false));
+    assertEquals(new KeyValue(Bytes.toBytes("row10"), FAMILY,
+        Bytes.toBytes("q1"), 3, KeyValue.Type.Put, VALUE),
+        seeker.getKeyValue());
+    assertTrue(seeker.next());
+    assertEquals(1, seeker.getKeyValue().getTimestamp());
+
+    byte [] first = getKey(kvs.get(0));
+    try {
+      seeker.seekToKeyInBlock(first, 0, first.length, true);
+      fail("Expected to fail seeking before the first key");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSharedRowPrefixesAreStoredOnce() throws IOException {
+    String prefix = "com.example.www/some/long/path/to/a/page?id=";
+    String [] rows = new String[100];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = prefix + (1000 + i);
+    }
+    ByteBuffer unencoded =
+        RedundantKVGenerator.convertKvToByteBuffer(createKeyValues(rows),
+            false);
+    ByteBuffer encoded = encode(unencoded);
+    // Each KeyValue repeats the row, so storing every row once saves well
+    // over half of the block.
+    assertTrue(encoded.limit() < unencoded.limit() / 2);
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests ranking, grouping and serialization of {@link BlockCacheSnapshot}.
+ */
+@Category(SmallTests.class)
+public class TestBlockCacheSnapshot {
+
+  @Test
+  public void testHotBlocksFirst() throws Exception {
+    LruBlockCache cache = new LruBlockCache(1024 * 1024, 1024, false);
+    try {
+      for (int i = 0; i < 4; i++) {
+        cache.cacheBlock(new BlockCacheKey("a", i), new Block(), false);
+        cache.cacheBlock(new BlockCacheKey("b", i), new Block(), false);
+      }
+      cache.cacheBlock(new BlockCacheKey("c", 0), new Block(), true);
+      // Accessed twice, so above every single access block.
+      cache.getBlock(new BlockCacheKey("b", 1), true);
+      // Single access, but the most recent.
+      cache.cacheBlock(new BlockCacheKey("a", 9), new Block(), false);
+
+      List<BlockCacheSnapshot.Entry> entries =
+          BlockCacheSnapshot.collect(cache, 4);
+      assertEquals(4, entries.size());
+      // Hottest b1 (multi), then c0 (in-memory), a9, then b3; grouped by file.
+      assertEntry(entries.get(0), "b", 1, true);
+      assertEntry(entries.get(1), "b", 3, false);
+      assertEntry(entries.get(2), "c", 0, false);
+      assertEntry(entries.get(3), "a", 9, false);
+
+      Map<String, List<BlockCacheSnapshot.Entry>> byFile =
+          BlockCacheSnapshot.groupByFile(entries);
+      assertEquals(3, byFile.size());
+      assertEquals(2, byFile.get("b").size());
+      assertEquals(10, BlockCacheSnapshot.collect(cache, 100).size());
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    LruBlockCache cache = new LruBlockCache(1024 * 1024, 1024, false);
+    try {
+      for (int i = 0; i < 10; i++) {
+        cache.cacheBlock(new BlockCacheKey("file" + (i % 3), i * 100),
+            new Block(), false);
+      }
+      cache.getBlock(new BlockCacheKey("file1", 400), true);
+      List<BlockCacheSnapshot.Entry> entries =
+          BlockCacheSnapshot.collect(cache, 100);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      BlockCacheSnapshot.write(new DataOutputStream(bytes), entries);
+      List<BlockCacheSnapshot.Entry> read = BlockCacheSnapshot.read(
+          new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+      assertEquals(entries.size(), read.size());
+      for (int i = 0; i < entries.size(); i++) {
+        assertEntry(read.get(i), entries.get(i).getHfileName(),
+            entries.get(i).getOffset(), entries.get(i).isMultiAccess());
+      }
+      assertEntry(read.get(0), "file1", 400, true);
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testOnlyLruBlockCacheIsSupported() {
+    assertFalse(BlockCacheSnapshot.isSupported(new SimpleBlockCache()));
+    assertTrue(BlockCacheSnapshot.collect(new SimpleBlockCache(), 10)
+        .isEmpty());
+  }
+
+  private static void assertEntry(BlockCacheSnapshot.Entry entry,
+      String hfileName, long offset, boolean multiAccess) {
+    assertEquals(hfileName, entry.getHfileName());
+    assertEquals(offset, entry.getOffset());
+    assertEquals(multiAccess, entry.isMultiAccess());
+  }
+
+  private static class Block implements Cacheable {
+    @Override
+    public long heapSize() {
+      return 1024;
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return 0;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination) {
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return null;
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+
+    @Override
+    public SchemaMetrics getSchemaMetrics() {
+      return null;
+    }
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
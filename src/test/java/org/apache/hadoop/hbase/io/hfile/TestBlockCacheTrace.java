@@ -0,0 +1,226 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.metrics.SchemaConfigured;
+import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests writing block cache traces through {@link TracingBlockCache}, reading
+ * them back and replaying them with {@link BlockCacheTraceReplayer}.
+ */
+@Category(SmallTests.class)
+public class TestBlockCacheTrace {
+  private static final HBaseTestingUtility TEST_UTIL =
+      new HBaseTestingUtility();
+
+  private File getTraceFile(String name) {
+    File dir = new File(TEST_UTIL.getDataTestDir("TestBlockCacheTrace")
+        .toString());
+    dir.mkdirs();
+    return new File(dir, name);
+  }
+
+  @Test
+  public void testTraceRoundTrip() throws Exception {
+    File file = getTraceFile("roundtrip.trace");
+    BlockCacheTrace.Writer writer =
+        new BlockCacheTrace.Writer(file, 1.0f, 1024 * 1024, 100);
+    TracingBlockCache cache = new TracingBlockCache(
+        new LruBlockCache(1024 * 1024, 1024, false), writer, 1.0f);
+    BlockCacheKey key = new BlockCacheKey("file1", 4096);
+    TraceBlock block = new TraceBlock("t1", "cf1", 1000);
+
+    assertNull(cache.getBlock(key, true));
+    cache.cacheBlock(key, block, true);
+    assertNotNull(cache.getBlock(key, false));
+    cache.evictBlocksByHfileName("file1");
+    cache.shutdown();
+
+    BlockCacheTrace.Reader reader = new BlockCacheTrace.Reader(file);
+    try {
+      assertEquals(1.0f, reader.getSampleRate(), 0.0f);
+      BlockCacheTrace.Record record = reader.next();
+      assertEquals(BlockCacheTrace.OP_GET, record.getOp());
+      assertFalse(record.isHit());
+      assertTrue(record.isCaching());
+      assertNull(record.getBlockType());
+      assertEquals(SchemaMetrics.UNKNOWN, record.getTableName());
+      assertEquals(4096, record.getOffset());
+
+      record = reader.next();
+      assertEquals(BlockCacheTrace.OP_CACHE, record.getOp());
+      assertTrue(record.isInMemory());
+      assertEquals(1000, record.getSize());
+      assertEquals(BlockType.DATA, record.getBlockType());
+      assertEquals("t1", record.getTableName());
+      assertEquals("cf1", record.getColumnFamilyName());
+
+      record = reader.next();
+      assertEquals(BlockCacheTrace.OP_GET, record.getOp());
+      assertTrue(record.isHit());
+      assertFalse(record.isCaching());
+      assertEquals(1000, record.getSize());
+      assertEquals("cf1", record.getColumnFamilyName());
+      assertEquals(new BlockCacheTrace.Record(BlockCacheTrace.OP_GET,
+          "file1".hashCode(), 4096, 0, (byte)0, 0, null, null).toCacheKey(),
+          record.toCacheKey());
+
+      record = reader.next();
+      assertEquals(BlockCacheTrace.OP_EVICT_FILE, record.getOp());
+      assertEquals("file1".hashCode(), record.getFileHash());
+      assertNull(reader.next());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testSamplingIsPerBlock() {
+    int threshold = BlockCacheTrace.sampleThreshold(0.25f);
+    int sampled = 0;
+    for (int i = 0; i < 10000; i++) {
+      BlockCacheKey key = new BlockCacheKey("file" + (i % 10), i * 65536L);
+      boolean isSampled = BlockCacheTrace.isSampled(key, threshold);
+      assertEquals(isSampled, BlockCacheTrace.isSampled(
+          new BlockCacheKey("file" + (i % 10), i * 65536L), threshold));
+      if (isSampled) sampled++;
+    }
+    assertTrue("Sampled " + sampled, sampled > 2000 && sampled < 3000);
+    assertTrue(BlockCacheTrace.isSampled(new BlockCacheKey("f", 0),
+        BlockCacheTrace.sampleThreshold(1.0f)));
+    assertFalse(BlockCacheTrace.isSampled(new BlockCacheKey("f", 0),
+        BlockCacheTrace.sampleThreshold(0.0f)));
+  }
+
+  /**
+   * Loops over a working set of blocks: a cache holding the working set hits
+   * on every pass but the first, a much smaller one barely ever does.
+   */
+  @Test
+  public void testReplayHitRatioFollowsCacheSize() throws Exception {
+    File file = getTraceFile("replay.trace");
+    BlockCacheTrace.Writer writer =
+        new BlockCacheTrace.Writer(file, 1.0f, 64 * 1024 * 1024, 100000);
+    TracingBlockCache traced = new TracingBlockCache(
+        new LruBlockCache(1024 * 1024, 1024, false), writer, 1.0f);
+    int blocks = 200;
+    int passes = 10;
+    for (int pass = 0; pass < passes; pass++) {
+      for (int i = 0; i < blocks; i++) {
+        BlockCacheKey key = new BlockCacheKey("file", i * 1024L);
+        if (traced.getBlock(key, true) == null) {
+          traced.cacheBlock(key, new TraceBlock("t", "cf", 1024));
+        }
+      }
+    }
+    traced.shutdown();
+
+    LruBlockCache large = new LruBlockCache(1024 * 1024, 1024, false);
+    LruBlockCache small = new LruBlockCache(64 * 1024, 1024, false);
+    try {
+      assertEquals(blocks * passes, replay(file, large));
+      assertEquals(blocks * passes, replay(file, small));
+      assertEquals((double)(passes - 1) / passes,
+          large.getStats().getHitRatio(), 0.001);
+      assertTrue(small.getStats().getHitRatio() < 0.1);
+    } finally {
+      large.shutdown();
+      small.shutdown();
+    }
+  }
+
+  @Test
+  public void testParseSize() {
+    assertEquals(512, BlockCacheTraceReplayer.parseSize("512"));
+    assertEquals(64 * 1024, BlockCacheTraceReplayer.parseSize("64k"));
+    assertEquals(1536L * 1024 * 1024,
+        BlockCacheTraceReplayer.parseSize("1.5G"));
+  }
+
+  private long replay(File file, BlockCache cache) throws Exception {
+    BlockCacheTrace.Reader reader = new BlockCacheTrace.Reader(file);
+    try {
+      return BlockCacheTraceReplayer.replay(reader, cache);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * A data block of a given heap size belonging to a table and family.
+   */
+  private static class TraceBlock extends SchemaConfigured
+      implements Cacheable {
+    private final int size;
+
+    TraceBlock(String tableName, String cfName, int size) {
+      super(null, tableName, cfName);
+      this.size = size;
+    }
+
+    @Override
+    public long heapSize() {
+      return size;
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return 0;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination) {
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return null;
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+
+    @Override
+    public SchemaMetrics getSchemaMetrics() {
+      // Keep the global per-table metrics out of this test.
+      return null;
+    }
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests scanner read-ahead and prefetch on open of {@link BlockPrefetcher}.
+ */
+@Category(SmallTests.class)
+public class TestBlockPrefetcher {
+  private static final HBaseTestingUtility TEST_UTIL =
+      new HBaseTestingUtility();
+  private static final int NUM_KV = 1000;
+
+  private FileSystem fs;
+  private Path path;
+
+  @Before
+  public void setUp() throws Exception {
+    fs = TEST_UTIL.getTestFileSystem();
+    path = new Path(TEST_UTIL.getDataTestDir(), "prefetch.hfile");
+    HFile.Writer writer = HFile.getWriterFactoryNoCache(
+        TEST_UTIL.getConfiguration())
+        .withPath(fs, path)
+        .withBlockSize(1024)
+        .create();
+    for (int i = 0; i < NUM_KV; i++) {
+      writer.append(toKV(i));
+    }
+    writer.close();
+  }
+
+  private static KeyValue toKV(int i) {
+    return new KeyValue(Bytes.toBytes(String.format("row%05d", i)),
+        Bytes.toBytes("family"), Bytes.toBytes("qualifier"),
+        Bytes.toBytes("value" + i));
+  }
+
+  private static CacheConfig cacheConfig(BlockCache cache) {
+    return new CacheConfig(cache, true, false, false, false, false, false,
+        false);
+  }
+
+  @Test
+  public void testScanWithReadAhead() throws Exception {
+    CacheConfig cacheConf = cacheConfig(null);
+    cacheConf.setReadAheadDepth(4);
+    HFile.Reader reader = HFile.createReader(fs, path, cacheConf);
+    try {
+      reader.loadFileInfo();
+      HFileScanner scanner = reader.getScanner(false, false);
+      assertTrue(scanner.seekTo());
+      int count = 0;
+      do {
+        assertEquals(toKV(count), scanner.getKeyValue());
+        count++;
+      } while (scanner.next());
+      assertEquals(NUM_KV, count);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testReadAheadResetOnSeekAndClose() throws Exception {
+    CacheConfig cacheConf = cacheConfig(null);
+    cacheConf.setReadAheadDepth(4);
+    HFile.Reader reader = HFile.createReader(fs, path, cacheConf);
+    try {
+      reader.loadFileInfo();
+      HFileReaderV2.AbstractScannerV2 scanner =
+          (HFileReaderV2.AbstractScannerV2) reader.getScanner(false, false);
+      assertTrue(scanner.seekTo());
+      int count = 0;
+      while (scanner.getReadAhead() == null && scanner.next()) {
+        count++;
+      }
+      assertNotNull("No read-ahead after " + count + " cells",
+          scanner.getReadAhead());
+
+      // Jumping elsewhere in the file stops reading ahead, and it starts
+      // again only after two more sequential block moves.
+      assertEquals(0, scanner.seekTo(toKV(NUM_KV / 2).getKey()));
+      assertNull(scanner.getReadAhead());
+      HFileBlock start = scanner.block;
+      while (scanner.block == start && scanner.next()) {
+        // moving into the following block
+      }
+      assertNull(scanner.getReadAhead());
+      start = scanner.block;
+      while (scanner.block == start && scanner.next()) {
+        // and into the one after
+      }
+      assertNotNull(scanner.getReadAhead());
+
+      // A seek within the current block keeps reading ahead.
+      BlockPrefetcher.ReadAhead readAhead = scanner.getReadAhead();
+      assertTrue(scanner.next());
+      assertEquals(0, scanner.reseekTo(scanner.getKeyValue().getKey()));
+      assertTrue(readAhead == scanner.getReadAhead());
+
+      // Closing the scanner drops the blocks read ahead.
+      scanner.close();
+      assertNull(scanner.getReadAhead());
+      assertEquals(0, readAhead.getReadyCount());
+      assertTrue(scanner.seekTo());
+      assertEquals(toKV(0), scanner.getKeyValue());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testReadAheadHandsOutBlocksInOrder() throws Exception {
+    HFile.Reader reader = HFile.createReader(fs, path, cacheConfig(null));
+    try {
+      reader.loadFileInfo();
+      long lastDataBlockOffset = reader.getTrailer().getLastDataBlockOffset();
+      BlockPrefetcher.ReadAhead readAhead =
+          new BlockPrefetcher.ReadAhead(reader, false, false, 3);
+      HFileBlock block = reader.readBlock(0, -1, false, true, false, null);
+      int blocks = 1;
+      while (block.getOffset() < lastDataBlockOffset) {
+        readAhead.advance(block);
+        assertTrue(readAhead.getReadyCount() <= 3);
+        long next = block.getOffset() + block.getOnDiskSizeWithHeader();
+        block = readAhead.take(next);
+        assertNotNull("Block at " + next + " not read ahead", block);
+        assertEquals(next, block.getOffset());
+        blocks++;
+      }
+      assertEquals(reader.getTrailer().getDataIndexCount(), blocks);
+      // Nothing past the last data block is read ahead.
+      readAhead.advance(block);
+      assertNull(readAhead.take(
+          block.getOffset() + block.getOnDiskSizeWithHeader()));
+
+      // Jumping back drops whatever was read ahead.
+      HFileBlock first = reader.readBlock(0, -1, false, true, false, null);
+      readAhead.advance(first);
+      HFileBlock second = readAhead.take(first.getOnDiskSizeWithHeader());
+      assertNotNull(second);
+      readAhead.close();
+      assertEquals(0, readAhead.getReadyCount());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testPrefetchOnOpen() throws Exception {
+    LruBlockCache cache = new LruBlockCache(8 * 1024 * 1024, 1024, false);
+    HFile.Reader reader = HFile.createReader(fs, path, cacheConfig(cache));
+    try {
+      reader.loadFileInfo();
+      assertTrue(BlockPrefetcher.prefetchFile(reader));
+      int dataBlocks = reader.getTrailer().getDataIndexCount();
+      long deadline = System.currentTimeMillis() + 10000;
+      while (cache.getBlockCount() < dataBlocks &&
+          System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(dataBlocks, cache.getBlockCount());
+
+      // A scan is now served from the cache only.
+      long misses = cache.getStats().getMissCount();
+      HFileScanner scanner = reader.getScanner(true, false);
+      assertTrue(scanner.seekTo());
+      while (scanner.next()) {
+        // keep going
+      }
+      assertEquals(misses, cache.getStats().getMissCount());
+    } finally {
+      reader.close();
+      cache.shutdown();
+    }
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
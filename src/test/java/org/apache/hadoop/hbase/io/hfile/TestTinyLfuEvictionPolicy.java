@@ -0,0 +1,218 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the frequency sketch and {@link TinyLfuEvictionPolicy}, alone and
+ * plugged into an {@link LruBlockCache}.
+ */
+@Category(SmallTests.class)
+public class TestTinyLfuEvictionPolicy {
+
+  @Test
+  public void testSketchCountsAndSaturates() {
+    FrequencySketch sketch = new FrequencySketch(1024);
+    assertEquals(0, sketch.frequency(42));
+    for (int i = 0; i < 5; i++) {
+      sketch.increment(42);
+    }
+    assertEquals(5, sketch.frequency(42));
+    for (int i = 0; i < 100; i++) {
+      sketch.increment(42);
+    }
+    assertEquals(FrequencySketch.MAX_COUNT, sketch.frequency(42));
+  }
+
+  @Test
+  public void testSketchSaturatesUnderConcurrentIncrements()
+  throws InterruptedException {
+    final FrequencySketch sketch = new FrequencySketch(1024);
+    Thread [] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 100000; i++) {
+            sketch.increment(42);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    // A counter pushed past 15 would wrap to 0 and carry into its neighbour.
+    assertEquals(FrequencySketch.MAX_COUNT, sketch.frequency(42));
+  }
+
+  @Test
+  public void testSketchAges() {
+    FrequencySketch sketch = new FrequencySketch(16);
+    for (int i = 0; i < 8; i++) {
+      sketch.increment(7);
+    }
+    sketch.reset();
+    assertEquals(4, sketch.frequency(7));
+    // Enough distinct additions trigger the halving by themselves.
+    for (int i = 0; i < 1000; i++) {
+      sketch.increment(1000 + i);
+    }
+    assertTrue(sketch.frequency(7) < 4);
+  }
+
+  @Test
+  public void testSamplingPrefersColdBlocks() {
+    TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(100 * 1024, 1024);
+    List<CachedBlock> blocks = new ArrayList<CachedBlock>();
+    for (int i = 0; i < 100; i++) {
+      CachedItem item = new CachedItem("block" + i, 1024);
+      blocks.add(new CachedBlock(item.cacheKey, item, i, i >= 90));
+      // Every tenth block is hot, so no sample is made of hot blocks only.
+      for (int j = 0; j < (i % 10 == 0 ? 10 : 1); j++) {
+        policy.recordAccess(item.cacheKey);
+      }
+    }
+    long toFree = 20 * blocks.get(0).heapSize();
+    List<CachedBlock> victims = policy.selectVictims(blocks, toFree);
+    assertEquals(20, victims.size());
+    for (CachedBlock victim : victims) {
+      assertEquals(1, policy.frequency(victim.getCacheKey()));
+      assertFalse(victim.getPriority() == CachedBlock.BlockPriority.MEMORY);
+    }
+    assertEquals(1, policy.getAdmissionThreshold());
+  }
+
+  /**
+   * A hot working set must survive a scan of many blocks read once.
+   */
+  @Test
+  public void testScanResistance() {
+    long maxSize = 200000;
+    int blockSize = 1000;
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false);
+    TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(maxSize,
+        blockSize);
+    cache.setEvictionPolicy(policy);
+
+    CachedItem[] hot = new CachedItem[50];
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < hot.length; i++) {
+        if (hot[i] == null) {
+          hot[i] = new CachedItem("hot" + i, blockSize);
+        }
+        if (cache.getBlock(hot[i].cacheKey, true) == null) {
+          cache.cacheBlock(hot[i].cacheKey, hot[i]);
+        }
+      }
+    }
+    for (int i = 0; i < 2000; i++) {
+      CachedItem scanned = new CachedItem("scan" + i, blockSize);
+      if (cache.getBlock(scanned.cacheKey, true) == null) {
+        cache.cacheBlock(scanned.cacheKey, scanned);
+      }
+    }
+    assertTrue(cache.getStats().getEvictedCount() > 0);
+    assertTrue(policy.getRejectedCount() > 0);
+    for (CachedItem item : hot) {
+      assertNotNull(item.cacheKey.toString(),
+          cache.getBlock(item.cacheKey, true));
+    }
+    assertTrue(cache.heapSize() <= maxSize);
+
+    // A block asked for repeatedly still gets in.
+    CachedItem newcomer = new CachedItem("newcomer", blockSize);
+    for (int i = 0; i < 3 && cache.getBlock(newcomer.cacheKey, true) == null;
+        i++) {
+      cache.cacheBlock(newcomer.cacheKey, newcomer);
+    }
+    assertNotNull(cache.getBlock(newcomer.cacheKey, true));
+    cache.shutdown();
+  }
+
+  @Test
+  public void testNoPolicyKeepsPriorityBuckets() {
+    LruBlockCache cache = new LruBlockCache(100000, 1000, false);
+    assertNull(cache.getEvictionPolicy());
+    CachedItem item = new CachedItem("block", 1000);
+    cache.cacheBlock(item.cacheKey, item);
+    assertNotNull(cache.getBlock(item.cacheKey, true));
+    cache.shutdown();
+  }
+
+  private static class CachedItem implements Cacheable {
+    BlockCacheKey cacheKey;
+    int size;
+
+    CachedItem(String blockName, int size) {
+      this.cacheKey = new BlockCacheKey(blockName, 0);
+      this.size = size;
+    }
+
+    @Override
+    public long heapSize() {
+      return ClassSize.align(size);
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+
+    @Override
+    public SchemaMetrics getSchemaMetrics() {
+      return SchemaMetrics.getUnknownInstanceForTest();
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return 0;
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return null;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination) {
+    }
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
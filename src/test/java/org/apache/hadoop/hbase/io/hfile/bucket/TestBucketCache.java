@@ -0,0 +1,249 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.Cacheable;
+import org.apache.hadoop.hbase.io.hfile.CacheableDeserializer;
+import org.apache.hadoop.hbase.io.hfile.LruBlockCache;
+import org.apache.hadoop.hbase.regionserver.metrics.SchemaMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Basic test of BucketCache and its allocator. Puts and gets.
+ * <p>
+ *
+ * Blocks read back must be identical to the ones cached; blocks may be
+ * missing since writes are asynchronous and can be dropped.
+ */
+// Starts 50 threads, high variability of execution time => Medium
+@Category(MediumTests.class)
+public class TestBucketCache {
+  static final int BLOCK_SIZE = 16 * 1024;
+  static final int[] BUCKET_SIZES = { 8 * 1024 + 1024, 16 * 1024 + 1024,
+    32 * 1024 + 1024 };
+  static final long CACHE_SIZE = 32 * 1024 * 1024;
+  static final int NUM_THREADS = 50;
+  static final int NUM_QUERIES = 10000;
+  BucketCache cache;
+
+  @Before
+  public void setup() throws Exception {
+    cache = new BucketCache(new ByteBufferIOEngine(CACHE_SIZE, true),
+        CACHE_SIZE, BUCKET_SIZES, 2, 1000);
+  }
+
+  @After
+  public void tearDown() {
+    cache.shutdown();
+  }
+
+  @Test
+  public void testAllocatorSizeClasses() throws Exception {
+    BucketAllocator allocator = new BucketAllocator(CACHE_SIZE, BUCKET_SIZES);
+    int buckets = allocator.getUnassignedBucketCount();
+    assertEquals(0, allocator.sizeIndexOf(1));
+    assertEquals(1, allocator.sizeIndexOf(BLOCK_SIZE));
+    assertEquals(-1, allocator.sizeIndexOf(BUCKET_SIZES[2] + 1));
+
+    long first = allocator.allocateBlock(BLOCK_SIZE);
+    long second = allocator.allocateBlock(BLOCK_SIZE);
+    assertEquals(BUCKET_SIZES[1], Math.abs(second - first));
+    assertEquals(2L * BUCKET_SIZES[1], allocator.getUsedSize());
+    assertEquals(buckets - 1, allocator.getUnassignedBucketCount());
+    assertEquals(1, allocator.getBucketCount(1));
+    assertEquals(BUCKET_SIZES[1], allocator.sizeOfAllocation(first));
+
+    // A completely free bucket goes back to the pool.
+    allocator.freeBlock(first);
+    allocator.freeBlock(second);
+    assertEquals(0, allocator.getUsedSize());
+    assertEquals(buckets, allocator.getUnassignedBucketCount());
+    assertEquals(0, allocator.getBucketCount(1));
+
+    try {
+      allocator.allocateBlock(BUCKET_SIZES[2] + 1);
+      fail("Block larger than the largest size class was allocated");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testAllocatorFillsUp() throws Exception {
+    BucketAllocator allocator = new BucketAllocator(CACHE_SIZE, BUCKET_SIZES);
+    long count = 0;
+    try {
+      while (true) {
+        allocator.allocateBlock(BUCKET_SIZES[2]);
+        count++;
+      }
+    } catch (CacheFullException e) {
+      assertEquals(2, e.getBucketIndex());
+    }
+    assertEquals(allocator.getTotalSize() / BUCKET_SIZES[2], count);
+    assertEquals(0, allocator.getUnassignedBucketCount());
+  }
+
+  @Test
+  public void testByteBufferArraySpansBuffers() {
+    ByteBuffer[] buffers = { ByteBuffer.allocate(8), ByteBuffer.allocate(8),
+      ByteBuffer.allocate(8) };
+    ByteBufferArray array = new ByteBufferArray(buffers, 8);
+    byte[] src = new byte[12];
+    for (int i = 0; i < src.length; i++) {
+      src[i] = (byte) i;
+    }
+    array.put(6, src, 0, src.length);
+    byte[] dst = new byte[12];
+    array.get(6, dst, 0, dst.length);
+    for (int i = 0; i < dst.length; i++) {
+      assertEquals(src[i], dst[i]);
+    }
+    assertEquals(4, buffers[1].get(6));
+  }
+
+  @Test
+  public void testBucketEntryOffset() {
+    long offset = (1L << 39) + 12345;
+    BucketEntry be = new BucketEntry(offset, 10, 1, (byte) 0, false);
+    assertEquals(offset, be.offset());
+    assertEquals(BucketEntry.BlockPriority.SINGLE, be.getPriority());
+    be.access(2);
+    assertEquals(BucketEntry.BlockPriority.MULTI, be.getPriority());
+  }
+
+  @Test
+  public void testCacheSimple() throws Exception {
+    CacheTestUtils.testCacheSimple(cache, BLOCK_SIZE, NUM_QUERIES);
+  }
+
+  @Test
+  public void testCacheMultiThreaded() throws Exception {
+    CacheTestUtils.testCacheMultiThreaded(cache, BLOCK_SIZE, NUM_THREADS,
+        NUM_QUERIES, 0.80);
+  }
+
+  @Test
+  public void testCacheMultiThreadedSingleKey() throws Exception {
+    CacheTestUtils.hammerSingleKey(cache, BLOCK_SIZE, NUM_THREADS, NUM_QUERIES);
+  }
+
+  @Test
+  public void testCacheMultiThreadedEviction() throws Exception {
+    CacheTestUtils.hammerEviction(cache, BLOCK_SIZE, 10, NUM_QUERIES);
+  }
+
+  @Test
+  public void testVictimCache() throws Exception {
+    LruBlockCache lru = new LruBlockCache(1024 * 1024, BLOCK_SIZE, false);
+    lru.setVictimCache(cache);
+    BlockCacheKey key = new BlockCacheKey("victim", 0);
+    byte[] data = new byte[BLOCK_SIZE];
+    data[0] = 42;
+    lru.cacheBlock(key, new ByteArrayBlock(data));
+    // Overflow the on-heap cache; without an eviction thread it evicts in
+    // line, oldest first.
+    for (int i = 1; i < 200; i++) {
+      lru.cacheBlock(new BlockCacheKey("filler", i),
+          new ByteArrayBlock(new byte[BLOCK_SIZE]));
+    }
+    assertTrue(cache.getBlockCount() > 0);
+    Cacheable fromVictim = lru.getBlock(key, false);
+    assertNotNull(fromVictim);
+    assertEquals(42, ((ByteArrayBlock) fromVictim).buf[0]);
+    assertTrue(lru.evictBlock(key));
+    assertNull(lru.getBlock(key, false));
+    assertFalse(lru.evictBlock(key));
+  }
+
+  /**
+   * A block that is just a byte array.
+   */
+  static class ByteArrayBlock implements Cacheable {
+    final byte[] buf;
+
+    ByteArrayBlock(byte[] buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public long heapSize() {
+      return 4 + buf.length;
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return 4 + buf.length;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination) {
+      destination.putInt(buf.length);
+      destination.put(buf);
+      destination.rewind();
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return DESERIALIZER;
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+
+    @Override
+    public SchemaMetrics getSchemaMetrics() {
+      return SchemaMetrics.getUnknownInstanceForTest();
+    }
+
+    private static final CacheableDeserializer<Cacheable> DESERIALIZER =
+      new CacheableDeserializer<Cacheable>() {
+        @Override
+        public Cacheable deserialize(ByteBuffer b) throws IOException {
+          byte[] buf = new byte[b.getInt()];
+          b.get(buf);
+          return new ByteArrayBlock(buf);
+        }
+      };
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
@@ -39,6 +39,8 @@ import org.apache.hadoop.hbase.io.hfile.NoOpDataBlockEncoder;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactSelection;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManagerTestHelper;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
 
 import com.google.common.collect.Lists;
 import org.junit.experimental.categories.Category;
@@ -99,6 +101,7 @@ public class TestCompactSelection extends TestCase {
   static class MockStoreFile extends StoreFile {
     long length = 0;
     boolean isRef = false;
+    long maxTimestamp = Long.MAX_VALUE;
 
     MockStoreFile(long length, boolean isRef) throws IOException {
       super(TEST_UTIL.getTestFileSystem(), TEST_FILE,
@@ -126,11 +129,17 @@ public class TestCompactSelection extends TestCase {
     @Override
     public StoreFile.Reader getReader() {
       final long len = this.length;
+      final long maxTs = this.maxTimestamp;
       return new StoreFile.Reader() {
         @Override
         public long length() {
           return len;
         }
+
+        @Override
+        public long getMaxTimestamp() {
+          return maxTs;
+        }
       };
     }
   }
@@ -281,6 +290,76 @@ public class TestCompactSelection extends TestCase {
     compactEquals(sfCreate(999,50,12,12, 1), 12, 12, 1);
   }
 
+  /**
+   * Creates files of increasing sizes 1, 2, ... holding data up to the given
+   * timestamps, so the sizes identify the files.
+   */
+  List<StoreFile> sfCreateWithTimestamps(long ... maxTimestamps)
+  throws IOException {
+    List<StoreFile> ret = Lists.newArrayList();
+    for (int i = 0; i < maxTimestamps.length; i++) {
+      MockStoreFile sf = new MockStoreFile(i + 1, false);
+      sf.maxTimestamp = maxTimestamps[i];
+      ret.add(sf);
+    }
+    return ret;
+  }
+
+  void compactEquals(CompactionPolicy policy, List<StoreFile> candidates,
+      boolean forcemajor, long ... expected)
+  throws IOException {
+    List<StoreFile> actual =
+      policy.selectCompaction(candidates, forcemajor).getFilesToCompact();
+    assertEquals(Arrays.toString(expected), Arrays.toString(getSizes(actual)));
+  }
+
+  public void testDateTieredCompaction() throws IOException {
+    // windows are [1000,1100), [800,1000), [400,800), [0,400)
+    conf.setLong(DateTieredCompactionPolicy.BASE_WINDOW_MILLIS_KEY, 100);
+    conf.setLong(DateTieredCompactionPolicy.WINDOWS_PER_TIER_KEY, 2);
+    ManualEnvironmentEdge edge = new ManualEnvironmentEdge();
+    edge.setValue(1000);
+    EnvironmentEdgeManagerTestHelper.injectEdge(edge);
+    try {
+      CompactionPolicy policy = new DateTieredCompactionPolicy();
+      policy.setConf(conf);
+      policy.configureForStore(store);
+
+      // the incoming window needs minFiles files
+      compactEquals(policy, sfCreateWithTimestamps(350, 600, 900, 1010, 1020,
+          1030), false, 4, 5, 6);
+      // older windows are compacted with two files
+      compactEquals(policy, sfCreateWithTimestamps(350, 600, 700, 900, 1010,
+          1020), false, 2, 3);
+      compactEquals(policy, sfCreateWithTimestamps(300, 350, 1010), false,
+          1, 2);
+      // no window has enough files
+      compactEquals(policy, sfCreateWithTimestamps(350, 600, 900, 1010),
+          false /* empty */);
+      // don't exceed max file compact threshold
+      compactEquals(policy, sfCreateWithTimestamps(1001, 1002, 1003, 1004,
+          1005, 1006, 1007), false, 1, 2, 3, 4, 5);
+      // a forced major compaction takes all files
+      compactEquals(policy, sfCreateWithTimestamps(350, 600, 900, 1010),
+          true, 1, 2, 3, 4);
+
+      // files older than the max age are never compacted again
+      conf.setLong(DateTieredCompactionPolicy.MAX_STOREFILE_AGE_MILLIS_KEY,
+          500);
+      policy = new DateTieredCompactionPolicy();
+      policy.setConf(conf);
+      policy.configureForStore(store);
+      compactEquals(policy, sfCreateWithTimestamps(300, 350, 1010),
+          false /* empty */);
+      compactEquals(policy, sfCreateWithTimestamps(300, 350, 600, 700, 1010),
+          false, 3, 4);
+    } finally {
+      EnvironmentEdgeManagerTestHelper.reset();
+      conf.setLong(DateTieredCompactionPolicy.MAX_STOREFILE_AGE_MILLIS_KEY,
+          Long.MAX_VALUE);
+    }
+  }
+
   @org.junit.Rule
   public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
     new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
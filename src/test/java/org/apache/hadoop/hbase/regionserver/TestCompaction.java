@@ -24,6 +24,8 @@ import static org.mockito.Mockito.spy;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -563,6 +565,122 @@ public class TestCompaction extends HBaseTestCase {
     return count;
   }
 
+  /**
+   * Test that a striped store writes a file per stripe on flush and
+   * compaction, and that a minor compaction rewrites a single stripe.
+   */
+  public void testStripedStoreCompaction() throws Exception {
+    HTableDescriptor stripedHtd = createTableDescriptor(getName() + "Striped");
+    // stripes are [, "h"), ["h", "q") and ["q", )
+    stripedHtd.getFamily(COLUMN_FAMILY).setStripeBoundaries(
+        Bytes.toBytes("h"), Bytes.toBytes("q"));
+    HRegion striped = createNewHRegion(stripedHtd, null, null);
+    try {
+      Store store = striped.getStore(COLUMN_FAMILY);
+      assertNotNull(store.stripes);
+      for (int i = 0; i < compactionThreshold; i++) {
+        createStoreFile(striped);
+      }
+      int rows = countRows(striped);
+
+      // each flush writes one file per stripe
+      assertEquals(3 * compactionThreshold, store.getStorefilesCount());
+      assertEquals(compactionThreshold, store.getBlockingFilesCount());
+      for (StoreFile sf : store.getStorefiles()) {
+        assertTrue(store.stripes.getStripe(sf) != StoreStripes.NO_STRIPE);
+      }
+
+      // a minor compaction rewrites the files of one stripe
+      striped.compactStores(false);
+      assertEquals(2 * compactionThreshold + 1, store.getStorefilesCount());
+      assertEquals(compactionThreshold, store.getBlockingFilesCount());
+      assertEquals(rows, countRows(striped));
+
+      // a major compaction writes one file per stripe
+      striped.compactStores(true);
+      assertEquals(3, store.getStorefilesCount());
+      for (StoreFile sf : store.getStorefiles()) {
+        assertTrue(store.stripes.getStripe(sf) != StoreStripes.NO_STRIPE);
+      }
+      assertEquals(rows, countRows(striped));
+    } finally {
+      HLog hlog = striped.getLog();
+      striped.close();
+      hlog.closeAndDelete();
+    }
+  }
+
+  public void testParallelMajorCompaction() throws Exception {
+    HTableDescriptor parallelHtd =
+      createTableDescriptor(getName() + "Parallel");
+    // small blocks give the block index plenty of keys to split at
+    parallelHtd.getFamily(COLUMN_FAMILY).setBlocksize(1024);
+    conf.setInt("hbase.hstore.compaction.parallel.threads", 4);
+    conf.setLong("hbase.hstore.compaction.parallel.min.size", 0);
+    HRegion parallel = createNewHRegion(parallelHtd, null, null);
+    conf.setInt("hbase.hstore.compaction.parallel.threads", 1);
+    try {
+      Store store = parallel.getStore(COLUMN_FAMILY);
+      for (int i = 0; i < compactionThreshold; i++) {
+        createStoreFile(parallel);
+      }
+      int rows = countRows(parallel);
+      assertEquals(3,
+          store.getParallelCompactionSplitRows(store.getStorefiles()).size());
+
+      // each sub-range is compacted into its own file
+      parallel.compactStores(true);
+      assertEquals(4, store.getStorefilesCount());
+      assertEquals(rows, countRows(parallel));
+
+      // the files cover disjoint key ranges
+      List<StoreFile> files = new ArrayList<StoreFile>(store.getStorefiles());
+      Collections.sort(files, new Comparator<StoreFile>() {
+        public int compare(StoreFile a, StoreFile b) {
+          return Bytes.compareTo(a.getReader().getFirstKey(),
+              b.getReader().getFirstKey());
+        }
+      });
+      for (int i = 1; i < files.size(); i++) {
+        assertTrue(Bytes.compareTo(
+            KeyValue.createKeyValueFromKey(
+                files.get(i - 1).getReader().getLastKey()).getRow(),
+            KeyValue.createKeyValueFromKey(
+                files.get(i).getReader().getFirstKey()).getRow()) < 0);
+      }
+
+      // the files count as one, so a flush does not start another compaction
+      // of the whole store
+      createSmallerStoreFile(parallel);
+      assertEquals(5, store.getStorefilesCount());
+      assertFalse(store.needsCompaction());
+      assertNull(store.requestCompaction());
+    } finally {
+      HLog hlog = parallel.getLog();
+      parallel.close();
+      hlog.closeAndDelete();
+    }
+  }
+
+  private int countRows(final HRegion region) throws IOException {
+    InternalScanner s = region.getScanner(new Scan());
+    int count = 0;
+    try {
+      List<KeyValue> results = new ArrayList<KeyValue>();
+      boolean hasMore;
+      do {
+        hasMore = s.next(results);
+        if (!results.isEmpty()) {
+          count++;
+        }
+        results.clear();
+      } while (hasMore);
+    } finally {
+      s.close();
+    }
+    return count;
+  }
+
   private void createStoreFile(final HRegion region) throws IOException {
     HRegionIncommon loader = new HRegionIncommon(region);
     addContent(loader, Bytes.toString(COLUMN_FAMILY));
@@ -586,7 +704,9 @@ public class TestCompaction extends HBaseTestCase {
     List<StoreFile> storeFiles = store.getStorefiles();
     long maxId = StoreFile.getMaxSequenceIdInList(storeFiles);
 
-    StoreFile.Writer compactedFile = store.compactStore(storeFiles, false, maxId);
+    List<StoreFile.Writer> compactedFiles =
+      store.compactStore(storeFiles, false, maxId);
+    StoreFile.Writer compactedFile = compactedFiles.get(0);
 
     // Now lets corrupt the compacted file.
     FileSystem fs = FileSystem.get(conf);
@@ -600,7 +720,7 @@ public class TestCompaction extends HBaseTestCase {
     stream.close();
 
     try {
-      store.completeCompaction(storeFiles, compactedFile);
+      store.completeCompaction(storeFiles, compactedFiles);
     } catch (Exception e) {
       // The complete compaction should fail and the corrupt file should remain
       // in the 'tmp' directory;
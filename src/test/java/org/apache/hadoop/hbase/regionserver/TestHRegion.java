@@ -173,7 +173,11 @@ public class TestHRegion extends HBaseTestCase {
       writer.close();
     }
     MonitoredTask status = TaskMonitor.get().createStatus(method);
-    long seqId = region.replayRecoveredEditsIfAny(regiondir, minSeqId-1, null, status);
+    Map<byte[], Long> maxSeqIdInStores =
+      new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+    maxSeqIdInStores.put(family, minSeqId - 1);
+    long seqId = region.replayRecoveredEditsIfAny(regiondir, maxSeqIdInStores,
+      null, status);
     assertEquals(maxSeqId, seqId);
     Get get = new Get(row);
     Result result = region.get(get, null);
@@ -214,7 +218,11 @@ public class TestHRegion extends HBaseTestCase {
     }
     long recoverSeqId = 1030;
     MonitoredTask status = TaskMonitor.get().createStatus(method);
-    long seqId = region.replayRecoveredEditsIfAny(regiondir, recoverSeqId-1, null, status);
+    Map<byte[], Long> maxSeqIdInStores =
+      new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+    maxSeqIdInStores.put(family, recoverSeqId - 1);
+    long seqId = region.replayRecoveredEditsIfAny(regiondir, maxSeqIdInStores,
+      null, status);
     assertEquals(maxSeqId, seqId);
     Get get = new Get(row);
     Result result = region.get(get, null);
@@ -250,7 +258,11 @@ public class TestHRegion extends HBaseTestCase {
         recoveredEditsDir, String.format("%019d", minSeqId-1));
     FSDataOutputStream dos=  fs.create(recoveredEdits);
     dos.close();
-    long seqId = region.replayRecoveredEditsIfAny(regiondir, minSeqId, null, null);
+    Map<byte[], Long> maxSeqIdInStores =
+      new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+    maxSeqIdInStores.put(family, minSeqId);
+    long seqId = region.replayRecoveredEditsIfAny(regiondir, maxSeqIdInStores,
+      null, null);
     assertEquals(minSeqId, seqId);
   }
 
@@ -384,6 +396,229 @@ public class TestHRegion extends HBaseTestCase {
       0, getNumberOfRows(keyPrefix3, value2, this.region));
   }
 
+  /**
+   * Filter on a small family and only read the other families for the rows
+   * which pass it.
+   */
+  public void testScanner_JoinedScanners() throws IOException {
+    byte [] tableName = Bytes.toBytes("testTable");
+    byte [] alpha = Bytes.toBytes("alpha");
+    byte [] essential = Bytes.toBytes("essential");
+    byte [] joined = Bytes.toBytes("joined");
+    initHRegion(tableName, getName(), alpha, essential, joined);
+
+    byte [] status = Bytes.toBytes("status");
+    byte [] yes = Bytes.toBytes("yes");
+    byte [] value = Bytes.toBytes("value");
+    byte [] row1 = Bytes.toBytes("row1");
+    byte [] row4 = Bytes.toBytes("row4");
+
+    Put put = new Put(row1);
+    put.add(alpha, qual1, value);
+    put.add(essential, status, yes);
+    put.add(joined, qual1, value);
+    put.add(joined, qual2, value);
+    put.add(joined, qual3, value);
+    region.put(put);
+    put = new Put(Bytes.toBytes("row2"));
+    put.add(alpha, qual1, value);
+    put.add(essential, status, Bytes.toBytes("no"));
+    put.add(joined, qual1, value);
+    region.put(put);
+    put = new Put(Bytes.toBytes("row3"));
+    put.add(joined, qual1, value);
+    region.put(put);
+    put = new Put(row4);
+    put.add(essential, status, yes);
+    put.add(joined, qual1, value);
+    region.put(put);
+
+    SingleColumnValueFilter filter = new SingleColumnValueFilter(essential,
+        status, CompareOp.EQUAL, yes);
+    filter.setFilterIfMissing(true);
+    assertTrue(filter.isFamilyEssential(essential));
+    assertFalse(filter.isFamilyEssential(joined));
+    Scan scan = new Scan();
+    scan.setFilter(filter);
+    scan.setLoadColumnFamiliesOnDemand(true);
+    InternalScanner s = region.getScanner(scan);
+    assertNotNull(((HRegion.RegionScannerImpl)s).joinedHeap);
+
+    List<KeyValue> results = new ArrayList<KeyValue>();
+    assertTrue(s.next(results));
+    assertEquals(5, results.size());
+    assertTrue(Bytes.equals(alpha, results.get(0).getFamily()));
+    assertTrue(Bytes.equals(essential, results.get(1).getFamily()));
+    for (KeyValue kv : results) {
+      assertTrue(Bytes.equals(row1, kv.getRow()));
+    }
+    results.clear();
+    assertFalse(s.next(results));
+    assertEquals(2, results.size());
+    assertTrue(Bytes.equals(row4, results.get(0).getRow()));
+    s.close();
+
+    // The joined families of a row may be spread over several batches.
+    scan.setBatch(2);
+    s = region.getScanner(scan);
+    int [] expectedSizes = { 2, 2, 1, 2 };
+    boolean more = true;
+    for (int i = 0; i < expectedSizes.length; i++) {
+      assertTrue(more);
+      results.clear();
+      more = s.next(results);
+      assertEquals(expectedSizes[i], results.size());
+    }
+    assertFalse(more);
+    assertTrue(Bytes.equals(row4, results.get(0).getRow()));
+    s.close();
+
+    // The batch ends on the last essential cell of row1 and row2: both must
+    // still be filtered and row1 must still get its joined families.
+    s = region.getScanner(scan);
+    int row1Cells = 0;
+    int row4Cells = 0;
+    do {
+      results.clear();
+      more = s.next(results);
+      assertTrue(results.size() <= 2);
+      for (KeyValue kv : results) {
+        if (Bytes.equals(row1, kv.getRow())) {
+          row1Cells++;
+        } else if (Bytes.equals(row4, kv.getRow())) {
+          row4Cells++;
+        } else {
+          fail("Unexpected " + kv);
+        }
+      }
+    } while (more);
+    assertEquals(5, row1Cells);
+    assertEquals(2, row4Cells);
+    s.close();
+  }
+
+  /**
+   * Scan rows from the last to the first, with rows spread over store files
+   * and the memstore.
+   */
+  public void testReversedScanner() throws IOException {
+    byte [] tableName = Bytes.toBytes("testTable");
+    byte [] fam1 = Bytes.toBytes("fam1");
+    initHRegion(tableName, getName(), fam1);
+
+    byte [] v1 = Bytes.toBytes("v1");
+    byte [] v2 = Bytes.toBytes("v2");
+    byte [][] rows = new byte[6][];
+    for (int i = 1; i < rows.length; i++) {
+      rows[i] = Bytes.toBytes("row" + i);
+    }
+    for (int i = 1; i <= 3; i++) {
+      Put put = new Put(rows[i]);
+      put.add(fam1, qual1, 1, v1);
+      region.put(put);
+    }
+    region.flushcache();
+
+    // The newer version of row3 and the delete of row2 are in the memstore.
+    Put put = new Put(rows[3]);
+    put.add(fam1, qual1, 2, v2);
+    region.put(put);
+    put = new Put(rows[4]);
+    put.add(fam1, qual1, 1, v1);
+    put.add(fam1, qual2, 1, v1);
+    region.put(put);
+    put = new Put(rows[5]);
+    put.add(fam1, qual1, 1, v1);
+    region.put(put);
+    region.delete(new Delete(rows[2]), null, true);
+
+    for (int pass = 0; pass < 2; pass++) {
+      Scan scan = new Scan();
+      scan.setReversed(true);
+      InternalScanner s = region.getScanner(scan);
+      List<KeyValue> results = new ArrayList<KeyValue>();
+      int [] expectedRows = { 5, 4, 3, 1 };
+      boolean more = true;
+      for (int i = 0; i < expectedRows.length; i++) {
+        assertTrue(more);
+        results.clear();
+        more = s.next(results);
+        assertTrue(Bytes.equals(rows[expectedRows[i]], results.get(0).getRow()));
+      }
+      assertFalse(more);
+      s.close();
+
+      // Start row included, stop row excluded.
+      scan = new Scan(rows[4], rows[1]);
+      scan.setReversed(true);
+      s = region.getScanner(scan);
+      results.clear();
+      assertTrue(s.next(results));
+      assertEquals(2, results.size());
+      assertTrue(Bytes.equals(qual1, results.get(0).getQualifier()));
+      assertTrue(Bytes.equals(qual2, results.get(1).getQualifier()));
+      results.clear();
+      assertFalse(s.next(results));
+      assertEquals(1, results.size());
+      assertTrue(Bytes.equals(rows[3], results.get(0).getRow()));
+      assertTrue(Bytes.equals(v2, results.get(0).getValue()));
+      s.close();
+
+      // Again with everything in store files.
+      region.flushcache();
+    }
+  }
+
+  /**
+   * A reversed scanner steps back over however many rows were written after
+   * it was opened, in the memstore and in store files.
+   */
+  public void testReversedScannerSkipsRowsWrittenAfterOpen()
+  throws IOException {
+    byte [] tableName = Bytes.toBytes("testTable");
+    byte [] fam1 = Bytes.toBytes("fam1");
+    initHRegion(tableName, getName(), fam1);
+    byte [] v1 = Bytes.toBytes("v1");
+    int newRows = 20000;
+
+    for (int pass = 0; pass < 2; pass++) {
+      String prefix = "row" + pass;
+      byte [] first = Bytes.toBytes(prefix + "a");
+      byte [] last = Bytes.toBytes(prefix + "z");
+      for (byte [] row : new byte [][] { first, last }) {
+        Put put = new Put(row);
+        put.add(fam1, qual1, 1, v1);
+        region.put(put);
+      }
+      // The stop row keeps out the rows of the previous pass.
+      Scan scan = new Scan(last, Bytes.toBytes(prefix));
+      scan.setReversed(true);
+      InternalScanner s = region.getScanner(scan);
+      List<KeyValue> results = new ArrayList<KeyValue>();
+      assertTrue(s.next(results));
+      assertTrue(Bytes.equals(last, results.get(0).getRow()));
+
+      // None of these are visible to the scanner, which has to step back
+      // over all of them to get to the first row.
+      for (int i = 0; i < newRows; i++) {
+        Put put = new Put(Bytes.toBytes(prefix + "m" +
+          String.format("%05d", i)));
+        put.add(fam1, qual1, 1, v1);
+        region.put(put, false);
+      }
+      if (pass == 1) {
+        // The flushed file keeps their memstore timestamps, as the scanner
+        // is still open.
+        region.flushcache();
+      }
+      results.clear();
+      assertFalse(s.next(results));
+      assertEquals(1, results.size());
+      assertTrue(Bytes.equals(first, results.get(0).getRow()));
+      s.close();
+    }
+  }
+
   private void deleteColumns(HRegion r, String value, String keyPrefix)
   throws IOException {
     InternalScanner scanner = buildScanner(keyPrefix, value, r);
@@ -2593,6 +2828,52 @@ public class TestHRegion extends HBaseTestCase {
   }
 
 
+  public void testSelectiveFlush() throws IOException {
+    byte[] tableName = Bytes.toBytes("testSelectiveFlush");
+    byte[] big = Bytes.toBytes("big");
+    byte[] small = Bytes.toBytes("small");
+    Configuration conf = HBaseConfiguration.create();
+    conf.setLong(HConstants.HREGION_MEMSTORE_FLUSH_LOWER_BOUND, 16 * 1024);
+    String method = "testSelectiveFlush";
+    initHRegion(tableName, method, conf, big, small);
+    try {
+      for (int i = 0; i < 100; i++) {
+        Put put = new Put(Bytes.toBytes("row" + i));
+        put.add(big, qual1, new byte[1024]);
+        if (i == 0) {
+          put.add(small, qual1, value1);
+        }
+        region.put(put);
+      }
+      Store bigStore = region.getStore(big);
+      Store smallStore = region.getStore(small);
+      long smallSize = smallStore.memstore.keySize();
+      assertTrue(smallSize > 0);
+
+      // only the big store is flushed
+      assertEquals(1, region.selectStoresToFlush().size());
+      region.flushcache(false);
+      assertEquals(1, bigStore.getStorefilesCount());
+      assertEquals(0, smallStore.getStorefilesCount());
+      assertEquals(smallSize, smallStore.memstore.keySize());
+      assertEquals(smallSize, region.getMemstoreSize().get());
+      assertTrue(bigStore.flushedSequenceId > smallStore.flushedSequenceId);
+
+      // the small store is still read from memory
+      Result result = region.get(new Get(Bytes.toBytes("row0")), null);
+      assertEquals(2, result.size());
+
+      // with no store over the bound, all are flushed
+      assertEquals(2, region.selectStoresToFlush().size());
+      region.flushcache(false);
+      assertEquals(1, smallStore.getStorefilesCount());
+      assertEquals(0, region.getMemstoreSize().get());
+    } finally {
+      region.close();
+      region.getLog().closeAndDelete();
+    }
+  }
+
   /**
    * Flushes the cache in a thread while scanning. The tests verify that the
    * scan is coherent - e.g. the returned results are always of the same or
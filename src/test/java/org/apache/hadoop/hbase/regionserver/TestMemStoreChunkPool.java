@@ -0,0 +1,173 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.MemStoreLAB.Allocation;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests of recycling {@link MemStoreLAB} chunks through a
+ * {@link MemStoreChunkPool}.
+ */
+@Category(SmallTests.class)
+public class TestMemStoreChunkPool {
+  private static final int CHUNK_SIZE = 1024;
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    this.conf = HBaseConfiguration.create();
+    this.conf.setBoolean(MemStore.USEMSLAB_KEY, true);
+    this.conf.setInt(MemStoreLAB.CHUNK_SIZE_KEY, CHUNK_SIZE);
+    this.conf.setInt(MemStoreLAB.MAX_ALLOC_KEY, CHUNK_SIZE / 4);
+  }
+
+  /**
+   * Allocates until <code>chunks</code> chunks are used.
+   * @return The backing arrays of the chunks
+   */
+  private static Set<byte []> fill(MemStoreLAB mslab, int chunks) {
+    Set<byte []> buffers = new HashSet<byte []>();
+    while (buffers.size() < chunks) {
+      Allocation alloc = mslab.allocateBytes(CHUNK_SIZE / 4);
+      buffers.add(alloc.getData());
+    }
+    return buffers;
+  }
+
+  @Test
+  public void testChunksAreReused() {
+    MemStoreChunkPool pool = new MemStoreChunkPool(CHUNK_SIZE, 10, 0);
+    MemStoreLAB mslab = new MemStoreLAB(this.conf, pool);
+    Set<byte []> first = fill(mslab, 3);
+    assertEquals(3, pool.getCreatedChunkCount());
+    assertEquals(0, pool.getPoolSize());
+    mslab.close();
+    assertEquals(3, pool.getPoolSize());
+
+    MemStoreLAB next = new MemStoreLAB(this.conf, pool);
+    Allocation alloc = next.allocateBytes(10);
+    assertTrue(first.contains(alloc.getData()));
+    assertEquals(0, alloc.getOffset());
+    assertEquals(1, pool.getReusedChunkCount());
+    assertEquals(2, pool.getPoolSize());
+    assertEquals(0.25, pool.getReuseRatio(), 0.001);
+  }
+
+  @Test
+  public void testPoolIsBounded() {
+    MemStoreChunkPool pool = new MemStoreChunkPool(CHUNK_SIZE, 2, 1);
+    assertEquals(1, pool.getPoolSize());
+    MemStoreLAB mslab = new MemStoreLAB(this.conf, pool);
+    fill(mslab, 4);
+    assertEquals(1, pool.getReusedChunkCount());
+    mslab.close();
+    assertEquals(2, pool.getPoolSize());
+  }
+
+  @Test
+  public void testOpenScannerDefersRecycling() throws Exception {
+    MemStoreChunkPool pool = new MemStoreChunkPool(CHUNK_SIZE, 10, 0);
+    MemStore memstore = new MemStore(this.conf, KeyValue.COMPARATOR);
+    memstore.allocator = new MemStoreLAB(this.conf, pool);
+    byte [] value = new byte[CHUNK_SIZE / 8];
+    for (int i = 0; i < 20; i++) {
+      memstore.add(new KeyValue(Bytes.toBytes(i), Bytes.toBytes("f"),
+          Bytes.toBytes("q"), i, value));
+    }
+    memstore.snapshot();
+    KeyValueScanner scanner = memstore.getScanners().get(0);
+    memstore.clearSnapshot(memstore.getSnapshot());
+    // The scanner may still read the snapshot's KeyValues
+    assertEquals(0, pool.getPoolSize());
+    scanner.close();
+    assertTrue(pool.getPoolSize() > 0);
+    assertEquals(pool.getCreatedChunkCount(), pool.getPoolSize());
+  }
+
+  @Test
+  public void testResultsOutliveRecycledChunks() throws Exception {
+    MemStoreChunkPool pool = new MemStoreChunkPool(CHUNK_SIZE, 10, 0);
+    MemStore memstore = new MemStore(this.conf, KeyValue.COMPARATOR);
+    memstore.allocator = new MemStoreLAB(this.conf, pool);
+    byte [] family = Bytes.toBytes("f");
+    byte [] qualifier = Bytes.toBytes("q");
+    List<KeyValue> expected = new ArrayList<KeyValue>();
+    for (int i = 0; i < 20; i++) {
+      byte [] value = new byte[CHUNK_SIZE / 8];
+      Arrays.fill(value, (byte) i);
+      KeyValue kv = new KeyValue(Bytes.toBytes(i), family, qualifier, i,
+          value);
+      expected.add(kv.deepCopy());
+      memstore.add(kv);
+    }
+
+    // Read everything and close the scanner before using the results, as a
+    // get does before its Result is serialized.
+    List<KeyValue> results = new ArrayList<KeyValue>();
+    KeyValueScanner scanner = memstore.getScanners().get(0);
+    scanner.seek(KeyValue.LOWESTKEY);
+    for (KeyValue kv = scanner.next(); kv != null; kv = scanner.next()) {
+      results.add(kv);
+    }
+    scanner.close();
+
+    // Flush, then write over the recycled chunks
+    memstore.snapshot();
+    memstore.allocator = new MemStoreLAB(this.conf, pool);
+    memstore.clearSnapshot(memstore.getSnapshot());
+    assertEquals(pool.getCreatedChunkCount(), pool.getPoolSize());
+    byte [] other = new byte[CHUNK_SIZE / 8];
+    Arrays.fill(other, (byte) -1);
+    for (int i = 100; i < 120; i++) {
+      memstore.add(new KeyValue(Bytes.toBytes(i), family, qualifier, i,
+          other));
+    }
+    assertTrue(pool.getReusedChunkCount() > 0);
+
+    assertEquals(expected.size(), results.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(Bytes.equals(expected.get(i).getRow(),
+          results.get(i).getRow()));
+      assertTrue(Bytes.equals(expected.get(i).getValue(),
+          results.get(i).getValue()));
+    }
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
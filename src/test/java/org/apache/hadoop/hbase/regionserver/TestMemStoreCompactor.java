@@ -0,0 +1,200 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests of the pipeline of frozen segments in {@link MemStore} and of
+ * merging it with {@link MemStoreCompactor}.
+ */
+@Category(SmallTests.class)
+public class TestMemStoreCompactor {
+  private static final byte [] FAMILY = Bytes.toBytes("f");
+  private static final byte [] QUALIFIER = Bytes.toBytes("q");
+
+  private MemStore memstore;
+  private MemStoreCompactor compactor;
+
+  @Before
+  public void setUp() {
+    this.memstore = new MemStore(HBaseConfiguration.create(),
+        KeyValue.COMPARATOR);
+    // Never triggered by adds; the tests freeze and merge by hand.
+    this.compactor = new MemStoreCompactor(this.memstore, null, 1,
+        Long.MAX_VALUE);
+    this.memstore.setCompactor(this.compactor);
+    MultiVersionConsistencyControl.setThreadReadPoint(Long.MAX_VALUE);
+  }
+
+  private static KeyValue put(String row, long ts) {
+    return new KeyValue(Bytes.toBytes(row), FAMILY, QUALIFIER, ts,
+        Bytes.toBytes("v" + ts));
+  }
+
+  private List<KeyValue> scan() throws Exception {
+    KeyValueScanner scanner = this.memstore.getScanners().get(0);
+    scanner.seek(KeyValue.createFirstOnRow(new byte[0]));
+    List<KeyValue> result = new ArrayList<KeyValue>();
+    for (KeyValue kv = scanner.next(); kv != null; kv = scanner.next()) {
+      result.add(kv);
+    }
+    scanner.close();
+    return result;
+  }
+
+  @Test
+  public void testMergeDropsVersionsBeyondMax() throws Exception {
+    this.memstore.add(put("r1", 1));
+    this.memstore.add(put("r1", 2));
+    this.memstore.add(put("r2", 1));
+    assertTrue(this.memstore.freeze());
+    this.memstore.add(put("r1", 3));
+    assertTrue(this.memstore.freeze());
+    assertEquals(2, this.memstore.getPipeline().size());
+    assertEquals(4, scan().size());
+
+    long before = this.memstore.heapSize();
+    long freed = this.compactor.compact();
+    assertTrue(freed > 0);
+    assertEquals(before - freed, this.memstore.heapSize());
+    assertEquals(1, this.memstore.getPipeline().size());
+    assertTrue(this.memstore.getPipeline().get(0).isFlat());
+
+    List<KeyValue> kvs = scan();
+    assertEquals(2, kvs.size());
+    assertEquals(put("r1", 3), kvs.get(0));
+    assertEquals(put("r2", 1), kvs.get(1));
+    // Nothing left to merge
+    assertEquals(-1, this.compactor.compact());
+  }
+
+  @Test
+  public void testMergeKeepsRowsWithDeletesAndUnsettledPuts() {
+    KeyValue [] newer = { put("r1", 3), put("r2", 5) };
+    KeyValue unsettled = put("r2", 4);
+    unsettled.setMemstoreTS(10);
+    KeyValue delete = new KeyValue(Bytes.toBytes("r1"), FAMILY, QUALIFIER, 2,
+        KeyValue.Type.Delete);
+    KeyValue [] older = { put("r1", 1), delete, unsettled, put("r2", 3),
+        put("r2", 2) };
+    Arrays.sort(older, KeyValue.COMPARATOR);
+    List<KeyValue []> runs = new ArrayList<KeyValue []>();
+    runs.add(newer);
+    runs.add(older);
+    KeyValueArraySet merged = MemStoreCompactor.merge(runs,
+        KeyValue.COMPARATOR, 1, 5);
+    // All of r1; of r2 the newest settled put and the unsettled one
+    assertEquals(5, merged.size());
+    assertNotNull(merged.get(put("r1", 1)));
+    assertNotNull(merged.get(delete));
+    assertNotNull(merged.get(unsettled));
+    assertNull(merged.get(put("r2", 3)));
+    assertNull(merged.get(put("r2", 2)));
+  }
+
+  @Test
+  public void testSnapshotTakesPipeline() throws Exception {
+    this.memstore.add(put("r1", 1));
+    this.memstore.freeze();
+    this.memstore.add(put("r2", 1));
+    this.memstore.snapshot();
+    assertTrue(this.memstore.getPipeline().isEmpty());
+    assertEquals(1, this.memstore.getSnapshot().size());
+    assertEquals(1, this.memstore.getSnapshotSegments().size());
+    assertEquals(MemStore.DEEP_OVERHEAD, this.memstore.heapSize());
+    assertEquals(2, scan().size());
+
+    this.memstore.clearSnapshot(this.memstore.getSnapshot());
+    assertTrue(this.memstore.getSnapshotSegments().isEmpty());
+    assertEquals(0, scan().size());
+  }
+
+  @Test
+  public void testMergeDiscardedIfPipelineChanged() {
+    this.memstore.add(put("r1", 1));
+    this.memstore.add(put("r1", 2));
+    this.memstore.freeze();
+    List<MemStore.Segment> pipeline = this.memstore.getPipeline();
+    this.memstore.snapshot();
+    MemStore.Segment merged = new MemStore.Segment(
+        new KeyValueArraySet(new KeyValue [] { put("r1", 2) },
+            KeyValue.COMPARATOR), 0);
+    assertEquals(-1, this.memstore.swapPipeline(pipeline, merged));
+    assertTrue(this.memstore.getPipeline().isEmpty());
+  }
+
+  @Test
+  public void testRollbackFromFlatSegment() throws Exception {
+    this.memstore.add(put("r1", 1));
+    this.memstore.add(put("r2", 1));
+    this.memstore.freeze();
+    this.memstore.add(put("r3", 1));
+    this.memstore.freeze();
+    this.compactor.compact();
+    long before = this.memstore.heapSize();
+    this.memstore.rollback(put("r2", 1));
+    assertTrue(this.memstore.heapSize() < before);
+    List<KeyValue> kvs = scan();
+    assertEquals(2, kvs.size());
+    assertEquals(put("r1", 1), kvs.get(0));
+    assertEquals(put("r3", 1), kvs.get(1));
+  }
+
+  @Test
+  public void testArraySetNavigation() {
+    KeyValue [] kvs = new KeyValue[5];
+    for (int i = 0; i < kvs.length; i++) {
+      kvs[i] = put("r" + i, 1);
+    }
+    KeyValueArraySet set = new KeyValueArraySet(kvs, KeyValue.COMPARATOR);
+    assertEquals(3, set.tailSet(kvs[2]).size());
+    assertEquals(2, set.tailSet(kvs[2], false).size());
+    assertEquals(2, set.headSet(kvs[2]).size());
+    assertEquals(3, set.headSet(kvs[2], true).size());
+    assertSame(kvs[3], set.tailSet(kvs[2]).headSet(kvs[4]).last());
+    assertSame(kvs[2], set.get(put("r2", 1)));
+    assertNull(set.get(put("r9", 1)));
+    Iterator<KeyValue> it = set.headSet(kvs[3], false).descendingIterator();
+    assertSame(kvs[2], it.next());
+    assertSame(kvs[1], it.next());
+    assertSame(kvs[0], it.next());
+    assertFalse(it.hasNext());
+    assertEquals(4, set.without(kvs[1]).size());
+    assertFalse(set.without(kvs[1]).contains(kvs[1]));
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests of lock modes, reentrancy and lock ids of {@link RowLockManager}.
+ */
+@Category(SmallTests.class)
+public class TestRowLockManager {
+  private static final byte[] ROW = Bytes.toBytes("row");
+
+  /** Takes a lock from another thread and hands back its id */
+  private static class Locker extends Thread {
+    private final RowLockManager locks;
+    private final boolean exclusive;
+    private final long timeoutMs;
+    volatile int id = RowLockManager.NO_LOCK;
+
+    Locker(RowLockManager locks, boolean exclusive, long timeoutMs) {
+      this.locks = locks;
+      this.exclusive = exclusive;
+      this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public void run() {
+      id = locks.lock(Bytes.toBytes("row"), exclusive, true, timeoutMs);
+    }
+  }
+
+  @Test
+  public void testExclusive() throws Exception {
+    RowLockManager locks = new RowLockManager(4);
+    int id = locks.lock(ROW, true, false, 0);
+    assertTrue(id >= 0);
+    assertTrue(locks.isLocked(id));
+    assertSame(ROW, locks.getRow(id));
+    // An equal row in another array is the same row.
+    assertEquals(RowLockManager.NO_LOCK,
+        locks.lock(Bytes.toBytes("row"), true, false, 0));
+    assertEquals(RowLockManager.NO_LOCK,
+        locks.lock(Bytes.toBytes("row"), false, false, 0));
+    assertTrue(locks.lock(Bytes.toBytes("other"), true, false, 0) >= 0);
+    assertEquals(2, locks.getLockedRowCount());
+    assertTrue(locks.unlock(id));
+    assertTrue(locks.lock(ROW, true, false, 0) >= 0);
+  }
+
+  @Test
+  public void testSharedLocks() throws Exception {
+    RowLockManager locks = new RowLockManager(4);
+    int first = locks.lock(ROW, false, false, 0);
+    int second = locks.lock(ROW, false, false, 0);
+    assertTrue(first >= 0);
+    assertEquals(first, second);
+    assertEquals(1, locks.getLockedRowCount());
+    assertEquals(RowLockManager.NO_LOCK, locks.lock(ROW, true, false, 0));
+    assertTrue(locks.unlock(first));
+    assertEquals(RowLockManager.NO_LOCK, locks.lock(ROW, true, false, 0));
+    assertTrue(locks.unlock(second));
+    assertFalse(locks.isLocked(first));
+    assertTrue(locks.lock(ROW, true, false, 0) >= 0);
+  }
+
+  @Test
+  public void testWaitingExclusiveHoldsOffShared() throws Exception {
+    RowLockManager locks = new RowLockManager(4);
+    int shared = locks.lock(ROW, false, false, 0);
+    Locker writer = new Locker(locks, true, 30000);
+    writer.start();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (locks.getContendedCount() == 0 &&
+        System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    // Give the writer time to park on the row.
+    Thread.sleep(100);
+    assertEquals(RowLockManager.NO_LOCK, locks.lock(ROW, false, false, 0));
+    assertTrue(locks.unlock(shared));
+    writer.join();
+    assertTrue(writer.id >= 0);
+    assertTrue(locks.isLocked(writer.id));
+    assertTrue(locks.unlock(writer.id));
+  }
+
+  @Test
+  public void testReentrancy() throws Exception {
+    RowLockManager locks = new RowLockManager(4);
+    int id = locks.lock(ROW, true, true, 0);
+    assertEquals(id, locks.lock(ROW, true, true, 0));
+    assertEquals(id, locks.lock(ROW, false, true, 0));
+    // Other threads still wait.
+    Locker other = new Locker(locks, false, 0);
+    other.start();
+    other.join();
+    assertEquals(RowLockManager.NO_LOCK, other.id);
+    assertTrue(locks.unlock(id));
+    assertTrue(locks.unlock(id));
+    assertTrue(locks.isLocked(id));
+    assertTrue(locks.unlock(id));
+    assertFalse(locks.isLocked(id));
+
+    // A lock held for a client is not reentrant.
+    id = locks.lock(ROW, true, false, 0);
+    assertEquals(RowLockManager.NO_LOCK, locks.lock(ROW, true, true, 0));
+    assertTrue(locks.unlock(id));
+  }
+
+  @Test
+  public void testStaleIds() throws Exception {
+    RowLockManager locks = new RowLockManager(4);
+    int id = locks.lock(ROW, true, false, 0);
+    assertTrue(locks.unlock(id));
+    assertFalse(locks.unlock(id));
+    assertNull(locks.getRow(id));
+    int next = locks.lock(ROW, true, false, 0);
+    assertTrue(next != id);
+    assertFalse(locks.unlock(id));
+    assertTrue(locks.isLocked(next));
+    assertFalse(locks.isLocked(RowLockManager.NO_LOCK));
+    assertFalse(locks.unlock(Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    RowLockManager locks = new RowLockManager(4);
+    int id = locks.lock(ROW, true, false, 0);
+    Locker waiter = new Locker(locks, true, 50);
+    waiter.start();
+    waiter.join();
+    assertEquals(RowLockManager.NO_LOCK, waiter.id);
+    assertEquals(1, locks.getContendedCount());
+    assertEquals(1, locks.getFailedCount());
+    assertTrue(locks.unlock(id));
+    assertEquals(0, locks.getLockedRowCount());
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws Exception {
+    final RowLockManager locks = new RowLockManager(2);
+    final int rows = 5;
+    final int perThread = 2000;
+    final int[] counters = new int[rows];
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < perThread; j++) {
+            int r = j % rows;
+            int id = locks.lock(Bytes.toBytes("row" + r), true, true, 30000);
+            if (id < 0) {
+              failures.incrementAndGet();
+              continue;
+            }
+            counters[r]++;
+            if (!locks.unlock(id)) failures.incrementAndGet();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(0, failures.get());
+    for (int r = 0; r < rows; r++) {
+      assertEquals(threads.length * perThread / rows, counters[r]);
+    }
+    assertEquals(0, locks.getLockedRowCount());
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
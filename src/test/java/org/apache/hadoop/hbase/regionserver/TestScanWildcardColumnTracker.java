@@ -99,6 +99,28 @@ public class TestScanWildcardColumnTracker extends HBaseTestCase {
     }
   }
 
+  /**
+   * The tracker must not depend on the caller's buffer once checkColumn
+   * returns, as scanners may decode the next KeyValue into the same one.
+   */
+  public void testCheckColumn_ReusedBuffer() throws IOException {
+    ScanWildcardColumnTracker tracker =
+      new ScanWildcardColumnTracker(0, VERSIONS, Long.MIN_VALUE);
+    byte [] buffer = Bytes.toBytes("qualifer1");
+
+    assertEquals(ScanQueryMatcher.MatchCode.INCLUDE, tracker.checkColumn(
+        buffer, 0, buffer.length, 3, KeyValue.Type.Put.getCode(), false));
+    System.arraycopy(Bytes.toBytes("qualifer2"), 0, buffer, 0, buffer.length);
+    // A new column, so its versions are counted from scratch
+    assertEquals(ScanQueryMatcher.MatchCode.INCLUDE, tracker.checkColumn(
+        buffer, 0, buffer.length, 2, KeyValue.Type.Put.getCode(), false));
+    assertEquals(ScanQueryMatcher.MatchCode.INCLUDE, tracker.checkColumn(
+        buffer, 0, buffer.length, 1, KeyValue.Type.Put.getCode(), false));
+    System.arraycopy(Bytes.toBytes("qualifer3"), 0, buffer, 0, buffer.length);
+    assertEquals(ScanQueryMatcher.MatchCode.INCLUDE, tracker.checkColumn(
+        buffer, 0, buffer.length, 1, KeyValue.Type.Put.getCode(), false));
+  }
+
   public void DisabledTestCheckColumn_WrongOrder() {
     ScanWildcardColumnTracker tracker =
       new ScanWildcardColumnTracker(0, VERSIONS, Long.MIN_VALUE);
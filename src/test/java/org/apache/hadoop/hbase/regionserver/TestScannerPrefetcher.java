@@ -0,0 +1,140 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestScannerPrefetcher {
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private ScannerPrefetcher prefetcher;
+
+  @Before
+  public void setUp() {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setLong(ScannerPrefetcher.MAX_MEMORY_KEY, 1);
+    prefetcher = new ScannerPrefetcher(conf);
+  }
+
+  @After
+  public void tearDown() {
+    prefetcher.shutdown();
+  }
+
+  private static Callable<ScannerPrefetcher.Batch> rows(final int first,
+      final int count, final boolean more) {
+    return new Callable<ScannerPrefetcher.Batch>() {
+      @Override
+      public ScannerPrefetcher.Batch call() {
+        Result[] results = new Result[count];
+        for (int i = 0; i < count; i++) {
+          byte[] row = Bytes.toBytes(first + i);
+          results[i] = new Result(new KeyValue[] {
+              new KeyValue(row, FAMILY, null, row) });
+        }
+        return new ScannerPrefetcher.Batch(results, more);
+      }
+    };
+  }
+
+  @Test
+  public void testTakeWaitsForPrefetch() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final Callable<ScannerPrefetcher.Batch> scan = rows(0, 3, true);
+    assertTrue(prefetcher.prefetch("s1", new Callable<ScannerPrefetcher.Batch>() {
+      @Override
+      public ScannerPrefetcher.Batch call() throws Exception {
+        latch.await();
+        return scan.call();
+      }
+    }));
+    // Only one batch per scanner at a time
+    assertFalse(prefetcher.prefetch("s1", rows(3, 3, true)));
+    assertNull(prefetcher.take("s2", 3));
+    latch.countDown();
+    ScannerPrefetcher.Batch batch = prefetcher.take("s1", 3);
+    assertEquals(3, batch.results.length);
+    assertTrue(batch.moreRows);
+    assertEquals(0, prefetcher.getUsedMemory());
+    assertNull(prefetcher.take("s1", 3));
+  }
+
+  @Test
+  public void testSmallerTakeKeepsRest() throws Exception {
+    assertTrue(prefetcher.prefetch("s1", rows(0, 5, false)));
+    ScannerPrefetcher.Batch batch = prefetcher.take("s1", 2);
+    assertEquals(2, batch.results.length);
+    assertTrue(batch.moreRows);
+    assertTrue(prefetcher.getUsedMemory() > 0);
+    batch = prefetcher.take("s1", 10);
+    assertEquals(3, batch.results.length);
+    assertEquals(2, Bytes.toInt(batch.results[0].getRow()));
+    assertFalse(batch.moreRows);
+    assertEquals(0, prefetcher.getUsedMemory());
+  }
+
+  @Test
+  public void testMemoryBudget() throws Exception {
+    assertTrue(prefetcher.prefetch("s1", rows(0, 1, true)));
+    while (prefetcher.getUsedMemory() == 0) {
+      Thread.sleep(10);
+    }
+    // Over the one byte budget until the batch is taken or dropped
+    assertFalse(prefetcher.prefetch("s2", rows(0, 1, true)));
+    prefetcher.cancel("s1");
+    assertEquals(0, prefetcher.getUsedMemory());
+    assertTrue(prefetcher.prefetch("s2", rows(0, 1, true)));
+  }
+
+  @Test
+  public void testFailureIsRethrown() throws Exception {
+    prefetcher.prefetch("s1", new Callable<ScannerPrefetcher.Batch>() {
+      @Override
+      public ScannerPrefetcher.Batch call() throws IOException {
+        throw new IOException("scan failed");
+      }
+    });
+    try {
+      prefetcher.take("s1", 1);
+      fail("Expected the prefetch failure");
+    } catch (IOException e) {
+      assertEquals("scan failed", e.getMessage());
+    }
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
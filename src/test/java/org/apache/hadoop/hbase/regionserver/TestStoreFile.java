@@ -558,6 +558,73 @@ public class TestStoreFile extends HBaseTestCase {
     }
   }
 
+  /**
+   * A get for several columns is checked against a row-column Bloom filter
+   * with all its columns at once, and the file is skipped when none of them
+   * can be there.
+   */
+  public void testMultiColumnGetBloomFilter() throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf);
+    conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE,
+        (float) 0.001);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+
+    Path f = new Path(ROOT_DIR, getName());
+    StoreFile.Writer writer = new StoreFile.WriterBuilder(conf, cacheConf, fs,
+        StoreFile.DEFAULT_BLOCKSIZE_SMALL)
+            .withFilePath(f)
+            .withBloomType(StoreFile.BloomType.ROWCOL)
+            .withMaxKeyCount(500)
+            .withChecksumType(CKTYPE)
+            .withBytesPerChecksum(CKBYTES)
+            .build();
+    long now = System.currentTimeMillis();
+    // Only even rows and even columns are written
+    for (int i = 0; i < 100; i += 2) {
+      for (int j = 0; j < 20; j += 2) {
+        writer.append(new KeyValue(String.format(localFormatter, i).getBytes(),
+            "family".getBytes(),
+            ("col" + String.format(localFormatter, j)).getBytes(), now,
+            "value".getBytes()));
+      }
+    }
+    writer.close();
+
+    StoreFile.Reader reader = new StoreFile.Reader(fs, f, cacheConf,
+        DataBlockEncoding.NONE);
+    reader.loadFileInfo();
+    reader.loadBloomfilter();
+    StoreFileScanner scanner = reader.getStoreFileScanner(false, false);
+    String avoidedMetric =
+        SchemaMetrics.ALL_SCHEMA_METRICS.getBloomSeeksAvoidedMetricName();
+    long avoidedBefore = HRegion.getNumericMetric(avoidedMetric);
+
+    int skipped = 0;
+    for (int i = 0; i < 100; i += 2) {
+      byte[] row = String.format(localFormatter, i).getBytes();
+      TreeSet<byte[]> oddColumns = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+      for (int j = 1; j < 20; j += 2) {
+        oddColumns.add(("col" + String.format(localFormatter, j)).getBytes());
+      }
+      Scan scan = new Scan(row, row);
+      if (!scanner.shouldUseScanner(scan, oddColumns, Long.MIN_VALUE)) {
+        skipped++;
+      }
+
+      // One existing column among them is enough to need the file
+      TreeSet<byte[]> columns = new TreeSet<byte[]>(oddColumns);
+      columns.add(("col" + String.format(localFormatter, 10)).getBytes());
+      assertTrue(scanner.shouldUseScanner(scan, columns, Long.MIN_VALUE));
+    }
+    reader.close(true); // evict because we are about to delete the file
+    fs.delete(f, true);
+
+    // Allow for a few false positives
+    assertTrue("Skipped only " + skipped + " of 50 gets", skipped >= 45);
+    assertEquals(10L * skipped,
+        HRegion.getNumericMetric(avoidedMetric) - avoidedBefore);
+  }
+
   public void testBloomEdgeCases() throws Exception {
     float err = (float)0.005;
     FileSystem fs = FileSystem.getLocal(conf);
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.SmallTests;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests of the limit a {@link CompactionThroughputController} puts on
+ * compaction writes.
+ */
+@Category(SmallTests.class)
+public class TestCompactionThroughputController {
+  private static final long LOWER = 10 * 1024;
+  private static final long HIGHER = 100 * 1024;
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    this.conf = HBaseConfiguration.create();
+    this.conf.setLong(CompactionThroughputController.HIGHER_BOUND_KEY, HIGHER);
+    this.conf.setLong(CompactionThroughputController.LOWER_BOUND_KEY, LOWER);
+    this.conf.setLong(CompactionThroughputController.IDLE_READ_REQUESTS_KEY,
+        10);
+    this.conf.setLong(CompactionThroughputController.CHECK_INTERVAL_KEY, 1024);
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    CompactionThroughputController controller =
+      new CompactionThroughputController(HBaseConfiguration.create());
+    controller.tune(0, 0.0);
+    assertEquals(CompactionThroughputController.NO_LIMIT,
+        controller.getMaxThroughput(), 0.0);
+  }
+
+  @Test
+  public void testTune() {
+    CompactionThroughputController controller =
+      new CompactionThroughputController(conf);
+    // busy and relaxed until tuned
+    assertEquals(LOWER, controller.getMaxThroughput(), 0.0);
+
+    controller.tune(0, 0.0);
+    assertEquals(HIGHER, controller.getMaxThroughput(), 0.0);
+    controller.tune(1000, 0.0);
+    assertEquals(LOWER, controller.getMaxThroughput(), 0.0);
+    controller.tune(1000, 0.5);
+    assertEquals(LOWER + (HIGHER - LOWER) / 2,
+        controller.getMaxThroughput(), 0.0);
+    // a store blocking updates lifts the limit
+    controller.tune(1000, 1.0);
+    assertEquals(CompactionThroughputController.NO_LIMIT,
+        controller.getMaxThroughput(), 0.0);
+  }
+
+  @Test
+  public void testControl() throws Exception {
+    CompactionThroughputController controller =
+      new CompactionThroughputController(conf);
+    controller.tune(0, 0.0);
+
+    // 20KB at 100KB/s takes about 200ms
+    CompactionThroughputController.Operation op = controller.start();
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < 20; i++) {
+      op.control(1024);
+    }
+    op.finish();
+    long elapsed = System.currentTimeMillis() - start;
+    assertTrue("elapsed=" + elapsed, elapsed >= 150);
+    assertTrue(controller.getSleepTime() > 0);
+    assertEquals(20 * 1024, controller.getBytesWritten());
+
+    // no waiting once unlimited
+    controller.tune(1000, 1.0);
+    long sleepTime = controller.getSleepTime();
+    op = controller.start();
+    for (int i = 0; i < 20; i++) {
+      assertEquals(0, op.control(1024));
+    }
+    op.finish();
+    assertEquals(sleepTime, controller.getSleepTime());
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
@@ -29,6 +29,9 @@ import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -707,6 +710,211 @@ public class TestHLog  {
     }
   }
 
+  /**
+   * Appends, cache flushes and log cleaning through the ring buffer append
+   * path instead of the LogSyncer.
+   */
+  @Test
+  public void testRingBufferAppendAndLogCleaning() throws Exception {
+    Configuration ringConf = new Configuration(conf);
+    ringConf.setBoolean("hbase.regionserver.hlog.ringbuffer.enabled", true);
+    ringConf.setInt("hbase.regionserver.hlog.ringbuffer.size", 4);
+    final byte [] tableName = Bytes.toBytes("testRingBuffer");
+    HLog log = new HLog(fs, dir, oldLogDir, ringConf);
+    try {
+      HRegionInfo hri = new HRegionInfo(tableName,
+          HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+      // More edits than slots so the ring wraps.
+      addEdits(log, hri, tableName, 10);
+      assertEquals(10, log.getNumEntries());
+      long seqId = log.startCacheFlush(hri.getEncodedNameAsBytes());
+      assertTrue(seqId > 10);
+      log.completeCacheFlush(hri.getEncodedNameAsBytes(), tableName, seqId, false);
+      Path filename = log.computeFilename();
+      log.rollWriter();
+      assertEquals(0, log.getNumLogFiles());
+
+      Reader reader = HLog.getReader(fs, getArchivedLog(filename), ringConf);
+      try {
+        long lastSeq = 0;
+        int count = 0;
+        HLog.Entry entry;
+        while ((entry = reader.next()) != null) {
+          assertTrue(entry.getKey().getLogSeqNum() > lastSeq);
+          lastSeq = entry.getKey().getLogSeqNum();
+          count++;
+        }
+        // Ten edits plus the cache flush marker.
+        assertEquals(11, count);
+        assertEquals(seqId, lastSeq);
+      } finally {
+        reader.close();
+      }
+    } finally {
+      if (log != null) log.closeAndDelete();
+    }
+  }
+
+  /**
+   * A sync stuck on the current log must not hold up appends once the standby
+   * log is in place: the pending edits get synced to the standby instead.
+   */
+  @Test
+  public void testSlowSyncSwitchesToStandbyLog() throws Exception {
+    Configuration standbyConf = new Configuration(conf);
+    standbyConf.setBoolean("hbase.regionserver.hlog.ringbuffer.enabled", true);
+    standbyConf.setBoolean("hbase.regionserver.hlog.standby.enabled", true);
+    standbyConf.setLong("hbase.regionserver.hlog.standby.sync.timeout", 100);
+    final byte [] tableName = Bytes.toBytes("testSlowSyncSwitches");
+    final CountDownLatch releaseSync = new CountDownLatch(1);
+    final AtomicInteger writers = new AtomicInteger(0);
+    HLog log = new HLog(fs, dir, oldLogDir, standbyConf) {
+      @Override
+      protected Writer createWriterInstance(FileSystem fs, Path path,
+          Configuration conf) throws IOException {
+        final Writer w = super.createWriterInstance(fs, path, conf);
+        if (writers.getAndIncrement() > 0) return w;
+        // Syncs of the first log hang until released.
+        return new Writer() {
+          @Override
+          public void init(FileSystem fs, Path p, Configuration c)
+          throws IOException {
+            w.init(fs, p, c);
+          }
+          @Override
+          public void close() throws IOException {
+            w.close();
+          }
+          @Override
+          public void sync() throws IOException {
+            try {
+              releaseSync.await();
+            } catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+            w.sync();
+          }
+          @Override
+          public void append(HLog.Entry entry) throws IOException {
+            w.append(entry);
+          }
+          @Override
+          public long getLength() throws IOException {
+            return w.getLength();
+          }
+        };
+      }
+    };
+    try {
+      long switches = HLog.getStandbySwitchCount();
+      Path first = log.computeFilename();
+      HRegionInfo hri = new HRegionInfo(tableName,
+          HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+      addEdits(log, hri, tableName, 1);
+      assertEquals(switches + 1, HLog.getStandbySwitchCount());
+      Path second = log.computeFilename();
+      assertTrue(log.getFilenum() > HLog.getLogFileNum(first.getName()));
+      assertEquals(1, log.getNumLogFiles());
+      releaseSync.countDown();
+      log.rollWriter(true);
+      Reader reader = HLog.getReader(fs, second, standbyConf);
+      try {
+        assertNotNull(reader.next());
+        assertTrue(reader.next() == null);
+      } finally {
+        reader.close();
+      }
+    } finally {
+      releaseSync.countDown();
+      if (log != null) log.closeAndDelete();
+    }
+  }
+
+  /**
+   * A sync on an edit whose batch failed must keep failing once a later batch
+   * has been synced.
+   */
+  @Test
+  public void testRingBufferSyncReportsFailedBatch() throws Exception {
+    Configuration ringConf = new Configuration(conf);
+    ringConf.setBoolean("hbase.regionserver.hlog.ringbuffer.enabled", true);
+    final byte [] tableName = Bytes.toBytes("testRingBufferSyncFailure");
+    final AtomicBoolean failSync = new AtomicBoolean(false);
+    HLog log = new HLog(fs, dir, oldLogDir, ringConf) {
+      @Override
+      protected Writer createWriterInstance(FileSystem fs, Path path,
+          Configuration conf) throws IOException {
+        final Writer w = super.createWriterInstance(fs, path, conf);
+        return new Writer() {
+          @Override
+          public void init(FileSystem fs, Path p, Configuration c)
+          throws IOException {
+            w.init(fs, p, c);
+          }
+          @Override
+          public void close() throws IOException {
+            w.close();
+          }
+          @Override
+          public void sync() throws IOException {
+            if (failSync.get()) {
+              throw new IOException("sync failed");
+            }
+            w.sync();
+          }
+          @Override
+          public void append(HLog.Entry entry) throws IOException {
+            w.append(entry);
+          }
+          @Override
+          public long getLength() throws IOException {
+            return w.getLength();
+          }
+        };
+      }
+    };
+    try {
+      HRegionInfo hri = new HRegionInfo(tableName,
+          HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+      HTableDescriptor htd = new HTableDescriptor();
+      htd.addFamily(new HColumnDescriptor("row"));
+      final byte [] row = Bytes.toBytes("row");
+      WALEdit cols = new WALEdit();
+      cols.add(new KeyValue(row, row, row, System.currentTimeMillis(), row));
+
+      failSync.set(true);
+      long failed = log.appendNoSync(hri, tableName, cols,
+          HConstants.DEFAULT_CLUSTER_ID, System.currentTimeMillis(), htd);
+      try {
+        log.sync(failed);
+        fail("Sync of a failed batch succeeded");
+      } catch (IOException e) {
+        assertEquals("sync failed", e.getMessage());
+      }
+
+      failSync.set(false);
+      long synced = log.appendNoSync(hri, tableName, cols,
+          HConstants.DEFAULT_CLUSTER_ID, System.currentTimeMillis(), htd);
+      log.sync(synced);
+      assertTrue(synced > failed);
+
+      // the handler of the failed edit syncs again
+      try {
+        log.sync(failed);
+        fail("Sync of a failed batch succeeded after a later batch was synced");
+      } catch (IOException e) {
+        assertEquals("sync failed", e.getMessage());
+      }
+    } finally {
+      failSync.set(false);
+      if (log != null) log.closeAndDelete();
+    }
+  }
+
+  private Path getArchivedLog(Path p) {
+    return HLog.getHLogArchivePath(oldLogDir, p);
+  }
+
   /**
    * A loaded WAL coprocessor won't break existing HLog test cases.
    */
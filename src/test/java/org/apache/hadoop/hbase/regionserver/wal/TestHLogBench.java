@@ -65,6 +65,8 @@ public class TestHLogBench extends Configured implements Tool {
 
   private boolean appendNoSync = false;
 
+  private boolean ringBuffer = false;
+
   public TestHLogBench() {
     this(null);
   }
@@ -135,6 +137,8 @@ public class TestHLogBench extends Configured implements Tool {
           this.regionRootDir = regionRootDir.makeQualified(this.fs);
         } else if ("-nosync".equals(argv[i])) {
           this.appendNoSync = true;
+        } else if ("-ringbuffer".equals(argv[i])) {
+          this.ringBuffer = true;
         } else {
           printUsage(argv[i]);
           return exitCode;
@@ -155,6 +159,7 @@ public class TestHLogBench extends Configured implements Tool {
     log("Running TestHLogBench with " + numThreads + " threads each doing " +
         numIterationsPerThread + " HLog appends " +
         (appendNoSync ? "nosync" : "sync") +
+        (ringBuffer ? " through the ring buffer" : "") +
         " at rootDir " + regionRootDir);
 
     // Mock an HRegion
@@ -195,7 +200,8 @@ public class TestHLogBench extends Configured implements Tool {
                        " [-numThreads <number>] " +
                        " [-numIterationsPerThread <number>] " +
                        " [-path <path where region's root directory is created>]" +
-                       " [-nosync]");
+                       " [-nosync]" +
+                       " [-ringbuffer]");
   }
 
   /**
@@ -284,6 +290,7 @@ public class TestHLogBench extends Configured implements Tool {
     conf.setBoolean("hbase.rs.cacheblocksonwrite", true);
     conf.setBoolean("hbase.hregion.use.incrementnew", true);
     conf.setBoolean("dfs.support.append", true);
+    conf.setBoolean("hbase.regionserver.hlog.ringbuffer.enabled", ringBuffer);
     FileSystem fs = FileSystem.get(conf);
     int numQualifiers = 10;
     byte [][] qualifiers = new byte [numQualifiers][];
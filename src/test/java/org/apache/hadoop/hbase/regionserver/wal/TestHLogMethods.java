@@ -26,6 +26,7 @@ import java.util.NavigableSet;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.*;
@@ -96,6 +97,36 @@ public class TestHLogMethods {
     fdos.close();
   }
 
+  /**
+   * The logs of a server running several HLogs must come out grouped by HLog,
+   * each group ordered by file number.
+   */
+  @Test
+  public void testSortLogFilesOfSeveralHLogs() {
+    String server = "host.example.org%2C60020%2C1";
+    String second = HLog.getPrefixForIndex(server, 1);
+    assertEquals(server, HLog.getPrefixForIndex(server, 0));
+    assertEquals(second, HLog.getLogPrefix(second + ".1000"));
+    assertEquals(server, HLog.getLogPrefix(server + ".1000"));
+    FileStatus [] files = new FileStatus [] {
+      createStatus(second + ".3000"),
+      createStatus(server + ".2000"),
+      createStatus(second + ".1500"),
+      createStatus(server + ".1000"),
+      createStatus(second + ".200")
+    };
+    HLogSplitter.sortLogFiles(files);
+    assertEquals(server + ".1000", files[0].getPath().getName());
+    assertEquals(server + ".2000", files[1].getPath().getName());
+    assertEquals(second + ".200", files[2].getPath().getName());
+    assertEquals(second + ".1500", files[3].getPath().getName());
+    assertEquals(second + ".3000", files[4].getPath().getName());
+  }
+
+  private FileStatus createStatus(final String name) {
+    return new FileStatus(0, false, 1, 1, 0, new Path("/hlogs", name));
+  }
+
   @Test
   public void testRegionEntryBuffer() throws Exception {
     HLogSplitter.RegionEntryBuffer reb = new HLogSplitter.RegionEntryBuffer(
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests of dictionary compressed log files.
+ */
+@Category(SmallTests.class)
+public class TestWALCompression {
+  private final HBaseTestingUtility util = new HBaseTestingUtility();
+
+  @Test
+  public void testDictionaryEvictsLeastRecentlyUsed() {
+    LRUDictionary dict = new LRUDictionary(2);
+    byte [] a = Bytes.toBytes("a");
+    byte [] b = Bytes.toBytes("b");
+    byte [] c = Bytes.toBytes("c");
+    assertEquals(Dictionary.NOT_IN_DICTIONARY, dict.findEntry(a, 0, 1));
+    assertEquals(Dictionary.NOT_IN_DICTIONARY, dict.findEntry(b, 0, 1));
+    // Touch a so that b is the one to go.
+    assertEquals(0, dict.findEntry(a, 0, 1));
+    assertEquals(Dictionary.NOT_IN_DICTIONARY, dict.findEntry(c, 0, 1));
+    assertEquals(2, dict.size());
+    assertTrue(Bytes.equals(c, dict.getEntry((short)1)));
+    assertEquals(0, dict.findEntry(a, 0, 1));
+    assertEquals(Dictionary.NOT_IN_DICTIONARY, dict.findEntry(b, 0, 1));
+    dict.clear();
+    assertEquals(0, dict.size());
+    assertNull(dict.getEntry((short)0));
+  }
+
+  /**
+   * Write many entries through a small dictionary so it evicts, and check a
+   * reader with its own dictionary gets them all back.
+   */
+  @Test
+  public void testKeyValueRoundTripWithEviction() throws Exception {
+    CompressionContext writeCtx = new CompressionContext();
+    DataOutputBuffer out = new DataOutputBuffer();
+    List<KeyValue> written = new ArrayList<KeyValue>();
+    for (int i = 0; i < 1000; i++) {
+      KeyValue kv = new KeyValue(Bytes.toBytes("row" + (i % 37)),
+        Bytes.toBytes("f" + (i % 3)), Bytes.toBytes("q" + (i % 101)),
+        i, Bytes.toBytes("value" + i));
+      written.add(kv);
+      KeyValueCompression.writeKV(out, kv, writeCtx);
+    }
+    CompressionContext readCtx = new CompressionContext();
+    DataInputStream in = new DataInputStream(
+      new ByteArrayInputStream(out.getData(), 0, out.getLength()));
+    for (KeyValue kv : written) {
+      KeyValue read = KeyValueCompression.readKV(in, readCtx);
+      assertTrue(Bytes.equals(kv.getBuffer(), kv.getOffset(), kv.getLength(),
+        read.getBuffer(), read.getOffset(), read.getLength()));
+    }
+    assertEquals(0, in.available());
+  }
+
+  @Test
+  public void testCompressedLogFile() throws Exception {
+    Configuration conf = new Configuration(util.getConfiguration());
+    conf.setBoolean(SequenceFileLogWriter.ENABLE_COMPRESSION_KEY, true);
+    FileSystem fs = FileSystem.get(conf);
+    Path dir = util.getDataTestDir("testCompressedLogFile");
+    fs.delete(dir, true);
+    Path path = new Path(dir, "hlog.1");
+    byte [] table = Bytes.toBytes("table");
+    byte [] region = Bytes.toBytes("0123456789abcdef");
+    HLog.Writer writer = HLog.createWriter(fs, path, conf);
+    List<Long> positions = new ArrayList<Long>();
+    int entries = 50;
+    try {
+      for (int i = 0; i < entries; i++) {
+        WALEdit edit = new WALEdit();
+        edit.add(new KeyValue(Bytes.toBytes("row" + i), Bytes.toBytes("f"),
+          Bytes.toBytes("q"), i, Bytes.toBytes(i)));
+        edit.add(new KeyValue(Bytes.toBytes("row" + i), Bytes.toBytes("f"),
+          Bytes.toBytes("q2"), i, Bytes.toBytes(i)));
+        HLog.Entry entry = new HLog.Entry(new HLogKey(region, table, i,
+          System.currentTimeMillis(), HConstants.DEFAULT_CLUSTER_ID), edit);
+        writer.append(entry);
+      }
+      writer.sync();
+    } finally {
+      writer.close();
+    }
+
+    // Plain configuration; the reader goes by what the file says.
+    Configuration plainConf = util.getConfiguration();
+    HLog.Reader reader = HLog.getReader(fs, path, plainConf);
+    try {
+      assertTrue(((SequenceFileLogReader)reader).isCompressed());
+      HLog.Entry entry;
+      int count = 0;
+      positions.add(reader.getPosition());
+      while ((entry = reader.next()) != null) {
+        assertTrue(Bytes.equals(region, entry.getKey().getEncodedRegionName()));
+        assertTrue(Bytes.equals(table, entry.getKey().getTablename()));
+        assertEquals(count, entry.getKey().getLogSeqNum());
+        assertEquals(2, entry.getEdit().size());
+        positions.add(reader.getPosition());
+        count++;
+      }
+      assertEquals(entries, count);
+      // Seeking backwards has to rebuild the dictionaries from the top.
+      reader.seek(positions.get(10));
+      assertEquals(10, reader.next().getKey().getLogSeqNum());
+      reader.seek(positions.get(40));
+      assertEquals(40, reader.next().getKey().getLogSeqNum());
+      // Reopening keeps the dictionaries, so reading goes on from where we
+      // were without going back over the top of the file.
+      reader.reset();
+      assertEquals((long)positions.get(41), reader.getPosition());
+      for (int i = 41; i < entries; i++) {
+        entry = reader.next();
+        assertTrue(Bytes.equals(region, entry.getKey().getEncodedRegionName()));
+        assertEquals(i, entry.getKey().getLogSeqNum());
+        assertEquals((long)positions.get(i + 1), reader.getPosition());
+      }
+      assertNull(reader.next());
+    } finally {
+      reader.close();
+    }
+    fs.delete(dir, true);
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
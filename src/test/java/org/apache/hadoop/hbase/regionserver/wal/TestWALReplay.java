@@ -20,6 +20,7 @@
 package org.apache.hadoop.hbase.regionserver.wal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -34,6 +35,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.*;
+import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
@@ -420,6 +422,90 @@ public class TestWALReplay {
     assertEquals(result.size(), result1b.size());
   }
 
+  /**
+   * Test that replay does not bring back a Put that a store flushed, deleted
+   * and dropped in a major compaction while another store of the region was
+   * never flushed.
+   * @see https://issues.apache.org/jira/browse/HBASE-6059
+   */
+  @Test
+  public void testReplayAfterSelectiveFlushAndMajorCompaction()
+  throws Exception {
+    final String tableNameStr = "testReplayAfterSelectiveFlush";
+    final HRegionInfo hri = createBasic3FamilyHRegionInfo(tableNameStr);
+    final Path basedir = new Path(this.hbaseRootDir, tableNameStr);
+    deleteDir(basedir);
+    final byte[] rowName = Bytes.toBytes(tableNameStr);
+    final byte[] big = Bytes.toBytes("big");
+    final byte[] small = Bytes.toBytes("small");
+    final byte[] qualifier = Bytes.toBytes("q");
+    final HTableDescriptor htd = new HTableDescriptor(tableNameStr);
+    htd.addFamily(new HColumnDescriptor(big));
+    htd.addFamily(new HColumnDescriptor(small));
+    HRegion region3 = HRegion.createHRegion(hri, hbaseRootDir, this.conf, htd);
+
+    // Only the stores holding 16k or more are flushed.
+    this.conf.setLong(HConstants.HREGION_MEMSTORE_FLUSH_LOWER_BOUND,
+      16 * 1024);
+    HLog wal = createWAL(this.conf);
+    HRegion region = new HRegion(basedir, wal, this.fs, this.conf, hri, htd, null);
+    long seqid = region.initialize();
+    // HRegionServer usually does this. It knows the largest seqid across all regions.
+    wal.setSequenceNumber(seqid);
+
+    // The small store is never flushed, so it keeps all the edits in the log.
+    Put p = new Put(rowName);
+    p.add(small, qualifier, rowName);
+    p.add(big, qualifier, rowName);
+    region.put(p);
+    addRegionEdits(Bytes.toBytes("filler"), big, 32, this.ee, region, "x",
+      new byte[1024]);
+    region.flushcache(false);
+    Store bigStore = region.getStore(big);
+    assertEquals(1, bigStore.getStorefilesCount());
+    assertEquals(0, region.getStore(small).getStorefilesCount());
+
+    // Delete the Put, flush it and drop both in a major compaction.
+    Delete d = new Delete(rowName);
+    d.deleteColumns(big, qualifier);
+    region.delete(d, null, true);
+    addRegionEdits(Bytes.toBytes("filler"), big, 32, this.ee, region, "y",
+      new byte[1024]);
+    region.flushcache(false);
+    assertEquals(0, region.getStore(small).getStorefilesCount());
+    bigStore.triggerMajorCompaction();
+    region.compactStores();
+    assertEquals(1, bigStore.getStorefilesCount());
+    final Get g = new Get(rowName);
+    Result result = region.get(g, null);
+    assertEquals(1, result.size());
+
+    // 'Crash' the region by taking its wal and replay the edits.
+    wal.sync();
+    HBaseTestingUtility.setMaxRecoveryErrorCount(wal.getOutputStream(), 1);
+    final Configuration newConf = HBaseConfiguration.create(this.conf);
+    User user = HBaseTestingUtility.getDifferentUser(newConf, tableNameStr);
+    user.runAs(new PrivilegedExceptionAction() {
+      public Object run() throws Exception {
+        runWALSplit(newConf);
+        FileSystem newFS = FileSystem.get(newConf);
+        HLog wal2 = createWAL(newConf);
+        HRegion region2 = new HRegion(basedir, wal2, newFS, newConf, hri, htd, null);
+        long seqid2 = region2.initialize();
+        // HRegionServer usually does this. It knows the largest seqid across all regions.
+        wal2.setSequenceNumber(seqid2);
+        Result result2 = region2.get(g, null);
+        // The small store got its edit back, the deleted Put did not come back.
+        assertEquals(1, result2.size());
+        assertTrue(result2.containsColumn(small, qualifier));
+        assertFalse(result2.containsColumn(big, qualifier));
+        region2.close();
+        wal2.closeAndDelete();
+        return null;
+      }
+    });
+  }
+
   /**
    * Create an HRegion with the result of a HLog split and test we only see the
    * good edits
@@ -525,9 +611,14 @@ public class TestWALReplay {
 
     @Override
     public void requestFlush(HRegion region) {
+      requestFlush(region, true);
+    }
+
+    @Override
+    public void requestFlush(HRegion region, boolean flushAllStores) {
       count++;
       try {
-        r.flushcache();
+        r.flushcache(flushAllStores);
       } catch (IOException e) {
         throw new RuntimeException("Exception flushing", e);
       }
@@ -552,11 +643,18 @@ public class TestWALReplay {
   private void addRegionEdits (final byte [] rowName, final byte [] family,
       final int count, EnvironmentEdge ee, final HRegion r,
       final String qualifierPrefix)
+  throws IOException {
+    addRegionEdits(rowName, family, count, ee, r, qualifierPrefix, rowName);
+  }
+
+  private void addRegionEdits (final byte [] rowName, final byte [] family,
+      final int count, EnvironmentEdge ee, final HRegion r,
+      final String qualifierPrefix, final byte [] value)
   throws IOException {
     for (int j = 0; j < count; j++) {
       byte[] qualifier = Bytes.toBytes(qualifierPrefix + Integer.toString(j));
       Put p = new Put(rowName);
-      p.add(family, qualifier, ee.currentTimeMillis(), rowName);
+      p.add(family, qualifier, ee.currentTimeMillis(), value);
       r.put(p);
     }
   }
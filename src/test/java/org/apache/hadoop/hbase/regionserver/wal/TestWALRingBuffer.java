@@ -0,0 +1,190 @@
+/**
+ * Copyright 2012 The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests of the slot claiming, draining and sync completion of
+ * {@link WALRingBuffer}, without a real log underneath.
+ */
+@Category(SmallTests.class)
+public class TestWALRingBuffer {
+
+  @Test
+  public void testCapacityIsPowerOfTwo() {
+    assertEquals(8, new WALRingBuffer(5).getCapacity());
+    assertEquals(8, new WALRingBuffer(8).getCapacity());
+    assertEquals(2, new WALRingBuffer(0).getCapacity());
+  }
+
+  @Test
+  public void testDrainIsInSequenceOrder() throws Exception {
+    WALRingBuffer ring = new WALRingBuffer(8);
+    long first = ring.next();
+    long second = ring.next();
+    // Publishing out of order must not let the consumer skip ahead.
+    ring.publish(second, null, new HLogKey(), new WALEdit(), null, true);
+    List<WALRingBuffer.Slot> batch = new ArrayList<WALRingBuffer.Slot>();
+    assertEquals(0, ring.drainTo(batch, 8));
+    ring.publish(first, null, new HLogKey(), new WALEdit(), null, true);
+    assertEquals(2, ring.drainTo(batch, 8));
+    assertEquals(first, batch.get(0).getSequence());
+    assertEquals(second, batch.get(1).getSequence());
+    ring.complete(batch, null);
+    assertEquals(second, ring.getConsumed());
+    assertTrue(ring.await(first, 0));
+    assertTrue(ring.await(second, 0));
+  }
+
+  @Test
+  public void testFailedBatchIsReportedToWaiter() throws Exception {
+    WALRingBuffer ring = new WALRingBuffer(4);
+    long seq = ring.next();
+    ring.publish(seq, null, new HLogKey(), new WALEdit(), null, true);
+    List<WALRingBuffer.Slot> batch = new ArrayList<WALRingBuffer.Slot>();
+    ring.drainTo(batch, 4);
+    ring.complete(batch, new IOException("sync failed"));
+    try {
+      ring.await(seq, 0);
+      fail("Expected the sync failure to be rethrown");
+    } catch (IOException e) {
+      assertEquals("sync failed", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testFailureSurvivesSlotReuse() throws Exception {
+    WALRingBuffer ring = new WALRingBuffer(2);
+    List<WALRingBuffer.Slot> batch = new ArrayList<WALRingBuffer.Slot>();
+    long failed = ring.next();
+    ring.publish(failed, null, new HLogKey(), new WALEdit(), null, true);
+    ring.drainTo(batch, 2);
+    ring.complete(batch, new IOException("sync failed"));
+    batch.clear();
+
+    // fill the ring so the failed sequence's slot is reused and synced
+    long synced = 0;
+    for (int i = 0; i < ring.getCapacity(); i++) {
+      synced = ring.next();
+      ring.publish(synced, null, new HLogKey(), new WALEdit(), null, true);
+    }
+    ring.drainTo(batch, 2);
+    ring.complete(batch, null);
+    assertTrue(ring.await(synced, 0));
+
+    // the waiter on the failed sequence must not be told it was synced
+    try {
+      ring.await(failed, 0);
+      fail("Expected the sync failure to be rethrown after slot reuse");
+    } catch (IOException e) {
+      assertEquals("sync failed", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testAwaitTimesOutWhileUnsynced() throws Exception {
+    WALRingBuffer ring = new WALRingBuffer(4);
+    long seq = ring.next();
+    ring.publish(seq, null, new HLogKey(), new WALEdit(), null, true);
+    assertFalse(ring.await(seq, 10));
+  }
+
+  /**
+   * Many producers against a small ring; every sequence must be consumed
+   * exactly once and every waiter released.
+   */
+  @Test
+  public void testWrapAroundWithConcurrentProducers() throws Exception {
+    final WALRingBuffer ring = new WALRingBuffer(16);
+    final int producers = 8;
+    final int perProducer = 2000;
+    final AtomicLong consumedCount = new AtomicLong();
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        List<WALRingBuffer.Slot> batch = new ArrayList<WALRingBuffer.Slot>();
+        long expected = 1;
+        while (consumedCount.get() < producers * perProducer) {
+          if (ring.drainTo(batch, 16) == 0) {
+            ring.waitForPublish(10);
+            continue;
+          }
+          for (WALRingBuffer.Slot slot : batch) {
+            if (slot.getSequence() != expected++) {
+              synchronized (errors) {
+                errors.add(new AssertionError("Out of order slot " +
+                  slot.getSequence()));
+              }
+            }
+          }
+          consumedCount.addAndGet(batch.size());
+          ring.complete(batch, null);
+          batch.clear();
+        }
+      }
+    };
+    ring.setConsumerThread(consumer);
+    consumer.start();
+    Thread [] threads = new Thread[producers];
+    for (int i = 0; i < producers; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < perProducer; j++) {
+              long seq = ring.next();
+              ring.publish(seq, null, new HLogKey(), new WALEdit(), null, true);
+              while (!ring.await(seq, 1000)) {
+                // keep waiting
+              }
+            }
+          } catch (Throwable t) {
+            synchronized (errors) {
+              errors.add(t);
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    consumer.join();
+    assertTrue(errors.toString(), errors.isEmpty());
+    assertEquals(producers * perProducer, consumedCount.get());
+    assertEquals(producers * perProducer, ring.getConsumed());
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
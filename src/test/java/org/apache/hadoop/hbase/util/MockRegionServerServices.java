@@ -25,10 +25,12 @@ import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.catalog.CatalogTracker;
 import org.apache.hadoop.hbase.fs.HFileSystem;
 import org.apache.hadoop.hbase.ipc.RpcServer;
+import org.apache.hadoop.hbase.regionserver.BlockCacheWarmer;
 import org.apache.hadoop.hbase.regionserver.CompactionRequestor;
 import org.apache.hadoop.hbase.regionserver.FlushRequester;
 import org.apache.hadoop.hbase.regionserver.HRegion;
@@ -87,6 +89,11 @@ public class MockRegionServerServices implements RegionServerServices {
     return null;
   }
 
+  @Override
+  public HLog getWAL(HRegionInfo regionInfo) {
+    return null;
+  }
+
   @Override
   public RpcServer getRpcServer() {
     return null;
@@ -159,4 +166,9 @@ public class MockRegionServerServices implements RegionServerServices {
   public void setFileSystem(FileSystem hfs) {
     this.hfs = (HFileSystem)hfs;
   }
+
+  @Override
+  public BlockCacheWarmer getBlockCacheWarmer() {
+    return null;
+  }
 }